@@ -0,0 +1,47 @@
+package com.danikula.videocache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks appending data to {@link ByteArrayCache} of different size.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ByteArrayCacheBenchmark {
+
+    @Param({"0", "65536", "1048576"})
+    public int cachedSize;
+
+    private final byte[] chunk = new byte[8 * 1024];
+    private byte[] cachedData;
+    private ByteArrayCache cache;
+
+    @Setup(Level.Trial)
+    public void setupData() {
+        cachedData = new byte[cachedSize];
+    }
+
+    @Setup(Level.Invocation)
+    public void setupCache() {
+        cache = new ByteArrayCache(cachedData);
+    }
+
+    @Benchmark
+    public ByteArrayCache append() throws ProxyCacheException {
+        cache.append(chunk, chunk.length);
+        return cache;
+    }
+}
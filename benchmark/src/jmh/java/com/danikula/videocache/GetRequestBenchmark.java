@@ -0,0 +1,44 @@
+package com.danikula.videocache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks parsing of requests to proxy by {@link GetRequest}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GetRequestBenchmark {
+
+    private static final String REQUEST = "" +
+            "GET /https%3A%2F%2Fexample.com%2Fvideos%2F4367900%2F10807247.480p.mp4%3FExpires%3D1442849176 HTTP/1.1\n" +
+            "User-Agent: stagefright/1.2 (Linux;Android 7.0)\n" +
+            "Host: 127.0.0.1:44684\n" +
+            "Connection: Keep-Alive\n" +
+            "Range: bytes=9860723-\n" +
+            "Accept-Encoding: gzip\n" +
+            "\n";
+
+    private final byte[] requestBytes = REQUEST.getBytes();
+
+    @Benchmark
+    public GetRequest parse() {
+        return new GetRequest(REQUEST);
+    }
+
+    @Benchmark
+    public GetRequest read() throws IOException {
+        return GetRequest.read(new ByteArrayInputStream(requestBytes));
+    }
+}
@@ -0,0 +1,81 @@
+package com.danikula.videocache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal in-process http server that serves byte array with range support. Used as origin for benchmarks.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class LoopbackOrigin {
+
+    private final byte[] data;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    LoopbackOrigin(byte[] data) throws IOException {
+        this.data = data;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    String getUrl(String path) {
+        return String.format(Locale.US, "http://127.0.0.1:%d/%s", serverSocket.getLocalPort(), path);
+    }
+
+    void shutdown() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        try {
+            while (!serverSocket.isClosed()) {
+                final Socket socket = serverSocket.accept();
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // server is closed
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            GetRequest request = GetRequest.read(in);
+            int offset = (int) request.rangeOffset;
+            OutputStream out = socket.getOutputStream();
+            String headers = (request.partial ? "HTTP/1.1 206 PARTIAL CONTENT\r\n" : "HTTP/1.1 200 OK\r\n") +
+                    "Content-Type: video/mp4\r\n" +
+                    "Content-Length: " + (data.length - offset) + "\r\n" +
+                    (request.partial ? "Content-Range: bytes " + offset + "-" + (data.length - 1) + "/" + data.length + "\r\n" : "") +
+                    "Connection: close\r\n" +
+                    "\r\n";
+            out.write(headers.getBytes("UTF-8"));
+            out.write(data, offset, data.length - offset);
+            out.flush();
+        } catch (IOException e) {
+            // client closed connection
+        } finally {
+            ProxyCacheUtils.close(socket);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.FileCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks end-to-end downloading of content through {@link ProxyCacheServer} over loopback from in-process origin.
+ * <p>
+ * {@code cold} downloads content with empty cache, so every byte goes from origin through {@link FileCache} to client,
+ * {@code warm} downloads fully cached content.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProxyLoopbackBenchmark {
+
+    @Param({"1048576", "16777216"})
+    public int contentSize;
+
+    private final byte[] buffer = new byte[64 * 1024];
+    private LoopbackOrigin origin;
+    private String originUrl;
+    private File cacheDir;
+    private ProxyCacheServer proxy;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        byte[] content = new byte[contentSize];
+        new Random(0).nextBytes(content);
+        origin = new LoopbackOrigin(content);
+        originUrl = origin.getUrl("video.mp4");
+        cacheDir = File.createTempFile("benchmark", "");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        proxy = new ProxyCacheServer.Builder(cacheDir).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        proxy.shutdown();
+        origin.shutdown();
+        cleanCacheDir();
+        cacheDir.delete();
+    }
+
+    @Benchmark
+    public long cold() throws Exception {
+        cleanCacheDir();
+        return download();
+    }
+
+    @Benchmark
+    public long warm() throws Exception {
+        if (!proxy.isCached(originUrl)) {
+            download();
+        }
+        return download();
+    }
+
+    private long download() throws Exception {
+        String proxyUrl = proxy.getProxyUrl(originUrl, false);
+        HttpURLConnection connection = (HttpURLConnection) new URL(proxyUrl).openConnection(Proxy.NO_PROXY);
+        long total = 0;
+        try {
+            InputStream in = connection.getInputStream();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return total;
+    }
+
+    private void cleanCacheDir() {
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.ProxyCacheException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link FileCache}: appending data by source reader concurrently with reading by clients.
+ * Plain cache is compared with {@link EncryptedFileCache}.
+ * <p>
+ * Cache reaching 64 Mb is replaced by new one, so appending is measured during whole iteration. Replaced cache is
+ * closed on next replacement only, so readers still reading it don't fail.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FileCacheBenchmark {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final long MAX_CACHE_SIZE = 64 * 1024 * 1024;
+
+    @Param({"false", "true"})
+    public boolean encrypted;
+
+    private final byte[] data = new byte[CHUNK_SIZE];
+    private volatile FileCache fileCache;
+    private FileCache replacedCache;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException, ProxyCacheException {
+        new Random(0).nextBytes(data);
+        fileCache = newCache();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws ProxyCacheException {
+        release(fileCache);
+        release(replacedCache);
+        replacedCache = null;
+    }
+
+    private FileCache newCache() throws IOException, ProxyCacheException {
+        File file = File.createTempFile("benchmark", ".cache");
+        file.delete();
+        FileCache cache = encrypted ? new EncryptedFileCache(file, new UnlimitedDiskUsage(), newKey()) : new FileCache(file);
+        cache.append(data, data.length);
+        return cache;
+    }
+
+    private void release(FileCache cache) throws ProxyCacheException {
+        if (cache != null) {
+            cache.close();
+            cache.getFile().delete();
+        }
+    }
+
+    private byte[] newKey() {
+        byte[] key = new byte[16];
+        new Random(1).nextBytes(key);
+        return key;
+    }
+
+    @Benchmark
+    @Group("appendAndRead")
+    @GroupThreads(1)
+    public void append() throws IOException, ProxyCacheException {
+        FileCache cache = fileCache;
+        if (cache.available() >= MAX_CACHE_SIZE) {
+            release(replacedCache);
+            replacedCache = cache;
+            cache = newCache();
+            fileCache = cache;
+        }
+        cache.append(data, data.length);
+    }
+
+    @Benchmark
+    @Group("appendAndRead")
+    @GroupThreads(3)
+    public void read(ReaderState reader, Blackhole blackhole) throws ProxyCacheException {
+        FileCache cache = fileCache;
+        long available = cache.available();
+        long offset = reader.random.nextInt((int) Math.max(1, available - CHUNK_SIZE));
+        blackhole.consume(cache.read(reader.buffer, offset, CHUNK_SIZE));
+    }
+
+    @State(Scope.Thread)
+    public static class ReaderState {
+
+        final byte[] buffer = new byte[CHUNK_SIZE];
+        final Random random = new Random();
+    }
+}
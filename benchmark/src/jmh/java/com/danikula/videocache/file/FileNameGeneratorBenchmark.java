@@ -0,0 +1,38 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.ProxyCacheUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link FileNameGenerator} implementations.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FileNameGeneratorBenchmark {
+
+    private static final String URL = "https://d1wst0behutosd.cloudfront.net/videos/4367900/10807247.480p.mp4" +
+            "?Expires=1442849176&Key-Pair-Id=APKAJJ6WELAPEP47UKWQ";
+
+    private final FileNameGenerator md5FileNameGenerator = new Md5FileNameGenerator();
+
+    @Benchmark
+    public String md5() {
+        return md5FileNameGenerator.generate(URL);
+    }
+
+    @Benchmark
+    public String md5NotRemembered() {
+        return ProxyCacheUtils.computeMD5(URL);
+    }
+}
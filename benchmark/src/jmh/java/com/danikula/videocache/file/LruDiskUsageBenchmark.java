@@ -0,0 +1,66 @@
+package com.danikula.videocache.file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks trimming of cache folder by {@link LruDiskUsage} for folders with a lot of files.
+ * Limits are big enough to keep all files, so every invocation measures steady-state cost of single touch.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LruDiskUsageBenchmark {
+
+    @Param({"1000", "10000"})
+    public int filesCount;
+
+    private File directory;
+    private File[] files;
+    private int touchIndex;
+    private final LruDiskUsage diskUsage = new TotalSizeLruDiskUsage(Long.MAX_VALUE);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = File.createTempFile("benchmark", "lru");
+        directory.delete();
+        Files.makeDir(directory);
+        files = new File[filesCount];
+        byte[] data = new byte[1024];
+        for (int i = 0; i < filesCount; i++) {
+            files[i] = new File(directory, "file" + i);
+            FileOutputStream out = new FileOutputStream(files[i]);
+            out.write(data);
+            out.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public void touch() throws IOException {
+        touchIndex = (touchIndex + 1) % filesCount;
+        diskUsage.touchInBackground(files[touchIndex]);
+    }
+}
@@ -0,0 +1,189 @@
+package com.danikula.videocache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits bandwidth used for loading sources and shares it between sources loaded concurrently.
+ * <p>
+ * Every loading source reads through own token bucket ({@link Channel}). Rates of buckets are recomputed whenever set of
+ * sources changes: total bandwidth is shared by weights of sources' priority classes (foreground for sources requested by
+ * player, background for preloading and lingering sources), foreground source gets at least its media bitrate with margin,
+ * so playback stays ahead, and background sources share the rest limited by background bandwidth limit.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class BandwidthThrottle {
+
+    static final long UNLIMITED = Long.MAX_VALUE;
+
+    private static final float BITRATE_MARGIN = 1.5f;
+    private static final long MIN_BYTES_PER_SECOND = ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
+    private static final long BURST_MS = 100;
+    private static final long MAX_WAIT_MS = 100;    // rate of waiting channel can be changed
+
+    private final long maxBytesPerSecond;
+    private final long maxBackgroundBytesPerSecond;
+    private final int foregroundWeight;
+    private final int backgroundWeight;
+    private final List<Channel> channels = new ArrayList<>();
+
+    /**
+     * @param maxBytesPerSecond           max total bandwidth, {@link #UNLIMITED} for no limit.
+     * @param maxBackgroundBytesPerSecond max bandwidth of all background sources, {@link #UNLIMITED} for no limit.
+     * @param foregroundWeight            a weight of foreground source in share of total bandwidth.
+     * @param backgroundWeight            a weight of background source in share of total bandwidth.
+     */
+    BandwidthThrottle(long maxBytesPerSecond, long maxBackgroundBytesPerSecond, int foregroundWeight, int backgroundWeight) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.maxBackgroundBytesPerSecond = maxBackgroundBytesPerSecond;
+        this.foregroundWeight = foregroundWeight;
+        this.backgroundWeight = backgroundWeight;
+    }
+
+    boolean isLimited() {
+        return maxBytesPerSecond != UNLIMITED || maxBackgroundBytesPerSecond != UNLIMITED;
+    }
+
+    /**
+     * Opens channel for loading source.
+     *
+     * @param background {@code true} if source is loaded in background.
+     * @return a channel, must be closed when source isn't loaded anymore.
+     */
+    synchronized Channel open(boolean background) {
+        Channel channel = new Channel(background);
+        channels.add(channel);
+        reallocate();
+        return channel;
+    }
+
+    private synchronized void close(Channel channel) {
+        if (channels.remove(channel)) {
+            reallocate();
+        }
+    }
+
+    private synchronized void reallocate() {
+        int foregroundCount = 0;
+        for (Channel channel : channels) {
+            foregroundCount += channel.background ? 0 : 1;
+        }
+        int backgroundCount = channels.size() - foregroundCount;
+        long totalWeight = (long) foregroundCount * foregroundWeight + (long) backgroundCount * backgroundWeight;
+        long foregroundTotal = 0;
+        for (Channel channel : channels) {
+            if (!channel.background) {
+                long rate = getForegroundRate(channel, totalWeight);
+                channel.setBytesPerSecond(rate);
+                foregroundTotal = rate == UNLIMITED ? UNLIMITED : foregroundTotal + rate;
+            }
+        }
+        long backgroundTotal = maxBytesPerSecond == UNLIMITED ? UNLIMITED : Math.max(maxBytesPerSecond - foregroundTotal, 0);
+        backgroundTotal = Math.min(backgroundTotal, maxBackgroundBytesPerSecond);
+        for (Channel channel : channels) {
+            if (channel.background) {
+                long share = backgroundTotal / Math.max(backgroundCount, 1);
+                channel.setBytesPerSecond(backgroundTotal == UNLIMITED ? UNLIMITED : Math.max(share, MIN_BYTES_PER_SECOND));
+            }
+        }
+    }
+
+    private long getForegroundRate(Channel channel, long totalWeight) {
+        if (maxBytesPerSecond == UNLIMITED) {
+            return UNLIMITED;
+        }
+        long share = maxBytesPerSecond * foregroundWeight / totalWeight;
+        long required = Math.min((long) (channel.minBytesPerSecond * BITRATE_MARGIN), maxBytesPerSecond);
+        return Math.max(Math.max(share, required), MIN_BYTES_PER_SECOND);
+    }
+
+    /**
+     * Token bucket of single loading source.
+     */
+    final class Channel {
+
+        private boolean background;
+        private long minBytesPerSecond;
+        private long bytesPerSecond = UNLIMITED;
+        private double tokens;
+        private long refillTime = System.nanoTime();
+
+        private Channel(boolean background) {
+            this.background = background;
+        }
+
+        /**
+         * Changes priority class of source.
+         *
+         * @param background {@code true} if source is loaded in background.
+         */
+        void setBackground(boolean background) {
+            synchronized (BandwidthThrottle.this) {
+                if (this.background != background) {
+                    this.background = background;
+                    reallocate();
+                }
+            }
+        }
+
+        /**
+         * Sets bandwidth foreground source requires to stay ahead of playback.
+         *
+         * @param bytesPerSecond a media bitrate in bytes per second, not positive if it is unknown.
+         */
+        void setMinBytesPerSecond(long bytesPerSecond) {
+            synchronized (BandwidthThrottle.this) {
+                if (minBytesPerSecond != bytesPerSecond) {
+                    minBytesPerSecond = bytesPerSecond;
+                    reallocate();
+                }
+            }
+        }
+
+        /**
+         * Takes tokens for bytes read from source, waits while bucket is in debt.
+         *
+         * @param bytes a count of read bytes.
+         * @throws InterruptedException if thread is interrupted while waiting.
+         */
+        synchronized void acquire(int bytes) throws InterruptedException {
+            refill();
+            tokens -= bytes;
+            while (tokens < 0 && bytesPerSecond != UNLIMITED) {
+                long waitMs = (long) (-tokens * 1000 / bytesPerSecond) + 1;
+                wait(Math.min(waitMs, MAX_WAIT_MS));
+                refill();
+            }
+        }
+
+        void close() {
+            BandwidthThrottle.this.close(this);
+        }
+
+        synchronized long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        private synchronized void setBytesPerSecond(long bytesPerSecond) {
+            if (this.bytesPerSecond != bytesPerSecond) {
+                refill();
+                this.bytesPerSecond = bytesPerSecond;
+                notifyAll();
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            if (bytesPerSecond == UNLIMITED) {
+                tokens = 0;
+            } else {
+                double burst = Math.max(bytesPerSecond * BURST_MS / 1000, ProxyCacheUtils.DEFAULT_BUFFER_SIZE);
+                double elapsedSeconds = (double) (now - refillTime) / TimeUnit.SECONDS.toNanos(1);
+                tokens = Math.min(tokens + bytesPerSecond * elapsedSeconds, burst);
+            }
+            refillTime = now;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.LruDiskUsage;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of cached files and of urls that aren't fully cached, so {@link ProxyCacheServer#isCached(String)}
+ * doesn't check file system every time.
+ * <p>
+ * Cached files are indexed by file, because they are deleted by file: index is filled by listing of cache directory
+ * made on start, by completion of cache and by found files, file is removed from index when it is deleted by
+ * {@link LruDiskUsage} or its cache is cleared (e.g. content of source is changed). Files are indexed only while
+ * proxy knows all deletions, i.e. disk usage is {@link LruDiskUsage} or unlimited one. File deleted by application
+ * while proxy is running stays indexed.
+ * </p>
+ * Url found not cached is answered from memory until proxy completes its cache or until answer expires.
+ * Answer expires quickly, because file can be cached without this proxy knowing its url: by another url mapped
+ * to the same file by {@link com.danikula.videocache.file.FileNameGenerator}, by another proxy or by application.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class CachedUrls implements LruDiskUsage.DeletionListener {
+
+    private static final int MAX_URLS_COUNT = 1024;
+    static final long NOT_CACHED_EXPIRATION_MS = 1000;
+
+    private final boolean indexFiles;
+    private final Set<File> cachedFiles = new HashSet<>();
+    private Set<File> filesDroppedWhileListing;
+    private final Map<String, Long> notCachedUrls = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_URLS_COUNT;
+        }
+    };
+
+    /**
+     * @param indexFiles {@code true} if cached files can be indexed, i.e. all their deletions are reported to this index.
+     */
+    CachedUrls(boolean indexFiles) {
+        this.indexFiles = indexFiles;
+    }
+
+    /**
+     * Returns whether file is known as cached.
+     *
+     * @param file a cache file to be checked.
+     * @return {@code true} if file is indexed, {@code false} if it is unknown.
+     */
+    synchronized boolean isCached(File file) {
+        return cachedFiles.contains(file);
+    }
+
+    /**
+     * Returns whether url is known as not cached.
+     *
+     * @param url an url to be checked.
+     * @return {@code true} if url was found not cached recently, {@code false} if file of url should be checked.
+     */
+    synchronized boolean isNotCached(String url) {
+        Long checkTime = notCachedUrls.get(url);
+        if (checkTime == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - checkTime < NOT_CACHED_EXPIRATION_MS) {
+            return true;
+        }
+        notCachedUrls.remove(url);
+        return false;
+    }
+
+    /**
+     * Remembers that url isn't cached.
+     *
+     * @param url       an url checked.
+     * @param checkTime a time file of url was checked at, answer expires since this time.
+     */
+    synchronized void onNotCached(String url, long checkTime) {
+        notCachedUrls.put(url, checkTime);
+    }
+
+    /**
+     * Remembers that file exists.
+     *
+     * @param file a cache file found in file system.
+     */
+    synchronized void onCached(File file) {
+        if (indexFiles) {
+            cachedFiles.add(file);
+        }
+    }
+
+    synchronized void onCompleted(String url, File file) {
+        notCachedUrls.remove(url);
+        onCached(file);
+    }
+
+    /**
+     * Forgets file whose cache isn't completed any more, e.g. it is cleared because content of source is changed.
+     *
+     * @param file a cache file.
+     */
+    synchronized void onNotCompleted(File file) {
+        onDeleted(file);
+    }
+
+    @Override
+    public synchronized void onDeleted(File file) {
+        cachedFiles.remove(file);
+        if (filesDroppedWhileListing != null) {
+            filesDroppedWhileListing.add(file);
+        }
+    }
+
+    /**
+     * Starts collecting files dropped from index, so they are not indexed by listing that may have found them.
+     */
+    synchronized void onListingStarted() {
+        filesDroppedWhileListing = new HashSet<>();
+    }
+
+    /**
+     * Indexes cached files found by listing of cache directory.
+     *
+     * @param files completed cache files.
+     */
+    synchronized void onListed(List<File> files) {
+        for (File file : files) {
+            if (!filesDroppedWhileListing.contains(file)) {
+                onCached(file);
+            }
+        }
+        filesDroppedWhileListing = null;
+    }
+}
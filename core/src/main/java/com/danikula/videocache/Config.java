@@ -0,0 +1,117 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.CacheDirectory;
+import com.danikula.videocache.file.DiskUsage;
+import com.danikula.videocache.file.EncryptionKeyProvider;
+import com.danikula.videocache.file.FileNameGenerator;
+import com.danikula.videocache.file.RenditionGroups;
+import com.danikula.videocache.headers.HeaderInjector;
+import com.danikula.videocache.mirrors.MirrorsProvider;
+import com.danikula.videocache.sourcestorage.SourceInfoStorage;
+import com.danikula.videocache.transport.OriginTransport;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Configuration for proxy cache.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+class Config {
+
+    public final CacheDirectory cacheDirectory;
+    public final FileNameGenerator fileNameGenerator;
+    public final DiskUsage diskUsage;
+    public final EncryptionKeyProvider encryptionKeyProvider;
+    public final RenditionGroups renditionGroups;
+    public final BandwidthThrottle bandwidthThrottle;
+    public final SourceInfoStorage sourceInfoStorage;
+    public final HeaderInjector headerInjector;
+    public final MirrorsProvider mirrorsProvider;
+    public final MirrorSelector mirrorSelector;
+    public final RedirectCache redirectCache;
+    public final CachedUrls cachedUrls;
+    public final OriginTransport transport;
+    public final List<SourceFactory> sourceFactories;
+    public final Executor callbackExecutor;
+    public final int socketWorkersCount;
+    public final int preloadWorkersCount;
+    public final int socketBacklog;
+    public final int maxClientsPerUrl;
+    public final int maxRequestsInFlight;
+    public final int prefetchSegments;
+    public final boolean raceFarSeeks;
+    public final boolean lazyStart;
+    public final long readAheadBytes;
+    public final long readAheadMs;
+    public final long lingerMs;
+    public final long lingerReadAhead;
+    public final long sourceRetryTimeoutMs;
+
+    Config(CacheDirectory cacheDirectory, FileNameGenerator fileNameGenerator, DiskUsage diskUsage, EncryptionKeyProvider encryptionKeyProvider,
+           RenditionGroups renditionGroups,
+           BandwidthThrottle bandwidthThrottle, SourceInfoStorage sourceInfoStorage,
+           HeaderInjector headerInjector, MirrorsProvider mirrorsProvider, MirrorSelector mirrorSelector,
+           RedirectCache redirectCache, CachedUrls cachedUrls, OriginTransport transport,
+           List<SourceFactory> sourceFactories, Executor callbackExecutor, int socketWorkersCount, int preloadWorkersCount, int socketBacklog,
+           int maxClientsPerUrl, int maxRequestsInFlight, int prefetchSegments, boolean raceFarSeeks, boolean lazyStart,
+           long readAheadBytes, long readAheadMs, long lingerMs, long lingerReadAhead,
+           long sourceRetryTimeoutMs) {
+        this.cacheDirectory = cacheDirectory;
+        this.fileNameGenerator = fileNameGenerator;
+        this.diskUsage = diskUsage;
+        this.encryptionKeyProvider = encryptionKeyProvider;
+        this.renditionGroups = renditionGroups;
+        this.bandwidthThrottle = bandwidthThrottle;
+        this.sourceInfoStorage = sourceInfoStorage;
+        this.headerInjector = headerInjector;
+        this.mirrorsProvider = mirrorsProvider;
+        this.mirrorSelector = mirrorSelector;
+        this.redirectCache = redirectCache;
+        this.cachedUrls = cachedUrls;
+        this.transport = transport;
+        this.sourceFactories = sourceFactories;
+        this.callbackExecutor = callbackExecutor;
+        this.socketWorkersCount = socketWorkersCount;
+        this.preloadWorkersCount = preloadWorkersCount;
+        this.socketBacklog = socketBacklog;
+        this.maxClientsPerUrl = maxClientsPerUrl;
+        this.maxRequestsInFlight = maxRequestsInFlight;
+        this.prefetchSegments = prefetchSegments;
+        this.raceFarSeeks = raceFarSeeks;
+        this.lazyStart = lazyStart;
+        this.readAheadBytes = readAheadBytes;
+        this.readAheadMs = readAheadMs;
+        this.lingerMs = lingerMs;
+        this.lingerReadAhead = lingerReadAhead;
+        this.sourceRetryTimeoutMs = sourceRetryTimeoutMs;
+    }
+
+    File generateCacheFile(String url) {
+        String name = fileNameGenerator.generate(url);
+        return cacheDirectory.getFile(name);
+    }
+
+    /**
+     * Creates source of url by the first {@link SourceFactory} supporting it or http source otherwise,
+     * http source uses configured transport, mirrors and redirect cache.
+     *
+     * @param url               an url of source.
+     * @param sourceInfoStorage a storage of source info to be used by http source.
+     * @return a new closed source.
+     * @throws ProxyCacheException if source factory fails creating source.
+     */
+    UrlSource newSource(String url, SourceInfoStorage sourceInfoStorage) throws ProxyCacheException {
+        for (SourceFactory sourceFactory : sourceFactories) {
+            UrlSource source = sourceFactory.newSource(url);
+            if (source != null) {
+                return source;
+            }
+        }
+        return new HttpUrlSource(url, sourceInfoStorage, headerInjector,
+                mirrorsProvider.getMirrors(url), mirrorSelector, redirectCache, transport);
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.danikula.videocache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * MD5 digest of source's content calculated while source is read into cache.
+ * <p>
+ * Digest is known only if all content was read sequentially from the beginning. Content partially loaded another way
+ * (e.g. by previous run of application or as range for seek) isn't read again for digest, such content is verified
+ * by checksums of chunks only.
+ * </p>
+ * Also parses MD5 digests declared by origin: {@code Content-MD5}, {@code Digest: md5=...} and
+ * ETag looking like hex MD5 (e.g. ETag of Amazon S3 object).
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class ContentDigest {
+
+    private static final long UNKNOWN = -1;
+    private static final Pattern DIGEST_MD5_PATTERN = Pattern.compile("(?:^|,)\\s*md5=([A-Za-z0-9+/]{22}(?:==)?)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern HEX_MD5_PATTERN = Pattern.compile("\"?([0-9a-fA-F]{32})\"?");
+    private static final Pattern BASE64_MD5_PATTERN = Pattern.compile("[A-Za-z0-9+/]{22}(?:==)?");
+    private static final String BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    private static final int MD5_LENGTH = 16;
+
+    private final MessageDigest md5;
+    private long digestedLength = UNKNOWN;
+
+    ContentDigest() {
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Starts digest of content from the beginning.
+     */
+    void reset() {
+        md5.reset();
+        digestedLength = 0;
+    }
+
+    /**
+     * Digests data read from source, digest becomes unknown if data doesn't continue digested data.
+     *
+     * @param offset an offset of data in source.
+     * @param data   a data read from source.
+     * @param length a length of data in buffer.
+     */
+    void update(long offset, byte[] data, int length) {
+        if (digestedLength != offset) {
+            digestedLength = UNKNOWN;
+        } else {
+            md5.update(data, 0, length);
+            digestedLength += length;
+        }
+    }
+
+    /**
+     * Completes digest, it is unknown until {@link #reset()} after this call.
+     *
+     * @param contentLength a length of source.
+     * @return lowercase hex MD5 of content or {@code null} if not all content was digested.
+     */
+    String complete(long contentLength) {
+        boolean digested = digestedLength == contentLength;
+        digestedLength = UNKNOWN;
+        return digested ? ProxyCacheUtils.bytesToHexString(md5.digest()) : null;
+    }
+
+    /**
+     * Returns MD5 of content declared by origin.
+     *
+     * @param contentMd5 a value of {@code Content-MD5} header of response with whole content, {@code null} otherwise.
+     * @param digest     a value of {@code Digest} header, may be {@code null}.
+     * @param etag       a value of {@code ETag} header, may be {@code null}.
+     * @return lowercase hex MD5 or {@code null} if origin doesn't declare it.
+     */
+    static String parseMd5(String contentMd5, String digest, String etag) {
+        if (contentMd5 != null && BASE64_MD5_PATTERN.matcher(contentMd5.trim()).matches()) {
+            return base64ToHex(contentMd5.trim());
+        }
+        Matcher digestMatcher = digest == null ? null : DIGEST_MD5_PATTERN.matcher(digest);
+        if (digestMatcher != null && digestMatcher.find()) {
+            return base64ToHex(digestMatcher.group(1));
+        }
+        Matcher etagMatcher = etag == null ? null : HEX_MD5_PATTERN.matcher(etag.trim());
+        if (etagMatcher != null && etagMatcher.matches()) {
+            return etagMatcher.group(1).toLowerCase(Locale.US);
+        }
+        return null;
+    }
+
+    private static String base64ToHex(String base64) {
+        byte[] bytes = new byte[MD5_LENGTH];
+        int bits = 0;
+        int bitsCount = 0;
+        int length = 0;
+        for (int i = 0; i < base64.length() && base64.charAt(i) != '=' && length < MD5_LENGTH; i++) {
+            bits = (bits << 6) | BASE64_ALPHABET.indexOf(base64.charAt(i));
+            bitsCount += 6;
+            if (bitsCount >= 8) {
+                bitsCount -= 8;
+                bytes[length++] = (byte) (bits >> bitsCount);
+            }
+        }
+        return ProxyCacheUtils.bytesToHexString(bytes);
+    }
+}
@@ -0,0 +1,37 @@
+package com.danikula.videocache;
+
+/**
+ * Indicates that cached data doesn't match its checksum or digest declared by origin,
+ * so corrupted region should be loaded from source again.
+ *
+ * @author Alexey Danilov
+ */
+public class CorruptedCacheException extends ProxyCacheException {
+
+    private final long offset;
+    private final long length;
+
+    public CorruptedCacheException(String message, long offset, long length) {
+        super(message);
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Returns offset of corrupted region.
+     *
+     * @return offset of the first corrupted byte.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns length of corrupted region.
+     *
+     * @return count of bytes to be loaded from source again.
+     */
+    public long getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,529 @@
+package com.danikula.videocache;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * DASH manifest (MPD) with urls rewritten to be loaded through proxy, and representations described in it.
+ * <p>
+ * All urls in manifest are made absolute and converted to "path style" proxy urls
+ * {@code http://127.0.0.1:port/dash/<encoded directory url>/<file>}: unlike usual proxy urls they keep file part as is,
+ * so player is still able to substitute {@code $Number$}, {@code $Time$}, etc in segment templates
+ * and to resolve relative urls. Segment templates are pushed down to representations, because
+ * template's urls are resolved against representation's {@code BaseURL}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class DashManifest {
+
+    private static final String MANIFEST_EXTENSION = "mpd";
+    private static final String PROXY_PATH = "dash/";
+    private static final int MAX_TIMELINE_SEGMENTS = 100000;
+    private static final Pattern TEMPLATE_IDENTIFIER_PATTERN = Pattern.compile("\\$(RepresentationID|Bandwidth|Number|Time)(%0(\\d+)d)?\\$");
+    private static final Pattern DURATION_PATTERN = Pattern.compile("P(?:(\\d+)D)?(?:T(?:(\\d+)H)?(?:(\\d+)M)?(?:([\\d.]+)S)?)?");
+    private static final Pattern DOCTYPE_PATTERN = Pattern.compile("<!DOCTYPE", Pattern.CASE_INSENSITIVE);
+
+    public final String content;
+    public final List<Representation> representations;
+
+    private DashManifest(String content, List<Representation> representations) {
+        this.content = content;
+        this.representations = Collections.unmodifiableList(representations);
+    }
+
+    static boolean isManifestUrl(String url) {
+        return MANIFEST_EXTENSION.equals(ProxyCacheUtils.getFileExtensionFromUrl(url));
+    }
+
+    static boolean isProxyPath(String uri) {
+        return uri.startsWith(PROXY_PATH);
+    }
+
+    /**
+     * Converts path of "path style" proxy url (without leading slash) back to original url.
+     *
+     * @param uri a path of proxy url, {@link #isProxyPath(String)} must return {@code true} for it.
+     * @return an original url.
+     */
+    static String toOriginalUrl(String uri) {
+        int separatorIndex = uri.indexOf('/', PROXY_PATH.length());
+        if (separatorIndex == -1) {
+            return ProxyCacheUtils.decode(uri.substring(PROXY_PATH.length()));
+        }
+        String directoryUrl = ProxyCacheUtils.decode(uri.substring(PROXY_PATH.length(), separatorIndex));
+        return directoryUrl + uri.substring(separatorIndex + 1);
+    }
+
+    static String toProxyUrl(String proxyUrlPrefix, String url) {
+        int templateIndex = url.indexOf('$');
+        int queryIndex = url.indexOf('?');
+        int end = templateIndex == -1 ? queryIndex : queryIndex == -1 ? templateIndex : Math.min(templateIndex, queryIndex);
+        int directoryEnd = url.lastIndexOf('/', end == -1 ? url.length() - 1 : end - 1) + 1;
+        String directory = url.substring(0, directoryEnd);
+        return proxyUrlPrefix + PROXY_PATH + ProxyCacheUtils.encode(directory) + "/" + url.substring(directoryEnd);
+    }
+
+    /**
+     * Parses manifest and rewrites its urls to proxy urls.
+     *
+     * @param manifest       an original manifest.
+     * @param manifestUrl    an url manifest is loaded from (after redirects), relative urls are resolved against it.
+     * @param proxyUrlPrefix a prefix of proxy url like {@code http://127.0.0.1:port/}.
+     * @return rewritten manifest with its representations.
+     * @throws ProxyCacheException if manifest or url in it is invalid.
+     */
+    static DashManifest rewrite(String manifest, String manifestUrl, String proxyUrlPrefix) throws ProxyCacheException {
+        try {
+            return rewrite(parse(manifest), manifestUrl, proxyUrlPrefix);
+        } catch (NumberFormatException e) {
+            throw new ProxyCacheException("Invalid number in DASH manifest", e);
+        }
+    }
+
+    private static DashManifest rewrite(Document document, String manifestUrl, String proxyUrlPrefix) throws ProxyCacheException {
+        Element mpd = document.getDocumentElement();
+        List<Representation> representations = new ArrayList<>();
+        URL mpdBaseUrl = rewriteBaseUrls(mpd, toUrl(null, manifestUrl), proxyUrlPrefix);
+        double mpdDuration = parseDuration(mpd.getAttribute("mediaPresentationDuration"));
+        int adaptationSetIndex = 0;
+        for (Element period : children(mpd, "Period")) {
+            URL periodBaseUrl = rewriteBaseUrls(period, mpdBaseUrl, proxyUrlPrefix);
+            double periodDuration = period.hasAttribute("duration") ? parseDuration(period.getAttribute("duration")) : mpdDuration;
+            for (Element adaptationSet : children(period, "AdaptationSet")) {
+                URL adaptationSetBaseUrl = rewriteBaseUrls(adaptationSet, periodBaseUrl, proxyUrlPrefix);
+                rewriteSegmentList(adaptationSet, adaptationSetBaseUrl, proxyUrlPrefix);
+                Element segmentBase = child(adaptationSet, "SegmentBase");
+                if (segmentBase != null) {
+                    rewriteSourceUrls(segmentBase, adaptationSetBaseUrl, proxyUrlPrefix);
+                }
+                List<Element> adaptationSetRepresentations = children(adaptationSet, "Representation");
+                for (Element representation : adaptationSetRepresentations) {
+                    URL baseUrl = rewriteBaseUrls(representation, adaptationSetBaseUrl, proxyUrlPrefix);
+                    Element[] levels = {representation, adaptationSet, period};
+                    int rank = rankByBandwidth(representation, adaptationSetRepresentations);
+                    representations.add(parseRepresentation(levels, baseUrl, periodDuration, proxyUrlPrefix, adaptationSetIndex, rank));
+                }
+                adaptationSetIndex++;
+            }
+        }
+        return new DashManifest(serialize(document), representations);
+    }
+
+    private static int rankByBandwidth(Element representation, List<Element> adaptationSetRepresentations) {
+        long bandwidth = getBandwidth(representation);
+        int rank = 0;
+        for (Element other : adaptationSetRepresentations) {
+            if (getBandwidth(other) < bandwidth) {
+                rank++;
+            }
+        }
+        return rank;
+    }
+
+    private static long getBandwidth(Element representation) {
+        String bandwidth = representation.getAttribute("bandwidth");
+        return bandwidth.isEmpty() ? 0 : Long.parseLong(bandwidth);
+    }
+
+    private static Representation parseRepresentation(Element[] levels, URL baseUrl, double duration, String proxyUrlPrefix,
+            int adaptationSet, int rank) throws ProxyCacheException {
+        Element representation = levels[0];
+        String id = representation.getAttribute("id");
+        String bandwidth = representation.getAttribute("bandwidth");
+        Element segmentBase = inheritedChild(levels, "SegmentBase");
+        if (segmentBase != null) {
+            if (segmentBase.getParentNode() == representation) {
+                rewriteSourceUrls(segmentBase, baseUrl, proxyUrlPrefix);
+            }
+            long headLength = Math.max(parseRangeEnd(segmentBase.getAttribute("indexRange")),
+                    parseRangeEnd(attribute(child(segmentBase, "Initialization"), "range"))) + 1;
+            return new Representation(id, adaptationSet, rank, null, null, baseUrl.toString(), headLength);
+        }
+        Element segmentList = child(representation, "SegmentList");
+        if (segmentList != null) {
+            String initializationUrl = resolve(baseUrl, attribute(child(segmentList, "Initialization"), "sourceURL"));
+            List<String> segmentUrls = rewriteSegmentList(representation, baseUrl, proxyUrlPrefix);
+            return new Representation(id, adaptationSet, rank, initializationUrl, new SegmentSequence(segmentUrls), null, 0);
+        }
+        String media = inheritedTemplateAttribute(levels, "media");
+        if (media.isEmpty()) {
+            return new Representation(id, adaptationSet, rank, null, null, baseUrl.toString(), 0);   // single file representation
+        }
+        Element template = child(representation, "SegmentTemplate");
+        if (template == null) {
+            template = representation.getOwnerDocument().createElementNS(representation.getNamespaceURI(), "SegmentTemplate");
+            representation.insertBefore(template, child(representation, "SubRepresentation"));
+        }
+        String mediaTemplate = resolveTemplate(baseUrl, media, id, bandwidth);
+        String initialization = inheritedTemplateAttribute(levels, "initialization");
+        String initializationUrl = initialization.isEmpty() ? null : resolveTemplate(baseUrl, initialization, id, bandwidth);
+        String index = inheritedTemplateAttribute(levels, "index");
+        template.setAttribute("media", toProxyUrl(proxyUrlPrefix, mediaTemplate));
+        if (initializationUrl != null) {
+            template.setAttribute("initialization", toProxyUrl(proxyUrlPrefix, initializationUrl));
+        }
+        if (!index.isEmpty()) {
+            template.setAttribute("index", toProxyUrl(proxyUrlPrefix, resolveTemplate(baseUrl, index, id, bandwidth)));
+        }
+        return new Representation(id, adaptationSet, rank, initializationUrl, parseTemplateSequence(levels, mediaTemplate, duration), null, 0);
+    }
+
+    private static SegmentSequence parseTemplateSequence(Element[] levels, String mediaTemplate, double duration) {
+        String startNumberValue = inheritedTemplateAttribute(levels, "startNumber");
+        long startNumber = startNumberValue.isEmpty() ? 1 : Long.parseLong(startNumberValue);
+        String timescaleValue = inheritedTemplateAttribute(levels, "timescale");
+        long timescale = timescaleValue.isEmpty() ? 1 : Long.parseLong(timescaleValue);
+        Element timeline = inheritedTemplateTimeline(levels);
+        if (timeline != null) {
+            long[] times = parseTimeline(timeline, (long) (duration * timescale));
+            return new SegmentSequence(mediaTemplate, startNumber, times, times.length);
+        }
+        String segmentDurationValue = inheritedTemplateAttribute(levels, "duration");
+        long count = -1;
+        if (!segmentDurationValue.isEmpty() && duration > 0) {
+            double segmentDuration = Double.parseDouble(segmentDurationValue) / timescale;
+            count = (long) Math.ceil(duration / segmentDuration);
+        }
+        return new SegmentSequence(mediaTemplate, startNumber, null, count);
+    }
+
+    private static long[] parseTimeline(Element timeline, long periodEndTime) {
+        long[] times = new long[16];
+        int count = 0;
+        long time = 0;
+        List<Element> entries = children(timeline, "S");
+        for (int i = 0; i < entries.size(); i++) {
+            Element entry = entries.get(i);
+            time = entry.hasAttribute("t") ? Long.parseLong(entry.getAttribute("t")) : time;
+            long duration = Long.parseLong(entry.getAttribute("d"));
+            long repeat = entry.hasAttribute("r") ? Long.parseLong(entry.getAttribute("r")) : 0;
+            long endTime = repeat >= 0 ? Long.MAX_VALUE
+                    : i + 1 < entries.size() && entries.get(i + 1).hasAttribute("t") ? Long.parseLong(entries.get(i + 1).getAttribute("t"))
+                    : periodEndTime;
+            for (long r = 0; (repeat < 0 ? time < endTime : r <= repeat) && count < MAX_TIMELINE_SEGMENTS; r++) {
+                if (count == times.length) {
+                    times = Arrays.copyOf(times, times.length * 2);
+                }
+                times[count++] = time;
+                time += duration;
+            }
+        }
+        return Arrays.copyOf(times, count);
+    }
+
+    private static URL rewriteBaseUrls(Element element, URL parentBaseUrl, String proxyUrlPrefix) throws ProxyCacheException {
+        URL baseUrl = parentBaseUrl;
+        List<Element> baseUrlElements = children(element, "BaseURL");
+        for (int i = 0; i < baseUrlElements.size(); i++) {
+            Element baseUrlElement = baseUrlElements.get(i);
+            URL url = toUrl(parentBaseUrl, baseUrlElement.getTextContent().trim());
+            baseUrl = i == 0 ? url : baseUrl;   // alternative base urls are rewritten, but first one is used for parsing
+            baseUrlElement.setTextContent(toProxyUrl(proxyUrlPrefix, url.toString()));
+        }
+        boolean isRoot = element.getParentNode() instanceof Document;
+        if (isRoot && baseUrlElements.isEmpty()) {
+            Element baseUrlElement = element.getOwnerDocument().createElementNS(element.getNamespaceURI(), "BaseURL");
+            baseUrlElement.setTextContent(toProxyUrl(proxyUrlPrefix, parentBaseUrl.toString()));
+            element.insertBefore(baseUrlElement, element.getFirstChild());
+        }
+        return baseUrl;
+    }
+
+    private static List<String> rewriteSegmentList(Element element, URL baseUrl, String proxyUrlPrefix) throws ProxyCacheException {
+        List<String> segmentUrls = new ArrayList<>();
+        Element segmentList = child(element, "SegmentList");
+        if (segmentList != null) {
+            rewriteSourceUrls(segmentList, baseUrl, proxyUrlPrefix);
+            for (Element segmentUrl : children(segmentList, "SegmentURL")) {
+                String media = resolve(baseUrl, segmentUrl.getAttribute("media"));
+                segmentUrls.add(media != null ? media : baseUrl.toString());
+                rewriteUrlAttribute(segmentUrl, "media", baseUrl, proxyUrlPrefix);
+                rewriteUrlAttribute(segmentUrl, "index", baseUrl, proxyUrlPrefix);
+            }
+        }
+        return segmentUrls;
+    }
+
+    private static void rewriteSourceUrls(Element segmentInfo, URL baseUrl, String proxyUrlPrefix) throws ProxyCacheException {
+        for (String childName : new String[]{"Initialization", "RepresentationIndex"}) {
+            Element child = child(segmentInfo, childName);
+            if (child != null) {
+                rewriteUrlAttribute(child, "sourceURL", baseUrl, proxyUrlPrefix);
+            }
+        }
+    }
+
+    private static void rewriteUrlAttribute(Element element, String name, URL baseUrl, String proxyUrlPrefix) throws ProxyCacheException {
+        String url = resolve(baseUrl, element.getAttribute(name));
+        if (url != null) {
+            element.setAttribute(name, toProxyUrl(proxyUrlPrefix, url));
+        }
+    }
+
+    private static String resolveTemplate(URL baseUrl, String template, String representationId, String bandwidth)
+            throws ProxyCacheException {
+        StringBuffer resolved = new StringBuffer();
+        Matcher matcher = TEMPLATE_IDENTIFIER_PATTERN.matcher(template);
+        while (matcher.find()) {
+            String identifier = matcher.group(1);
+            String value = "RepresentationID".equals(identifier) ? representationId
+                    : "Bandwidth".equals(identifier) ? format(Long.parseLong(bandwidth), matcher.group(3))
+                    : matcher.group();  // $Number$ and $Time$ are substituted for every segment
+            matcher.appendReplacement(resolved, Matcher.quoteReplacement(value));
+        }
+        matcher.appendTail(resolved);
+        return toUrl(baseUrl, resolved.toString()).toString();
+    }
+
+    private static String inheritedTemplateAttribute(Element[] levels, String name) {
+        for (Element level : levels) {
+            Element template = child(level, "SegmentTemplate");
+            if (template != null && template.hasAttribute(name)) {
+                return template.getAttribute(name);
+            }
+        }
+        return "";
+    }
+
+    private static Element inheritedChild(Element[] levels, String name) {
+        for (Element level : levels) {
+            Element child = child(level, name);
+            if (child != null) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    private static Element inheritedTemplateTimeline(Element[] levels) {
+        for (Element level : levels) {
+            Element timeline = child(child(level, "SegmentTemplate"), "SegmentTimeline");
+            if (timeline != null) {
+                return timeline;
+            }
+        }
+        return null;
+    }
+
+    private static String resolve(URL baseUrl, String url) throws ProxyCacheException {
+        return url == null || url.isEmpty() ? null : toUrl(baseUrl, url).toString();
+    }
+
+    private static long parseRangeEnd(String range) {
+        int dashIndex = range == null ? -1 : range.indexOf('-');
+        return dashIndex == -1 ? -1 : Long.parseLong(range.substring(dashIndex + 1).trim());
+    }
+
+    static double parseDuration(String duration) {
+        Matcher matcher = DURATION_PATTERN.matcher(duration);
+        if (duration.isEmpty() || !matcher.matches()) {
+            return -1;
+        }
+        return parseOrZero(matcher.group(1)) * 24 * 3600 + parseOrZero(matcher.group(2)) * 3600 +
+                parseOrZero(matcher.group(3)) * 60 + parseOrZero(matcher.group(4));
+    }
+
+    private static double parseOrZero(String value) {
+        return value == null ? 0 : Double.parseDouble(value);
+    }
+
+    private static String format(long value, String width) {
+        return width == null ? String.valueOf(value) : String.format(Locale.US, "%0" + width + "d", value);
+    }
+
+    private static String attribute(Element element, String name) {
+        return element == null ? null : element.getAttribute(name);
+    }
+
+    private static Element child(Element parent, String name) {
+        List<Element> children = parent == null ? Collections.<Element>emptyList() : children(parent, name);
+        return children.isEmpty() ? null : children.get(0);
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> children = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            String nodeName = node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+            if (node.getNodeType() == Node.ELEMENT_NODE && name.equals(nodeName)) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    private static URL toUrl(URL baseUrl, String url) throws ProxyCacheException {
+        try {
+            return ProxyCacheUtils.resolveUrl(baseUrl, url);
+        } catch (MalformedURLException e) {
+            throw new ProxyCacheException("Invalid url in DASH manifest: " + url, e);
+        }
+    }
+
+    /**
+     * Parses manifest loaded from network. DTDs are not allowed, so manifest can't refer external entities (XXE)
+     * or expand entities recursively. Parser features are set where supported (android's parser doesn't support them
+     * and doesn't load external entities anyway), DOCTYPE is rejected explicitly for any parser.
+     */
+    private static Document parse(String manifest) throws ProxyCacheException {
+        if (DOCTYPE_PATTERN.matcher(manifest).find()) {
+            throw new ProxyCacheException("DASH manifest with DOCTYPE is rejected");
+        }
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setExpandEntityReferences(false);
+            setFeatureIfSupported(factory, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            setFeatureIfSupported(factory, "http://apache.org/xml/features/disallow-doctype-decl", true);
+            setFeatureIfSupported(factory, "http://xml.org/sax/features/external-general-entities", false);
+            setFeatureIfSupported(factory, "http://xml.org/sax/features/external-parameter-entities", false);
+            setFeatureIfSupported(factory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            builder.setErrorHandler(new DefaultHandler()); // throw on fatal errors instead of printing them to stderr
+            return builder.parse(new InputSource(new StringReader(manifest)));
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new ProxyCacheException("Error parsing DASH manifest", e);
+        }
+    }
+
+    private static void setFeatureIfSupported(DocumentBuilderFactory factory, String feature, boolean value) {
+        try {
+            factory.setFeature(feature, value);
+        } catch (ParserConfigurationException e) {
+            // parser doesn't support feature, DOCTYPE is rejected before parsing anyway
+        }
+    }
+
+    private static String serialize(Document document) throws ProxyCacheException {
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            StringWriter writer = new StringWriter();
+            transformer.transform(new DOMSource(document), new StreamResult(writer));
+            return writer.toString();
+        } catch (TransformerException e) {
+            throw new ProxyCacheException("Error writing DASH manifest", e);
+        }
+    }
+
+    /**
+     * Representation of DASH manifest: either single file (optionally with index to be prefetched)
+     * or initialization segment with sequence of media segments.
+     */
+    static final class Representation {
+
+        final String id;
+        final int adaptationSet;
+        final int rank;
+        final String initializationUrl;
+        final SegmentSequence segments;
+        final String fileUrl;
+        final long headLength;
+
+        Representation(String id, int adaptationSet, int rank, String initializationUrl, SegmentSequence segments, String fileUrl,
+                long headLength) {
+            this.id = id;
+            this.adaptationSet = adaptationSet;
+            this.rank = rank;
+            this.initializationUrl = initializationUrl;
+            this.segments = segments;
+            this.fileUrl = fileUrl;
+            this.headLength = headLength;
+        }
+    }
+
+    /**
+     * Media segments of representation: explicit list of urls or segment template with {@code $Number$} or {@code $Time$}.
+     */
+    static final class SegmentSequence {
+
+        private final List<String> urls;
+        private final String template;
+        private final Pattern templatePattern;
+        private final String valueWidth;
+        private final long startNumber;
+        private final long[] times;
+        private final long count;
+
+        SegmentSequence(List<String> urls) {
+            this.urls = urls;
+            this.template = null;
+            this.templatePattern = null;
+            this.valueWidth = null;
+            this.startNumber = 0;
+            this.times = null;
+            this.count = urls.size();
+        }
+
+        SegmentSequence(String template, long startNumber, long[] times, long count) {
+            Matcher matcher = TEMPLATE_IDENTIFIER_PATTERN.matcher(template);
+            boolean hasIdentifier = matcher.find();
+            this.urls = null;
+            this.template = template;
+            this.templatePattern = !hasIdentifier ? null : Pattern.compile(Pattern.quote(template.substring(0, matcher.start())) +
+                    "(\\d+)" + Pattern.quote(template.substring(matcher.end())));
+            this.valueWidth = hasIdentifier ? matcher.group(3) : null;
+            this.startNumber = startNumber;
+            this.times = times;
+            this.count = count;
+        }
+
+        /**
+         * Returns count of segments.
+         *
+         * @return count of segments or {@code -1} if it is unknown (e.g. for live stream).
+         */
+        long count() {
+            return count;
+        }
+
+        String url(long index) {
+            if (urls != null) {
+                return urls.get((int) index);
+            }
+            long value = times != null ? times[(int) index] : startNumber + index;
+            Matcher matcher = TEMPLATE_IDENTIFIER_PATTERN.matcher(template);
+            return matcher.find() ? template.substring(0, matcher.start()) + format(value, valueWidth) + template.substring(matcher.end()) : template;
+        }
+
+        long indexOf(String url) {
+            if (urls != null) {
+                return urls.indexOf(url);
+            }
+            Matcher matcher = templatePattern == null ? null : templatePattern.matcher(url);
+            if (matcher == null || !matcher.matches()) {
+                return -1;
+            }
+            long value = Long.parseLong(matcher.group(1));
+            long index = times != null ? Arrays.binarySearch(times, value) : value - startNumber;
+            return index >= 0 && (count < 0 || index < count) ? index : -1;
+        }
+    }
+}
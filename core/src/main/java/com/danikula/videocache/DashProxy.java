@@ -0,0 +1,130 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.DashManifest.Representation;
+import com.danikula.videocache.DashManifest.SegmentSequence;
+import com.danikula.videocache.file.RenditionGroups.Rendition;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves DASH manifests rewritten by {@link DashManifest} and prefetches media of representations.
+ * <p>
+ * Segments following requested initialization or media segment are prefetched along requested representation.
+ * Representations of adaptation set are ranked by bandwidth, so media of all representations are trimmed as one title
+ * and first segments of the lowest representation are prefetched for fast start. For single file representation
+ * ({@code SegmentBase}) its head (initialization and index ranges) is prefetched instead.
+ * Nothing is prefetched if {@link Config#prefetchSegments} is {@code 0}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class DashProxy extends ManifestProxy {
+
+    private static final int MAX_TRACKED_MANIFESTS = 16;
+    private static final String MANIFEST_MIME = "application/dash+xml";
+
+    private final Map<String, List<Representation>> manifests = new LinkedHashMap<String, List<Representation>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Representation>> eldest) {
+            return size() > MAX_TRACKED_MANIFESTS;
+        }
+    };
+
+    DashProxy(Config config, String proxyUrlPrefix, Prefetcher prefetcher) {
+        super(config, proxyUrlPrefix, prefetcher);
+    }
+
+    @Override
+    boolean isManifest(String url) {
+        return DashManifest.isManifestUrl(url);
+    }
+
+    @Override
+    protected String rewrite(String manifest, String url, String manifestUrl) throws ProxyCacheException {
+        DashManifest dashManifest = DashManifest.rewrite(manifest, manifestUrl, proxyUrlPrefix);
+        synchronized (manifests) {
+            manifests.put(manifestUrl, dashManifest.representations);
+        }
+        for (Representation representation : dashManifest.representations) {
+            Rendition rendition = toRendition(manifestUrl, representation);
+            if (representation.rank == 0 && !config.renditionGroups.isActive(rendition.ladder)) {
+                prefetchFirstSegments(representation, rendition);
+            }
+        }
+        return dashManifest.content;
+    }
+
+    @Override
+    protected String getMime() {
+        return MANIFEST_MIME;
+    }
+
+    /**
+     * Prefetches next {@link Config#prefetchSegments} segments of representation requested segment belongs to.
+     * For initialization segment first segments of representation are prefetched.
+     */
+    @Override
+    void onFileRequested(String url) {
+        synchronized (manifests) {
+            for (Map.Entry<String, List<Representation>> manifest : manifests.entrySet()) {
+                for (Representation representation : manifest.getValue()) {
+                    if (onFileRequested(url, representation, toRendition(manifest.getKey(), representation))) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean onFileRequested(String url, Representation representation, Rendition rendition) {
+        if (url.equals(representation.fileUrl)) {
+            onRenditionRequested(url, rendition);
+            return true;
+        }
+        SegmentSequence segments = representation.segments;
+        if (segments == null) {
+            return false;
+        }
+        boolean initialization = url.equals(representation.initializationUrl);
+        long requestedIndex = initialization ? -1 : segments.indexOf(url);
+        if (requestedIndex == -1 && !initialization) {
+            return false;
+        }
+        onRenditionRequested(url, rendition);
+        if (segments.count() < 0) {
+            return true;  // live stream, next segments may be not published yet
+        }
+        long last = Math.min(requestedIndex + config.prefetchSegments, segments.count() - 1);
+        for (long i = requestedIndex + 1; i <= last; i++) {
+            prefetch(segments.url(i), rendition);
+        }
+        return true;
+    }
+
+    private void prefetchFirstSegments(Representation representation, Rendition rendition) {
+        if (config.prefetchSegments <= 0) {
+            return;
+        }
+        if (representation.fileUrl != null && representation.headLength > 0) {
+            config.renditionGroups.put(config.generateCacheFile(representation.fileUrl), rendition);
+            prefetcher.prefetch(representation.fileUrl, representation.headLength);
+            return;
+        }
+        SegmentSequence segments = representation.segments;
+        if (segments == null || segments.count() < 0) {
+            return;
+        }
+        if (representation.initializationUrl != null) {
+            prefetch(representation.initializationUrl, rendition);
+        }
+        long last = Math.min(config.prefetchSegments, segments.count()) - 1;
+        for (long i = 0; i <= last; i++) {
+            prefetch(segments.url(i), rendition);
+        }
+    }
+
+    private Rendition toRendition(String manifestUrl, Representation representation) {
+        return new Rendition(manifestUrl, manifestUrl + "#" + representation.adaptationSet, representation.rank);
+    }
+}
@@ -1,7 +1,5 @@
 package com.danikula.videocache;
 
-import android.text.TextUtils;
-
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -37,7 +35,7 @@ class GetRequest {
         BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
         StringBuilder stringRequest = new StringBuilder();
         String line;
-        while (!TextUtils.isEmpty(line = reader.readLine())) { // until new line (headers ending)
+        while (!ProxyCacheUtils.isEmpty(line = reader.readLine())) { // until new line (headers ending)
             stringRequest.append(line).append('\n');
         }
         return new GetRequest(stringRequest.toString());
@@ -0,0 +1,145 @@
+package com.danikula.videocache;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HLS playlist (master or media) with uris rewritten to be loaded through proxy.
+ * <p>
+ * Uris of variant playlists, renditions, init sections and segments are replaced by proxy urls, so they are cached as usual files.
+ * Uris of keys are only made absolute: keys are loaded by player directly and never stored on disk.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class HlsPlaylist {
+
+    private static final String PLAYLIST_EXTENSION = "m3u8";
+    private static final String SEGMENT_TAG = "#EXTINF";
+    private static final String VARIANT_TAG = "#EXT-X-STREAM-INF:";
+    private static final Pattern BANDWIDTH_ATTRIBUTE_PATTERN = Pattern.compile("[:,]BANDWIDTH=(\\d+)");
+    private static final Pattern URI_ATTRIBUTE_PATTERN = Pattern.compile("URI=\"([^\"]*)\"");
+    private static final Pattern KEY_TAG_PATTERN = Pattern.compile("#EXT-X-(SESSION-)?KEY:.*");
+
+    public final String content;
+    public final List<String> segmentUrls;
+    public final List<String> variantUrls;
+
+    private HlsPlaylist(String content, List<String> segmentUrls, List<String> variantUrls) {
+        this.content = content;
+        this.segmentUrls = Collections.unmodifiableList(segmentUrls);
+        this.variantUrls = Collections.unmodifiableList(variantUrls);
+    }
+
+    static boolean isPlaylistUrl(String url) {
+        return PLAYLIST_EXTENSION.equals(ProxyCacheUtils.getFileExtensionFromUrl(url));
+    }
+
+    /**
+     * Rewrites playlist's uris to proxy urls.
+     *
+     * @param playlist       an original playlist.
+     * @param playlistUrl    an url playlist is loaded from (after redirects), relative uris are resolved against it.
+     * @param proxyUrlPrefix a prefix of proxy url, encoded original url is appended to it.
+     * @return rewritten playlist with list of absolute original urls of media segments in playlist's order
+     * and urls of variant playlists sorted by bandwidth (the lowest first).
+     * @throws ProxyCacheException if playlist's url or uri in playlist is malformed.
+     */
+    static HlsPlaylist rewrite(String playlist, String playlistUrl, String proxyUrlPrefix) throws ProxyCacheException {
+        URL baseUrl = toUrl(null, playlistUrl);
+        StringBuilder content = new StringBuilder(playlist.length() * 2);
+        List<String> segmentUrls = new ArrayList<>();
+        List<Variant> variants = new ArrayList<>();
+        boolean segmentExpected = false;
+        long variantBandwidth = -1;
+        for (String line : playlist.split("\r?\n")) {
+            String trimmedLine = line.trim();
+            if (trimmedLine.isEmpty()) {
+                content.append(line);
+            } else if (trimmedLine.startsWith("#")) {
+                segmentExpected |= trimmedLine.startsWith(SEGMENT_TAG);
+                if (trimmedLine.startsWith(VARIANT_TAG)) {
+                    variantBandwidth = parseBandwidth(trimmedLine);
+                }
+                boolean key = KEY_TAG_PATTERN.matcher(trimmedLine).matches();
+                content.append(rewriteUriAttribute(trimmedLine, baseUrl, key ? null : proxyUrlPrefix));
+            } else {
+                String url = toUrl(baseUrl, trimmedLine).toString();
+                if (segmentExpected) {
+                    segmentUrls.add(url);
+                    segmentExpected = false;
+                } else if (variantBandwidth >= 0) {
+                    variants.add(new Variant(url, variantBandwidth));
+                    variantBandwidth = -1;
+                }
+                content.append(proxyUrlPrefix).append(ProxyCacheUtils.encode(url));
+            }
+            content.append('\n');
+        }
+        return new HlsPlaylist(content.toString(), segmentUrls, sortByBandwidth(variants));
+    }
+
+    private static long parseBandwidth(String variantTag) {
+        Matcher matcher = BANDWIDTH_ATTRIBUTE_PATTERN.matcher(variantTag);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    private static List<String> sortByBandwidth(List<Variant> variants) {
+        Collections.sort(variants, new Comparator<Variant>() {
+            @Override
+            public int compare(Variant lhs, Variant rhs) {
+                return lhs.bandwidth < rhs.bandwidth ? -1 : (lhs.bandwidth == rhs.bandwidth ? 0 : 1);
+            }
+        });
+        List<String> variantUrls = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            variantUrls.add(variant.url);
+        }
+        return variantUrls;
+    }
+
+    private static String rewriteUriAttribute(String tag, URL baseUrl, String proxyUrlPrefix) throws ProxyCacheException {
+        Matcher matcher = URI_ATTRIBUTE_PATTERN.matcher(tag);
+        if (!matcher.find()) {
+            return tag;
+        }
+        String uri = matcher.group(1);
+        if (!isHttpOrRelative(uri)) {
+            return tag; // e.g. data: or skd: uri of key
+        }
+        String url = toUrl(baseUrl, uri).toString();
+        String newUri = proxyUrlPrefix == null ? url : proxyUrlPrefix + ProxyCacheUtils.encode(url);
+        return tag.substring(0, matcher.start(1)) + newUri + tag.substring(matcher.end(1));
+    }
+
+    private static boolean isHttpOrRelative(String uri) {
+        int colonIndex = uri.indexOf(':');
+        int slashIndex = uri.indexOf('/');
+        boolean hasScheme = colonIndex > 0 && (slashIndex == -1 || colonIndex < slashIndex);
+        return !hasScheme || uri.startsWith("http:") || uri.startsWith("https:");
+    }
+
+    private static URL toUrl(URL baseUrl, String url) throws ProxyCacheException {
+        try {
+            return ProxyCacheUtils.resolveUrl(baseUrl, url);
+        } catch (MalformedURLException e) {
+            throw new ProxyCacheException("Invalid url in HLS playlist: " + url, e);
+        }
+    }
+
+    private static final class Variant {
+
+        private final String url;
+        private final long bandwidth;
+
+        Variant(String url, long bandwidth) {
+            this.url = url;
+            this.bandwidth = bandwidth;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.RenditionGroups.Rendition;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves HLS playlists rewritten by {@link HlsPlaylist} and prefetches segments following the segment requested by player.
+ * <p>
+ * Variants of master playlist are ranked by bandwidth, so segments of all variants are trimmed as one title
+ * and first segments of the lowest variant are prefetched for fast start.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class HlsProxy extends ManifestProxy {
+
+    private static final int MAX_TRACKED_SEGMENTS = 4096;
+    private static final int MAX_TRACKED_VARIANTS = 256;
+    private static final String PLAYLIST_MIME = "application/vnd.apple.mpegurl";
+
+    private final Map<String, SegmentPosition> segmentPositions = new LinkedHashMap<String, SegmentPosition>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SegmentPosition> eldest) {
+            return size() > MAX_TRACKED_SEGMENTS;
+        }
+    };
+    private final Map<String, Rendition> variants = new LinkedHashMap<String, Rendition>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Rendition> eldest) {
+            return size() > MAX_TRACKED_VARIANTS;
+        }
+    };
+
+    HlsProxy(Config config, String proxyUrlPrefix, Prefetcher prefetcher) {
+        super(config, proxyUrlPrefix, prefetcher);
+    }
+
+    @Override
+    boolean isManifest(String url) {
+        return HlsPlaylist.isPlaylistUrl(url);
+    }
+
+    @Override
+    protected String rewrite(String manifest, String url, String manifestUrl) throws ProxyCacheException {
+        HlsPlaylist playlist = HlsPlaylist.rewrite(manifest, manifestUrl, proxyUrlPrefix);
+        if (!playlist.variantUrls.isEmpty()) {
+            rememberVariants(manifestUrl, playlist.variantUrls);
+        }
+        Rendition rendition;
+        synchronized (variants) {
+            rendition = variants.get(url);
+        }
+        rememberSegments(playlist.segmentUrls, rendition);
+        if (isFastStartRendition(rendition)) {
+            int last = Math.min(config.prefetchSegments, playlist.segmentUrls.size()) - 1;
+            for (int i = 0; i <= last; i++) {
+                prefetch(playlist.segmentUrls.get(i), rendition);
+            }
+        }
+        return playlist.content;
+    }
+
+    @Override
+    protected String getMime() {
+        return PLAYLIST_MIME;
+    }
+
+    /**
+     * Prefetches next {@link Config#prefetchSegments} segments of playlist requested segment belongs to.
+     */
+    @Override
+    void onFileRequested(String url) {
+        SegmentPosition position;
+        synchronized (segmentPositions) {
+            position = segmentPositions.get(url);
+        }
+        if (position == null) {
+            return;
+        }
+        if (position.rendition != null) {
+            onRenditionRequested(url, position.rendition);
+        }
+        int last = Math.min(position.index + config.prefetchSegments, position.segmentUrls.size() - 1);
+        for (int i = position.index + 1; i <= last; i++) {
+            prefetch(position.segmentUrls.get(i), position.rendition);
+        }
+    }
+
+    private void rememberVariants(String masterPlaylistUrl, List<String> variantUrls) {
+        synchronized (variants) {
+            for (int i = 0; i < variantUrls.size(); i++) {
+                variants.put(variantUrls.get(i), new Rendition(masterPlaylistUrl, masterPlaylistUrl, i));
+            }
+        }
+        if (config.prefetchSegments > 0 && !config.renditionGroups.isActive(masterPlaylistUrl)) {
+            prefetcher.prefetch(variantUrls.get(0));  // lowest variant, its first segments are prefetched when it is rewritten
+        }
+    }
+
+    private boolean isFastStartRendition(Rendition rendition) {
+        return rendition != null && rendition.rank == 0 && !config.renditionGroups.isActive(rendition.ladder);
+    }
+
+    private void rememberSegments(List<String> segmentUrls, Rendition rendition) {
+        synchronized (segmentPositions) {
+            for (int i = 0; i < segmentUrls.size(); i++) {
+                segmentPositions.put(segmentUrls.get(i), new SegmentPosition(segmentUrls, i, rendition));
+            }
+        }
+    }
+
+    private static final class SegmentPosition {
+
+        private final List<String> segmentUrls;
+        private final int index;
+        private final Rendition rendition;
+
+        SegmentPosition(List<String> segmentUrls, int index, Rendition rendition) {
+            this.segmentUrls = segmentUrls;
+            this.index = index;
+            this.rendition = rendition;
+        }
+    }
+}
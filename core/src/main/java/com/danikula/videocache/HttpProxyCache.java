@@ -0,0 +1,422 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.FileCache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
+
+/**
+ * {@link ProxyCache} that read url and writes data to {@link Socket}
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+class HttpProxyCache extends ProxyCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger("HttpProxyCache");
+    private static final float NO_CACHE_BARRIER = .2f;  // used while throughput of source isn't measured yet
+    private static final long RACE_CHECK_INTERVAL_MS = 20;
+    private static final int MIN_MEDIA_HEAD_SIZE = 4 * 1024;
+    private static final int MAX_MEDIA_HEAD_SIZE = 512 * 1024;
+
+    private final UrlSource source;
+    private final FileCache cache;
+    private CacheListener listener;
+    private MetricsListener metricsListener;
+    private ExecutorService sourceOpeners;
+    private long mediaDurationMs = Mp4Duration.NOT_ENOUGH_DATA;
+    private int probedHeadSize;
+
+    public HttpProxyCache(UrlSource source, FileCache cache) {
+        super(source, cache);
+        this.cache = cache;
+        this.source = source;
+    }
+
+    public void registerCacheListener(CacheListener cacheListener) {
+        this.listener = cacheListener;
+    }
+
+    public void registerMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Enables racing of cache and new connection for requests too far from cached data.
+     * <p>
+     * Request is served by whichever reaches requested offset first. Data loaded by new connection is stored in cache
+     * as detached range, and request switches to cache as soon as sequential loading catches up.
+     * New connections are opened by bounded executor shared by all caches, request uses only new connection
+     * if executor rejects opening.
+     * </p>
+     *
+     * @param sourceOpeners an executor opening new connections for races, {@code null} to use only new connection.
+     */
+    public void setRaceFarSeeks(ExecutorService sourceOpeners) {
+        this.sourceOpeners = sourceOpeners;
+    }
+
+    public void processRequest(GetRequest request, Socket socket) throws IOException, ProxyCacheException {
+        RequestMetricsRecorder metrics = new RequestMetricsRecorder(source.getUrl(), request.rangeOffset);
+        try {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            String responseHeaders = newResponseHeaders(request);
+            out.write(responseHeaders.getBytes("UTF-8"));
+
+            long offset = request.rangeOffset;
+            boolean useCache = isUseCache(request);
+            metrics.onCacheUsed(useCache);
+            if (useCache) {
+                responseWithCache(out, offset, metrics);
+            } else if (sourceOpeners != null) {
+                responseWithRace(out, offset, metrics);
+            } else {
+                responseWithoutCache(out, offset, metrics);
+            }
+        } finally {
+            onRequestProcessed(metrics);
+        }
+    }
+
+    private void onRequestProcessed(RequestMetricsRecorder metrics) {
+        MetricsListener metricsListener = this.metricsListener;
+        if (metricsListener != null) {
+            metricsListener.onRequestProcessed(metrics.build());
+        }
+    }
+
+    private boolean isUseCache(GetRequest request) throws ProxyCacheException {
+        long sourceLength = source.length();
+        boolean sourceLengthKnown = sourceLength > 0;
+        long cacheAvailable = cache.available();
+        if (!sourceLengthKnown || !request.partial || request.rangeOffset <= cacheAvailable) {
+            return true;
+        }
+        // do not use cache for partial requests which too far from available cache. It seems user seek video.
+        long throughput = getSourceThroughput();
+        if (throughput == 0) {
+            return false;   // source reader is paused, so cache doesn't grow
+        }
+        long connectTimeMs = source.getConnectTimeMs();
+        boolean throughputKnown = throughput > 0 && connectTimeMs >= 0;
+        if (!throughputKnown) {
+            return request.rangeOffset <= cacheAvailable + sourceLength * NO_CACHE_BARRIER;
+        }
+        // wait for cache if it reaches offset earlier than new connection is opened
+        long cacheWaitTimeMs = (request.rangeOffset - cacheAvailable) * 1000 / throughput;
+        return cacheWaitTimeMs <= connectTimeMs;
+    }
+
+    private String newResponseHeaders(GetRequest request) throws IOException, ProxyCacheException {
+        String mime = source.getMime();
+        boolean mimeKnown = !ProxyCacheUtils.isEmpty(mime);
+        long length = cache.isCompleted() ? cache.available() : source.length();
+        boolean lengthKnown = length >= 0;
+        long contentLength = request.partial ? length - request.rangeOffset : length;
+        boolean addRange = lengthKnown && request.partial;
+        return new StringBuilder()
+                .append(request.partial ? "HTTP/1.1 206 PARTIAL CONTENT\n" : "HTTP/1.1 200 OK\n")
+                .append("Accept-Ranges: bytes\n")
+                .append(lengthKnown ? format("Content-Length: %d\n", contentLength) : "")
+                .append(addRange ? format("Content-Range: bytes %d-%d/%d\n", request.rangeOffset, length - 1, length) : "")
+                .append(mimeKnown ? format("Content-Type: %s\n", mime) : "")
+                .append("\n") // headers end
+                .toString();
+    }
+
+    private void responseWithCache(OutputStream out, long offset, RequestMetricsRecorder metrics) throws ProxyCacheException, IOException {
+        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+        int readBytes;
+        while (true) {
+            boolean cached = cache.isCompleted() || cache.available() >= offset + buffer.length;
+            if ((readBytes = read(buffer, offset, buffer.length, metrics)) == -1) {
+                break;
+            }
+            if (cached) {
+                metrics.onCacheBytesRead(readBytes);
+            } else {
+                metrics.onOriginBytesRead(readBytes);
+            }
+            out.write(buffer, 0, readBytes);
+            offset += readBytes;
+        }
+        out.flush();
+    }
+
+    private void responseWithoutCache(OutputStream out, long offset, RequestMetricsRecorder metrics) throws ProxyCacheException, IOException {
+        UrlSource newSourceNoCache = this.source.newSource();
+        try {
+            openOrigin(newSourceNoCache, offset, metrics);
+            byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+            int readBytes;
+            while ((readBytes = readOrigin(newSourceNoCache, buffer, metrics)) != -1) {
+                metrics.onOriginBytesRead(readBytes);
+                out.write(buffer, 0, readBytes);
+                offset += readBytes;
+                throttle(readBytes);
+            }
+            out.flush();
+        } finally {
+            newSourceNoCache.close();
+        }
+    }
+
+    private void responseWithRace(OutputStream out, long offset, RequestMetricsRecorder metrics) throws ProxyCacheException, IOException {
+        SourceOpener opener = new SourceOpener(this.source.newSource(), offset);
+        if (!opener.start(sourceOpeners)) {
+            responseWithoutCache(out, offset, metrics);     // too many seeks are raced at once
+            return;
+        }
+        readSourceAsync();  // keep cache loading while new connection is opened
+        while (!opener.await(RACE_CHECK_INTERVAL_MS)) {
+            if (isCached(offset + 1)) {
+                opener.abandon();
+                metrics.onCacheUsed(true);
+                responseWithCache(out, offset, metrics);
+                return;
+            }
+        }
+        UrlSource newSourceNoCache = opener.getSource(metrics);
+        boolean cacheCaughtUp = false;
+        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+        try {
+            int readBytes;
+            // switch as soon as range is merged: sequential loading reopens source after range, extending it only
+            // makes loading reopen source again
+            while (!(cacheCaughtUp = isCached(offset)) && (readBytes = readOrigin(newSourceNoCache, buffer, metrics)) != -1) {
+                metrics.onOriginBytesRead(readBytes);
+                cache.writeRange(offset, buffer, readBytes);
+                out.write(buffer, 0, readBytes);
+                offset += readBytes;
+                throttle(readBytes);
+            }
+        } finally {
+            newSourceNoCache.close();
+        }
+        if (cacheCaughtUp) {
+            responseWithCache(out, offset, metrics);
+        } else {
+            out.flush();
+        }
+    }
+
+    private void openOrigin(UrlSource origin, long offset, RequestMetricsRecorder metrics) throws ProxyCacheException {
+        try {
+            origin.open(offset);
+        } finally {
+            metrics.onOriginConnected(origin.getConnectTimeMs());
+        }
+    }
+
+    private int readOrigin(UrlSource origin, byte[] buffer, RequestMetricsRecorder metrics) throws ProxyCacheException {
+        long readStartTime = System.currentTimeMillis();
+        try {
+            return origin.read(buffer);
+        } finally {
+            metrics.onStalled(System.currentTimeMillis() - readStartTime);
+        }
+    }
+
+    private boolean isCached(long end) throws ProxyCacheException {
+        return cache.isCompleted() || cache.available() >= end;
+    }
+
+    private String format(String pattern, Object... args) {
+        return String.format(Locale.US, pattern, args);
+    }
+
+    /**
+     * Returns bitrate of mp4 file as its length divided by duration from movie header.
+     * Head of cache file is probed again each time twice more data is cached, until header is found.
+     */
+    @Override
+    protected long getMediaBytesPerSecond() throws ProxyCacheException {
+        if (mediaDurationMs == Mp4Duration.NOT_ENOUGH_DATA) {
+            mediaDurationMs = probeMediaDuration();
+        }
+        long length = source.length();
+        return mediaDurationMs > 0 && length > 0 ? length * 1000 / mediaDurationMs : -1;
+    }
+
+    private long probeMediaDuration() throws ProxyCacheException {
+        long available = cache.available();
+        boolean headCached = cache.isCompleted() || available >= MAX_MEDIA_HEAD_SIZE;
+        if (!headCached && available < Math.max(MIN_MEDIA_HEAD_SIZE, 2L * probedHeadSize)) {
+            return Mp4Duration.NOT_ENOUGH_DATA;
+        }
+        probedHeadSize = (int) Math.min(available, MAX_MEDIA_HEAD_SIZE);
+        byte[] head = new byte[probedHeadSize];
+        int read = Math.max(readCache(head, 0, probedHeadSize), 0);
+        long duration = Mp4Duration.read(head, read);
+        return duration == Mp4Duration.NOT_ENOUGH_DATA && headCached ? Mp4Duration.UNKNOWN : duration;
+    }
+
+    @Override
+    protected long getSourceConnectTimeMs() {
+        return source.getConnectTimeMs();
+    }
+
+    @Override
+    protected String getContentMd5() {
+        return source.getMd5();
+    }
+
+    @Override
+    protected boolean isContentMd5Guessed() {
+        return source instanceof HttpUrlSource && ((HttpUrlSource) source).isMd5Guessed();
+    }
+
+    @Override
+    protected void discardCache() throws ProxyCacheException {
+        cache.clear();
+        onCachePercentsAvailableChanged(0);
+    }
+
+    /**
+     * Loads corrupted region by new connection, so whole file isn't loaded again. Region of http source is loaded
+     * only if source has validator (sent in {@code If-Range} header) proving content wasn't changed since it was cached,
+     * otherwise whole cache is discarded.
+     */
+    @Override
+    protected void repairCache(CorruptedCacheException corruption) throws ProxyCacheException {
+        String validator = null;
+        if (source instanceof HttpUrlSource) {
+            validator = ((HttpUrlSource) source).getValidator();
+            if (validator == null) {
+                LOG.warn("Content of " + source.getUrl() + " can't be validated, cache is discarded");
+                discardCache();
+                return;
+            }
+        }
+        long offset = corruption.getOffset();
+        int length = (int) corruption.getLength();
+        UrlSource repairingSource = source.newSource();
+        try {
+            repairingSource.open(offset);
+            if (validator != null && !validator.equals(((HttpUrlSource) repairingSource).getValidator())) {
+                throw new SourceChangedException("Content of " + source.getUrl() + " is changed, it can't be repaired");
+            }
+            byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+            int loaded = 0;
+            int readBytes;
+            while (loaded < length && (readBytes = repairingSource.read(buffer)) != -1) {
+                int size = Math.min(readBytes, length - loaded);
+                cache.repair(offset + loaded, buffer, size);
+                loaded += size;
+            }
+            if (loaded < length) {
+                throw new ProxyCacheException("Source " + source.getUrl() + " ended before corrupted region is loaded");
+            }
+        } catch (SourceChangedException e) {
+            LOG.warn(e.getMessage() + ", cache is discarded");
+            discardCache();
+            throw e;
+        } finally {
+            repairingSource.close();
+        }
+        cache.completeRepair(offset, length);
+    }
+
+    @Override
+    protected void onCachePercentsAvailableChanged(int percents) {
+        if (listener != null) {
+            listener.onCacheAvailable(cache.file, source.getUrl(), percents);
+        }
+    }
+
+    /**
+     * Opens source in background, so request can be served from cache if cache is faster.
+     */
+    private final class SourceOpener implements Runnable {
+
+        private final UrlSource source;
+        private final long offset;
+        private Future<?> opening;
+        private boolean opened;
+        private boolean abandoned;
+        private ProxyCacheException error;
+
+        SourceOpener(UrlSource source, long offset) {
+            this.source = source;
+            this.offset = offset;
+        }
+
+        synchronized boolean start(ExecutorService executor) {
+            try {
+                opening = executor.submit(this);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void run() {
+            ProxyCacheException openingError = null;
+            try {
+                source.open(offset);
+            } catch (ProxyCacheException e) {
+                openingError = e;
+            }
+            synchronized (this) {
+                error = openingError;
+                opened = true;
+                notifyAll();
+                if (abandoned) {
+                    closeSource();
+                }
+            }
+        }
+
+        synchronized boolean await(long timeoutMs) throws ProxyCacheException {
+            if (!opened) {
+                try {
+                    wait(timeoutMs);
+                } catch (InterruptedException e) {
+                    abandon();
+                    throw new InterruptedProxyCacheException("Opening source is interrupted", e);
+                }
+            }
+            return opened;
+        }
+
+        synchronized UrlSource getSource(RequestMetricsRecorder metrics) throws ProxyCacheException {
+            metrics.onOriginConnected(source.getConnectTimeMs());
+            if (error != null) {
+                throw error;
+            }
+            return source;
+        }
+
+        /**
+         * Closes source if it is opened, otherwise cancels opening: opener waiting for thread is never run,
+         * running one is interrupted and closes source as soon as it is opened.
+         */
+        synchronized void abandon() {
+            abandoned = true;
+            if (opened) {
+                closeSource();
+            } else if (opening != null) {
+                opening.cancel(true);
+            }
+        }
+
+        private void closeSource() {
+            try {
+                source.close();
+            } catch (ProxyCacheException e) {
+                onError(new ProxyCacheException("Error closing source " + source, e));
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.EncryptedFileCache;
+import com.danikula.videocache.file.FileCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Client for {@link ProxyCacheServer}
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class HttpProxyCacheServerClients {
+
+    private final AtomicInteger clientsCount = new AtomicInteger(0);
+    private int playerClientsCount;
+    private final String url;
+    private volatile HttpProxyCache proxyCache;
+    private final List<CacheListener> listeners = new CopyOnWriteArrayList<>();
+    private final CacheListener callbackCacheListener;
+    private final MetricsListener metricsListener;
+    private final Config config;
+    private final ScheduledExecutorService lingerExecutor;
+    private final ExecutorService sourceOpeners;
+    private ScheduledFuture<?> lingerTimeout;
+
+    public HttpProxyCacheServerClients(String url, Config config, MetricsListener metricsListener, ScheduledExecutorService lingerExecutor,
+                                       ExecutorService sourceOpeners) {
+        this.url = checkNotNull(url);
+        this.config = checkNotNull(config);
+        this.metricsListener = checkNotNull(metricsListener);
+        this.lingerExecutor = checkNotNull(lingerExecutor);
+        this.sourceOpeners = checkNotNull(sourceOpeners);
+        this.callbackCacheListener = new CallbackCacheListener(config.callbackExecutor, config.cachedUrls, url,
+                config.generateCacheFile(url), listeners);
+    }
+
+    /**
+     * Processes request if there is room for one more client of this url.
+     *
+     * @param request a request to be processed.
+     * @param socket  a socket to write response to.
+     * @param preload {@code true} if request is made for preloading, not by player.
+     * @return {@code false} if request is rejected because of {@link Config#maxClientsPerUrl} limit.
+     */
+    public boolean processRequest(GetRequest request, Socket socket, boolean preload) throws ProxyCacheException, IOException {
+        if (!startProcessRequest(preload)) {
+            return false;
+        }
+        try {
+            proxyCache.processRequest(request, socket);
+        } finally {
+            finishProcessRequest(preload);
+        }
+        return true;
+    }
+
+    private synchronized boolean startProcessRequest(boolean preload) throws ProxyCacheException {
+        if (clientsCount.get() >= config.maxClientsPerUrl) {
+            return false;
+        }
+        cancelLinger();
+        proxyCache = proxyCache == null ? newHttpProxyCache() : proxyCache;
+        clientsCount.incrementAndGet();
+        playerClientsCount += preload ? 0 : 1;
+        proxyCache.setBackground(playerClientsCount == 0);
+        return true;
+    }
+
+    private synchronized void finishProcessRequest(boolean preload) {
+        if (proxyCache == null) {
+            return; // clients are shut down
+        }
+        playerClientsCount -= preload ? 0 : 1;
+        proxyCache.setBackground(playerClientsCount == 0);
+        if (clientsCount.decrementAndGet() <= 0) {
+            if (config.lingerMs > 0) {
+                linger();
+            } else {
+                shutdownProxyCache();
+            }
+        }
+    }
+
+    /**
+     * Keeps proxy cache (and its connection to source) for {@link Config#lingerMs} after last client disconnected,
+     * loading at most {@link Config#lingerReadAhead} bytes ahead of clients meanwhile.
+     */
+    private void linger() {
+        proxyCache.setReadAhead(config.lingerReadAhead);
+        try {
+            lingerTimeout = lingerExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onLingerTimeout();
+                }
+            }, config.lingerMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            shutdownProxyCache();   // proxy server is shut down
+        }
+    }
+
+    private synchronized void onLingerTimeout() {
+        if (clientsCount.get() <= 0 && proxyCache != null) {
+            lingerTimeout = null;
+            shutdownProxyCache();
+        }
+    }
+
+    private void cancelLinger() {
+        if (lingerTimeout != null) {
+            lingerTimeout.cancel(false);
+            lingerTimeout = null;
+            proxyCache.setReadAhead(config.readAheadBytes, config.readAheadMs);
+        }
+    }
+
+    private void shutdownProxyCache() {
+        proxyCache.shutdown();
+        proxyCache = null;
+    }
+
+    public void registerCacheListener(CacheListener cacheListener) {
+        listeners.add(cacheListener);
+    }
+
+    public void unregisterCacheListener(CacheListener cacheListener) {
+        listeners.remove(cacheListener);
+    }
+
+    public synchronized void shutdown() {
+        listeners.clear();
+        if (lingerTimeout != null) {
+            lingerTimeout.cancel(false);
+            lingerTimeout = null;
+        }
+        if (proxyCache != null) {
+            proxyCache.registerCacheListener(null);
+            proxyCache.shutdown();
+            proxyCache = null;
+        }
+        clientsCount.set(0);
+        playerClientsCount = 0;
+    }
+
+    public int getClientsCount() {
+        return clientsCount.get();
+    }
+
+    private HttpProxyCache newHttpProxyCache() throws ProxyCacheException {
+        UrlSource source = config.newSource(url, config.sourceInfoStorage);
+        File cacheFile = config.generateCacheFile(url);
+        config.cacheDirectory.migrate(cacheFile);
+        byte[] key = config.encryptionKeyProvider.getKey(url);
+        FileCache cache = key == null ? new FileCache(cacheFile, config.diskUsage) : new EncryptedFileCache(cacheFile, config.diskUsage, key);
+        HttpProxyCache httpProxyCache = new HttpProxyCache(source, cache);
+        httpProxyCache.registerCacheListener(callbackCacheListener);
+        httpProxyCache.registerMetricsListener(metricsListener);
+        httpProxyCache.setRaceFarSeeks(config.raceFarSeeks ? sourceOpeners : null);
+        httpProxyCache.setReadAhead(config.readAheadBytes, config.readAheadMs);
+        httpProxyCache.setRetryTimeout(config.sourceRetryTimeoutMs);
+        if (config.bandwidthThrottle.isLimited()) {
+            httpProxyCache.setBandwidthThrottle(config.bandwidthThrottle, true);
+        }
+        return httpProxyCache;
+    }
+
+    private static final class CallbackCacheListener implements CacheListener {
+
+        private final Executor executor;
+        private final CachedUrls cachedUrls;
+        private final String url;
+        private final File cacheFile;
+        private final List<CacheListener> listeners;
+
+        public CallbackCacheListener(Executor executor, CachedUrls cachedUrls, String url, File cacheFile, List<CacheListener> listeners) {
+            this.executor = executor;
+            this.cachedUrls = cachedUrls;
+            this.url = url;
+            this.cacheFile = cacheFile;
+            this.listeners = listeners;
+        }
+
+        @Override
+        public void onCacheAvailable(final File file, String url, final int percentsAvailable) {
+            if (percentsAvailable == 100) {
+                cachedUrls.onCompleted(this.url, cacheFile);
+            } else {
+                cachedUrls.onNotCompleted(cacheFile);   // e.g. completed cache is cleared because source is changed
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    notifyListeners(file, percentsAvailable);
+                }
+            });
+        }
+
+        private void notifyListeners(File file, int percentsAvailable) {
+            for (CacheListener cacheListener : listeners) {
+                cacheListener.onCacheAvailable(file, url, percentsAvailable);
+            }
+        }
+    }
+}
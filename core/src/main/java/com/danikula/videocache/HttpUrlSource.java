@@ -0,0 +1,477 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.headers.EmptyHeadersInjector;
+import com.danikula.videocache.headers.HeaderInjector;
+import com.danikula.videocache.sourcestorage.NoSourceInfoStorage;
+import com.danikula.videocache.sourcestorage.SourceInfoStorage;
+import com.danikula.videocache.transport.OriginResponse;
+import com.danikula.videocache.transport.OriginTransport;
+import com.danikula.videocache.transport.UrlConnectionTransport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+import static java.net.HttpURLConnection.HTTP_MOVED_PERM;
+import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+import static java.net.HttpURLConnection.HTTP_SEE_OTHER;
+
+/**
+ * {@link Source} that uses http resource as source for {@link ProxyCache}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class HttpUrlSource implements UrlSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger("HttpUrlSource");
+
+    private static final int MAX_REDIRECTS = 5;
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;
+    private static final long THROUGHPUT_SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MIN_MIRROR_SWITCH_INTERVAL_MS = 5000;
+    private final SourceInfoStorage sourceInfoStorage;
+    private final HeaderInjector headerInjector;
+    private final List<String> mirrorUrls;
+    private final MirrorSelector mirrorSelector;
+    private final RedirectCache redirectCache;
+    private final OriginTransport transport;
+    private SourceInfo sourceInfo;
+    private OriginResponse response;
+    private InputStream inputStream;
+    private volatile long connectTimeMs = -1;
+    private boolean md5Guessed;
+    private String openedUrl;
+    private long position;
+    private long openTime;
+    private long sampleNanos;
+    private long sampleBytes;
+
+    public HttpUrlSource(String url) {
+        this(url, new NoSourceInfoStorage());
+    }
+
+    public HttpUrlSource(String url, SourceInfoStorage sourceInfoStorage) {
+        this(url, sourceInfoStorage, new EmptyHeadersInjector());
+    }
+
+    public HttpUrlSource(String url, SourceInfoStorage sourceInfoStorage, HeaderInjector headerInjector) {
+        this(url, sourceInfoStorage, headerInjector, Collections.<String>emptyList(), new MirrorSelector(), new RedirectCache(),
+                new UrlConnectionTransport());
+    }
+
+    /**
+     * Creates source loaded from the best of equivalent urls.
+     * <p>
+     * Source is opened with mirror ranked the best by selector, it is switched to the next mirror from current offset
+     * if mirror fails or slows down. Data is cached and info about source is stored for original url.
+     * </p>
+     *
+     * @param url               an original url.
+     * @param sourceInfoStorage a storage for info about source.
+     * @param headerInjector    an injector of headers for requests.
+     * @param mirrors           urls of mirrors with the same content as original url.
+     * @param mirrorSelector    a selector ranking mirrors, shared by sources to share performance of mirrors.
+     * @param redirectCache     a cache of resolved redirects, shared by sources.
+     * @param transport         a transport for requests to origin.
+     */
+    HttpUrlSource(String url, SourceInfoStorage sourceInfoStorage, HeaderInjector headerInjector, List<String> mirrors,
+                  MirrorSelector mirrorSelector, RedirectCache redirectCache, OriginTransport transport) {
+        this.sourceInfoStorage = checkNotNull(sourceInfoStorage);
+        this.headerInjector = checkNotNull(headerInjector);
+        this.mirrorSelector = checkNotNull(mirrorSelector);
+        this.redirectCache = checkNotNull(redirectCache);
+        this.transport = checkNotNull(transport);
+        SourceInfo sourceInfo = sourceInfoStorage.get(url);
+        this.sourceInfo = sourceInfo != null ? sourceInfo :
+                new SourceInfo(url, Integer.MIN_VALUE, ProxyCacheUtils.getSupposablyMime(url));
+        if (this.sourceInfo.redirectUrl != null) {
+            redirectCache.put(url, this.sourceInfo.redirectUrl, this.sourceInfo.redirectExpirationTime);
+        }
+        List<String> urls = new ArrayList<>();
+        urls.add(url);
+        for (String mirror : mirrors) {
+            if (!urls.contains(mirror)) {
+                urls.add(mirror);
+            }
+        }
+        this.mirrorUrls = Collections.unmodifiableList(urls);
+    }
+
+    public HttpUrlSource(HttpUrlSource source) {
+        this.sourceInfo = source.sourceInfo;
+        this.sourceInfoStorage = source.sourceInfoStorage;
+        this.headerInjector = source.headerInjector;
+        this.mirrorUrls = source.mirrorUrls;
+        this.mirrorSelector = source.mirrorSelector;
+        this.redirectCache = source.redirectCache;
+        this.transport = source.transport;
+        this.md5Guessed = source.md5Guessed;
+    }
+
+    @Override
+    public synchronized long length() throws ProxyCacheException {
+        if (sourceInfo.length == Integer.MIN_VALUE) {
+            fetchContentInfo();
+        }
+        return sourceInfo.length;
+    }
+
+    @Override
+    public void open(long offset) throws ProxyCacheException {
+        open(offset, mirrorSelector.sort(mirrorUrls));
+    }
+
+    private void open(long offset, List<String> urls) throws ProxyCacheException {
+        ProxyCacheException error = null;
+        for (String url : urls) {
+            try {
+                open(url, offset);
+                return;
+            } catch (InterruptedProxyCacheException e) {
+                throw e;
+            } catch (ProxyCacheException e) {
+                mirrorSelector.onFailed(url);
+                error = e;
+                if (mirrorUrls.size() > 1) {
+                    LOG.warn("Error opening mirror " + url + ", try next one", e);
+                }
+            }
+        }
+        throw error;
+    }
+
+    private void open(String url, long offset) throws ProxyCacheException {
+        try {
+            long startTime = System.currentTimeMillis();
+            String ifRange = offset > 0 ? sourceInfo.validator : null;
+            response = openConnection(url, offset, -1, ifRange);
+            connectTimeMs = System.currentTimeMillis() - startTime;
+            String responseValidator = readValidator(response);
+            boolean partial = response.getCode() == HTTP_PARTIAL;
+            boolean validatorChanged = responseValidator != null && !responseValidator.equals(ifRange);
+            if (ifRange != null && (response.getCode() == HTTP_OK || partial && validatorChanged)) {
+                response.close();
+                throw new SourceChangedException("Content of " + url + " is changed, it can't be resumed from " + offset);
+            }
+            mirrorSelector.onConnected(url, connectTimeMs);
+            String knownValidator = sourceInfo.validator;
+            boolean sameContent = partial && responseValidator != null && responseValidator.equals(knownValidator);
+            String validator = knownValidator == null || response.getCode() == HTTP_OK ? responseValidator : knownValidator;
+            String mime = response.getHeader("Content-Type");
+            inputStream = new BufferedInputStream(response.getBody(), DEFAULT_BUFFER_SIZE);
+            long length = readSourceAvailableBytes(response, offset, response.getCode());
+            this.sourceInfo = new SourceInfo(sourceInfo.url, length, mime, sourceInfo.redirectUrl, sourceInfo.redirectExpirationTime,
+                    readMd5(response, sameContent), validator);
+            this.sourceInfoStorage.put(sourceInfo.url, sourceInfo);
+            this.openedUrl = url;
+            this.position = offset;
+            this.openTime = startTime;
+            this.sampleNanos = 0;
+            this.sampleBytes = 0;
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error opening connection for " + url + " with offset " + offset, e);
+        }
+    }
+
+    /**
+     * Reads validator of response to be sent in {@code If-Range} header of next requests.
+     *
+     * @return strong ETag or Last-Modified date, {@code null} if response has no usable validator.
+     */
+    private String readValidator(OriginResponse response) {
+        String etag = response.getHeader("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;   // weak etags are not allowed in If-Range
+        }
+        return response.getHeader("Last-Modified");
+    }
+
+    /**
+     * Reads MD5 of content declared by origin, {@code Content-MD5} is used only for response with whole content.
+     * MD5 guessed from ETag is used only if there is no declared one.
+     *
+     * @param response    a response of origin.
+     * @param sameContent {@code true} if response is a part of content with previously known MD5.
+     * @return lowercase hex MD5, previously known MD5 if response of the same content doesn't declare it or
+     * {@code null} if MD5 is unknown.
+     */
+    private String readMd5(OriginResponse response, boolean sameContent) {
+        String contentMd5 = response.getCode() == HTTP_OK ? response.getHeader("Content-MD5") : null;
+        String declaredMd5 = ContentDigest.parseMd5(contentMd5, response.getHeader("Digest"), null);
+        if (declaredMd5 != null) {
+            md5Guessed = false;
+            return declaredMd5;
+        }
+        if (sameContent && sourceInfo.md5 != null) {
+            return sourceInfo.md5;
+        }
+        String guessedMd5 = ContentDigest.parseMd5(null, null, response.getHeader("ETag"));
+        md5Guessed = guessedMd5 != null;
+        return guessedMd5;
+    }
+
+    private long readSourceAvailableBytes(OriginResponse response, long offset, int responseCode) {
+        long contentLength = getContentLength(response);
+        return responseCode == HTTP_OK ? contentLength
+                : responseCode == HTTP_PARTIAL ? contentLength + offset : sourceInfo.length;
+    }
+
+    private long getContentLength(OriginResponse response) {
+        String contentLengthValue = response.getHeader("Content-Length");
+        return contentLengthValue == null ? -1 : Long.parseLong(contentLengthValue);
+    }
+
+    @Override
+    public void close() throws ProxyCacheException {
+        if (response != null) {
+            try {
+                response.close();
+            } catch (NullPointerException | IllegalArgumentException e) {
+                String message = "Wait... but why? WTF!? " +
+                        "Really shouldn't happen any more after fixing https://github.com/danikula/AndroidVideoCache/issues/43. " +
+                        "If you read it on your device log, please, notify me danikula@gmail.com or create issue here " +
+                        "https://github.com/danikula/AndroidVideoCache/issues.";
+                throw new RuntimeException(message, e);
+            } catch (ArrayIndexOutOfBoundsException e) {
+                LOG.error("Error closing connection correctly. Should happen only on Android L. " +
+                        "If anybody know how to fix it, please visit https://github.com/danikula/AndroidVideoCache/issues/88. " +
+                        "Until good solution is not know, just ignore this issue :(", e);
+            }
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer) throws ProxyCacheException {
+        if (inputStream == null) {
+            throw new ProxyCacheException("Error reading data from " + sourceInfo.url + ": connection is absent!");
+        }
+        try {
+            long startTime = System.nanoTime();
+            int read = inputStream.read(buffer, 0, buffer.length);
+            if (read > 0) {
+                position += read;
+                onBytesRead(read, System.nanoTime() - startTime);
+            }
+            return read;
+        } catch (InterruptedIOException e) {
+            throw new InterruptedProxyCacheException("Reading source " + sourceInfo.url + " is interrupted", e);
+        } catch (IOException e) {
+            if (mirrorUrls.size() == 1) {
+                throw new ProxyCacheException("Error reading data from " + sourceInfo.url, e);
+            }
+            LOG.warn("Error reading mirror " + openedUrl + ", continue with next one", e);
+            mirrorSelector.onFailed(openedUrl);
+            reopen();
+            return read(buffer);
+        }
+    }
+
+    /**
+     * Measures throughput of opened mirror (only time spent on waiting data is counted)
+     * and switches to another mirror if current one slowed down.
+     */
+    private void onBytesRead(int bytes, long durationNanos) throws ProxyCacheException {
+        sampleBytes += bytes;
+        sampleNanos += durationNanos;
+        if (sampleNanos < THROUGHPUT_SAMPLE_NANOS) {
+            return;
+        }
+        long bytesPerSecond = sampleBytes * TimeUnit.SECONDS.toNanos(1) / sampleNanos;
+        sampleBytes = 0;
+        sampleNanos = 0;
+        boolean canSwitch = mirrorUrls.size() > 1 && System.currentTimeMillis() - openTime > MIN_MIRROR_SWITCH_INTERVAL_MS;
+        boolean switchMirror = canSwitch && mirrorSelector.shouldSwitch(openedUrl, bytesPerSecond, mirrorUrls);
+        mirrorSelector.onThroughputMeasured(openedUrl, bytesPerSecond);
+        if (switchMirror) {
+            LOG.info("Mirror " + openedUrl + " slowed down to " + bytesPerSecond + " bytes/s, switch to another one");
+            reopen();
+        }
+    }
+
+    private void reopen() throws ProxyCacheException {
+        close();
+        List<String> urls = mirrorSelector.sort(mirrorUrls);
+        urls.remove(openedUrl);
+        urls.add(openedUrl);    // current mirror is the last resort
+        open(position, urls);
+    }
+
+    private void fetchContentInfo() throws ProxyCacheException {
+        LOG.debug("Read content info from " + sourceInfo.url);
+        OriginResponse infoResponse = null;
+        InputStream inputStream = null;
+        try {
+            infoResponse = openConnection(mirrorSelector.sort(mirrorUrls).get(0), 0, 10000, null);
+            long length = getContentLength(infoResponse);
+            String mime = infoResponse.getHeader("Content-Type");
+            inputStream = infoResponse.getBody();
+            this.sourceInfo = new SourceInfo(sourceInfo.url, length, mime, sourceInfo.redirectUrl, sourceInfo.redirectExpirationTime,
+                    readMd5(infoResponse, false), readValidator(infoResponse));
+            this.sourceInfoStorage.put(sourceInfo.url, sourceInfo);
+            LOG.debug("Source info fetched: " + sourceInfo);
+        } catch (IOException e) {
+            LOG.error("Error fetching info from " + sourceInfo.url, e);
+        } finally {
+            ProxyCacheUtils.close(inputStream);
+            if (infoResponse != null) {
+                infoResponse.close();
+            }
+        }
+    }
+
+    private OriginResponse openConnection(String url, long offset, int timeout, String ifRange) throws IOException, ProxyCacheException {
+        String cachedFinalUrl = redirectCache.get(url);
+        if (cachedFinalUrl != null) {
+            try {
+                OriginResponse response = followRedirects(url, cachedFinalUrl, offset, timeout, ifRange);
+                if (response.getCode() < HTTP_BAD_REQUEST) {
+                    return response;
+                }
+                response.close();
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                LOG.debug("Error opening cached redirect " + cachedFinalUrl + " of " + url, e);
+            }
+            LOG.debug("Cached redirect " + cachedFinalUrl + " of " + url + " is invalid, follow redirects again");
+            rememberRedirect(url, null, 0);
+        }
+        return followRedirects(url, url, offset, timeout, ifRange);
+    }
+
+    private OriginResponse followRedirects(String originalUrl, String url, long offset, int timeout, String ifRange)
+            throws IOException, ProxyCacheException {
+        OriginResponse response;
+        boolean redirected;
+        int redirectCount = 0;
+        long ttl = RedirectCache.MAX_TTL_MS;
+        do {
+            LOG.debug("Open connection " + (offset > 0 ? " with offset " + offset : "") + " to " + url);
+            Map<String, String> headers = new LinkedHashMap<>(headerInjector.addHeaders(url));
+            if (offset > 0) {
+                headers.put("Range", "bytes=" + offset + "-");
+            }
+            if (ifRange != null) {
+                headers.put("If-Range", ifRange);
+            }
+            response = transport.execute(url, headers, timeout);
+            int code = response.getCode();
+            redirected = code == HTTP_MOVED_PERM || code == HTTP_MOVED_TEMP || code == HTTP_SEE_OTHER
+                    || code == HTTP_TEMPORARY_REDIRECT || code == RedirectCache.HTTP_PERMANENT_REDIRECT;
+            if (redirected) {
+                long redirectTtl = RedirectCache.getTtlMs(code, response.getHeader("Cache-Control"),
+                        response.getDateHeader("Expires"), response.getDateHeader("Date"));
+                ttl = Math.min(ttl, redirectTtl);
+                url = new URL(new URL(response.getUrl()), response.getHeader("Location")).toString();
+                redirectCount++;
+                response.close();
+            }
+            if (redirectCount > MAX_REDIRECTS) {
+                throw new ProxyCacheException("Too many redirects: " + redirectCount);
+            }
+        } while (redirected);
+        if (redirectCount > 0 && ttl > RedirectCache.NOT_CACHEABLE) {
+            rememberRedirect(originalUrl, url, System.currentTimeMillis() + ttl);
+        }
+        return response;
+    }
+
+    /**
+     * Caches final url of redirects, for source's url it is also persisted with source's info.
+     */
+    private void rememberRedirect(String url, String finalUrl, long expirationTime) {
+        if (finalUrl == null) {
+            redirectCache.remove(url);
+        } else {
+            redirectCache.put(url, finalUrl, expirationTime);
+        }
+        if (url.equals(sourceInfo.url)) {
+            this.sourceInfo = new SourceInfo(sourceInfo.url, sourceInfo.length, sourceInfo.mime, finalUrl, expirationTime, sourceInfo.md5,
+                    sourceInfo.validator);
+            this.sourceInfoStorage.put(sourceInfo.url, sourceInfo);
+        }
+    }
+
+    @Override
+    public synchronized String getMime() throws ProxyCacheException {
+        if (ProxyCacheUtils.isEmpty(sourceInfo.mime)) {
+            fetchContentInfo();
+        }
+        return sourceInfo.mime;
+    }
+
+    /**
+     * Returns validator of content sent in {@code If-Range} header when source is resumed.
+     *
+     * @return strong ETag or Last-Modified date, {@code null} if it is unknown.
+     */
+    public synchronized String getValidator() {
+        return sourceInfo.validator;
+    }
+
+    @Override
+    public synchronized String getMd5() {
+        return sourceInfo.md5;
+    }
+
+    /**
+     * Returns whether {@link #getMd5() MD5} is guessed from ETag that looks like MD5, such ETag may be not MD5
+     * of content at all.
+     *
+     * @return {@code true} if MD5 is guessed, {@code false} if it is declared by origin or unknown.
+     */
+    synchronized boolean isMd5Guessed() {
+        return md5Guessed;
+    }
+
+    @Override
+    public String getUrl() {
+        return sourceInfo.url;
+    }
+
+    /**
+     * Returns url content is actually read from, i.e. original url after following redirects by {@link #open(long)}.
+     *
+     * @return final url of opened connection or original url if source was not opened yet.
+     */
+    public String getFinalUrl() {
+        OriginResponse openedResponse = response;
+        return openedResponse != null ? openedResponse.getUrl() : sourceInfo.url;
+    }
+
+    /**
+     * Returns time spent by last {@link #open(long)} for connecting to server and receiving response headers.
+     *
+     * @return time in milliseconds or {@code -1} if source was not opened yet.
+     */
+    @Override
+    public long getConnectTimeMs() {
+        return connectTimeMs;
+    }
+
+    @Override
+    public UrlSource newSource() {
+        return new HttpUrlSource(this);
+    }
+
+    @Override
+    public String toString() {
+        return "HttpUrlSource{sourceInfo='" + sourceInfo + "}";
+    }
+}
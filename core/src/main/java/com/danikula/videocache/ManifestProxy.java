@@ -0,0 +1,108 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.RenditionGroups.Rendition;
+import com.danikula.videocache.sourcestorage.NoSourceInfoStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
+
+/**
+ * Base class for proxies of adaptive streaming manifests (HLS playlists, DASH MPDs).
+ * <p>
+ * Manifest is loaded from origin for every request and never cached (live manifests change all the time),
+ * urls of media in manifest are rewritten to proxy urls, so media files are cached as usual files
+ * and share {@link com.danikula.videocache.file.DiskUsage} with other files.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+abstract class ManifestProxy {
+
+    protected final Config config;
+    protected final String proxyUrlPrefix;
+    protected final Prefetcher prefetcher;
+
+    ManifestProxy(Config config, String proxyUrlPrefix, Prefetcher prefetcher) {
+        this.config = checkNotNull(config);
+        this.proxyUrlPrefix = checkNotNull(proxyUrlPrefix);
+        this.prefetcher = checkNotNull(prefetcher);
+    }
+
+    abstract boolean isManifest(String url);
+
+    /**
+     * Notifies about file requested by player, prefetches files player is going to request next.
+     *
+     * @param url an original url of requested file, requests of files that aren't known media of manifests are ignored.
+     */
+    abstract void onFileRequested(String url);
+
+    /**
+     * Rewrites manifest to be loaded through proxy.
+     *
+     * @param manifest    an original manifest.
+     * @param url         an url manifest is requested by.
+     * @param manifestUrl an url manifest is loaded from (after redirects), relative urls are resolved against it.
+     * @return a rewritten manifest.
+     * @throws ProxyCacheException if manifest can't be parsed.
+     */
+    protected abstract String rewrite(String manifest, String url, String manifestUrl) throws ProxyCacheException;
+
+    protected abstract String getMime();
+
+    void processManifestRequest(String url, Socket socket) throws ProxyCacheException, IOException {
+        // manifests change all the time, so their info isn't stored
+        UrlSource source = config.newSource(url, new NoSourceInfoStorage());
+        String manifest;
+        String manifestUrl;
+        try {
+            source.open(0);
+            manifestUrl = source instanceof HttpUrlSource ? ((HttpUrlSource) source).getFinalUrl() : url;
+            manifest = readFully(source);
+        } finally {
+            source.close();
+        }
+        byte[] body = rewrite(manifest, url, manifestUrl).getBytes("UTF-8");
+        String headers = "HTTP/1.1 200 OK\n" +
+                "Content-Type: " + getMime() + "\n" +
+                "Content-Length: " + body.length + "\n" +
+                "Cache-Control: no-cache\n" +
+                "\n";
+        OutputStream out = socket.getOutputStream();
+        out.write(headers.getBytes("UTF-8"));
+        out.write(body);
+        out.flush();
+    }
+
+    /**
+     * Remembers rendition of file requested by player and marks rendition as used.
+     */
+    protected void onRenditionRequested(String url, Rendition rendition) {
+        config.renditionGroups.put(config.generateCacheFile(url), rendition);
+        config.renditionGroups.activate(rendition);
+    }
+
+    /**
+     * Prefetches segment, segment of known rendition is accounted by {@link com.danikula.videocache.file.DiskUsage} as part of rendition.
+     */
+    protected void prefetch(String url, Rendition rendition) {
+        if (rendition != null) {
+            config.renditionGroups.put(config.generateCacheFile(url), rendition);
+        }
+        prefetcher.prefetch(url);
+    }
+
+    private String readFully(UrlSource source) throws ProxyCacheException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+        int read;
+        while ((read = source.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,13 @@
+package com.danikula.videocache;
+
+/**
+ * Listener for metrics of requests processed by {@link ProxyCacheServer}.
+ * <p>
+ * Note listener is called on thread processed request, so it should be fast and thread safe.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public interface MetricsListener {
+
+    void onRequestProcessed(RequestMetrics metrics);
+}
@@ -0,0 +1,142 @@
+package com.danikula.videocache;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ranks mirrors of url by measured performance of their hosts.
+ * <p>
+ * Time to first byte and throughput are tracked per host as exponentially weighted moving averages, host is ranked
+ * by expected time of loading 1 Mb. Hosts failed recently are ranked last, hosts without
+ * measurements keep order of passed urls after measured ones.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class MirrorSelector {
+
+    private static final int MAX_TRACKED_HOSTS = 256;
+    private static final long REFERENCE_BYTES = 1024 * 1024;
+    private static final float SAMPLE_WEIGHT = .3f;
+    private static final long FAILURE_PENALTY_MS = 30_000;
+    private static final float SWITCH_RATIO = 2f;
+
+    private final Map<String, HostStats> hosts = new LinkedHashMap<String, HostStats>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HostStats> eldest) {
+            return size() > MAX_TRACKED_HOSTS;
+        }
+    };
+
+    /**
+     * Sorts mirrors from the best to the worst.
+     *
+     * @param urls urls of mirrors, the first one is original url.
+     * @return new list of the same urls sorted by rank.
+     */
+    synchronized List<String> sort(List<String> urls) {
+        final long now = System.currentTimeMillis();
+        final Map<String, Long> scores = new HashMap<>();
+        for (String url : urls) {
+            scores.put(url, getScore(url, now));
+        }
+        List<String> sorted = new ArrayList<>(urls);
+        Collections.sort(sorted, new Comparator<String>() {   // sort is stable, so unmeasured mirrors keep their order
+            @Override
+            public int compare(String lhs, String rhs) {
+                long lhsScore = scores.get(lhs);
+                long rhsScore = scores.get(rhs);
+                return lhsScore < rhsScore ? -1 : (lhsScore == rhsScore ? 0 : 1);
+            }
+        });
+        return sorted;
+    }
+
+    synchronized void onConnected(String url, long timeToFirstByteMs) {
+        HostStats stats = getStats(url);
+        stats.timeToFirstByteMs = average(stats.timeToFirstByteMs, timeToFirstByteMs);
+    }
+
+    synchronized void onThroughputMeasured(String url, long bytesPerSecond) {
+        HostStats stats = getStats(url);
+        stats.bytesPerSecond = average(stats.bytesPerSecond, bytesPerSecond);
+    }
+
+    synchronized void onFailed(String url) {
+        getStats(url).failureTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Checks if loading should be continued from another mirror.
+     *
+     * @param url            an url of mirror being loaded.
+     * @param bytesPerSecond a recent throughput of mirror being loaded.
+     * @param urls           urls of all mirrors.
+     * @return {@code true} if another mirror is known to be at least twice faster
+     * or the best of other mirrors wasn't measured yet and should be probed.
+     */
+    synchronized boolean shouldSwitch(String url, long bytesPerSecond, List<String> urls) {
+        long now = System.currentTimeMillis();
+        String host = getHost(url);
+        for (String mirror : sort(urls)) {
+            HostStats mirrorStats = hosts.get(getHost(mirror));
+            if (getHost(mirror).equals(host) || isFailedRecently(mirrorStats, now)) {
+                continue;
+            }
+            return mirrorStats == null || mirrorStats.bytesPerSecond < 0 || mirrorStats.bytesPerSecond > bytesPerSecond * SWITCH_RATIO;
+        }
+        return false;
+    }
+
+    private long getScore(String url, long now) {
+        HostStats stats = hosts.get(getHost(url));
+        if (isFailedRecently(stats, now)) {
+            return Long.MAX_VALUE;
+        }
+        if (stats == null || (stats.timeToFirstByteMs < 0 && stats.bytesPerSecond < 0)) {
+            return Long.MAX_VALUE / 2;
+        }
+        long loadingTimeMs = stats.bytesPerSecond > 0 ? REFERENCE_BYTES * 1000 / stats.bytesPerSecond : 0;
+        return Math.max(stats.timeToFirstByteMs, 0) + loadingTimeMs;
+    }
+
+    private boolean isFailedRecently(HostStats stats, long now) {
+        return stats != null && stats.failureTime > 0 && now - stats.failureTime < FAILURE_PENALTY_MS;
+    }
+
+    private HostStats getStats(String url) {
+        String host = getHost(url);
+        HostStats stats = hosts.get(host);
+        if (stats == null) {
+            stats = new HostStats();
+            hosts.put(host, stats);
+        }
+        return stats;
+    }
+
+    private long average(long estimation, long sample) {
+        return estimation < 0 ? sample : (long) (SAMPLE_WEIGHT * sample + (1 - SAMPLE_WEIGHT) * estimation);
+    }
+
+    private String getHost(String url) {
+        try {
+            URL parsedUrl = new URL(url);
+            return parsedUrl.getProtocol() + "://" + parsedUrl.getAuthority();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    private static final class HostStats {
+
+        private long timeToFirstByteMs = -1;
+        private long bytesPerSecond = -1;
+        private long failureTime;
+    }
+}
@@ -0,0 +1,97 @@
+package com.danikula.videocache;
+
+/**
+ * Reads duration of MP4 (ISO BMFF) file from movie header box ({@code moov/mvhd}) in head of file.
+ * <p>
+ * Duration can be read only if movie box precedes media data ("fast start" files), that is usual for files
+ * prepared for progressive streaming.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class Mp4Duration {
+
+    static final long NOT_ENOUGH_DATA = -1;
+    static final long UNKNOWN = 0;
+
+    private static final int BOX_HEADER_SIZE = 8;
+    private static final int LARGE_BOX_HEADER_SIZE = 16;
+    private static final long UNKNOWN_DURATION_32 = 0xFFFFFFFFL;
+
+    private Mp4Duration() {
+    }
+
+    /**
+     * Reads duration of file.
+     *
+     * @param head   a buffer with head of file.
+     * @param length a count of bytes of file's head in buffer.
+     * @return duration in milliseconds, {@link #NOT_ENOUGH_DATA} if movie header isn't in passed head
+     * or {@link #UNKNOWN} if file isn't mp4 file or its media data precedes movie header.
+     */
+    static long read(byte[] head, int length) {
+        long offset = 0;
+        boolean first = true;
+        while (offset + BOX_HEADER_SIZE <= length) {
+            int position = (int) offset;
+            long size = readUint32(head, position);
+            String type = readType(head, position + 4);
+            int headerSize = BOX_HEADER_SIZE;
+            if (size == 1) {
+                if (offset + LARGE_BOX_HEADER_SIZE > length) {
+                    return NOT_ENOUGH_DATA;
+                }
+                size = readUint64(head, position + BOX_HEADER_SIZE);
+                headerSize = LARGE_BOX_HEADER_SIZE;
+            }
+            if (first && !"ftyp".equals(type)) {
+                return UNKNOWN;
+            }
+            first = false;
+            if ("moov".equals(type)) {
+                offset += headerSize;   // movie header is child of movie box
+            } else if ("mvhd".equals(type)) {
+                return readMovieHeader(head, position + headerSize, length);
+            } else if ("mdat".equals(type) || size < headerSize) {
+                return UNKNOWN;
+            } else {
+                offset += size;
+            }
+        }
+        return NOT_ENOUGH_DATA;
+    }
+
+    private static long readMovieHeader(byte[] head, int position, int length) {
+        if (position + 1 > length) {
+            return NOT_ENOUGH_DATA;
+        }
+        int version = head[position] & 0xFF;
+        int timescaleOffset = version == 1 ? 20 : 12;  // version and flags, creation and modification times
+        int durationSize = version == 1 ? 8 : 4;
+        if (position + timescaleOffset + 4 + durationSize > length) {
+            return NOT_ENOUGH_DATA;
+        }
+        long timescale = readUint32(head, position + timescaleOffset);
+        long duration = version == 1 ? readUint64(head, position + timescaleOffset + 4) : readUint32(head, position + timescaleOffset + 4);
+        if (timescale == 0 || duration <= 0 || (version != 1 && duration == UNKNOWN_DURATION_32)) {
+            return UNKNOWN;
+        }
+        return duration * 1000 / timescale;
+    }
+
+    private static String readType(byte[] data, int position) {
+        char[] type = new char[4];
+        for (int i = 0; i < type.length; i++) {
+            type[i] = (char) (data[position + i] & 0xFF);
+        }
+        return new String(type);
+    }
+
+    private static long readUint32(byte[] data, int position) {
+        return ((data[position] & 0xFFL) << 24) | ((data[position + 1] & 0xFFL) << 16) |
+                ((data[position + 2] & 0xFFL) << 8) | (data[position + 3] & 0xFFL);
+    }
+
+    private static long readUint64(byte[] data, int position) {
+        return (readUint32(data, position) << 32) | readUint32(data, position + 4);
+    }
+}
@@ -0,0 +1,119 @@
+package com.danikula.videocache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
+
+/**
+ * Loads files (or their heads) into cache in background before player requests them.
+ * <p>
+ * Files are loaded through proxy itself with preload url, so prefetching shares downloading with player's request
+ * for the same file and is processed by preload workers.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class Prefetcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Prefetcher");
+    private static final String TEMP_POSTFIX = ".download";
+
+    private final Config config;
+    private final String preloadUrlPrefix;
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
+    private final Set<String> prefetchingUrls = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    Prefetcher(Config config, String preloadUrlPrefix) {
+        this.config = checkNotNull(config);
+        this.preloadUrlPrefix = checkNotNull(preloadUrlPrefix);
+    }
+
+    /**
+     * Prefetches whole file if it is not cached yet.
+     *
+     * @param url an original url of file.
+     */
+    void prefetch(String url) {
+        prefetch(url, Long.MAX_VALUE);
+    }
+
+    /**
+     * Prefetches first bytes of file if they are not cached yet.
+     *
+     * @param url   an original url of file.
+     * @param bytes count of bytes from file's start to be cached.
+     */
+    void prefetch(String url, long bytes) {
+        if (isCached(url, bytes) || !prefetchingUrls.add(url)) {
+            return;
+        }
+        try {
+            prefetchExecutor.submit(new PrefetchRunnable(url, bytes));
+        } catch (RejectedExecutionException e) {
+            prefetchingUrls.remove(url);
+            LOG.debug("Proxy server is shut down. Skip prefetching " + url);
+        }
+    }
+
+    void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    private boolean isCached(String url, long bytes) {
+        File file = config.generateCacheFile(url);
+        File tempFile = new File(file.getParentFile(), file.getName() + TEMP_POSTFIX);
+        return file.exists() || tempFile.length() >= bytes;
+    }
+
+    private void load(String url, long bytes) {
+        HttpUrlSource source = new HttpUrlSource(preloadUrlPrefix + ProxyCacheUtils.encode(url));
+        try {
+            source.open(0);
+            byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+            long loaded = 0;
+            int read;
+            while (loaded < bytes && !Thread.currentThread().isInterrupted() && (read = source.read(buffer)) != -1) {
+                loaded += read;
+            }
+            LOG.debug("Prefetched " + loaded + " bytes of " + url);
+        } catch (ProxyCacheException e) {
+            LOG.warn("Error prefetching " + url, e);
+        } finally {
+            closeSafely(source);
+            prefetchingUrls.remove(url);
+        }
+    }
+
+    private void closeSafely(HttpUrlSource source) {
+        try {
+            source.close();
+        } catch (ProxyCacheException e) {
+            LOG.warn("Error closing source " + source, e);
+        }
+    }
+
+    private final class PrefetchRunnable implements Runnable {
+
+        private final String url;
+        private final long bytes;
+
+        PrefetchRunnable(String url, long bytes) {
+            this.url = url;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void run() {
+            load(url, bytes);
+        }
+    }
+}
@@ -0,0 +1,602 @@
+package com.danikula.videocache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Proxy for {@link Source} with caching support ({@link Cache}).
+ * <p/>
+ * Can be used only for sources with persistent data (that doesn't change with time).
+ * Method {@link #read(byte[], long, int)} will be blocked while fetching data from source.
+ * Useful for streaming something with caching e.g. streaming video/audio etc.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+class ProxyCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger("ProxyCache");
+    private static final int MAX_READ_SOURCE_ATTEMPTS = 1;
+    private static final long MAX_PAUSE_WITH_OPEN_SOURCE_MS = 5000;
+    private static final long MIN_RETRY_DELAY_MS = 500;
+    private static final long MAX_RETRY_DELAY_MS = 8000;
+
+    private final Source source;
+    private final Cache cache;
+    private final Object wc = new Object();
+    private final Object stopLock = new Object();
+    private final Object readAheadLock = new Object();
+    private final AtomicInteger readSourceErrorsCount;
+    private final ThroughputMeter throughputMeter = new ThroughputMeter();
+    private final ContentDigest contentDigest = new ContentDigest();   // accessed by source reader thread only
+    private volatile Thread sourceReaderThread;
+    private volatile boolean stopped;
+    private volatile int percentsAvailable = -1;
+    private volatile long readAhead = -1;
+    private volatile long readAheadMs;
+    private volatile long clientsOffset;
+    private volatile boolean sourceReaderPaused;
+    private volatile BandwidthThrottle.Channel bandwidthChannel;
+    private volatile long retryTimeoutMs;
+    private volatile int sourceOpensCount;
+    private long sourceBytesRead;   // accessed by source reader thread only
+
+    public ProxyCache(Source source, Cache cache) {
+        this.source = checkNotNull(source);
+        this.cache = checkNotNull(cache);
+        this.readSourceErrorsCount = new AtomicInteger();
+    }
+
+    public int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
+        return read(buffer, offset, length, null);
+    }
+
+    /**
+     * Reads data like {@link #read(byte[], long, int)} and records time this request waited for source data and
+     * time of connecting to source if source was opened while request waited.
+     *
+     * @param metrics a recorder of request's metrics, may be {@code null}.
+     */
+    int read(byte[] buffer, long offset, int length, RequestMetricsRecorder metrics) throws ProxyCacheException {
+        ProxyCacheUtils.assertBuffer(buffer, offset, length);
+
+        onClientRead(offset + length);
+        if (!cache.isCompleted() && cache.available() < (offset + length) && !stopped) {
+            waitForSourceData(offset + length, metrics);
+        }
+        int read = readCache(buffer, offset, length);
+        if (cache.isCompleted() && percentsAvailable != 100) {
+            percentsAvailable = 100;
+            onCachePercentsAvailableChanged(100);
+        }
+        return read;
+    }
+
+    /**
+     * Reads data available in cache, corrupted regions of cache are {@link #repairCache(CorruptedCacheException) repaired}.
+     * If cache is discarded instead of being repaired, data is waited for until source loads it again.
+     *
+     * @param buffer a buffer to read data to.
+     * @param offset an offset of data in cache.
+     * @param length a max count of bytes to read.
+     * @return count of read bytes or {@code -1} if cache ended.
+     * @throws ProxyCacheException if cache can't be read or repaired.
+     */
+    protected int readCache(byte[] buffer, long offset, int length) throws ProxyCacheException {
+        while (true) {
+            try {
+                return cache.read(buffer, offset, length);
+            } catch (CorruptedCacheException e) {
+                LOG.warn("Load " + e.getLength() + " bytes with offset " + e.getOffset() + " again: " + e.getMessage());
+                repairCache(e);
+                if (!cache.isCompleted() && cache.available() < offset + length && !stopped) {
+                    waitForSourceData(offset + length, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces corrupted region of cache by data loaded from source again or {@link #discardCache() discards} whole cache.
+     * By default corruption isn't repaired.
+     *
+     * @param corruption an error describing corrupted region.
+     * @throws ProxyCacheException if region can't be repaired.
+     */
+    protected void repairCache(CorruptedCacheException corruption) throws ProxyCacheException {
+        throw corruption;
+    }
+
+    /**
+     * Returns MD5 digest of source's content declared by origin, content loaded into cache sequentially is verified
+     * against it before cache is completed. Called by source reader thread only.
+     *
+     * @return lowercase hex MD5 or {@code null} if it is unknown.
+     */
+    protected String getContentMd5() {
+        return null;
+    }
+
+    /**
+     * Returns whether MD5 returned by {@link #getContentMd5()} is only guessed (e.g. from ETag), so content that
+     * doesn't match it is accepted with warning instead of being discarded. Called by source reader thread only.
+     *
+     * @return {@code true} if MD5 is guessed.
+     */
+    protected boolean isContentMd5Guessed() {
+        return false;
+    }
+
+    /**
+     * Drops data loaded into cache if it doesn't match digest declared by origin or content of source is changed,
+     * so it is loaded again by next request.
+     * By default data is kept and cache isn't completed.
+     *
+     * @throws ProxyCacheException if cache can't be cleared.
+     */
+    protected void discardCache() throws ProxyCacheException {
+    }
+
+    private void waitForSourceData(long end, RequestMetricsRecorder metrics) throws ProxyCacheException {
+        long waitStartTime = System.currentTimeMillis();
+        int opensCount = sourceOpensCount;
+        try {
+            while (!cache.isCompleted() && cache.available() < end && !stopped) {
+                readSourceAsync();
+                waitForSourceData();
+                checkReadSourceErrorsCount();
+            }
+        } finally {
+            if (metrics != null) {
+                metrics.onStalled(System.currentTimeMillis() - waitStartTime);
+                if (sourceOpensCount != opensCount) {
+                    metrics.onOriginConnected(getSourceConnectTimeMs());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns time spent by the last opening of source for connecting to origin.
+     *
+     * @return time in milliseconds or {@code -1} if it is unknown.
+     */
+    protected long getSourceConnectTimeMs() {
+        return -1;
+    }
+
+    private void checkReadSourceErrorsCount() throws ProxyCacheException {
+        int errorsCount = readSourceErrorsCount.get();
+        if (errorsCount >= MAX_READ_SOURCE_ATTEMPTS) {
+            readSourceErrorsCount.set(0);
+            throw new ProxyCacheException("Error reading source " + errorsCount + " times");
+        }
+    }
+
+    /**
+     * Limits loading source ahead of clients.
+     * <p>
+     * Source reader pauses when it loaded {@code bytes} more than the furthest offset requested by clients,
+     * and resumes as soon as clients read further or limit is changed. Connection to source is kept open during
+     * short pauses and is closed if pause lasts longer than 5 seconds, in this case source is reopened from paused offset.
+     * </p>
+     *
+     * @param bytes max count of bytes to be loaded ahead of clients, {@code -1} for no limit.
+     */
+    public void setReadAhead(long bytes) {
+        setReadAhead(bytes, 0);
+    }
+
+    /**
+     * Limits loading source ahead of clients by playback time, see {@link #setReadAhead(long)}.
+     * Time is converted to bytes with bitrate returned by {@link #getMediaBytesPerSecond()},
+     * limit in bytes is used while bitrate is unknown.
+     *
+     * @param bytes  max count of bytes to be loaded ahead of clients, {@code -1} for no limit.
+     * @param millis max playback time to be loaded ahead of clients, {@code 0} to use only limit in bytes.
+     */
+    public void setReadAhead(long bytes, long millis) {
+        synchronized (readAheadLock) {
+            readAhead = bytes;
+            readAheadMs = millis;
+            readAheadLock.notifyAll();
+        }
+    }
+
+    /**
+     * Enables retrying of failed source.
+     * <p>
+     * Source failed while being read is reopened from cached offset after delay growing exponentially,
+     * until timeout since the first error expires. Clients wait for data while source is retried.
+     * Source isn't retried if its content was changed (see {@link SourceChangedException}).
+     * </p>
+     *
+     * @param timeoutMs max time of retrying failed source in milliseconds, {@code 0} to disable retrying.
+     */
+    public void setRetryTimeout(long timeoutMs) {
+        this.retryTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Makes reading of source limited by throttle's bandwidth.
+     *
+     * @param throttle   a throttle to read source through.
+     * @param background {@code true} if source is loaded in background (e.g. preloaded).
+     */
+    public void setBandwidthThrottle(BandwidthThrottle throttle, boolean background) {
+        bandwidthChannel = throttle.open(background);
+    }
+
+    /**
+     * Changes priority of source for bandwidth throttle, see {@link #setBandwidthThrottle(BandwidthThrottle, boolean)}.
+     *
+     * @param background {@code true} if source is loaded in background.
+     */
+    public void setBackground(boolean background) {
+        BandwidthThrottle.Channel channel = bandwidthChannel;
+        if (channel != null) {
+            channel.setBackground(background);
+        }
+    }
+
+    /**
+     * Waits while reading source exceeds bandwidth allocated for this source.
+     *
+     * @param bytes a count of bytes read from source.
+     * @throws InterruptedProxyCacheException if waiting is interrupted.
+     */
+    protected void throttle(int bytes) throws InterruptedProxyCacheException {
+        BandwidthThrottle.Channel channel = bandwidthChannel;
+        if (channel != null) {
+            try {
+                channel.acquire(bytes);
+            } catch (InterruptedException e) {
+                throw new InterruptedProxyCacheException("Throttling source is interrupted", e);
+            }
+        }
+    }
+
+    /**
+     * Returns bitrate of media loaded from source. Called by source reader thread only.
+     *
+     * @return bitrate in bytes per second or {@code -1} if it is unknown.
+     * @throws ProxyCacheException if cache can't be read.
+     */
+    protected long getMediaBytesPerSecond() throws ProxyCacheException {
+        return -1;
+    }
+
+    private void throttleSource(int readBytes) throws ProxyCacheException {
+        BandwidthThrottle.Channel channel = bandwidthChannel;
+        if (channel != null) {
+            channel.setMinBytesPerSecond(getMediaBytesPerSecond());
+            throttle(readBytes);
+        }
+    }
+
+    private void onClientRead(long end) {
+        synchronized (readAheadLock) {
+            if (end > clientsOffset) {
+                clientsOffset = end;
+                readAheadLock.notifyAll();
+            }
+        }
+    }
+
+    private void waitForClients(long offset, long sourceLength) throws ProxyCacheException {
+        boolean sourceRead = sourceLength >= 0 && offset >= sourceLength;
+        if (sourceRead) {
+            return;
+        }
+        long bytesPerSecond = readAheadMs > 0 ? getMediaBytesPerSecond() : -1;
+        if (!isAhead(offset, bytesPerSecond)) {
+            return;
+        }
+        sourceReaderPaused = true;
+        try {
+            if (awaitClients(offset, bytesPerSecond, MAX_PAUSE_WITH_OPEN_SOURCE_MS)) {
+                LOG.debug("Close source paused for a long time " + source);
+                closeSource();
+                awaitClients(offset, bytesPerSecond, 0);
+                if (isStopped()) {
+                    throw new InterruptedProxyCacheException("Reading source is stopped");
+                }
+                openSource(offset);
+            }
+        } finally {
+            sourceReaderPaused = false;
+        }
+        throughputMeter.onReadStarted();   // pause isn't a part of throughput
+    }
+
+    /**
+     * Waits until reader is not ahead of clients.
+     *
+     * @return {@code true} if reader is still ahead of clients after timeout expired.
+     */
+    private boolean awaitClients(long offset, long bytesPerSecond, long timeoutMs) throws InterruptedProxyCacheException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (readAheadLock) {
+            try {
+                while (isAhead(offset, bytesPerSecond) && !isStopped()) {
+                    long timeout = timeoutMs == 0 ? 0 : deadline - System.currentTimeMillis();
+                    if (timeoutMs > 0 && timeout <= 0) {
+                        return true;
+                    }
+                    readAheadLock.wait(timeout);
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedProxyCacheException("Waiting for clients is interrupted", e);
+            }
+        }
+        return false;
+    }
+
+    private boolean isAhead(long offset, long bytesPerSecond) {
+        long millis = readAheadMs;
+        long limit = millis > 0 && bytesPerSecond > 0 ? bytesPerSecond * millis / 1000 : readAhead;
+        return limit >= 0 && offset - clientsOffset >= limit;
+    }
+
+    public void shutdown() {
+        synchronized (stopLock) {
+            LOG.debug("Shutdown proxy for " + source);
+            try {
+                stopped = true;
+                if (sourceReaderThread != null) {
+                    sourceReaderThread.interrupt();
+                }
+                if (bandwidthChannel != null) {
+                    bandwidthChannel.close();
+                }
+                cache.close();
+            } catch (ProxyCacheException e) {
+                onError(e);
+            }
+        }
+    }
+
+    protected synchronized void readSourceAsync() throws ProxyCacheException {
+        boolean readingInProgress = sourceReaderThread != null && sourceReaderThread.getState() != Thread.State.TERMINATED;
+        if (!stopped && !cache.isCompleted() && !readingInProgress) {
+            sourceReaderThread = new Thread(new SourceReaderRunnable(), "Source reader for " + source);
+            sourceReaderThread.start();
+        }
+    }
+
+    private void waitForSourceData() throws ProxyCacheException {
+        synchronized (wc) {
+            try {
+                wc.wait(1000);
+            } catch (InterruptedException e) {
+                throw new ProxyCacheException("Waiting source data is interrupted!", e);
+            }
+        }
+    }
+
+    private void notifyNewCacheDataAvailable(long cacheAvailable, long sourceAvailable) {
+        onCacheAvailable(cacheAvailable, sourceAvailable);
+
+        synchronized (wc) {
+            wc.notifyAll();
+        }
+    }
+
+    protected void onCacheAvailable(long cacheAvailable, long sourceLength) {
+        boolean zeroLengthSource = sourceLength == 0;
+        int percents = zeroLengthSource ? 100 : (int) ((float) cacheAvailable / sourceLength * 100);
+        boolean percentsChanged = percents != percentsAvailable;
+        boolean sourceLengthKnown = sourceLength >= 0;
+        if (sourceLengthKnown && percentsChanged) {
+            onCachePercentsAvailableChanged(percents);
+        }
+        percentsAvailable = percents;
+    }
+
+    protected void onCachePercentsAvailableChanged(int percentsAvailable) {
+    }
+
+    /**
+     * Returns throughput cache is growing with: measured throughput of reading source limited by bandwidth
+     * allocated to source by throttle (e.g. background bandwidth of lingering source), or zero while source reader
+     * is paused by read ahead limit.
+     *
+     * @return throughput in bytes per second or {@code -1} if source wasn't read long enough to measure it.
+     */
+    protected long getSourceThroughput() {
+        if (sourceReaderPaused) {
+            return 0;
+        }
+        long throughput = throughputMeter.getBytesPerSecond();
+        BandwidthThrottle.Channel channel = bandwidthChannel;
+        return channel != null && throughput > 0 ? Math.min(throughput, channel.getBytesPerSecond()) : throughput;
+    }
+
+    private void readSource() {
+        int retries = 0;
+        long retryDeadline = 0;
+        while (true) {
+            long readBytesBefore = sourceBytesRead;
+            try {
+                readSourceToEnd();
+                return;
+            } catch (Throwable e) {
+                long now = System.currentTimeMillis();
+                if (retries == 0 || sourceBytesRead > readBytesBefore) {
+                    retries = 0;    // source was read successfully since last error, so it is a new failure
+                    retryDeadline = now + retryTimeoutMs;
+                }
+                long delay = getRetryDelay(retries);
+                if (!isRetryable(e) || now + delay > retryDeadline) {
+                    if (e instanceof SourceChangedException) {
+                        discardChangedCache();
+                    }
+                    readSourceErrorsCount.incrementAndGet();
+                    onError(e);
+                    return;
+                }
+                LOG.warn("Error reading source " + source + ", retry in " + delay + " ms: " + e.getMessage());
+                retries++;
+                if (!sleepBeforeRetry(delay)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void readSourceToEnd() throws ProxyCacheException {
+        long sourceAvailable = -1;
+        long offset = 0;
+        try {
+            offset = cache.available();
+            openSource(offset);
+            throughputMeter.onReadStarted();
+            sourceAvailable = source.length();
+            boolean digestContent = getContentMd5() != null;
+            if (offset == 0) {
+                contentDigest.reset();
+            }
+            byte[] buffer = new byte[ProxyCacheUtils.DEFAULT_BUFFER_SIZE];
+            int readBytes;
+            waitForClients(offset, sourceAvailable);
+            while ((readBytes = source.read(buffer)) != -1) {
+                long cacheAvailable;
+                synchronized (stopLock) {
+                    if (isStopped()) {
+                        return;
+                    }
+                    cache.append(buffer, readBytes);
+                    cacheAvailable = cache.available();
+                }
+                if (digestContent) {
+                    contentDigest.update(offset, buffer, readBytes);
+                }
+                offset += readBytes;
+                sourceBytesRead += readBytes;
+                throughputMeter.onBytesRead(readBytes);
+                throttleSource(readBytes);
+                if (cacheAvailable > offset) {
+                    // cache got data loaded by other way (e.g. range loaded for seek), skip it in source
+                    offset = cacheAvailable;
+                    if (sourceAvailable >= 0 && offset >= sourceAvailable) {
+                        break;
+                    }
+                    closeSource();
+                    openSource(offset);
+                    throughputMeter.onReadStarted();
+                }
+                notifyNewCacheDataAvailable(offset, sourceAvailable);
+                waitForClients(offset, sourceAvailable);
+            }
+            if (retryTimeoutMs > 0 && sourceAvailable >= 0 && offset < sourceAvailable && !isStopped()) {
+                throw new ProxyCacheException("Source " + source + " is closed after " + offset + " bytes of " + sourceAvailable);
+            }
+            tryComplete();
+            onSourceRead();
+        } finally {
+            closeSource();
+            notifyNewCacheDataAvailable(offset, sourceAvailable);
+        }
+    }
+
+    private void discardChangedCache() {
+        try {
+            discardCache();
+        } catch (ProxyCacheException e) {
+            LOG.warn("Error discarding cache of changed source " + source, e);
+        }
+    }
+
+    private boolean isRetryable(Throwable e) {
+        boolean interruption = e instanceof InterruptedProxyCacheException || isStopped();
+        boolean contentChanged = e instanceof SourceChangedException || e instanceof CorruptedCacheException;
+        return retryTimeoutMs > 0 && e instanceof ProxyCacheException && !interruption && !contentChanged;
+    }
+
+    /**
+     * Returns exponential delay with jitter, so many clients don't retry at the same moment.
+     */
+    private long getRetryDelay(int retries) {
+        long delay = Math.min(MIN_RETRY_DELAY_MS << Math.min(retries, 16), MAX_RETRY_DELAY_MS);
+        return delay / 2 + (long) (Math.random() * delay / 2);
+    }
+
+    private boolean sleepBeforeRetry(long delay) {
+        try {
+            Thread.sleep(delay);
+            return !isStopped();
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private void onSourceRead() {
+        // guaranteed notify listeners after source read and cache completed
+        percentsAvailable = 100;
+        onCachePercentsAvailableChanged(percentsAvailable);
+    }
+
+    private void tryComplete() throws ProxyCacheException {
+        synchronized (stopLock) {
+            if (!isStopped() && cache.available() == source.length()) {
+                verifyContent(source.length());
+                cache.complete();
+            }
+        }
+    }
+
+    private void verifyContent(long length) throws ProxyCacheException {
+        String expectedMd5 = getContentMd5();
+        String md5 = contentDigest.complete(length);
+        if (expectedMd5 == null || md5 == null) {
+            return;
+        }
+        if (!expectedMd5.equals(md5)) {
+            String message = "Content of " + source + " has MD5 " + md5 + " instead of " + expectedMd5;
+            if (isContentMd5Guessed()) {
+                LOG.warn(message + " guessed from ETag, content is accepted");
+                return;
+            }
+            discardCache();
+            throw new CorruptedCacheException(message + " declared by origin", 0, length);
+        }
+        LOG.debug("Content of " + source + " matches MD5 declared by origin");
+    }
+
+    private boolean isStopped() {
+        return Thread.currentThread().isInterrupted() || stopped;
+    }
+
+    private void openSource(long offset) throws ProxyCacheException {
+        source.open(offset);
+        sourceOpensCount++;     // written by source reader thread only
+    }
+
+    private void closeSource() {
+        try {
+            source.close();
+        } catch (ProxyCacheException e) {
+            onError(new ProxyCacheException("Error closing source " + source, e));
+        }
+    }
+
+    protected final void onError(final Throwable e) {
+        boolean interruption = e instanceof InterruptedProxyCacheException;
+        if (interruption) {
+            LOG.debug("ProxyCache is interrupted");
+        } else {
+            LOG.error("ProxyCache error", e);
+        }
+    }
+
+    private class SourceReaderRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            readSource();
+        }
+    }
+}
@@ -0,0 +1,1281 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.CacheDirectory;
+import com.danikula.videocache.file.DiskUsage;
+import com.danikula.videocache.file.EncryptionKeyProvider;
+import com.danikula.videocache.file.FileNameGenerator;
+import com.danikula.videocache.file.LruDiskUsage;
+import com.danikula.videocache.file.Md5FileNameGenerator;
+import com.danikula.videocache.file.NoEncryptionKeyProvider;
+import com.danikula.videocache.file.RenditionGroups;
+import com.danikula.videocache.file.TotalCountLruDiskUsage;
+import com.danikula.videocache.file.TotalSizeLruDiskUsage;
+import com.danikula.videocache.file.UnlimitedDiskUsage;
+import com.danikula.videocache.headers.EmptyHeadersInjector;
+import com.danikula.videocache.headers.HeaderInjector;
+import com.danikula.videocache.mirrors.MirrorsProvider;
+import com.danikula.videocache.mirrors.NoMirrorsProvider;
+import com.danikula.videocache.sourcestorage.NoSourceInfoStorage;
+import com.danikula.videocache.sourcestorage.SourceInfoStorage;
+import com.danikula.videocache.transport.OriginTransport;
+import com.danikula.videocache.transport.UrlConnectionTransport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.danikula.videocache.Preconditions.checkAllNotNull;
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Simple lightweight proxy server with file caching support that handles HTTP requests.
+ * <p>
+ * This is platform independent core of proxy, it depends on plain JVM only and can be used (and tested) without Android.
+ * On Android use {@code HttpProxyCacheServer} that configures proxy with {@code Context}.
+ * Typical usage:
+ * <pre><code>
+ * ProxyCacheServer proxy = new ProxyCacheServer.Builder(cacheDir)
+ *      .maxCacheSize(100 * 1024 * 1024)
+ *      .build();
+ * String proxyUrl = proxy.getProxyUrl(VIDEO_URL);
+ * // pass proxyUrl to player
+ * ...
+ * proxy.shutdown();
+ * </code></pre>
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class ProxyCacheServer {
+
+    private static final Logger LOG = LoggerFactory.getLogger("ProxyCacheServer");
+    private static final String PROXY_HOST = "127.0.0.1";
+    private static final String PRELOAD_PATH = "preload/";
+    private static final int RETRY_AFTER_SECONDS = 1;
+    private static final int REQUEST_READ_TIMEOUT_MS = 1000;
+    private static final int REJECTED_REQUEST_READ_TIMEOUT_MS = 100;
+    private static final int MAX_REJECTING_THREADS = 4;
+    private static final int MAX_RACING_SOURCE_OPENERS = 4;
+    private static final long PING_RETRY_INTERVAL_MS = 5000;
+
+    private final Object clientsLock = new Object();
+    private final Object startLock = new Object();
+    private final Object pingLock = new Object();
+    private final ExecutorService socketProcessor;
+    private final ExecutorService preloadProcessor;
+    private final ScheduledExecutorService lingerExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService startExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService rejectProcessor = new ThreadPoolExecutor(0, MAX_REJECTING_THREADS,
+            1, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());   // no queue, socket is closed if all threads are busy
+    private final ExecutorService sourceOpeners = new ThreadPoolExecutor(0, MAX_RACING_SOURCE_OPENERS,
+            1, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());   // no queue, seek isn't raced if all threads are busy
+    private final Semaphore requestsInFlight;
+    private final Map<String, HttpProxyCacheServerClients> clientsMap = new ConcurrentHashMap<>();
+    private final List<MetricsListener> metricsListeners = new CopyOnWriteArrayList<>();
+    private final MetricsListener metricsDispatcher = new MetricsDispatcher();
+    private final Config config;
+    private volatile ServerSocket serverSocket;
+    private int port;
+    private String proxyUrlPrefix;
+    private Thread waitConnectionThread;
+    private Pinger pinger;
+    private Prefetcher prefetcher;
+    private List<ManifestProxy> manifestProxies;
+    private boolean stopped;
+    private volatile ProxySelector pingedProxySelector;
+    private volatile boolean pingScheduled;
+    private volatile long failedPingTime;
+
+    protected ProxyCacheServer(Config config) {
+        this.config = checkNotNull(config);
+        this.socketProcessor = Executors.newFixedThreadPool(config.socketWorkersCount);
+        this.preloadProcessor = config.preloadWorkersCount > 0 ? Executors.newFixedThreadPool(config.preloadWorkersCount) : socketProcessor;
+        this.requestsInFlight = new Semaphore(config.maxRequestsInFlight);
+        if (config.diskUsage instanceof LruDiskUsage) {
+            ((LruDiskUsage) config.diskUsage).addDeletionListener(config.cachedUrls);
+        }
+        if (!config.lazyStart) {
+            try {
+                startServer();
+            } catch (IOException e) {
+                socketProcessor.shutdown();
+                preloadProcessor.shutdown();
+                throw new IllegalStateException("Error starting local proxy server", e);
+            }
+            LOG.info("Proxy cache server started. Is it alive? " + isAlive());
+        }
+    }
+
+    /**
+     * Starts server in background if it isn't started yet and checks it by ping.
+     * <p>
+     * Useful for server built with {@link Builder#lazyStart(boolean)}: call it when app is idle,
+     * so first {@link #getProxyUrl(String)} doesn't bind server socket.
+     *
+     * @return future completed when server is started and pinged, its value is {@code true} if server is alive.
+     */
+    public Future<Boolean> start() {
+        return startExecutor.submit(new StartCallable());
+    }
+
+    /**
+     * Returns url that wrap original url and should be used for client (MediaPlayer, ExoPlayer, etc).
+     * <p>
+     * If file for this url is fully cached (it means method {@link #isCached(String)} returns {@code true})
+     * then file:// uri to cached file will be returned.
+     * <p>
+     * Calling this method has same effect as calling {@link #getProxyUrl(String, boolean)} with 2nd parameter set to {@code true}.
+     *
+     * @param url a url to file that should be cached.
+     * @return a wrapped by proxy url if file is not fully cached or url pointed to cache file otherwise.
+     */
+    public String getProxyUrl(String url) {
+        return getProxyUrl(url, true);
+    }
+
+    /**
+     * Returns url that wrap original url and should be used for client (MediaPlayer, ExoPlayer, etc).
+     * <p>
+     * If parameter {@code allowCachedFileUri} is {@code true} and file for this url is fully cached
+     * (it means method {@link #isCached(String)} returns {@code true}) then file:// uri to cached file will be returned.
+     * Encrypted files (see {@link Builder#encryptionKeyProvider(EncryptionKeyProvider)}) are always served by proxy.
+     *
+     * @param url                a url to file that should be cached.
+     * @param allowCachedFileUri {@code true} if allow to return file:// uri if url is fully cached
+     * @return a wrapped by proxy url if file is not fully cached or url pointed to cache file otherwise (if {@code allowCachedFileUri} is {@code true}).
+     */
+    public String getProxyUrl(String url, boolean allowCachedFileUri) {
+        File cacheFile = allowCachedFileUri ? getCachedFile(url) : null;
+        if (cacheFile != null && config.encryptionKeyProvider.getKey(url) == null) {
+            touchFileSafely(cacheFile);
+            return ProxyCacheUtils.toFileUri(cacheFile);
+        }
+        return isAlive() ? appendToProxyUrl(url) : url;
+    }
+
+    /**
+     * Returns url that wrap original url and should be used for preloading content (i.e. for requests the user doesn't wait for).
+     * <p>
+     * Requests made with this url are processed by separate pool of threads (see {@link Builder#preloadWorkersCount(int)}),
+     * so a lot of preloading requests can't starve requests of visible player.
+     *
+     * @param url a url to file that should be cached.
+     * @return a wrapped by proxy url or original url if proxy is not alive.
+     */
+    public String getPreloadProxyUrl(String url) {
+        return isAlive() ? appendToProxyUrl(PRELOAD_PATH, url) : url;
+    }
+
+    public void registerCacheListener(CacheListener cacheListener, String url) {
+        checkAllNotNull(cacheListener, url);
+        synchronized (clientsLock) {
+            try {
+                getClients(url).registerCacheListener(cacheListener);
+            } catch (ProxyCacheException e) {
+                LOG.warn("Error registering cache listener", e);
+            }
+        }
+    }
+
+    public void unregisterCacheListener(CacheListener cacheListener, String url) {
+        checkAllNotNull(cacheListener, url);
+        synchronized (clientsLock) {
+            try {
+                getClients(url).unregisterCacheListener(cacheListener);
+            } catch (ProxyCacheException e) {
+                LOG.warn("Error registering cache listener", e);
+            }
+        }
+    }
+
+    public void unregisterCacheListener(CacheListener cacheListener) {
+        checkNotNull(cacheListener);
+        synchronized (clientsLock) {
+            for (HttpProxyCacheServerClients clients : clientsMap.values()) {
+                clients.unregisterCacheListener(cacheListener);
+            }
+        }
+    }
+
+    /**
+     * Registers listener for metrics of every request processed by proxy (time to first byte, bytes served from cache, etc).
+     * <p>
+     * Listener is called on thread processed request, do not forget to unregister it with {@link #unregisterMetricsListener(MetricsListener)}.
+     *
+     * @param metricsListener a listener to be registered, can't be {@code null}.
+     */
+    public void registerMetricsListener(MetricsListener metricsListener) {
+        metricsListeners.add(checkNotNull(metricsListener));
+    }
+
+    public void unregisterMetricsListener(MetricsListener metricsListener) {
+        metricsListeners.remove(checkNotNull(metricsListener));
+    }
+
+    /**
+     * Checks is cache contains fully cached file for particular url.
+     *
+     * @param url an url cache file will be checked for.
+     * @return {@code true} if cache contains fully cached file for passed in parameters url.
+     */
+    public boolean isCached(String url) {
+        checkNotNull(url, "Url can't be null!");
+        return getCachedFile(url) != null;
+    }
+
+    public void shutdown() {
+        LOG.info("Shutdown proxy server");
+
+        shutdownClients();
+        lingerExecutor.shutdownNow();
+        sourceOpeners.shutdownNow();
+        startExecutor.shutdownNow();
+        rejectProcessor.shutdownNow();
+        if (config.diskUsage instanceof LruDiskUsage) {
+            ((LruDiskUsage) config.diskUsage).removeDeletionListener(config.cachedUrls);
+        }
+
+        config.sourceInfoStorage.release();
+
+        synchronized (startLock) {
+            stopped = true;
+        }
+        if (serverSocket != null) {
+            waitConnectionThread.interrupt();
+            prefetcher.shutdown();
+        }
+        socketProcessor.shutdown();
+        preloadProcessor.shutdown();
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            onError(new ProxyCacheException("Error shutting down proxy server", e));
+        }
+    }
+
+    private void startServer() throws IOException {
+        InetAddress inetAddress = InetAddress.getByName(PROXY_HOST);
+        ServerSocket serverSocket = new ServerSocket(0, config.socketBacklog, inetAddress);
+        this.port = serverSocket.getLocalPort();
+        this.proxyUrlPrefix = String.format(Locale.US, "http://%s:%d/", PROXY_HOST, port);
+        IgnoreHostProxySelector.install(PROXY_HOST, port);
+        this.pinger = new Pinger(PROXY_HOST, port);
+        this.prefetcher = new Prefetcher(config, appendToProxyUrl(PRELOAD_PATH, ""));
+        this.manifestProxies = Arrays.asList(
+                new HlsProxy(config, proxyUrlPrefix, prefetcher),
+                new DashProxy(config, proxyUrlPrefix, prefetcher));
+        this.waitConnectionThread = new Thread(new WaitRequestsRunnable());
+        // directory is prepared and listed in background, server may be started lazily by first request of proxy url on ui thread
+        new Thread(new PrepareCacheRunnable()).start();
+        // bound socket queues connections until they are accepted, so there is no need to wait for thread starts
+        this.serverSocket = serverSocket;
+        this.waitConnectionThread.start();
+    }
+
+    private boolean ensureStarted() {
+        if (serverSocket != null) {
+            return true;
+        }
+        synchronized (startLock) {
+            if (serverSocket == null && !stopped) {
+                try {
+                    startServer();
+                    LOG.info("Proxy cache server is started lazily");
+                } catch (IOException e) {
+                    onError(new ProxyCacheException("Error starting local proxy server", e));
+                }
+            }
+            return serverSocket != null;
+        }
+    }
+
+    /**
+     * Checks if proxy can be used. Server is pinged only if it wasn't pinged successfully yet or system proxy selector
+     * was changed since last ping (see {@link IgnoreHostProxySelector}). Otherwise running thread accepting connections
+     * is enough, so this method is cheap enough for calling from main thread.
+     * <p>
+     * Server started lazily is pinged in background, it is considered alive until ping fails.
+     */
+    private boolean isAlive() {
+        if (!ensureStarted() || serverSocket.isClosed() || !waitConnectionThread.isAlive()) {
+            return false;
+        }
+        ProxySelector proxySelector = ProxySelector.getDefault();
+        if (proxySelector == pingedProxySelector) {
+            return true;
+        }
+        if (config.lazyStart) {
+            schedulePing();
+            return failedPingTime == 0;
+        }
+        return ping(proxySelector);
+    }
+
+    private void schedulePing() {
+        if (!pingScheduled) {
+            pingScheduled = true;
+            try {
+                startExecutor.submit(new StartCallable());
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Proxy is shut down, ping is skipped");
+            }
+        }
+    }
+
+    private boolean ping(ProxySelector proxySelector) {
+        synchronized (pingLock) {
+            if (proxySelector == pingedProxySelector) {
+                return true;
+            }
+            if (System.currentTimeMillis() - failedPingTime < PING_RETRY_INTERVAL_MS) {
+                return false;
+            }
+            boolean pinged = pinger.ping(3, 70);   // 70+140+280=max~500ms
+            pingedProxySelector = pinged ? proxySelector : null;
+            failedPingTime = pinged ? 0 : System.currentTimeMillis();
+            return pinged;
+        }
+    }
+
+    private String appendToProxyUrl(String url) {
+        return appendToProxyUrl("", url);
+    }
+
+    private String appendToProxyUrl(String path, String url) {
+        return proxyUrlPrefix + path + ProxyCacheUtils.encode(url);
+    }
+
+    private File getCachedFile(String url) {
+        File cacheFile = getCacheFile(url);
+        if (config.cachedUrls.isCached(cacheFile)) {
+            return cacheFile;
+        }
+        if (config.cachedUrls.isNotCached(url)) {
+            return null;
+        }
+        long checkTime = System.currentTimeMillis();
+        config.cacheDirectory.migrate(cacheFile);   // file cached before sharding may be not moved to shard yet
+        if (cacheFile.exists()) {
+            config.cachedUrls.onCached(cacheFile);
+            return cacheFile;
+        }
+        config.cachedUrls.onNotCached(url, checkTime);
+        return null;
+    }
+
+    private File getCacheFile(String url) {
+        return config.generateCacheFile(url);
+    }
+
+    private void touchFileSafely(File cacheFile) {
+        try {
+            config.diskUsage.touch(cacheFile);
+        } catch (IOException e) {
+            LOG.error("Error touching file " + cacheFile, e);
+        }
+    }
+
+    private void shutdownClients() {
+        synchronized (clientsLock) {
+            for (HttpProxyCacheServerClients clients : clientsMap.values()) {
+                clients.shutdown();
+            }
+            clientsMap.clear();
+        }
+    }
+
+    private void waitForRequest() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Socket socket = serverSocket.accept();
+                LOG.debug("Accept new socket " + socket);
+                if (requestsInFlight.tryAcquire()) {
+                    processSocketAsync(socket);
+                } else {
+                    rejectSocketAsync(socket);
+                }
+            }
+        } catch (IOException e) {
+            onError(new ProxyCacheException("Error during waiting connection", e));
+        }
+    }
+
+    private void processSocketAsync(Socket socket) {
+        try {
+            socketProcessor.submit(new SocketProcessorRunnable(socket));
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Proxy server is shut down. Reject socket " + socket);
+            finishSocket(socket);
+        }
+    }
+
+    private void rejectSocketAsync(Socket socket) {
+        try {
+            rejectProcessor.submit(new RejectSocketRunnable(socket));
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Too many requests over limit {}. Close socket {}", config.maxRequestsInFlight, socket);
+            releaseSocket(socket);
+        }
+    }
+
+    /**
+     * Reads request and processes it or hands it over to preload workers. Preload requests are isolated from others
+     * only after request is read, so time of reading is limited by {@link #REQUEST_READ_TIMEOUT_MS}.
+     */
+    private void processSocket(Socket socket) {
+        boolean handedOver = false;
+        try {
+            GetRequest request = readRequest(socket, REQUEST_READ_TIMEOUT_MS);
+            LOG.debug("Request to cache proxy:" + request);
+            boolean preload = request.uri.startsWith(PRELOAD_PATH);
+            if (preload && preloadProcessor != socketProcessor) {
+                preloadProcessor.submit(new RequestProcessorRunnable(socket, request));
+                handedOver = true;
+            } else {
+                processRequest(socket, request);
+            }
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Proxy server is shut down. Reject preload request");
+        } catch (SocketTimeoutException e) {
+            LOG.warn("Request isn't read in {} ms. Close socket {}", REQUEST_READ_TIMEOUT_MS, socket);
+        } catch (SocketException e) {
+            // There is no way to determine that client closed connection http://stackoverflow.com/a/10241044/999458
+            // So just to prevent log flooding don't log stacktrace
+            LOG.debug("Closing socket… Socket is closed by client.");
+        } catch (IOException e) {
+            onError(new ProxyCacheException("Error processing request", e));
+        } finally {
+            if (!handedOver) {
+                finishSocket(socket);
+            }
+        }
+    }
+
+    private void processRequest(Socket socket, GetRequest request) {
+        try {
+            boolean preload = request.uri.startsWith(PRELOAD_PATH);
+            String uri = preload ? request.uri.substring(PRELOAD_PATH.length()) : request.uri;
+            String url = DashManifest.isProxyPath(uri) ? DashManifest.toOriginalUrl(uri) : ProxyCacheUtils.decode(uri);
+            ManifestProxy manifestProxy = findManifestProxy(url);
+            if (pinger.isPingRequest(url)) {
+                pinger.responseToPing(socket);
+            } else if (manifestProxy != null) {
+                manifestProxy.processManifestRequest(url, socket);
+            } else {
+                if (!preload) {
+                    onFileRequested(url);
+                }
+                HttpProxyCacheServerClients clients = getClients(url);
+                boolean processed = clients.processRequest(request, socket, preload);
+                if (!processed) {
+                    LOG.warn("Max clients per url limit {} is reached for {}", config.maxClientsPerUrl, url);
+                    responseServiceUnavailable(socket);
+                }
+            }
+        } catch (SocketException e) {
+            // There is no way to determine that client closed connection http://stackoverflow.com/a/10241044/999458
+            // So just to prevent log flooding don't log stacktrace
+            LOG.debug("Closing socket… Socket is closed by client.");
+        } catch (ProxyCacheException | IOException e) {
+            onError(new ProxyCacheException("Error processing request", e));
+        }
+    }
+
+    private ManifestProxy findManifestProxy(String url) {
+        for (ManifestProxy manifestProxy : manifestProxies) {
+            if (manifestProxy.isManifest(url)) {
+                return manifestProxy;
+            }
+        }
+        return null;
+    }
+
+    private void onFileRequested(String url) {
+        for (ManifestProxy manifestProxy : manifestProxies) {
+            manifestProxy.onFileRequested(url);
+        }
+    }
+
+    private void finishSocket(Socket socket) {
+        releaseSocket(socket);
+        requestsInFlight.release();
+        LOG.debug("Opened connections: " + getClientsCount());
+    }
+
+    /**
+     * Responds with 503 to request exceeding {@link Builder#maxRequestsInFlight(int)} limit. Request is read before
+     * responding, otherwise closing socket with unread data resets connection and client may never get response.
+     * Ping is answered regardless of limit, so {@link #isAlive()} doesn't fail just because proxy is busy.
+     * Rejected requests are read by few threads without queue and with short timeout, so slow clients
+     * don't delay rejecting others and pings.
+     */
+    private void rejectSocket(Socket socket) {
+        try {
+            GetRequest request = readRejectedRequest(socket);
+            if (request != null && pinger.isPingRequest(request.uri)) {
+                pinger.responseToPing(socket);
+            } else {
+                LOG.warn("Max requests in flight limit {} is reached. Reject socket {}", config.maxRequestsInFlight, socket);
+                responseServiceUnavailable(socket);
+            }
+        } catch (IOException e) {
+            LOG.debug("Error rejecting socket… Socket is closed by client.");
+        } finally {
+            releaseSocket(socket);
+        }
+    }
+
+    private GetRequest readRejectedRequest(Socket socket) throws IOException {
+        try {
+            return readRequest(socket, REJECTED_REQUEST_READ_TIMEOUT_MS);
+        } catch (SocketTimeoutException | IllegalArgumentException e) {
+            LOG.debug("Rejected request isn't read: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private GetRequest readRequest(Socket socket, int timeoutMs) throws IOException {
+        socket.setSoTimeout(timeoutMs);
+        GetRequest request = GetRequest.read(socket.getInputStream());
+        socket.setSoTimeout(0);
+        return request;
+    }
+
+    private void responseServiceUnavailable(Socket socket) throws IOException {
+        String response = "HTTP/1.1 503 SERVICE UNAVAILABLE\n" +
+                "Retry-After: " + RETRY_AFTER_SECONDS + "\n" +
+                "Content-Length: 0\n" +
+                "\n";
+        OutputStream out = socket.getOutputStream();
+        out.write(response.getBytes("UTF-8"));
+        out.flush();
+    }
+
+    private HttpProxyCacheServerClients getClients(String url) throws ProxyCacheException {
+        synchronized (clientsLock) {
+            HttpProxyCacheServerClients clients = clientsMap.get(url);
+            if (clients == null) {
+                clients = new HttpProxyCacheServerClients(url, config, metricsDispatcher, lingerExecutor, sourceOpeners);
+                clientsMap.put(url, clients);
+            }
+            return clients;
+        }
+    }
+
+    private int getClientsCount() {
+        synchronized (clientsLock) {
+            int count = 0;
+            for (HttpProxyCacheServerClients clients : clientsMap.values()) {
+                count += clients.getClientsCount();
+            }
+            return count;
+        }
+    }
+
+    private void releaseSocket(Socket socket) {
+        closeSocketInput(socket);
+        closeSocketOutput(socket);
+        closeSocket(socket);
+    }
+
+    private void closeSocketInput(Socket socket) {
+        try {
+            if (!socket.isInputShutdown()) {
+                socket.shutdownInput();
+            }
+        } catch (SocketException e) {
+            // There is no way to determine that client closed connection http://stackoverflow.com/a/10241044/999458
+            // So just to prevent log flooding don't log stacktrace
+            LOG.debug("Releasing input stream… Socket is closed by client.");
+        } catch (IOException e) {
+            onError(new ProxyCacheException("Error closing socket input stream", e));
+        }
+    }
+
+    private void closeSocketOutput(Socket socket) {
+        try {
+            if (!socket.isOutputShutdown()) {
+                socket.shutdownOutput();
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to close socket on proxy side: {}. It seems client have already closed connection.", e.getMessage());
+        }
+    }
+
+    private void closeSocket(Socket socket) {
+        try {
+            if (!socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            onError(new ProxyCacheException("Error closing socket", e));
+        }
+    }
+
+    private void onError(Throwable e) {
+        LOG.error("ProxyCacheServer error", e);
+    }
+
+    private final class MetricsDispatcher implements MetricsListener {
+
+        @Override
+        public void onRequestProcessed(RequestMetrics metrics) {
+            LOG.debug("Request is processed: " + metrics);
+            for (MetricsListener metricsListener : metricsListeners) {
+                metricsListener.onRequestProcessed(metrics);
+            }
+        }
+    }
+
+    private final class WaitRequestsRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            waitForRequest();
+        }
+    }
+
+    private final class PrepareCacheRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                config.cacheDirectory.migrate();
+            } catch (IOException e) {
+                LOG.error("Error preparing sharded cache directory", e);
+            }
+            config.cachedUrls.onListingStarted();
+            config.cachedUrls.onListed(config.cacheDirectory.listCachedFiles());
+        }
+    }
+
+    private final class StartCallable implements Callable<Boolean> {
+
+        @Override
+        public Boolean call() throws Exception {
+            pingScheduled = false;
+            return ensureStarted() && ping(ProxySelector.getDefault());
+        }
+    }
+
+    private final class SocketProcessorRunnable implements Runnable {
+
+        private final Socket socket;
+
+        public SocketProcessorRunnable(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            processSocket(socket);
+        }
+    }
+
+    private final class RejectSocketRunnable implements Runnable {
+
+        private final Socket socket;
+
+        public RejectSocketRunnable(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            rejectSocket(socket);
+        }
+    }
+
+    private final class RequestProcessorRunnable implements Runnable {
+
+        private final Socket socket;
+        private final GetRequest request;
+
+        public RequestProcessorRunnable(Socket socket, GetRequest request) {
+            this.socket = socket;
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            try {
+                processRequest(socket, request);
+            } finally {
+                finishSocket(socket);
+            }
+        }
+    }
+
+    /**
+     * Base builder for {@link ProxyCacheServer} and its platform specific subclasses.
+     *
+     * @param <B> type of concrete builder returned by setters.
+     * @param <S> type of server built by builder.
+     */
+    public abstract static class BaseBuilder<B extends BaseBuilder<B, S>, S extends ProxyCacheServer> {
+
+        private static final long DEFAULT_MAX_SIZE = 512 * 1024 * 1024;
+        private static final int DEFAULT_SOCKET_WORKERS_COUNT = 8;
+        private static final int DEFAULT_SOCKET_BACKLOG = 8;
+        private static final int DEFAULT_FOREGROUND_BANDWIDTH_WEIGHT = 4;
+
+        private File cacheRoot;
+        private FileNameGenerator fileNameGenerator;
+        private final RenditionGroups renditionGroups = new RenditionGroups();
+        private DiskUsage diskUsage;
+        private EncryptionKeyProvider encryptionKeyProvider;
+        private SourceInfoStorage sourceInfoStorage;
+        private HeaderInjector headerInjector;
+        private MirrorsProvider mirrorsProvider;
+        private OriginTransport transport;
+        private final List<SourceFactory> sourceFactories = new ArrayList<>();
+        private int socketWorkersCount = DEFAULT_SOCKET_WORKERS_COUNT;
+        private int preloadWorkersCount;
+        private int socketBacklog = DEFAULT_SOCKET_BACKLOG;
+        private int maxClientsPerUrl = Integer.MAX_VALUE;
+        private int maxRequestsInFlight = Integer.MAX_VALUE;
+        private int prefetchSegments;
+        private boolean raceFarSeeks;
+        private boolean lazyStart;
+        private boolean shardCacheDirectory;
+        private long readAheadBytes = -1;
+        private long readAheadMs;
+        private long lingerMs;
+        private long lingerReadAhead;
+        private long sourceRetryTimeoutMs;
+        private long maxBandwidth = BandwidthThrottle.UNLIMITED;
+        private long maxPreloadBandwidth = BandwidthThrottle.UNLIMITED;
+        private int foregroundBandwidthWeight = DEFAULT_FOREGROUND_BANDWIDTH_WEIGHT;
+        private int preloadBandwidthWeight = 1;
+        private Executor callbackExecutor;
+
+        protected BaseBuilder(File cacheRoot) {
+            this.cacheRoot = checkNotNull(cacheRoot);
+            this.sourceInfoStorage = new NoSourceInfoStorage();
+            this.diskUsage = new TotalSizeLruDiskUsage(DEFAULT_MAX_SIZE, renditionGroups);
+            this.fileNameGenerator = new Md5FileNameGenerator();
+            this.encryptionKeyProvider = new NoEncryptionKeyProvider();
+            this.headerInjector = new EmptyHeadersInjector();
+            this.mirrorsProvider = new NoMirrorsProvider();
+            this.transport = new UrlConnectionTransport();
+            this.callbackExecutor = new DirectExecutor();
+        }
+
+        /**
+         * Overrides default cache folder to be used for caching files.
+         * <p>
+         * On Android by default AndroidVideoCache uses
+         * '/Android/data/[app_package_name]/cache/video-cache/' if card is mounted and app has appropriate permission
+         * or 'video-cache' subdirectory in default application's cache directory otherwise.
+         * </p>
+         * <b>Note</b> directory must be used <b>only</b> for AndroidVideoCache files.
+         *
+         * @param file a cache directory, can't be null.
+         * @return a builder.
+         */
+        public B cacheDirectory(File file) {
+            this.cacheRoot = checkNotNull(file);
+            return self();
+        }
+
+        /**
+         * Overrides default cache file name generator {@link Md5FileNameGenerator} .
+         *
+         * @param fileNameGenerator a new file name generator.
+         * @return a builder.
+         */
+        public B fileNameGenerator(FileNameGenerator fileNameGenerator) {
+            this.fileNameGenerator = checkNotNull(fileNameGenerator);
+            return self();
+        }
+
+        /**
+         * Sets provider of keys for encrypting cached files, files of urls without key are stored unencrypted.
+         * <p>
+         * Encrypted files are stored with AES-CTR by {@link com.danikula.videocache.file.EncryptedFileCache} and
+         * always served by proxy, player never gets file:// uri of them. By default files are not encrypted.
+         *
+         * @param encryptionKeyProvider a provider of keys.
+         * @return a builder.
+         */
+        public B encryptionKeyProvider(EncryptionKeyProvider encryptionKeyProvider) {
+            this.encryptionKeyProvider = checkNotNull(encryptionKeyProvider);
+            return self();
+        }
+
+        /**
+         * Sets max cache size in bytes.
+         * <p>
+         * All files that exceeds limit will be deleted using LRU strategy.
+         * Default value is 512 Mb.
+         * </p>
+         * Note this method overrides result of calling {@link #maxCacheFilesCount(int)}
+         *
+         * @param maxSize max cache size in bytes.
+         * @return a builder.
+         */
+        public B maxCacheSize(long maxSize) {
+            this.diskUsage = new TotalSizeLruDiskUsage(maxSize, renditionGroups);
+            return self();
+        }
+
+        /**
+         * Sets max cache files count.
+         * All files that exceeds limit will be deleted using LRU strategy.
+         * All cached segments of HLS or DASH stream are counted as one file.
+         * Note this method overrides result of calling {@link #maxCacheSize(long)}
+         *
+         * @param count max cache files count.
+         * @return a builder.
+         */
+        public B maxCacheFilesCount(int count) {
+            this.diskUsage = new TotalCountLruDiskUsage(count, renditionGroups);
+            return self();
+        }
+
+        /**
+         * Set custom DiskUsage logic for handling when to keep or clean cache.
+         *
+         * @param diskUsage a disk usage strategy, cant be {@code null}.
+         * @return a builder.
+         */
+        public B diskUsage(DiskUsage diskUsage) {
+            this.diskUsage = checkNotNull(diskUsage);
+            return self();
+        }
+
+        /**
+         * Add headers along the request to the server
+         *
+         * @param headerInjector to inject header base on url
+         * @return a builder
+         */
+        public B headerInjector(HeaderInjector headerInjector) {
+            this.headerInjector = checkNotNull(headerInjector);
+            return self();
+        }
+
+        /**
+         * Sets provider of mirrors (e.g. CDN hosts) serving the same content as requested url.
+         * <p>
+         * Source is loaded from the fastest mirror (ranked by measured time to first byte and throughput),
+         * if mirror fails or slows down loading is continued from another one at the same offset.
+         * Mirrors should serve identical files with the same ETag or Last-Modified, otherwise resumed loading is rejected.
+         * Cache file is named after original url. By default there are no mirrors.
+         *
+         * @param mirrorsProvider a provider of mirrors for url.
+         * @return a builder.
+         */
+        public B mirrorsProvider(MirrorsProvider mirrorsProvider) {
+            this.mirrorsProvider = checkNotNull(mirrorsProvider);
+            return self();
+        }
+
+        /**
+         * Sets transport for requests to origin servers.
+         * <p>
+         * By default requests are sent with {@link java.net.HttpURLConnection}. Custom transport allows to send them
+         * with http stack used by app (e.g. OkHttp with app's connection pool and TLS settings).
+         *
+         * @param transport a transport for requests to origin servers, it must not follow redirects.
+         * @return a builder.
+         */
+        public B transport(OriginTransport transport) {
+            this.transport = checkNotNull(transport);
+            return self();
+        }
+
+        /**
+         * Adds factory of sources for urls not loaded over http (e.g. custom scheme, encrypted assets, content provider).
+         * <p>
+         * For every requested url factories are asked in order they were added, url is loaded over http
+         * if all factories returned {@code null}. Files of custom sources are cached, preloaded and shared
+         * by concurrent requests as usual.
+         *
+         * @param sourceFactory a factory of sources.
+         * @return a builder.
+         */
+        public B sourceFactory(SourceFactory sourceFactory) {
+            this.sourceFactories.add(checkNotNull(sourceFactory));
+            return self();
+        }
+
+        /**
+         * Sets count of threads used for processing requests to proxy.
+         * Default value is 8.
+         *
+         * @param count a count of threads, must be positive.
+         * @return a builder.
+         */
+        public B socketWorkersCount(int count) {
+            Preconditions.checkArgument(count > 0, "Workers count must be positive!");
+            this.socketWorkersCount = count;
+            return self();
+        }
+
+        /**
+         * Sets count of threads used for processing requests made with url from {@link ProxyCacheServer#getPreloadProxyUrl(String)}.
+         * <p>
+         * By default preload requests are processed by the same threads as other requests.
+         * Use separate pool to prevent starving visible player by a lot of preloading requests.
+         * Note request is read by common thread before it is known to be preload one, reading takes at most a second.
+         * </p>
+         *
+         * @param count a count of threads, {@code 0} means shared pool.
+         * @return a builder.
+         */
+        public B preloadWorkersCount(int count) {
+            Preconditions.checkArgument(count >= 0, "Preload workers count must not be negative!");
+            this.preloadWorkersCount = count;
+            return self();
+        }
+
+        /**
+         * Sets max length of queue of incoming connections not accepted yet by server socket.
+         * Default value is 8.
+         *
+         * @param backlog max length of queue, must be positive.
+         * @return a builder.
+         */
+        public B socketBacklog(int backlog) {
+            Preconditions.checkArgument(backlog > 0, "Backlog must be positive!");
+            this.socketBacklog = backlog;
+            return self();
+        }
+
+        /**
+         * Sets max count of clients served concurrently for single url.
+         * Request that exceeds limit is rejected with {@code 503 Service Unavailable} response.
+         * By default count is not limited.
+         *
+         * @param count max count of clients per url, must be positive.
+         * @return a builder.
+         */
+        public B maxClientsPerUrl(int count) {
+            Preconditions.checkArgument(count > 0, "Max clients count must be positive!");
+            this.maxClientsPerUrl = count;
+            return self();
+        }
+
+        /**
+         * Sets max count of requests accepted by proxy and not finished yet (both processed and waiting for free worker).
+         * Request that exceeds limit is rejected with {@code 503 Service Unavailable} response instead of waiting in queue.
+         * Internal ping requests are not limited. By default count is not limited.
+         *
+         * @param count max count of requests in flight, must be positive.
+         * @return a builder.
+         */
+        public B maxRequestsInFlight(int count) {
+            Preconditions.checkArgument(count > 0, "Max requests count must be positive!");
+            this.maxRequestsInFlight = count;
+            return self();
+        }
+
+        /**
+         * Sets count of segments of adaptive stream to be prefetched after segment requested by player.
+         * <p>
+         * Urls of HLS playlists ({@code .m3u8}) and DASH manifests ({@code .mpd}) passed to {@link ProxyCacheServer#getProxyUrl(String)}
+         * are served by proxy with urls of playlists and segments rewritten to proxy urls, so every segment is cached as separate file.
+         * By default segments are not prefetched.
+         * </p>
+         *
+         * @param count a count of segments to prefetch, {@code 0} disables prefetching.
+         * @return a builder.
+         */
+        public B prefetchSegments(int count) {
+            Preconditions.checkArgument(count >= 0, "Prefetch segments count must not be negative!");
+            this.prefetchSegments = count;
+            return self();
+        }
+
+        /**
+         * Enables racing of cache and new connection for seeks too far from cached data.
+         * <p>
+         * By default request that is too far from cached data is served by new connection to origin, and data loaded by
+         * this connection is not cached. With racing enabled request is served by whichever (cache or new connection)
+         * reaches requested offset first, data loaded by new connection is kept and merged into cache
+         * when sequential loading reaches it, and request switches to cache as soon as cache catches up.
+         * At most 4 seeks are raced at once, others are served by new connection.
+         * </p>
+         *
+         * @param enabled {@code true} to race cache and new connection.
+         * @return a builder.
+         */
+        public B raceFarSeeks(boolean enabled) {
+            this.raceFarSeeks = enabled;
+            return self();
+        }
+
+        /**
+         * Defers starting of server from constructor to first {@link ProxyCacheServer#getProxyUrl(String)}
+         * or {@link ProxyCacheServer#start()} call.
+         * <p>
+         * By default constructor binds server socket, starts thread accepting connections and pings server,
+         * it may take hundreds of milliseconds of app start. Server started lazily just binds socket on first request of
+         * proxy url, it is pinged in background and proxy url is returned unless ping fails.
+         * </p>
+         *
+         * @param enabled {@code true} to start server lazily.
+         * @return a builder.
+         */
+        public B lazyStart(boolean enabled) {
+            this.lazyStart = enabled;
+            return self();
+        }
+
+        /**
+         * Spreads cached files over subdirectories of cache directory (see {@link CacheDirectory}).
+         * <p>
+         * By default all files are stored in cache directory itself. Sharding is useful for caches of tens of thousands
+         * files (e.g. segments of HLS streams), especially on external storage. Files cached before sharding was enabled
+         * are moved to subdirectories in background when proxy is started.
+         * </p>
+         *
+         * @param enabled {@code true} to shard cache directory.
+         * @return a builder.
+         */
+        public B shardCacheDirectory(boolean enabled) {
+            this.shardCacheDirectory = enabled;
+            return self();
+        }
+
+        /**
+         * Limits count of bytes loaded ahead of the furthest offset requested by player.
+         * <p>
+         * By default whole file is loaded as fast as possible once player requested it, even if user watches just few seconds
+         * of long video. With limit source loading is paused when it gets far enough ahead of player and resumed as player
+         * reads further. Connection to origin is closed during long pause and reopened with range request later.
+         * </p>
+         *
+         * @param bytes max count of bytes loaded ahead of player, must not be negative.
+         * @return a builder.
+         */
+        public B readAhead(long bytes) {
+            Preconditions.checkArgument(bytes >= 0, "Read ahead must not be negative!");
+            this.readAheadBytes = bytes;
+            return self();
+        }
+
+        /**
+         * Limits playback time loaded ahead of the furthest offset requested by player, see {@link #readAhead(long)}.
+         * <p>
+         * Time is converted to bytes with bitrate of file (its length divided by duration). Duration is read from header
+         * of mp4 file, so limit works only for mp4 files with movie header placed before media data ("fast start"),
+         * limit set by {@link #readAhead(long)} (if any) is used for other files and until header is loaded.
+         * </p>
+         *
+         * @param time a playback time loaded ahead of player, {@code 0} disables limit.
+         * @param unit a unit of time.
+         * @return a builder.
+         */
+        public B readAhead(long time, TimeUnit unit) {
+            Preconditions.checkArgument(time >= 0, "Read ahead time must not be negative!");
+            this.readAheadMs = unit.toMillis(time);
+            return self();
+        }
+
+        /**
+         * Enables retrying of source failed while being loaded (e.g. because of network drop).
+         * <p>
+         * By default error of loading source is immediately reported to player by closing its connection. With retrying
+         * enabled source is reopened from cached offset with growing delays (with {@code If-Range} header,
+         * so changed content is never mixed with cached one) and player just waits for data until timeout expires.
+         * </p>
+         *
+         * @param timeout max time of retrying since error, {@code 0} disables retrying.
+         * @param unit    a unit of timeout.
+         * @return a builder.
+         */
+        public B sourceRetryTimeout(long timeout, TimeUnit unit) {
+            Preconditions.checkArgument(timeout >= 0, "Retry timeout must not be negative!");
+            this.sourceRetryTimeoutMs = unit.toMillis(timeout);
+            return self();
+        }
+
+        /**
+         * Limits total bandwidth used for loading sources.
+         * <p>
+         * Bandwidth is shared between sources loaded concurrently by weights (see {@link #bandwidthWeights(int, int)}).
+         * Source requested by player gets at least 1.5 bitrate of mp4 file (if it is known, see {@link #readAhead(long, TimeUnit)})
+         * to stay ahead of playback, preloading sources (see {@link ProxyCacheServer#getPreloadProxyUrl(String)})
+         * and lingering sources share the rest. By default bandwidth is not limited.
+         * </p>
+         *
+         * @param bytesPerSecond max bandwidth in bytes per second, must be positive.
+         * @return a builder.
+         */
+        public B maxBandwidth(long bytesPerSecond) {
+            Preconditions.checkArgument(bytesPerSecond > 0, "Max bandwidth must be positive!");
+            this.maxBandwidth = bytesPerSecond;
+            return self();
+        }
+
+        /**
+         * Limits bandwidth used for preloading sources (urls from {@link ProxyCacheServer#getPreloadProxyUrl(String)},
+         * prefetched segments, lingering sources). By default it is limited only by {@link #maxBandwidth(long)}.
+         *
+         * @param bytesPerSecond max bandwidth of all preloading sources in bytes per second, must be positive.
+         * @return a builder.
+         */
+        public B maxPreloadBandwidth(long bytesPerSecond) {
+            Preconditions.checkArgument(bytesPerSecond > 0, "Max preload bandwidth must be positive!");
+            this.maxPreloadBandwidth = bytesPerSecond;
+            return self();
+        }
+
+        /**
+         * Sets weights bandwidth limited by {@link #maxBandwidth(long)} is shared with between sources.
+         * Default weights are 4 for source requested by player and 1 for preloading source.
+         *
+         * @param player  a weight of source requested by player, must be positive.
+         * @param preload a weight of preloading source, must be positive.
+         * @return a builder.
+         */
+        public B bandwidthWeights(int player, int preload) {
+            Preconditions.checkArgument(player > 0 && preload > 0, "Bandwidth weights must be positive!");
+            this.foregroundBandwidthWeight = player;
+            this.preloadBandwidthWeight = preload;
+            return self();
+        }
+
+        /**
+         * Sets how long source is kept open after its last client disconnected.
+         * <p>
+         * By default downloading is stopped as soon as there are no clients of url, so player reconnecting
+         * (e.g. to request another range) makes proxy open new connection to origin. Lingering source keeps connection and
+         * loaded data, and is reused by client reconnected before timeout expires.
+         * While lingering source is loaded only up to {@link #lingerReadAhead(long)} limit.
+         * </p>
+         *
+         * @param timeout a time to keep source after last client disconnected, {@code 0} disables lingering.
+         * @param unit    a unit of timeout.
+         * @return a builder.
+         */
+        public B linger(long timeout, TimeUnit unit) {
+            Preconditions.checkArgument(timeout >= 0, "Linger timeout must not be negative!");
+            this.lingerMs = unit.toMillis(timeout);
+            return self();
+        }
+
+        /**
+         * Sets count of bytes loaded ahead of the furthest offset requested by clients while source lingers.
+         * See {@link #linger(long, TimeUnit)}.
+         * By default loading is paused until client reconnects.
+         *
+         * @param bytes a count of bytes to load, {@code 0} pauses loading, {@link Long#MAX_VALUE} loads whole file.
+         * @return a builder.
+         */
+        public B lingerReadAhead(long bytes) {
+            Preconditions.checkArgument(bytes >= 0, "Linger read ahead must not be negative!");
+            this.lingerReadAhead = bytes;
+            return self();
+        }
+
+        /**
+         * Sets storage for persisting info about sources (length, mime) between proxy's restarts.
+         * By default info is not persisted.
+         *
+         * @param sourceInfoStorage a storage of sources info, can't be {@code null}.
+         * @return a builder.
+         */
+        public B sourceInfoStorage(SourceInfoStorage sourceInfoStorage) {
+            this.sourceInfoStorage = checkNotNull(sourceInfoStorage);
+            return self();
+        }
+
+        /**
+         * Sets executor {@link CacheListener}s are notified on.
+         * By default listeners are called directly on thread that downloads source.
+         *
+         * @param callbackExecutor an executor for listener's callbacks, can't be {@code null}.
+         * @return a builder.
+         */
+        public B callbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = checkNotNull(callbackExecutor);
+            return self();
+        }
+
+        /**
+         * Builds new instance of proxy server.
+         *
+         * @return proxy cache. Only single instance should be used across whole app.
+         */
+        public abstract S build();
+
+        protected abstract B self();
+
+        protected Config buildConfig() {
+            BandwidthThrottle bandwidthThrottle = new BandwidthThrottle(maxBandwidth, maxPreloadBandwidth,
+                    foregroundBandwidthWeight, preloadBandwidthWeight);
+            return new Config(new CacheDirectory(cacheRoot, shardCacheDirectory), fileNameGenerator, diskUsage, encryptionKeyProvider, renditionGroups, bandwidthThrottle,
+                    sourceInfoStorage, headerInjector, mirrorsProvider, new MirrorSelector(), new RedirectCache(),
+                    new CachedUrls(diskUsage instanceof LruDiskUsage || diskUsage instanceof UnlimitedDiskUsage), transport,
+                    Collections.unmodifiableList(new ArrayList<>(sourceFactories)), callbackExecutor,
+                    socketWorkersCount, preloadWorkersCount, socketBacklog, maxClientsPerUrl, maxRequestsInFlight, prefetchSegments, raceFarSeeks, lazyStart,
+                    readAheadBytes, readAheadMs, lingerMs, lingerReadAhead,
+                    sourceRetryTimeoutMs);
+        }
+    }
+
+    /**
+     * Builder for {@link ProxyCacheServer}.
+     */
+    public static final class Builder extends BaseBuilder<Builder, ProxyCacheServer> {
+
+        /**
+         * Creates builder for proxy that stores cached files in passed directory.
+         *
+         * @param cacheRoot a cache directory, can't be {@code null}.
+         */
+        public Builder(File cacheRoot) {
+            super(cacheRoot);
+        }
+
+        @Override
+        public ProxyCacheServer build() {
+            return new ProxyCacheServer(buildConfig());
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+    }
+
+    private static final class DirectExecutor implements Executor {
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
+}
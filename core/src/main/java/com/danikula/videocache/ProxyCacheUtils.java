@@ -0,0 +1,209 @@
+package com.danikula.videocache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.FileNameMap;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.URLStreamHandler;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static com.danikula.videocache.Preconditions.checkArgument;
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Just simple utils.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class ProxyCacheUtils {
+
+    private static final Logger LOG = LoggerFactory.getLogger("ProxyCacheUtils");
+    static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    static final int MAX_ARRAY_PREVIEW = 16;
+    private static final Pattern FILE_NAME_PATTERN = Pattern.compile("[a-zA-Z_0-9.\\-()%]+");
+    private static final String FILE_URI_SAFE_CHARS = "_-!.~'()*/";
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final char[] LOWER_HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<MessageDigest> MD5_DIGESTS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+    private static final URLStreamHandler UNKNOWN_PROTOCOL_HANDLER = new UnknownProtocolHandler();
+    // media types jvm's FileNameMap doesn't know about, android knows all of them
+    private static final Map<String, String> MEDIA_MIMES = new HashMap<>();
+
+    static {
+        MEDIA_MIMES.put("mp4", "video/mp4");
+        MEDIA_MIMES.put("m4v", "video/mp4");
+        MEDIA_MIMES.put("m4a", "audio/mp4");
+        MEDIA_MIMES.put("mp3", "audio/mpeg");
+        MEDIA_MIMES.put("aac", "audio/aac");
+        MEDIA_MIMES.put("ogg", "audio/ogg");
+        MEDIA_MIMES.put("webm", "video/webm");
+        MEDIA_MIMES.put("mkv", "video/x-matroska");
+        MEDIA_MIMES.put("3gp", "video/3gpp");
+        MEDIA_MIMES.put("flv", "video/x-flv");
+        MEDIA_MIMES.put("ts", "video/mp2t");
+        MEDIA_MIMES.put("m3u8", "application/vnd.apple.mpegurl");
+        MEDIA_MIMES.put("mpd", "application/dash+xml");
+    }
+
+    /**
+     * Resolves url against base url like {@code new URL(baseUrl, url)}, but urls of protocols unknown to jvm
+     * (e.g. urls of custom {@link SourceFactory}) are parsed too, so relative urls in their manifests can be resolved.
+     *
+     * @param baseUrl a base url, may be {@code null} for absolute url.
+     * @param url     an absolute or relative url.
+     * @return resolved url, urls of unknown protocols can't be opened.
+     * @throws MalformedURLException if url is invalid.
+     */
+    static URL resolveUrl(URL baseUrl, String url) throws MalformedURLException {
+        try {
+            return new URL(baseUrl, url);
+        } catch (MalformedURLException e) {
+            return new URL(baseUrl, url, UNKNOWN_PROTOCOL_HANDLER);
+        }
+    }
+
+    static String getSupposablyMime(String url) {
+        String extension = getFileExtensionFromUrl(url);
+        if (isEmpty(extension)) {
+            return null;
+        }
+        FileNameMap fileNameMap = URLConnection.getFileNameMap();
+        String mime = fileNameMap.getContentTypeFor("file." + extension);
+        return mime != null ? mime : MEDIA_MIMES.get(extension);
+    }
+
+    /**
+     * Returns extension of file url points to, ignoring query and fragment, like android's {@code MimeTypeMap} does.
+     */
+    static String getFileExtensionFromUrl(String url) {
+        if (isEmpty(url)) {
+            return "";
+        }
+        int fragmentIndex = url.lastIndexOf('#');
+        String path = fragmentIndex >= 0 ? url.substring(0, fragmentIndex) : url;
+        int queryIndex = path.indexOf('?');
+        path = queryIndex >= 0 ? path.substring(0, queryIndex) : path;
+        String fileName = path.substring(path.lastIndexOf('/') + 1);
+        int dotIndex = fileName.lastIndexOf('.');
+        boolean valid = !fileName.isEmpty() && dotIndex >= 0 && FILE_NAME_PATTERN.matcher(fileName).matches();
+        return valid ? fileName.substring(dotIndex + 1).toLowerCase(Locale.US) : "";
+    }
+
+    /**
+     * Returns file:// uri for file, encoded in the same way as android's {@code Uri.fromFile(file).toString()}.
+     *
+     * @param file a file to build uri for.
+     * @return file:// uri.
+     */
+    static String toFileUri(File file) {
+        byte[] path;
+        try {
+            path = file.getAbsolutePath().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Error encoding file path", e);
+        }
+        StringBuilder uri = new StringBuilder("file://");
+        for (byte b : path) {
+            char c = (char) (b & 0xFF);
+            boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || FILE_URI_SAFE_CHARS.indexOf(c) != -1;
+            if (safe) {
+                uri.append(c);
+            } else {
+                uri.append('%').append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+            }
+        }
+        return uri.toString();
+    }
+
+    public static boolean isEmpty(CharSequence string) {
+        return string == null || string.length() == 0;
+    }
+
+    static void assertBuffer(byte[] buffer, long offset, int length) {
+        checkNotNull(buffer, "Buffer must be not null!");
+        checkArgument(offset >= 0, "Data offset must be positive!");
+        checkArgument(length >= 0 && length <= buffer.length, "Length must be in range [0..buffer.length]");
+    }
+
+    static String preview(byte[] data, int length) {
+        int previewLength = Math.min(MAX_ARRAY_PREVIEW, Math.max(length, 0));
+        byte[] dataRange = Arrays.copyOfRange(data, 0, previewLength);
+        String preview = Arrays.toString(dataRange);
+        if (previewLength < length) {
+            preview = preview.substring(0, preview.length() - 1) + ", ...]";
+        }
+        return preview;
+    }
+
+    static String encode(String url) {
+        try {
+            return URLEncoder.encode(url, "utf-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Error encoding url", e);
+        }
+    }
+
+    static String decode(String url) {
+        try {
+            return URLDecoder.decode(url, "utf-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Error decoding url", e);
+        }
+    }
+
+    static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                LOG.error("Error closing resource", e);
+            }
+        }
+    }
+
+    public static String computeMD5(String string) {
+        byte[] digestBytes = MD5_DIGESTS.get().digest(string.getBytes());
+        return bytesToHexString(digestBytes);
+    }
+
+    static String bytesToHexString(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = LOWER_HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = LOWER_HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    private static final class UnknownProtocolHandler extends URLStreamHandler {
+
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+            throw new IOException("Unknown protocol of " + url);
+        }
+    }
+}
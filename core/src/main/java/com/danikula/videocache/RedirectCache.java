@@ -0,0 +1,99 @@
+package com.danikula.videocache;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.net.HttpURLConnection.HTTP_MOVED_PERM;
+
+/**
+ * Remembers final urls of redirects, so next connections to the same url skip redirects.
+ * <p>
+ * Redirect is cached for time allowed by its {@code Cache-Control: max-age} or {@code Expires} headers,
+ * permanent redirects without these headers are cached for a day, other redirects aren't cached at all.
+ * Redirects marked by {@code no-store} or {@code no-cache} are never cached.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class RedirectCache {
+
+    static final int HTTP_PERMANENT_REDIRECT = 308;
+    static final long NOT_CACHEABLE = 0;
+    static final long MAX_TTL_MS = TimeUnit.DAYS.toMillis(1);
+    private static final int MAX_REDIRECTS_COUNT = 256;
+    private static final Pattern MAX_AGE_PATTERN = Pattern.compile("(?:^|[,\\s])max-age\\s*=\\s*\"?(\\d+)");
+    private static final Pattern NO_CACHE_PATTERN = Pattern.compile("(?:^|[,\\s])(no-store|no-cache)(?:$|[,\\s=])");
+
+    private final Map<String, Redirect> redirects = new LinkedHashMap<String, Redirect>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Redirect> eldest) {
+            return size() > MAX_REDIRECTS_COUNT;
+        }
+    };
+
+    /**
+     * Returns final url for url.
+     *
+     * @param url an url redirects start from.
+     * @return final url or {@code null} if redirect is unknown or expired.
+     */
+    synchronized String get(String url) {
+        Redirect redirect = redirects.get(url);
+        if (redirect != null && redirect.expirationTime <= System.currentTimeMillis()) {
+            redirects.remove(url);
+            return null;
+        }
+        return redirect == null ? null : redirect.finalUrl;
+    }
+
+    synchronized void put(String url, String finalUrl, long expirationTime) {
+        if (expirationTime > System.currentTimeMillis()) {
+            redirects.put(url, new Redirect(finalUrl, expirationTime));
+        }
+    }
+
+    synchronized void remove(String url) {
+        redirects.remove(url);
+    }
+
+    /**
+     * Calculates how long redirect response may be reused.
+     *
+     * @param code         a code of redirect response.
+     * @param cacheControl a value of {@code Cache-Control} header, may be {@code null}.
+     * @param expires      a value of {@code Expires} header in milliseconds, {@code 0} if header is absent.
+     * @param date         a value of {@code Date} header in milliseconds, {@code 0} if header is absent.
+     * @return time to live in milliseconds (not longer than {@link #MAX_TTL_MS}) or {@link #NOT_CACHEABLE}.
+     */
+    static long getTtlMs(int code, String cacheControl, long expires, long date) {
+        String directives = cacheControl == null ? "" : cacheControl.toLowerCase(Locale.US);
+        if (NO_CACHE_PATTERN.matcher(directives).find()) {
+            return NOT_CACHEABLE;
+        }
+        Matcher maxAgeMatcher = MAX_AGE_PATTERN.matcher(directives);
+        long ttl;
+        if (maxAgeMatcher.find()) {
+            String maxAge = maxAgeMatcher.group(1);
+            ttl = maxAge.length() > 9 ? MAX_TTL_MS : TimeUnit.SECONDS.toMillis(Long.parseLong(maxAge));
+        } else if (expires > 0) {
+            ttl = expires - (date > 0 ? date : System.currentTimeMillis());
+        } else {
+            ttl = code == HTTP_MOVED_PERM || code == HTTP_PERMANENT_REDIRECT ? MAX_TTL_MS : NOT_CACHEABLE;
+        }
+        return Math.max(NOT_CACHEABLE, Math.min(ttl, MAX_TTL_MS));
+    }
+
+    private static final class Redirect {
+
+        private final String finalUrl;
+        private final long expirationTime;
+
+        Redirect(String finalUrl, long expirationTime) {
+            this.finalUrl = finalUrl;
+            this.expirationTime = expirationTime;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.danikula.videocache;
+
+/**
+ * Metrics of single request processed by {@link ProxyCacheServer}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class RequestMetrics {
+
+    /**
+     * Original url of requested content.
+     */
+    public final String url;
+    /**
+     * Offset requested by client, {@code 0} for not partial request.
+     */
+    public final long rangeOffset;
+    /**
+     * {@code true} if client requested content with offset, i.e. user seek video.
+     */
+    public final boolean seek;
+    /**
+     * {@code true} if request was served through cache, {@code false} if it was served directly from origin
+     * because requested offset is too far from cached data.
+     */
+    public final boolean cacheUsed;
+    /**
+     * Time in milliseconds from start of processing request to first byte of content is ready to be sent to client,
+     * {@code -1} if no content was sent.
+     */
+    public final long timeToFirstByteMs;
+    /**
+     * Total time of processing request in milliseconds.
+     */
+    public final long durationMs;
+    /**
+     * Count of bytes served from data available in cache.
+     */
+    public final long cacheBytes;
+    /**
+     * Count of bytes served after waiting for it from origin.
+     */
+    public final long originBytes;
+    /**
+     * Time in milliseconds request was stalled waiting for data from origin.
+     */
+    public final long stallTimeMs;
+    /**
+     * Time in milliseconds spent for connecting to origin and receiving response headers (including TLS handshake and redirects),
+     * {@code -1} if origin connection was not opened.
+     */
+    public final long originConnectTimeMs;
+
+    RequestMetrics(String url, long rangeOffset, boolean cacheUsed, long timeToFirstByteMs, long durationMs,
+                   long cacheBytes, long originBytes, long stallTimeMs, long originConnectTimeMs) {
+        this.url = url;
+        this.rangeOffset = rangeOffset;
+        this.seek = rangeOffset > 0;
+        this.cacheUsed = cacheUsed;
+        this.timeToFirstByteMs = timeToFirstByteMs;
+        this.durationMs = durationMs;
+        this.cacheBytes = cacheBytes;
+        this.originBytes = originBytes;
+        this.stallTimeMs = stallTimeMs;
+        this.originConnectTimeMs = originConnectTimeMs;
+    }
+
+    /**
+     * Returns average speed of serving content to client.
+     *
+     * @return throughput in bytes per second, or {@code 0} if duration is unknown.
+     */
+    public long getThroughput() {
+        return durationMs > 0 ? (cacheBytes + originBytes) * 1000 / durationMs : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestMetrics{" +
+                "url='" + url + '\'' +
+                ", rangeOffset=" + rangeOffset +
+                ", cacheUsed=" + cacheUsed +
+                ", timeToFirstByteMs=" + timeToFirstByteMs +
+                ", durationMs=" + durationMs +
+                ", cacheBytes=" + cacheBytes +
+                ", originBytes=" + originBytes +
+                ", stallTimeMs=" + stallTimeMs +
+                ", originConnectTimeMs=" + originConnectTimeMs +
+                '}';
+    }
+}
@@ -0,0 +1,67 @@
+package com.danikula.videocache;
+
+/**
+ * Collects {@link RequestMetrics} while request is processed. Not thread safe, must be used by single thread.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class RequestMetricsRecorder {
+
+    private final String url;
+    private final long rangeOffset;
+    private final long startTime;
+    private boolean cacheUsed;
+    private long firstByteTime = -1;
+    private long cacheBytes;
+    private long originBytes;
+    private long stallTimeMs;
+    private long originConnectTimeMs = -1;
+
+    RequestMetricsRecorder(String url, long rangeOffset) {
+        this.url = url;
+        this.rangeOffset = rangeOffset;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    void onCacheUsed(boolean cacheUsed) {
+        this.cacheUsed = cacheUsed;
+    }
+
+    void onCacheBytesRead(int bytes) {
+        onFirstByte();
+        cacheBytes += bytes;
+    }
+
+    void onOriginBytesRead(int bytes) {
+        onFirstByte();
+        originBytes += bytes;
+    }
+
+    void onStalled(long waitingTimeMs) {
+        stallTimeMs += waitingTimeMs;
+    }
+
+    /**
+     * Records connection to origin opened for this request, time of all connections is summed up.
+     *
+     * @param connectTimeMs time of connecting or {@code -1} if connection wasn't opened.
+     */
+    void onOriginConnected(long connectTimeMs) {
+        if (connectTimeMs >= 0) {
+            originConnectTimeMs = Math.max(originConnectTimeMs, 0) + connectTimeMs;
+        }
+    }
+
+    private void onFirstByte() {
+        if (firstByteTime < 0) {
+            firstByteTime = System.currentTimeMillis();
+        }
+    }
+
+    RequestMetrics build() {
+        long timeToFirstByte = firstByteTime < 0 ? -1 : firstByteTime - startTime;
+        long duration = System.currentTimeMillis() - startTime;
+        return new RequestMetrics(url, rangeOffset, cacheUsed, timeToFirstByte, duration,
+                cacheBytes, originBytes, stallTimeMs, originConnectTimeMs);
+    }
+}
@@ -0,0 +1,13 @@
+package com.danikula.videocache;
+
+/**
+ * Indicates that source can't be resumed because its content was changed since it was opened first time.
+ *
+ * @author Alexey Danilov
+ */
+public class SourceChangedException extends ProxyCacheException {
+
+    public SourceChangedException(String message) {
+        super(message);
+    }
+}
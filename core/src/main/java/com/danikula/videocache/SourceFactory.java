@@ -0,0 +1,22 @@
+package com.danikula.videocache;
+
+/**
+ * Factory of sources for urls not loaded over http, e.g. content provider, decrypting stream or peer cache.
+ * <p>
+ * Files of such sources are cached, preloaded and shared by concurrent requests like http files.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public interface SourceFactory {
+
+    /**
+     * Creates source for url.
+     *
+     * @param url an url requested through proxy.
+     * @return new closed source or {@code null} if factory doesn't support url (e.g. its scheme),
+     * then url is passed to next factory or loaded over http.
+     * @throws ProxyCacheException if source can't be created.
+     */
+    UrlSource newSource(String url) throws ProxyCacheException;
+
+}
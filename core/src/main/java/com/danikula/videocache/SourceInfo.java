@@ -0,0 +1,84 @@
+package com.danikula.videocache;
+
+/**
+ * Stores source's info.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class SourceInfo {
+
+    public final String url;
+    public final long length;
+    public final String mime;
+    public final String redirectUrl;
+    public final long redirectExpirationTime;
+    public final String md5;
+    public final String validator;
+
+    public SourceInfo(String url, long length, String mime) {
+        this(url, length, mime, null, 0);
+    }
+
+    /**
+     * Creates info about source with known final url of redirects.
+     *
+     * @param url                    an original url of source.
+     * @param length                 a length of source.
+     * @param mime                   a mime type of source.
+     * @param redirectUrl            a final url original url is redirected to, {@code null} if it is unknown.
+     * @param redirectExpirationTime a time (in milliseconds since epoch) redirect may be reused until.
+     */
+    public SourceInfo(String url, long length, String mime, String redirectUrl, long redirectExpirationTime) {
+        this(url, length, mime, redirectUrl, redirectExpirationTime, null);
+    }
+
+    /**
+     * Creates info about source with known final url of redirects and digest of content.
+     *
+     * @param url                    an original url of source.
+     * @param length                 a length of source.
+     * @param mime                   a mime type of source.
+     * @param redirectUrl            a final url original url is redirected to, {@code null} if it is unknown.
+     * @param redirectExpirationTime a time (in milliseconds since epoch) redirect may be reused until.
+     * @param md5                    a lowercase hex MD5 of content declared by origin, {@code null} if it is unknown.
+     */
+    public SourceInfo(String url, long length, String mime, String redirectUrl, long redirectExpirationTime, String md5) {
+        this(url, length, mime, redirectUrl, redirectExpirationTime, md5, null);
+    }
+
+    /**
+     * Creates info about source with known final url of redirects, digest and validator of content.
+     *
+     * @param url                    an original url of source.
+     * @param length                 a length of source.
+     * @param mime                   a mime type of source.
+     * @param redirectUrl            a final url original url is redirected to, {@code null} if it is unknown.
+     * @param redirectExpirationTime a time (in milliseconds since epoch) redirect may be reused until.
+     * @param md5                    a lowercase hex MD5 of content declared by origin, {@code null} if it is unknown.
+     * @param validator              a strong ETag or Last-Modified date of content sent in {@code If-Range} header
+     *                               when source is resumed, {@code null} if it is unknown.
+     */
+    public SourceInfo(String url, long length, String mime, String redirectUrl, long redirectExpirationTime, String md5,
+                      String validator) {
+        this.url = url;
+        this.length = length;
+        this.mime = mime;
+        this.redirectUrl = redirectUrl;
+        this.redirectExpirationTime = redirectExpirationTime;
+        this.md5 = md5;
+        this.validator = validator;
+    }
+
+    @Override
+    public String toString() {
+        return "SourceInfo{" +
+                "url='" + url + '\'' +
+                ", length=" + length +
+                ", mime='" + mime + '\'' +
+                ", redirectUrl='" + redirectUrl + '\'' +
+                ", redirectExpirationTime=" + redirectExpirationTime +
+                ", md5='" + md5 + '\'' +
+                ", validator='" + validator + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,53 @@
+package com.danikula.videocache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates throughput of reading source as exponentially weighted moving average of throughput samples.
+ * <p>
+ * Must be fed by single thread, estimation can be read by any thread.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class ThroughputMeter {
+
+    private static final long MIN_SAMPLE_DURATION_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final float SAMPLE_WEIGHT = .3f;
+
+    private long sampleStartNanos = -1;
+    private long sampleBytes;
+    private volatile long bytesPerSecond = -1;
+
+    /**
+     * Starts new sample, must be called when source is opened: time spent on connection isn't a part of throughput.
+     */
+    void onReadStarted() {
+        sampleStartNanos = System.nanoTime();
+        sampleBytes = 0;
+    }
+
+    void onBytesRead(int bytes) {
+        if (sampleStartNanos < 0) {
+            onReadStarted();
+        }
+        sampleBytes += bytes;
+        long now = System.nanoTime();
+        long sampleDuration = now - sampleStartNanos;
+        if (sampleDuration >= MIN_SAMPLE_DURATION_NANOS) {
+            long sample = sampleBytes * TimeUnit.SECONDS.toNanos(1) / sampleDuration;
+            long estimation = bytesPerSecond;
+            bytesPerSecond = estimation < 0 ? sample : (long) (SAMPLE_WEIGHT * sample + (1 - SAMPLE_WEIGHT) * estimation);
+            sampleStartNanos = now;
+            sampleBytes = 0;
+        }
+    }
+
+    /**
+     * Returns estimated throughput.
+     *
+     * @return throughput in bytes per second or {@code -1} if it isn't measured yet.
+     */
+    long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
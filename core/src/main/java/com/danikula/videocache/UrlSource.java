@@ -0,0 +1,48 @@
+package com.danikula.videocache;
+
+/**
+ * {@link Source} of file identified by url, cached and served by proxy.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ * @see SourceFactory
+ */
+public interface UrlSource extends Source {
+
+    /**
+     * Returns url of source, cache file is named after it.
+     *
+     * @return url requested through proxy.
+     */
+    String getUrl();
+
+    /**
+     * Returns mime type of source to be sent to player.
+     *
+     * @return mime type or {@code null} if it is unknown.
+     * @throws ProxyCacheException if error occur while fetching source info.
+     */
+    String getMime() throws ProxyCacheException;
+
+    /**
+     * Returns MD5 digest of content declared by origin, content loaded into cache is verified against it.
+     *
+     * @return lowercase hex MD5 or {@code null} if it is unknown.
+     */
+    String getMd5();
+
+    /**
+     * Returns time spent by last {@link #open(long)}, it is used for choosing between waiting for cache and opening
+     * new source for far seeks.
+     *
+     * @return time in milliseconds or {@code -1} if source was not opened yet or time is unknown.
+     */
+    long getConnectTimeMs();
+
+    /**
+     * Creates new closed source of the same file, it is used for reading data far from cached one concurrently with
+     * this source.
+     *
+     * @return new source.
+     */
+    UrlSource newSource();
+}
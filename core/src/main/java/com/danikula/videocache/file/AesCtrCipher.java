@@ -0,0 +1,94 @@
+package com.danikula.videocache.file;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES in counter mode addressed by absolute position in stream, so any range can be encrypted or decrypted
+ * without processing preceding data.
+ * <p>
+ * Counter block is 8 bytes of nonce followed by 8 bytes of big-endian block index. Key stream is produced by
+ * encrypting counter blocks with AES/ECB into reused buffers, so crypting doesn't allocate memory.
+ * Not thread safe.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class AesCtrCipher {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int NONCE_SIZE = 8;
+    private static final int MAX_CHUNK_SIZE = 8 * 1024;
+
+    private final Cipher cipher;
+    private final byte[] counterBlocks = new byte[MAX_CHUNK_SIZE + BLOCK_SIZE];
+    private final byte[] keyStream = new byte[MAX_CHUNK_SIZE + BLOCK_SIZE];
+
+    /**
+     * @param key   an AES key, 16, 24 or 32 bytes.
+     * @param nonce an unique id of stream, only its first 8 bytes are used.
+     * @throws GeneralSecurityException if key is invalid or AES isn't supported.
+     */
+    AesCtrCipher(byte[] key, byte[] nonce) throws GeneralSecurityException {
+        if (nonce.length < NONCE_SIZE) {
+            throw new IllegalArgumentException("Nonce must have at least " + NONCE_SIZE + " bytes");
+        }
+        this.cipher = Cipher.getInstance("AES/ECB/NoPadding");
+        this.cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+        for (int offset = 0; offset < counterBlocks.length; offset += BLOCK_SIZE) {
+            System.arraycopy(nonce, 0, counterBlocks, offset, NONCE_SIZE);
+        }
+    }
+
+    /**
+     * Derives nonce from name of stream.
+     *
+     * @param name a name unique for key, e.g. name of cache file.
+     * @return nonce.
+     */
+    static byte[] nonce(String name) throws GeneralSecurityException {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(name.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+    }
+
+    /**
+     * Encrypts or decrypts data in place (operations are the same for counter mode).
+     *
+     * @param data     a buffer with data.
+     * @param offset   an offset of data in buffer.
+     * @param length   a length of data.
+     * @param position a position of data's first byte in stream.
+     * @throws GeneralSecurityException if AES fails.
+     */
+    void crypt(byte[] data, int offset, int length, long position) throws GeneralSecurityException {
+        while (length > 0) {
+            int chunkSize = Math.min(length, MAX_CHUNK_SIZE);
+            long firstBlock = position / BLOCK_SIZE;
+            int skip = (int) (position % BLOCK_SIZE);
+            int keyStreamSize = (skip + chunkSize + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+            for (int blockOffset = 0; blockOffset < keyStreamSize; blockOffset += BLOCK_SIZE) {
+                writeCounter(firstBlock + blockOffset / BLOCK_SIZE, blockOffset + NONCE_SIZE);
+            }
+            cipher.doFinal(counterBlocks, 0, keyStreamSize, keyStream, 0);
+            for (int i = 0; i < chunkSize; i++) {
+                data[offset + i] ^= keyStream[skip + i];
+            }
+            offset += chunkSize;
+            length -= chunkSize;
+            position += chunkSize;
+        }
+    }
+
+    private void writeCounter(long counter, int offset) {
+        for (int i = NONCE_SIZE - 1; i >= 0; i--) {
+            counterBlocks[offset + i] = (byte) counter;
+            counter >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.danikula.videocache.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Directory cache files are stored in.
+ * <p>
+ * Flat directory keeps all files in its root. Sharded directory spreads files over two levels of subdirectories
+ * named by hex digits of file name's hash (e.g. {@code video-cache/a/3/9e107d9d372bb6826bd81d3542a419d6.mp4}),
+ * so no directory holds more than small part of cache. It matters for caches of tens of thousands files
+ * (e.g. HLS segments) on FAT-like file systems of external storage, where operations with big directory are slow.
+ * </p>
+ * Files of flat directory are moved to shards by {@link #migrate()}, sharded directory is marked by {@link #MARKER} file.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public final class CacheDirectory {
+
+    private static final Logger LOG = LoggerFactory.getLogger("CacheDirectory");
+    static final String MARKER = ".sharded";
+    static final int SHARDS_PER_LEVEL = 16;
+    private static final String SHARD_NAMES = "0123456789abcdef";
+    private static final String[] POSTFIXES = {FileCache.TEMP_POSTFIX, FileCache.RANGE_POSTFIX, ChunkChecksums.POSTFIX,
+            EncryptedFileCache.NONCE_POSTFIX};
+
+    private final File root;
+    private final boolean sharded;
+    private volatile boolean migrated;
+
+    public CacheDirectory(File root, boolean sharded) {
+        this.root = checkNotNull(root);
+        this.sharded = sharded;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    /**
+     * Returns cache file with name.
+     *
+     * @param name a name of cache file generated by {@link FileNameGenerator}.
+     * @return a file in root of flat directory or in shard of sharded directory.
+     */
+    public File getFile(String name) {
+        return sharded ? new File(getShard(root, name), name) : new File(root, name);
+    }
+
+    /**
+     * Marks directory as sharded, so {@link LruDiskUsage} trims it shard by shard. Does nothing for flat directory.
+     *
+     * @throws IOException if directory or marker can't be created.
+     */
+    public void prepare() throws IOException {
+        if (sharded) {
+            Files.makeDir(root);
+            File marker = new File(root, MARKER);
+            if (!marker.exists() && !marker.createNewFile()) {
+                throw new IOException("Error creating marker " + marker);
+            }
+        }
+    }
+
+    /**
+     * {@link #prepare() Prepares} sharded directory and moves all files from its root to shards.
+     * Does nothing for flat directory.
+     *
+     * @throws IOException if directory can't be marked as sharded.
+     */
+    public void migrate() throws IOException {
+        if (!sharded || migrated) {
+            return;
+        }
+        prepare();
+        File[] files = root.listFiles();
+        int moved = 0;
+        boolean failed = false;
+        if (files != null) {
+            for (File file : files) {
+                if (!file.isDirectory() && !MARKER.equals(file.getName())) {
+                    try {
+                        moveToShard(file);
+                        moved++;
+                    } catch (IOException e) {
+                        LOG.warn("Error moving file to shard", e);
+                        failed = true;
+                    }
+                }
+            }
+        }
+        migrated = !failed;
+        if (moved > 0) {
+            LOG.info("{} files of {} are moved to shards", moved, root);
+        }
+    }
+
+    /**
+     * Moves files (including temporary, checksums and nonce ones) of cache file from root of sharded directory to its
+     * shard, so file cached before sharding can be used before {@link #migrate()} is completed.
+     *
+     * @param file a cache file returned by {@link #getFile(String)}.
+     */
+    public void migrate(File file) {
+        if (!sharded || migrated) {
+            return;
+        }
+        String name = file.getName();
+        String[] names = {name, name + FileCache.TEMP_POSTFIX, name + ChunkChecksums.POSTFIX,
+                name + FileCache.TEMP_POSTFIX + ChunkChecksums.POSTFIX, name + FileCache.TEMP_POSTFIX + FileCache.RANGE_POSTFIX,
+                name + EncryptedFileCache.NONCE_POSTFIX};
+        for (String flatName : names) {
+            File flatFile = new File(root, flatName);
+            if (flatFile.exists()) {
+                try {
+                    moveToShard(flatFile);
+                } catch (IOException e) {
+                    LOG.warn("Error moving file to shard", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists completed cache files. Files of not completed cache, checksums and nonce files are not included,
+     * sharded directory is listed shard by shard and files not {@link #migrate() moved} to shards are not included.
+     *
+     * @return completed cache files, in no particular order.
+     */
+    public List<File> listCachedFiles() {
+        List<File> result = new ArrayList<>();
+        if (!sharded) {
+            listCachedFiles(root, result);
+            return result;
+        }
+        for (int level = 0; level < SHARDS_PER_LEVEL; level++) {
+            for (int shard = 0; shard < SHARDS_PER_LEVEL; shard++) {
+                listCachedFiles(getShard(root, level, shard), result);
+            }
+        }
+        return result;
+    }
+
+    private void listCachedFiles(File directory, List<File> result) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!MARKER.equals(name) && getCacheFileName(name).equals(name) && !file.isDirectory()) {
+                result.add(file);
+            }
+        }
+    }
+
+    /**
+     * Returns root of sharded directory containing file.
+     *
+     * @param file a cache file.
+     * @return a root or {@code null} if file isn't in shard of {@link #prepare() prepared} sharded directory.
+     */
+    static File getShardedRoot(File file) {
+        File shard = file.getParentFile();
+        File level = shard == null ? null : shard.getParentFile();
+        File root = level == null ? null : level.getParentFile();
+        boolean inShard = root != null && isShardName(shard.getName()) && isShardName(level.getName());
+        return inShard && new File(root, MARKER).exists() ? root : null;
+    }
+
+    static File getShard(File root, int level, int shard) {
+        return new File(new File(root, String.valueOf(SHARD_NAMES.charAt(level))), String.valueOf(SHARD_NAMES.charAt(shard)));
+    }
+
+    private static File getShard(File root, String name) {
+        int hash = name.hashCode();
+        hash ^= hash >>> 16;
+        return getShard(root, (hash >>> 4) & 0xF, hash & 0xF);
+    }
+
+    private static boolean isShardName(String name) {
+        return name.length() == 1 && SHARD_NAMES.indexOf(name.charAt(0)) != -1;
+    }
+
+    private void moveToShard(File file) throws IOException {
+        File shard = getShard(root, getCacheFileName(file.getName()));
+        Files.makeDir(shard);
+        File shardedFile = new File(shard, file.getName());
+        if (!file.renameTo(shardedFile) && file.exists()) {
+            throw new IOException("Error moving " + file + " to " + shardedFile);
+        }
+    }
+
+    private String getCacheFileName(String name) {
+        boolean stripped = true;
+        while (stripped) {
+            stripped = false;
+            for (String postfix : POSTFIXES) {
+                if (name.endsWith(postfix) && name.length() > postfix.length()) {
+                    name = name.substring(0, name.length() - postfix.length());
+                    stripped = true;
+                }
+            }
+        }
+        return name;
+    }
+}
@@ -0,0 +1,283 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.CorruptedCacheException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * CRC32 checksums of fixed size chunks of cache file, stored in file next to cache file.
+ * <p>
+ * Checksums are calculated while data is written, so no extra pass over file is needed. Chunks written by this instance
+ * are trusted, chunks stored before (e.g. by previous run of application) are verified when they are read first time.
+ * </p>
+ * Checksums file starts with length of completed cache file ({@code -1} while file is loaded) followed by checksums
+ * of chunks, checksum of the last chunk of completed file may cover less than {@link #CHUNK_SIZE} bytes.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class ChunkChecksums {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final String POSTFIX = ".crc";
+    private static final int HEADER_SIZE = 8;
+    private static final int CHECKSUM_SIZE = 4;
+    private static final long NOT_COMPLETED = -1;
+
+    private final CRC32 crc = new CRC32();
+    private final CRC32 verificationCrc = new CRC32();
+    private final BitSet verifiedChunks = new BitSet();
+    private final byte[] checksumBuffer = new byte[CHECKSUM_SIZE];
+    private File file;
+    private RandomAccessFile checksumsFile;
+    private int[] checksums;
+    private int count;
+    private long completedLength;
+    private long hashedLength;
+    private byte[] chunkBuffer;
+
+    /**
+     * Opens checksums of cache file, new checksums file is created if it doesn't exist.
+     *
+     * @param dataFile a cache file.
+     * @throws IOException if checksums file can't be read.
+     */
+    ChunkChecksums(File dataFile) throws IOException {
+        this.file = getFile(dataFile);
+        RandomAccessFile checksumsFile = storage();
+        long storedLength = checksumsFile.length();
+        checksumsFile.seek(0);
+        this.completedLength = storedLength >= HEADER_SIZE ? checksumsFile.readLong() : NOT_COMPLETED;
+        this.count = storedLength >= HEADER_SIZE ? (int) ((storedLength - HEADER_SIZE) / CHECKSUM_SIZE) : 0;
+        this.checksums = new int[Math.max(16, count)];
+        for (int i = 0; i < count; i++) {
+            checksums[i] = checksumsFile.readInt();
+        }
+    }
+
+    static File getFile(File dataFile) {
+        return new File(dataFile.getParentFile(), dataFile.getName() + POSTFIX);
+    }
+
+    static boolean isChecksumsFile(File file) {
+        return file.getName().endsWith(POSTFIX);
+    }
+
+    /**
+     * Checks if checksums are consistent with length of completed cache file, i.e. file wasn't truncated.
+     *
+     * @param length a length of completed cache file.
+     * @return {@code true} if checksums cover exactly {@code length} bytes.
+     */
+    boolean isCompleted(long length) {
+        return completedLength == length && count == (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    /**
+     * Drops checksums of completed file except ones of full chunks shorter than {@code length},
+     * so file can be truncated to {@link #getHashedLength()} and loaded again.
+     *
+     * @param length a length of cache file.
+     * @throws IOException if checksums can't be stored.
+     */
+    void uncomplete(long length) throws IOException {
+        long validLength = completedLength == NOT_COMPLETED ? length : Math.min(length, completedLength);
+        truncate((int) Math.min(count, validLength / CHUNK_SIZE));
+    }
+
+    /**
+     * Prepares checksums of not completed file for appending data. Data after the last stored checksum
+     * (at most one chunk, unless checksums file is lost partially) is hashed again.
+     *
+     * @param data an opened cache file.
+     * @throws IOException if cache file can't be read or checksums can't be stored.
+     */
+    void restore(RandomAccessFile data) throws IOException {
+        long dataLength = data.length();
+        truncate((int) Math.min(count, dataLength / CHUNK_SIZE));
+        byte[] buffer = getChunkBuffer();
+        data.seek(hashedLength);
+        while (hashedLength < dataLength) {
+            int size = (int) Math.min(CHUNK_SIZE, dataLength - hashedLength);
+            data.readFully(buffer, 0, size);
+            update(buffer, 0, size);
+        }
+    }
+
+    long getHashedLength() {
+        return hashedLength;
+    }
+
+    /**
+     * Hashes data written to the end of cache file.
+     */
+    void update(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            int size = Math.min(CHUNK_SIZE - (int) (hashedLength % CHUNK_SIZE), length);
+            crc.update(data, offset, size);
+            hashedLength += size;
+            offset += size;
+            length -= size;
+            if (hashedLength % CHUNK_SIZE == 0) {
+                add((int) crc.getValue());
+            }
+        }
+    }
+
+    /**
+     * Stores checksum of the last chunk and length of file.
+     */
+    void complete(long length) throws IOException {
+        if (hashedLength % CHUNK_SIZE != 0) {
+            add((int) crc.getValue());
+        }
+        completedLength = length;
+        writeHeader();
+    }
+
+    /**
+     * Verifies chunks containing region of cache file unless they were verified or written by this instance.
+     *
+     * @param data   an opened cache file.
+     * @param offset an offset of region.
+     * @param length a length of region.
+     * @throws CorruptedCacheException if data of chunk doesn't match its checksum.
+     * @throws IOException             if cache file can't be read.
+     */
+    void verify(RandomAccessFile data, long offset, int length) throws IOException, CorruptedCacheException {
+        int lastChunk = (int) Math.min(count - 1, (offset + Math.max(length, 1) - 1) / CHUNK_SIZE);
+        for (int chunk = (int) (offset / CHUNK_SIZE); chunk <= lastChunk; chunk++) {
+            if (!verifiedChunks.get(chunk)) {
+                verifyChunk(data, chunk);
+            }
+        }
+    }
+
+    private void verifyChunk(RandomAccessFile data, int chunk) throws IOException, CorruptedCacheException {
+        long chunkOffset = (long) chunk * CHUNK_SIZE;
+        int chunkLength = (int) getChunkLength(chunk);
+        byte[] chunkBuffer = getChunkBuffer();
+        data.seek(chunkOffset);
+        data.readFully(chunkBuffer, 0, chunkLength);
+        verificationCrc.reset();
+        verificationCrc.update(chunkBuffer, 0, chunkLength);
+        if ((int) verificationCrc.getValue() != checksums[chunk]) {
+            String message = "Chunk " + chunk + " of " + file + " doesn't match its checksum";
+            throw new CorruptedCacheException(message, chunkOffset, chunkLength);
+        }
+        verifiedChunks.set(chunk);
+    }
+
+    /**
+     * Replaces checksum of chunk written again after it was found corrupted.
+     *
+     * @param data   an opened cache file containing new data of chunk.
+     * @param offset an offset of chunk.
+     * @param length a length of chunk.
+     * @throws IOException if cache file can't be read or checksum can't be stored.
+     */
+    void rehash(RandomAccessFile data, long offset, int length) throws IOException {
+        int chunk = (int) (offset / CHUNK_SIZE);
+        if (offset % CHUNK_SIZE != 0 || chunk >= count || length != getChunkLength(chunk)) {
+            throw new IllegalArgumentException("Region [" + offset + ", " + (offset + length) + ") is not a hashed chunk");
+        }
+        byte[] chunkBuffer = getChunkBuffer();
+        data.seek(offset);
+        data.readFully(chunkBuffer, 0, length);
+        verificationCrc.reset();
+        verificationCrc.update(chunkBuffer, 0, length);
+        checksums[chunk] = (int) verificationCrc.getValue();
+        writeChecksum(chunk);
+        verifiedChunks.set(chunk);
+    }
+
+    /**
+     * Forgets all checksums, so file can be loaded again from the beginning.
+     */
+    void clear() throws IOException {
+        truncate(0);
+    }
+
+    void moveTo(File dataFile) throws IOException {
+        close();
+        File newFile = getFile(dataFile);
+        if (!file.renameTo(newFile)) {
+            throw new IOException("Error renaming " + file + " to " + newFile);
+        }
+        file = newFile;
+    }
+
+    void close() throws IOException {
+        if (checksumsFile != null) {
+            checksumsFile.close();
+            checksumsFile = null;
+        }
+    }
+
+    private long getChunkLength(int chunk) {
+        long end = completedLength != NOT_COMPLETED && chunk == count - 1 ? completedLength : (chunk + 1L) * CHUNK_SIZE;
+        return end - (long) chunk * CHUNK_SIZE;
+    }
+
+
+    private byte[] getChunkBuffer() {
+        if (chunkBuffer == null) {
+            chunkBuffer = new byte[CHUNK_SIZE];
+        }
+        return chunkBuffer;
+    }
+
+    private void truncate(int newCount) throws IOException {
+        count = newCount;
+        hashedLength = (long) count * CHUNK_SIZE;
+        crc.reset();
+        verifiedChunks.clear(count, Integer.MAX_VALUE);
+        storage().setLength(HEADER_SIZE + (long) count * CHECKSUM_SIZE);
+        if (completedLength != NOT_COMPLETED) {
+            completedLength = NOT_COMPLETED;
+            writeHeader();
+        }
+    }
+
+    private void add(int checksum) throws IOException {
+        if (count == checksums.length) {
+            checksums = Arrays.copyOf(checksums, count * 2);
+        }
+        checksums[count] = checksum;
+        verifiedChunks.set(count);
+        writeChecksum(count++);
+        crc.reset();
+    }
+
+    private void writeChecksum(int chunk) throws IOException {
+        int checksum = checksums[chunk];
+        checksumBuffer[0] = (byte) (checksum >>> 24);
+        checksumBuffer[1] = (byte) (checksum >>> 16);
+        checksumBuffer[2] = (byte) (checksum >>> 8);
+        checksumBuffer[3] = (byte) checksum;
+        RandomAccessFile checksumsFile = storage();
+        checksumsFile.seek(HEADER_SIZE + (long) chunk * CHECKSUM_SIZE);
+        checksumsFile.write(checksumBuffer);
+    }
+
+    private void writeHeader() throws IOException {
+        RandomAccessFile checksumsFile = storage();
+        checksumsFile.seek(0);
+        checksumsFile.writeLong(completedLength);
+    }
+
+    private RandomAccessFile storage() throws IOException {
+        if (checksumsFile == null) {
+            boolean created = !file.exists();
+            checksumsFile = new RandomAccessFile(file, "rw");
+            if (created) {
+                checksumsFile.writeLong(NOT_COMPLETED);
+            }
+        }
+        return checksumsFile;
+    }
+}
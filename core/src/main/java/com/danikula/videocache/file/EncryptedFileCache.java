@@ -0,0 +1,156 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.ProxyCacheException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * {@link FileCache} that keeps data encrypted with AES-CTR on disk.
+ * <p>
+ * Every byte is encrypted according to its offset in source, so reading from any offset doesn't process preceding data,
+ * and detached range is merged into cache as is. Random nonce is generated every time file is (re)created or
+ * {@link #clear() cleared} and stored in separate file, so neither different files nor different contents of the same
+ * file encrypted with the same key share key stream.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class EncryptedFileCache extends FileCache {
+
+    static final String NONCE_POSTFIX = ".nonce";
+    private static final int NONCE_SIZE = 8;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final byte[] key;
+    private final File nonceFile;
+    private AesCtrCipher cipher;
+    private byte[] encryptionBuffer = new byte[0];
+
+    /**
+     * @param file      a file to be used for caching.
+     * @param diskUsage a strategy of disk usage.
+     * @param key       an AES key, 16, 24 or 32 bytes. Key must not change while file is cached.
+     * @throws ProxyCacheException if file can't be used or key is invalid.
+     */
+    public EncryptedFileCache(File file, DiskUsage diskUsage, byte[] key) throws ProxyCacheException {
+        super(file, diskUsage);
+        this.key = key;
+        this.nonceFile = getNonceFile(file);
+        try {
+            if (available() == 0) {
+                renewNonce();
+            } else {
+                this.cipher = new AesCtrCipher(key, readNonce(file));
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException | IOException e) {
+            close();
+            throw new ProxyCacheException("Error initializing encryption of " + file, e);
+        }
+    }
+
+    /**
+     * Returns file storing nonce of cache file, it is shared by temporary and completed cache file.
+     *
+     * @param file a cache file, completed or temporary one.
+     * @return file with nonce.
+     */
+    static File getNonceFile(File file) {
+        String name = file.getName();
+        if (name.endsWith(TEMP_POSTFIX)) {
+            name = name.substring(0, name.length() - TEMP_POSTFIX.length());
+        }
+        return new File(file.getParentFile(), name + NONCE_POSTFIX);
+    }
+
+    static boolean isNonceFile(File file) {
+        return file.getName().endsWith(NONCE_POSTFIX);
+    }
+
+    private byte[] readNonce(File file) throws GeneralSecurityException, IOException {
+        if (!nonceFile.exists()) {
+            return AesCtrCipher.nonce(file.getName());  // file was cached by version deriving nonce from name
+        }
+        byte[] nonce = new byte[NONCE_SIZE];
+        RandomAccessFile input = new RandomAccessFile(nonceFile, "r");
+        try {
+            input.readFully(nonce);
+        } finally {
+            input.close();
+        }
+        return nonce;
+    }
+
+    private void renewNonce() throws GeneralSecurityException, IOException {
+        byte[] nonce = new byte[NONCE_SIZE];
+        RANDOM.nextBytes(nonce);
+        AesCtrCipher newCipher = new AesCtrCipher(key, nonce);
+        OutputStream output = new FileOutputStream(nonceFile);
+        try {
+            output.write(nonce);
+        } finally {
+            output.close();
+        }
+        cipher = newCipher;
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0) {
+            crypt(buffer, read, offset);
+        }
+        return read;
+    }
+
+    @Override
+    public synchronized void append(byte[] data, int length) throws ProxyCacheException {
+        super.append(encrypt(data, length, available()), length);
+    }
+
+    @Override
+    public synchronized void writeRange(long offset, byte[] data, int length) throws ProxyCacheException {
+        super.writeRange(offset, encrypt(data, length, offset), length);
+    }
+
+    @Override
+    public synchronized void repair(long offset, byte[] data, int length) throws ProxyCacheException {
+        super.repair(offset, encrypt(data, length, offset), length);
+    }
+
+    /**
+     * Drops all data and starts using new nonce, so new content of file doesn't reuse key stream of dropped one.
+     *
+     * @throws ProxyCacheException if file can't be truncated.
+     */
+    @Override
+    public synchronized void clear() throws ProxyCacheException {
+        super.clear();
+        try {
+            renewNonce();
+        } catch (GeneralSecurityException | IOException e) {
+            throw new ProxyCacheException("Error renewing nonce of " + file, e);
+        }
+    }
+
+    private byte[] encrypt(byte[] data, int length, long offset) throws ProxyCacheException {
+        if (encryptionBuffer.length < length) {
+            encryptionBuffer = new byte[length];
+        }
+        System.arraycopy(data, 0, encryptionBuffer, 0, length);   // caller's data is left intact
+        crypt(encryptionBuffer, length, offset);
+        return encryptionBuffer;
+    }
+
+    private void crypt(byte[] data, int length, long offset) throws ProxyCacheException {
+        try {
+            cipher.crypt(data, 0, length, offset);
+        } catch (GeneralSecurityException e) {
+            throw new ProxyCacheException("Error encrypting data of " + file, e);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.danikula.videocache.file;
+
+/**
+ * Provides keys for encrypting cached files.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ * @see EncryptedFileCache
+ */
+public interface EncryptionKeyProvider {
+
+    /**
+     * Returns key for encrypting file of url. Method is called for every request, so it should be fast.
+     *
+     * @param url an url of file.
+     * @return an AES key (16, 24 or 32 bytes) or {@code null} if file should be stored unencrypted.
+     * Key for url must not change while its file is cached.
+     */
+    byte[] getKey(String url);
+
+}
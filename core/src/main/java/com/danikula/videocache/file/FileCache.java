@@ -0,0 +1,331 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.Cache;
+import com.danikula.videocache.CorruptedCacheException;
+import com.danikula.videocache.ProxyCacheException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * {@link Cache} that uses file for storing data.
+ * <p>
+ * Besides sequential data cache can keep one detached range of data beyond available bytes (e.g. loaded for seek),
+ * range is stored in separate file and merged into cache as soon as appended data reaches range's start.
+ * </p>
+ * Data is checked by checksums of chunks ({@link ChunkChecksums}) calculated while data is written. Chunk stored
+ * before this cache was opened is verified when it is read first time, corrupted chunk is reported by
+ * {@link CorruptedCacheException}, so it can be loaded again and {@link #repair(long, byte[], int) repaired}.
+ * Cache of source whose content was changed is {@link #clear() cleared}, even if it is completed.
+ * Completed file that doesn't match its checksums' length (e.g. truncated) is opened as not completed one.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class FileCache implements Cache {
+
+    private static final Logger LOG = LoggerFactory.getLogger("FileCache");
+    static final String TEMP_POSTFIX = ".download";
+    static final String RANGE_POSTFIX = ".range";
+    private static final int MERGE_BUFFER_SIZE = 8 * 1024;
+
+    private final DiskUsage diskUsage;
+    public File file;
+    private RandomAccessFile dataFile;
+    private RandomAccessFile rangeFile;
+    private long rangeOffset;
+    private ChunkChecksums checksums;   // null for file cached without checksums
+
+    public FileCache(File file) throws ProxyCacheException {
+        this(file, new UnlimitedDiskUsage());
+    }
+
+    public FileCache(File file, DiskUsage diskUsage) throws ProxyCacheException {
+        try {
+            if (diskUsage == null) {
+                throw new NullPointerException();
+            }
+            this.diskUsage = diskUsage;
+            File directory = file.getParentFile();
+            Files.makeDir(directory);
+            boolean completed = file.exists();
+            this.file = completed ? file : new File(file.getParentFile(), file.getName() + TEMP_POSTFIX);
+            this.dataFile = new RandomAccessFile(this.file, completed ? "r" : "rw");
+            this.checksums = openChecksums();
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error using file " + file + " as disc cache", e);
+        }
+    }
+
+    private ChunkChecksums openChecksums() throws IOException {
+        long length = dataFile.length();
+        boolean checksumsExist = ChunkChecksums.getFile(file).exists();
+        if (!checksumsExist && (length > 0 || isCompleted())) {
+            return null;    // file was cached by version without checksums
+        }
+        ChunkChecksums checksums = new ChunkChecksums(file);
+        if (!isCompleted()) {
+            checksums.restore(dataFile);
+        } else if (!checksums.isCompleted(length)) {
+            LOG.warn("Length of completed file " + file + " doesn't match its checksums, file will be loaded again");
+            checksums.uncomplete(length);
+            uncomplete(checksums);
+            dataFile.setLength(checksums.getHashedLength());
+        }
+        return checksums;
+    }
+
+    private void uncomplete(ChunkChecksums checksums) throws IOException {
+        dataFile.close();
+        File tempFile = new File(file.getParentFile(), file.getName() + TEMP_POSTFIX);
+        if (!file.renameTo(tempFile)) {
+            throw new IOException("Error renaming file " + file + " to " + tempFile);
+        }
+        if (checksums != null) {
+            checksums.moveTo(tempFile);
+        }
+        file = tempFile;
+        dataFile = new RandomAccessFile(file, "rw");
+    }
+
+    @Override
+    public synchronized long available() throws ProxyCacheException {
+        try {
+            return (int) dataFile.length();
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error reading length of file " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
+        try {
+            if (checksums != null) {
+                checksums.verify(dataFile, offset, length);
+            }
+            dataFile.seek(offset);
+            return dataFile.read(buffer, 0, length);
+        } catch (IOException e) {
+            String format = "Error reading %d bytes with offset %d from file[%d bytes] to buffer[%d bytes]";
+            throw new ProxyCacheException(String.format(format, length, offset, available(), buffer.length), e);
+        }
+    }
+
+    @Override
+    public synchronized void append(byte[] data, int length) throws ProxyCacheException {
+        try {
+            if (isCompleted()) {
+                throw new ProxyCacheException("Error append cache: cache file " + file + " is completed!");
+            }
+            dataFile.seek(available());
+            write(data, length);
+            mergeRange();
+        } catch (IOException e) {
+            String format = "Error writing %d bytes to %s from buffer with size %d";
+            throw new ProxyCacheException(String.format(format, length, dataFile, data.length), e);
+        }
+    }
+
+    /**
+     * Stores data that isn't available in cache yet. Data will be merged into cache when {@link #append(byte[], int)}
+     * reaches its offset, so {@link #available()} may grow more than appended length.
+     * <p>
+     * Only one range is kept: data that doesn't continue current range starts new range.
+     * </p>
+     *
+     * @param offset an offset of data in source.
+     * @param data   a data to be stored.
+     * @param length a length of data in buffer.
+     * @throws ProxyCacheException if data can't be written.
+     */
+    public synchronized void writeRange(long offset, byte[] data, int length) throws ProxyCacheException {
+        try {
+            if (isCompleted() || offset + length <= available()) {
+                return;
+            }
+            if (rangeFile == null || offset != rangeOffset + rangeFile.length()) {
+                discardRange();
+                rangeFile = new RandomAccessFile(getRangeFile(), "rw");
+                rangeFile.setLength(0);
+                rangeOffset = offset;
+            }
+            rangeFile.seek(rangeFile.length());
+            rangeFile.write(data, 0, length);
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error writing range with offset " + offset + " for " + file, e);
+        }
+    }
+
+    private void mergeRange() throws IOException {
+        if (rangeFile == null) {
+            return;
+        }
+        long available = dataFile.length();
+        long rangeEnd = rangeOffset + rangeFile.length();
+        if (available < rangeOffset) {
+            return;
+        }
+        if (available < rangeEnd) {
+            byte[] buffer = new byte[MERGE_BUFFER_SIZE];
+            rangeFile.seek(available - rangeOffset);
+            dataFile.seek(available);
+            int read;
+            while ((read = rangeFile.read(buffer)) != -1) {
+                write(buffer, read);
+            }
+        }
+        discardRange();
+    }
+
+    private void write(byte[] data, int length) throws IOException {
+        dataFile.write(data, 0, length);
+        if (checksums != null) {
+            checksums.update(data, 0, length);
+        }
+    }
+
+    /**
+     * Overwrites part of corrupted region of cache by data loaded from source again. Region is read again
+     * only after all its parts are written and {@link #completeRepair(long, int) repair is completed}.
+     *
+     * @param offset an offset of data, within region reported by {@link CorruptedCacheException}.
+     * @param data   a data loaded from source.
+     * @param length a length of data in buffer.
+     * @throws ProxyCacheException if data can't be written.
+     */
+    public synchronized void repair(long offset, byte[] data, int length) throws ProxyCacheException {
+        try {
+            RandomAccessFile writableFile = isCompleted() ? new RandomAccessFile(file, "rw") : dataFile;
+            try {
+                writableFile.seek(offset);
+                writableFile.write(data, 0, length);
+            } finally {
+                if (writableFile != dataFile) {
+                    writableFile.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error repairing " + length + " bytes with offset " + offset + " of " + file, e);
+        }
+    }
+
+    /**
+     * Replaces checksum of corrupted region whose data is {@link #repair(long, byte[], int) written} again.
+     *
+     * @param offset an offset of region, see {@link CorruptedCacheException#getOffset()}.
+     * @param length a length of region, see {@link CorruptedCacheException#getLength()}.
+     * @throws ProxyCacheException if region can't be read or its checksum can't be stored.
+     */
+    public synchronized void completeRepair(long offset, int length) throws ProxyCacheException {
+        try {
+            if (checksums != null) {
+                checksums.rehash(dataFile, offset, length);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ProxyCacheException("Error repairing " + length + " bytes with offset " + offset + " of " + file, e);
+        }
+    }
+
+    /**
+     * Drops all data of cache, e.g. if loaded data doesn't match digest declared by origin or content of source
+     * is changed. Completed cache becomes not completed one.
+     *
+     * @throws ProxyCacheException if file can't be truncated.
+     */
+    public synchronized void clear() throws ProxyCacheException {
+        try {
+            if (isCompleted()) {
+                uncomplete(checksums);
+            }
+            discardRange();
+            dataFile.setLength(0);
+            if (checksums != null) {
+                checksums.clear();
+            } else {
+                checksums = openChecksums();
+            }
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error clearing cache " + file, e);
+        }
+    }
+
+    private void discardRange() throws IOException {
+        if (rangeFile != null) {
+            rangeFile.close();
+            rangeFile = null;
+            getRangeFile().delete();
+        }
+    }
+
+    private File getRangeFile() {
+        return new File(file.getParentFile(), file.getName() + RANGE_POSTFIX);
+    }
+
+    @Override
+    public synchronized void close() throws ProxyCacheException {
+        try {
+            discardRange();
+            dataFile.close();
+            if (checksums != null) {
+                checksums.close();
+            }
+            diskUsage.touch(file);
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error closing file " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized void complete() throws ProxyCacheException {
+        if (isCompleted()) {
+            return;
+        }
+
+        if (checksums != null) {
+            try {
+                checksums.complete(available());
+            } catch (IOException e) {
+                throw new ProxyCacheException("Error storing checksums of " + file, e);
+            }
+        }
+        close();
+        String fileName = file.getName().substring(0, file.getName().length() - TEMP_POSTFIX.length());
+        File completedFile = new File(file.getParentFile(), fileName);
+        boolean renamed = file.renameTo(completedFile);
+        if (!renamed) {
+            throw new ProxyCacheException("Error renaming file " + file + " to " + completedFile + " for completion!");
+        }
+        file = completedFile;
+        try {
+            if (checksums != null) {
+                checksums.moveTo(file);
+            }
+            dataFile = new RandomAccessFile(file, "r");
+            diskUsage.touch(file);
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error opening " + file + " as disc cache", e);
+        }
+    }
+
+    @Override
+    public synchronized boolean isCompleted() {
+        return !isTempFile(file);
+    }
+
+    /**
+     * Returns file to be used fo caching. It may as original file passed in constructor as some temp file for not completed cache.
+     *
+     * @return file for caching.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    private boolean isTempFile(File file) {
+        return file.getName().endsWith(TEMP_POSTFIX);
+    }
+
+}
@@ -6,11 +6,10 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -35,11 +34,19 @@ class Files {
         }
     }
 
+    /**
+     * Returns cache files sorted by last modification date, checksums, nonce files and shards are not included.
+     */
     static List<File> getLruListFiles(File directory) {
-        List<File> result = new LinkedList<>();
+        List<File> result = new ArrayList<>();
         File[] files = directory.listFiles();
         if (files != null) {
-            result = Arrays.asList(files);
+            for (File file : files) {
+                boolean sidecar = ChunkChecksums.isChecksumsFile(file) || EncryptedFileCache.isNonceFile(file);
+                if (!sidecar && !CacheDirectory.MARKER.equals(file.getName()) && !file.isDirectory()) {
+                    result.add(file);
+                }
+            }
             Collections.sort(result, new LastModifiedComparator());
         }
         return result;
@@ -80,7 +87,7 @@ class Files {
         }
     }
 
-    private static final class LastModifiedComparator implements Comparator<File> {
+    static final class LastModifiedComparator implements Comparator<File> {
 
         @Override
         public int compare(File lhs, File rhs) {
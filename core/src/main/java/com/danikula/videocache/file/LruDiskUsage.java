@@ -0,0 +1,214 @@
+package com.danikula.videocache.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * {@link DiskUsage} that uses LRU (Least Recently Used) strategy to trim cache.
+ * <p>
+ * Segments of adaptive streams known by {@link RenditionGroups} are trimmed specially: all renditions of title are counted
+ * as single file and segments of renditions player switched away from are deleted first. If files count is exceeded
+ * title is deleted whole, because deleting some of its segments doesn't reduce count.
+ * </p>
+ * <p>
+ * Sharded {@link CacheDirectory} is trimmed with help of {@link ShardedFiles}: only shards changed since previous
+ * trimming are listed.
+ * </p>
+ * Deleted files are reported to {@link DeletionListener}s, so indexes of cached files can be kept in memory.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public abstract class LruDiskUsage implements DiskUsage {
+
+    private static final Logger LOG = LoggerFactory.getLogger("LruDiskUsage");
+    private final ExecutorService workerThread = Executors.newSingleThreadExecutor();
+    private final RenditionGroups renditionGroups;
+    private final List<DeletionListener> deletionListeners = new CopyOnWriteArrayList<>();
+    private ShardedFiles shardedFiles;
+
+    protected LruDiskUsage() {
+        this(new RenditionGroups());
+    }
+
+    protected LruDiskUsage(RenditionGroups renditionGroups) {
+        this.renditionGroups = checkNotNull(renditionGroups);
+    }
+
+    @Override
+    public void touch(File file) throws IOException {
+        workerThread.submit(new TouchCallable(file));
+    }
+
+    public void addDeletionListener(DeletionListener listener) {
+        deletionListeners.add(checkNotNull(listener));
+    }
+
+    public void removeDeletionListener(DeletionListener listener) {
+        deletionListeners.remove(listener);
+    }
+
+    void touchInBackground(File file) throws IOException {
+        Files.setLastModifiedNow(file);
+        File shardedRoot = CacheDirectory.getShardedRoot(file);
+        if (shardedRoot == null) {
+            List<File> files = Files.getLruListFiles(file.getParentFile());
+            trim(files, getLengths(files));
+            return;
+        }
+        if (shardedFiles == null || !shardedFiles.getRoot().equals(shardedRoot)) {
+            shardedFiles = new ShardedFiles(shardedRoot);
+        }
+        List<File> files = shardedFiles.getLruListFiles(file.getParentFile());
+        trim(files, shardedFiles.getLengths());
+    }
+
+    protected abstract boolean accept(File file, long totalSize, int totalCount);
+
+    private void trim(List<File> files, Map<File, Long> lengths) {
+        long totalSize = countTotalSize(files, lengths);
+        Map<String, List<File>> groups = new HashMap<>();
+        int totalCount = countTotalCount(files, groups);
+        List<File> evictionOrder = renditionGroups.sortForEviction(files);
+        Map<String, File> groupsLastFiles = getGroupsLastFiles(evictionOrder);
+        for (File file : evictionOrder) {
+            if (accept(file, totalSize, totalCount)) {
+                continue;
+            }
+            String group = renditionGroups.getGroup(file);
+            List<File> groupFiles = group == null ? null : groups.get(group);
+            boolean countExceeded = !accept(file, 0, totalCount);
+            if (groupFiles != null && groupFiles.size() > 1 && countExceeded) {
+                // deleting single segment doesn't reduce count, so title is evicted whole in place of its last file
+                if (file.equals(groupsLastFiles.get(group))) {
+                    for (File groupFile : new ArrayList<>(groupFiles)) {
+                        long fileSize = lengths.get(groupFile);
+                        if (delete(groupFile)) {
+                            totalSize -= fileSize;
+                            groupFiles.remove(groupFile);
+                        }
+                    }
+                    totalCount -= groupFiles.isEmpty() ? 1 : 0;
+                }
+                continue;
+            }
+            long fileSize = lengths.get(file);
+            if (delete(file)) {
+                totalSize -= fileSize;
+                if (groupFiles == null) {
+                    totalCount--;
+                } else {
+                    groupFiles.remove(file);
+                    totalCount -= groupFiles.isEmpty() ? 1 : 0;
+                }
+            }
+        }
+    }
+
+    private boolean delete(File file) {
+        boolean deleted = file.delete();
+        if (deleted) {
+            renditionGroups.remove(file);
+            ChunkChecksums.getFile(file).delete();
+            if (!file.getName().endsWith(FileCache.RANGE_POSTFIX)) {
+                EncryptedFileCache.getNonceFile(file).delete();
+            }
+            if (shardedFiles != null) {
+                shardedFiles.onDeleted(file);
+            }
+            for (DeletionListener listener : deletionListeners) {
+                listener.onDeleted(file);
+            }
+            LOG.info("Cache file " + file + " is deleted because it exceeds cache limit");
+        } else {
+            LOG.error("Error deleting file " + file + " for trimming cache");
+        }
+        return deleted;
+    }
+
+    private int countTotalCount(List<File> files, Map<String, List<File>> groups) {
+        int totalCount = 0;
+        for (File file : files) {
+            String group = renditionGroups.getGroup(file);
+            if (group == null) {
+                totalCount++;
+            } else {
+                List<File> groupFiles = groups.get(group);
+                if (groupFiles == null) {
+                    totalCount++;
+                    groupFiles = new ArrayList<>();
+                    groups.put(group, groupFiles);
+                }
+                groupFiles.add(file);
+            }
+        }
+        return totalCount;
+    }
+
+    private Map<String, File> getGroupsLastFiles(List<File> evictionOrder) {
+        Map<String, File> lastFiles = new HashMap<>();
+        for (File file : evictionOrder) {
+            String group = renditionGroups.getGroup(file);
+            if (group != null) {
+                lastFiles.put(group, file);
+            }
+        }
+        return lastFiles;
+    }
+
+    private long countTotalSize(List<File> files, Map<File, Long> lengths) {
+        long totalSize = 0;
+        for (File file : files) {
+            totalSize += lengths.get(file);
+        }
+        return totalSize;
+    }
+
+    private Map<File, Long> getLengths(List<File> files) {
+        Map<File, Long> lengths = new HashMap<>();
+        for (File file : files) {
+            lengths.put(file, file.length());
+        }
+        return lengths;
+    }
+
+    /**
+     * Listener of files deleted for trimming cache.
+     */
+    public interface DeletionListener {
+
+        /**
+         * Called by worker thread of disk usage after file is deleted.
+         *
+         * @param file a deleted cache file.
+         */
+        void onDeleted(File file);
+    }
+
+    private class TouchCallable implements Callable<Void> {
+
+        private final File file;
+
+        public TouchCallable(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            touchInBackground(file);
+            return null;
+        }
+    }
+}
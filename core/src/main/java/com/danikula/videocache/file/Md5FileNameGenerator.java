@@ -0,0 +1,58 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.ProxyCacheUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Implementation of {@link FileNameGenerator} that uses MD5 of url as file name
+ * <p>
+ * Names of recently used urls are remembered, because proxy asks name for the same url many times
+ * (checking cache, building proxy url, opening cache).
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class Md5FileNameGenerator implements FileNameGenerator {
+
+    private static final int MAX_EXTENSION_LENGTH = 4;
+    private static final int MAX_NAMES_COUNT = 256;
+
+    private final Map<String, String> names = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_NAMES_COUNT;
+        }
+    };
+
+    @Override
+    public String generate(String url) {
+        checkNotNull(url);
+        synchronized (names) {
+            String name = names.get(url);
+            if (name != null) {
+                return name;
+            }
+        }
+        String name = generateName(url);
+        synchronized (names) {
+            names.put(url, name);
+        }
+        return name;
+    }
+
+    private String generateName(String url) {
+        String extension = getExtension(url);
+        String name = ProxyCacheUtils.computeMD5(url);
+        return ProxyCacheUtils.isEmpty(extension) ? name : name + "." + extension;
+    }
+
+    private String getExtension(String url) {
+        int dotIndex = url.lastIndexOf('.');
+        int slashIndex = url.lastIndexOf('/');
+        return dotIndex != -1 && dotIndex > slashIndex && dotIndex + 2 + MAX_EXTENSION_LENGTH > url.length() ?
+                url.substring(dotIndex + 1, url.length()) : "";
+    }
+}
@@ -0,0 +1,15 @@
+package com.danikula.videocache.file;
+
+/**
+ * {@link EncryptionKeyProvider} that keeps all files unencrypted.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class NoEncryptionKeyProvider implements EncryptionKeyProvider {
+
+    @Override
+    public byte[] getKey(String url) {
+        return null;
+    }
+
+}
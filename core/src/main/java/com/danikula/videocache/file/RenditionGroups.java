@@ -0,0 +1,127 @@
+package com.danikula.videocache.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Knows which cached files are segments of which rendition of adaptive stream (HLS variant, DASH representation).
+ * <p>
+ * All renditions of one title are single unit for {@link LruDiskUsage} (title takes one place in files count limit),
+ * and segments of renditions player doesn't use anymore are evicted first, higher bitrates earlier.
+ * Segments of rendition being played and of the lowest rendition (used for fast start) are evicted by usual LRU.
+ * </p>
+ * Groups are kept in memory only, after restart cached segments are trimmed as usual files.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public final class RenditionGroups {
+
+    private static final int MAX_TRACKED_FILES = 64 * 1024;
+
+    private final Map<String, Rendition> renditions = new LinkedHashMap<String, Rendition>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Rendition> eldest) {
+            return size() > MAX_TRACKED_FILES;
+        }
+    };
+    private final Map<String, Integer> activeRanks = new HashMap<>();
+
+    /**
+     * Marks cache file as segment of rendition.
+     *
+     * @param file      a cache file of segment.
+     * @param rendition a rendition segment belongs to.
+     */
+    public synchronized void put(File file, Rendition rendition) {
+        renditions.put(file.getName(), checkNotNull(rendition));
+    }
+
+    /**
+     * Marks rendition as used by player, so segments of other renditions of its ladder are evicted first.
+     *
+     * @param rendition a rendition player requests segments of.
+     */
+    public synchronized void activate(Rendition rendition) {
+        activeRanks.put(rendition.ladder, rendition.rank);
+    }
+
+    public synchronized boolean isActive(String ladder) {
+        return activeRanks.containsKey(ladder);
+    }
+
+    synchronized String getGroup(File file) {
+        Rendition rendition = renditions.get(file.getName());
+        return rendition == null ? null : rendition.title;
+    }
+
+    synchronized void remove(File file) {
+        renditions.remove(file.getName());
+    }
+
+    /**
+     * Sorts files in order they should be evicted in.
+     *
+     * @param lruFiles files sorted by LRU.
+     * @return files of unused renditions (higher bitrates first) followed by all other files in LRU order.
+     */
+    synchronized List<File> sortForEviction(List<File> lruFiles) {
+        final Map<File, Integer> priorities = new HashMap<>();
+        for (File file : lruFiles) {
+            priorities.put(file, getEvictionPriority(file));
+        }
+        List<File> result = new ArrayList<>(lruFiles);
+        Collections.sort(result, new Comparator<File>() {   // sort is stable, so LRU order is kept for same priorities
+            @Override
+            public int compare(File lhs, File rhs) {
+                return priorities.get(rhs) - priorities.get(lhs);
+            }
+        });
+        return result;
+    }
+
+    private int getEvictionPriority(File file) {
+        Rendition rendition = renditions.get(file.getName());
+        if (rendition == null || rendition.rank == 0) {
+            return 0;
+        }
+        Integer activeRank = activeRanks.get(rendition.ladder);
+        return activeRank == null || activeRank == rendition.rank ? 0 : rendition.rank;
+    }
+
+    /**
+     * Rendition of adaptive stream.
+     */
+    public static final class Rendition {
+
+        public final String title;
+        public final String ladder;
+        public final int rank;
+
+        /**
+         * @param title  an id of title (e.g. url of master playlist), all renditions of title are accounted as single unit.
+         * @param ladder an id of set of renditions player switches between (e.g. video adaptation set of DASH manifest).
+         * @param rank   a position of rendition in ladder sorted by bitrate, {@code 0} for the lowest bitrate.
+         */
+        public Rendition(String title, String ladder, int rank) {
+            if (rank < 0) {
+                throw new IllegalArgumentException("Rank must not be negative!");
+            }
+            this.title = checkNotNull(title);
+            this.ladder = checkNotNull(ladder);
+            this.rank = rank;
+        }
+
+        @Override
+        public String toString() {
+            return "Rendition{title='" + title + "', ladder='" + ladder + "', rank=" + rank + '}';
+        }
+    }
+}
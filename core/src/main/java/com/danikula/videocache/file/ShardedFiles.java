@@ -0,0 +1,142 @@
+package com.danikula.videocache.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Files of sharded {@link CacheDirectory} remembered shard by shard, so trimming of cache lists only shards
+ * changed since previous trimming instead of whole directory tree.
+ * <p>
+ * Length and modification time of files are remembered too, so sorting files and counting cache size doesn't touch
+ * file system. Files of not completed cache are growing without touching their shards, so they are checked again
+ * before every trimming. Other files changed not by proxy are noticed when their shard is changed by proxy.
+ * </p>
+ * Not thread safe, used by single thread of {@link LruDiskUsage}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class ShardedFiles {
+
+    private final File root;
+    private final Map<File, List<ListedFile>> shards = new HashMap<>();
+    private final Set<File> changedShards = new HashSet<>();
+    private final Map<File, Long> lengths = new HashMap<>();
+
+    ShardedFiles(File root) {
+        this.root = root;
+    }
+
+    File getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns cache files of all shards sorted by last modification date, checksums files are not included.
+     *
+     * @param changedShard a shard containing file just touched.
+     * @return files, their lengths are returned by {@link #getLengths()}.
+     */
+    List<File> getLruListFiles(File changedShard) {
+        if (shards.isEmpty()) {
+            for (int level = 0; level < CacheDirectory.SHARDS_PER_LEVEL; level++) {
+                for (int shard = 0; shard < CacheDirectory.SHARDS_PER_LEVEL; shard++) {
+                    changedShards.add(CacheDirectory.getShard(root, level, shard));
+                }
+            }
+        }
+        changedShards.add(changedShard);
+        for (File shard : changedShards) {
+            shards.put(shard, listFiles(shard));
+        }
+        changedShards.clear();
+
+        List<ListedFile> listedFiles = new ArrayList<>();
+        for (List<ListedFile> files : shards.values()) {
+            for (ListIterator<ListedFile> iterator = files.listIterator(); iterator.hasNext(); ) {
+                ListedFile listedFile = iterator.next();
+                if (isGrowing(listedFile.file)) {
+                    listedFile = new ListedFile(listedFile.file);
+                    if (listedFile.lastModified == 0) {
+                        iterator.remove();  // file doesn't exist any more, e.g. its cache is completed
+                        continue;
+                    }
+                    iterator.set(listedFile);
+                }
+                listedFiles.add(listedFile);
+            }
+        }
+        Collections.sort(listedFiles, new LastModifiedComparator());
+        List<File> result = new ArrayList<>(listedFiles.size());
+        lengths.clear();
+        for (ListedFile listedFile : listedFiles) {
+            result.add(listedFile.file);
+            lengths.put(listedFile.file, listedFile.length);
+        }
+        return result;
+    }
+
+    /**
+     * Returns lengths of files returned by last {@link #getLruListFiles(File)}.
+     *
+     * @return lengths remembered when shards were listed, files of not completed cache are checked again.
+     */
+    Map<File, Long> getLengths() {
+        return lengths;
+    }
+
+    /**
+     * Marks shard of deleted file as changed, so it is listed again by next {@link #getLruListFiles(File)}.
+     *
+     * @param file a deleted file.
+     */
+    void onDeleted(File file) {
+        changedShards.add(file.getParentFile());
+    }
+
+    private boolean isGrowing(File file) {
+        String name = file.getName();
+        return name.endsWith(FileCache.TEMP_POSTFIX) || name.endsWith(FileCache.RANGE_POSTFIX);
+    }
+
+    private List<ListedFile> listFiles(File shard) {
+        List<ListedFile> result = new ArrayList<>();
+        File[] files = shard.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!ChunkChecksums.isChecksumsFile(file) && !EncryptedFileCache.isNonceFile(file)) {
+                    result.add(new ListedFile(file));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static final class ListedFile {
+
+        private final File file;
+        private final long length;
+        private final long lastModified;
+
+        ListedFile(File file) {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+    }
+
+    private static final class LastModifiedComparator implements Comparator<ListedFile> {
+
+        @Override
+        public int compare(ListedFile lhs, ListedFile rhs) {
+            return lhs.lastModified < rhs.lastModified ? -1 : (lhs.lastModified == rhs.lastModified ? 0 : 1);
+        }
+    }
+}
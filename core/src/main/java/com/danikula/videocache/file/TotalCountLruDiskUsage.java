@@ -12,6 +12,11 @@ public class TotalCountLruDiskUsage extends LruDiskUsage {
     private final int maxCount;
 
     public TotalCountLruDiskUsage(int maxCount) {
+        this(maxCount, new RenditionGroups());
+    }
+
+    public TotalCountLruDiskUsage(int maxCount, RenditionGroups renditionGroups) {
+        super(renditionGroups);
         if (maxCount <= 0) {
             throw new IllegalArgumentException("Max count must be positive number!");
         }
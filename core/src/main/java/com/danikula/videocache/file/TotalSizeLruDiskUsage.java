@@ -12,6 +12,11 @@ public class TotalSizeLruDiskUsage extends LruDiskUsage {
     private final long maxSize;
 
     public TotalSizeLruDiskUsage(long maxSize) {
+        this(maxSize, new RenditionGroups());
+    }
+
+    public TotalSizeLruDiskUsage(long maxSize, RenditionGroups renditionGroups) {
+        super(renditionGroups);
         if (maxSize <= 0) {
             throw new IllegalArgumentException("Max size must be positive number!");
         }
@@ -0,0 +1,25 @@
+package com.danikula.videocache.mirrors;
+
+import java.util.List;
+
+/**
+ * Provides mirrors (e.g. edges of different CDNs) of url, proxy loads file from the fastest of them
+ * and switches to another one if current mirror fails or slows down.
+ * <p>
+ * Mirrors must serve the same content as original url with the same validator ({@code ETag} or {@code Last-Modified}),
+ * otherwise loading can't be continued from another mirror.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public interface MirrorsProvider {
+
+    /**
+     * Returns mirrors of url.
+     *
+     * @param url an original url passed to proxy.
+     * @return urls with the same content as original url (original url itself may be omitted), empty list if there are no mirrors.
+     * {@code null} is not acceptable!
+     */
+    List<String> getMirrors(String url);
+
+}
@@ -0,0 +1,18 @@
+package com.danikula.videocache.mirrors;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link MirrorsProvider} for urls without mirrors.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class NoMirrorsProvider implements MirrorsProvider {
+
+    @Override
+    public List<String> getMirrors(String url) {
+        return Collections.emptyList();
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.danikula.videocache.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Response of origin server received by {@link OriginTransport}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public interface OriginResponse {
+
+    /**
+     * Returns url response is received from.
+     *
+     * @return requested url.
+     */
+    String getUrl();
+
+    int getCode();
+
+    /**
+     * Returns value of response header.
+     *
+     * @param name a case insensitive name of header.
+     * @return value of header or {@code null} if there is no such header.
+     */
+    String getHeader(String name);
+
+    /**
+     * Returns value of response header containing date (e.g. {@code Expires}).
+     *
+     * @param name a case insensitive name of header.
+     * @return date in milliseconds since epoch or {@code 0} if header is absent or malformed.
+     */
+    long getDateHeader(String name);
+
+    InputStream getBody() throws IOException;
+
+    /**
+     * Releases resources of response, body can't be read after closing.
+     */
+    void close();
+
+}
@@ -0,0 +1,27 @@
+package com.danikula.videocache.transport;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Transport used by proxy to send requests to origin servers.
+ * <p>
+ * Default implementation {@link UrlConnectionTransport} is based on {@link java.net.HttpURLConnection},
+ * custom implementation may use any http stack.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public interface OriginTransport {
+
+    /**
+     * Sends {@code GET} request and receives response headers.
+     *
+     * @param url       an url to be requested.
+     * @param headers   headers of request (e.g. {@code Range}, {@code If-Range} and headers of {@code HeaderInjector}).
+     * @param timeoutMs a timeout for connecting and reading in milliseconds, non positive value means default timeout.
+     * @return response with any status code. Redirects must NOT be followed, proxy follows and caches them itself.
+     * @throws IOException if request can't be sent or response can't be received.
+     */
+    OriginResponse execute(String url, Map<String, String> headers, int timeoutMs) throws IOException;
+
+}
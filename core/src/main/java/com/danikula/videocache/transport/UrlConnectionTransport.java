@@ -0,0 +1,78 @@
+package com.danikula.videocache.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * {@link OriginTransport} based on {@link HttpURLConnection}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class UrlConnectionTransport implements OriginTransport {
+
+    @Override
+    public OriginResponse execute(String url, Map<String, String> headers, int timeoutMs) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (timeoutMs > 0) {
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+        }
+        try {
+            connection.getResponseCode();
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+        return new UrlConnectionResponse(connection);
+    }
+
+    private static final class UrlConnectionResponse implements OriginResponse {
+
+        private final HttpURLConnection connection;
+
+        UrlConnectionResponse(HttpURLConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public String getUrl() {
+            return connection.getURL().toString();
+        }
+
+        @Override
+        public int getCode() {
+            try {
+                return connection.getResponseCode();   // already received, so it doesn't do any I/O
+            } catch (IOException e) {
+                throw new IllegalStateException("Response is not received", e);
+            }
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public long getDateHeader(String name) {
+            return connection.getHeaderFieldDate(name, 0);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return connection.getInputStream();
+        }
+
+        @Override
+        public void close() {
+            connection.disconnect();
+        }
+    }
+}
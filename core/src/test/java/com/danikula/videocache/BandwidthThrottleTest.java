@@ -0,0 +1,71 @@
+package com.danikula.videocache;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link BandwidthThrottle}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class BandwidthThrottleTest {
+
+    private static final long UNLIMITED = BandwidthThrottle.UNLIMITED;
+
+    @Test
+    public void testBandwidthIsSharedByWeights() throws Exception {
+        BandwidthThrottle throttle = new BandwidthThrottle(500_000, UNLIMITED, 4, 1);
+        BandwidthThrottle.Channel player = throttle.open(false);
+        assertThat(player.getBytesPerSecond()).isEqualTo(500_000);
+
+        BandwidthThrottle.Channel preload = throttle.open(true);
+        assertThat(player.getBytesPerSecond()).isEqualTo(400_000);
+        assertThat(preload.getBytesPerSecond()).isEqualTo(100_000);
+
+        player.close();
+        assertThat(preload.getBytesPerSecond()).isEqualTo(500_000);
+    }
+
+    @Test
+    public void testPlayerGetsBandwidthForBitrate() throws Exception {
+        BandwidthThrottle throttle = new BandwidthThrottle(500_000, UNLIMITED, 1, 1);
+        BandwidthThrottle.Channel player = throttle.open(false);
+        BandwidthThrottle.Channel preload = throttle.open(true);
+        assertThat(player.getBytesPerSecond()).isEqualTo(250_000);
+
+        player.setMinBytesPerSecond(200_000);
+        assertThat(player.getBytesPerSecond()).isEqualTo(300_000);
+        assertThat(preload.getBytesPerSecond()).isEqualTo(200_000);
+    }
+
+    @Test
+    public void testPreloadBandwidthLimit() throws Exception {
+        BandwidthThrottle throttle = new BandwidthThrottle(UNLIMITED, 100_000, 4, 1);
+        BandwidthThrottle.Channel player = throttle.open(false);
+        BandwidthThrottle.Channel preload1 = throttle.open(true);
+        BandwidthThrottle.Channel preload2 = throttle.open(true);
+
+        assertThat(player.getBytesPerSecond()).isEqualTo(UNLIMITED);
+        assertThat(preload1.getBytesPerSecond()).isEqualTo(50_000);
+        assertThat(preload2.getBytesPerSecond()).isEqualTo(50_000);
+
+        preload2.setBackground(false);
+        assertThat(preload1.getBytesPerSecond()).isEqualTo(100_000);
+        assertThat(preload2.getBytesPerSecond()).isEqualTo(UNLIMITED);
+    }
+
+    @Test
+    public void testReadingIsThrottled() throws Exception {
+        BandwidthThrottle throttle = new BandwidthThrottle(100_000, UNLIMITED, 1, 1);
+        BandwidthThrottle.Channel channel = throttle.open(false);
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < 40; i++) {
+            channel.acquire(1000);
+        }
+        long duration = System.currentTimeMillis() - startTime;
+
+        assertThat(duration).isGreaterThan(250);
+        assertThat(duration).isLessThan(1000);
+    }
+}
@@ -0,0 +1,71 @@
+package com.danikula.videocache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link ContentDigest}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class ContentDigestTest {
+
+    private static final byte[] CONTENT = "The quick brown fox jumps over the lazy dog".getBytes();
+    private static final String MD5 = "9e107d9d372bb6826bd81d3542a419d6";
+    private static final String BASE64_MD5 = "nhB9nTcrtoJr2B01QqQZ1g==";
+
+    @Test
+    public void testSequentialContentIsDigested() throws Exception {
+        ContentDigest digest = new ContentDigest();
+        digest.reset();
+        digest.update(0, CONTENT, 10);
+        digest.update(10, Arrays.copyOfRange(CONTENT, 10, CONTENT.length), CONTENT.length - 10);
+
+        assertThat(digest.complete(CONTENT.length)).isEqualTo(MD5);
+    }
+
+    @Test
+    public void testDigestIsUnknownForGap() throws Exception {
+        ContentDigest digest = new ContentDigest();
+        digest.reset();
+        digest.update(0, CONTENT, 10);
+        digest.update(20, Arrays.copyOfRange(CONTENT, 20, CONTENT.length), CONTENT.length - 20);
+
+        assertThat(digest.complete(CONTENT.length)).isNull();
+    }
+
+    @Test
+    public void testDigestIsUnknownForNotCompletedContent() throws Exception {
+        ContentDigest digest = new ContentDigest();
+        digest.reset();
+        digest.update(0, CONTENT, 10);
+
+        assertThat(digest.complete(CONTENT.length)).isNull();
+        assertThat(new ContentDigest().complete(0)).isNull();   // not started
+    }
+
+    @Test
+    public void testParseContentMd5() throws Exception {
+        assertThat(ContentDigest.parseMd5(BASE64_MD5, null, null)).isEqualTo(MD5);
+        assertThat(ContentDigest.parseMd5(" " + BASE64_MD5 + " ", null, "\"0123456789abcdef0123456789abcdef\"")).isEqualTo(MD5);
+        assertThat(ContentDigest.parseMd5("not md5", null, null)).isNull();
+    }
+
+    @Test
+    public void testParseDigestHeader() throws Exception {
+        assertThat(ContentDigest.parseMd5(null, "MD5=" + BASE64_MD5, null)).isEqualTo(MD5);
+        assertThat(ContentDigest.parseMd5(null, "sha-256=X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE=, md5=" + BASE64_MD5, null)).isEqualTo(MD5);
+        assertThat(ContentDigest.parseMd5(null, "sha-256=X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE=", null)).isNull();
+    }
+
+    @Test
+    public void testParseEtag() throws Exception {
+        assertThat(ContentDigest.parseMd5(null, null, "\"9E107D9D372BB6826BD81D3542A419D6\"")).isEqualTo(MD5);
+        assertThat(ContentDigest.parseMd5(null, null, "W/\"9e107d9d372bb6826bd81d3542a419d6\"")).isNull();
+        assertThat(ContentDigest.parseMd5(null, null, "\"9e107d9d372bb6826bd81d3542a419d6-5\"")).isNull();   // multipart upload
+        assertThat(ContentDigest.parseMd5(null, null, "\"5e8f-5a1b3c\"")).isNull();
+    }
+}
@@ -0,0 +1,137 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.DashManifest.Representation;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests parsing and rewriting of DASH manifests by {@link DashManifest}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class DashManifestTest {
+
+    private static final String PROXY_PREFIX = "http://127.0.0.1:1234/";
+    private static final String MANIFEST_URL = "http://cdn.com/video/manifest.mpd";
+
+    @Test
+    public void testManifestUrl() throws Exception {
+        assertThat(DashManifest.isManifestUrl("http://cdn.com/video/manifest.mpd?token=1")).isTrue();
+        assertThat(DashManifest.isManifestUrl("http://cdn.com/video/index.m3u8")).isFalse();
+    }
+
+    @Test
+    public void testProxyUrlKeepsTemplate() throws Exception {
+        String proxyUrl = DashManifest.toProxyUrl(PROXY_PREFIX, "http://cdn.com/video/$RepresentationID$/seg-$Number$.m4s");
+        assertThat(proxyUrl).isEqualTo(PROXY_PREFIX + "dash/" + ProxyCacheUtils.encode("http://cdn.com/video/") + "/$RepresentationID$/seg-$Number$.m4s");
+
+        String path = proxyUrl.substring(PROXY_PREFIX.length()).replace("$RepresentationID$", "720").replace("$Number$", "5");
+        assertThat(DashManifest.isProxyPath(path)).isTrue();
+        assertThat(DashManifest.toOriginalUrl(path)).isEqualTo("http://cdn.com/video/720/seg-5.m4s");
+    }
+
+    @Test
+    public void testProxyUrlWithQuery() throws Exception {
+        String proxyUrl = DashManifest.toProxyUrl(PROXY_PREFIX, "http://cdn.com/video/seg.m4s?token=a/b");
+        assertThat(DashManifest.toOriginalUrl(proxyUrl.substring(PROXY_PREFIX.length()))).isEqualTo("http://cdn.com/video/seg.m4s?token=a/b");
+    }
+
+    @Test
+    public void testSegmentTemplateWithNumber() throws Exception {
+        String mpd = "<?xml version=\"1.0\"?>\n" +
+                "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"static\" mediaPresentationDuration=\"PT1M0.5S\">\n" +
+                "  <Period>\n" +
+                "    <AdaptationSet mimeType=\"video/mp4\">\n" +
+                "      <SegmentTemplate timescale=\"1000\" duration=\"4000\" startNumber=\"1\" " +
+                "media=\"$RepresentationID$/seg-$Number%03d$.m4s\" initialization=\"$RepresentationID$/init.mp4\"/>\n" +
+                "      <Representation id=\"low\" bandwidth=\"500000\"/>\n" +
+                "      <Representation id=\"high\" bandwidth=\"2000000\"><BaseURL>http://cdn2.com/hd/</BaseURL></Representation>\n" +
+                "    </AdaptationSet>\n" +
+                "  </Period>\n" +
+                "</MPD>";
+        DashManifest manifest = DashManifest.rewrite(mpd, MANIFEST_URL, PROXY_PREFIX);
+
+        assertThat(manifest.representations).hasSize(2);
+        Representation low = manifest.representations.get(0);
+        assertThat(low.initializationUrl).isEqualTo("http://cdn.com/video/low/init.mp4");
+        assertThat(low.segments.count()).isEqualTo(16);
+        assertThat(low.segments.url(0)).isEqualTo("http://cdn.com/video/low/seg-001.m4s");
+        assertThat(low.segments.indexOf("http://cdn.com/video/low/seg-010.m4s")).isEqualTo(9);
+        assertThat(low.segments.indexOf("http://cdn.com/video/high/seg-010.m4s")).isEqualTo(-1);
+        Representation high = manifest.representations.get(1);
+        assertThat(high.segments.url(1)).isEqualTo("http://cdn2.com/hd/high/seg-002.m4s");
+
+        assertThat(manifest.content).contains("<BaseURL>" + DashManifest.toProxyUrl(PROXY_PREFIX, MANIFEST_URL) + "</BaseURL>");
+        assertThat(manifest.content).contains("media=\"" + DashManifest.toProxyUrl(PROXY_PREFIX, "http://cdn.com/video/low/seg-$Number%03d$.m4s") + "\"");
+        assertThat(manifest.content).contains("media=\"" + DashManifest.toProxyUrl(PROXY_PREFIX, "http://cdn2.com/hd/high/seg-$Number%03d$.m4s") + "\"");
+        assertThat(manifest.content).contains("<BaseURL>" + DashManifest.toProxyUrl(PROXY_PREFIX, "http://cdn2.com/hd/") + "</BaseURL>");
+    }
+
+    @Test
+    public void testSegmentTimeline() throws Exception {
+        String mpd = "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" mediaPresentationDuration=\"PT10S\"><Period><AdaptationSet>" +
+                "<Representation id=\"a\" bandwidth=\"1\"><SegmentTemplate timescale=\"10\" media=\"a-$Time$.m4s\">" +
+                "<SegmentTimeline><S t=\"0\" d=\"20\" r=\"2\"/><S d=\"40\"/></SegmentTimeline>" +
+                "</SegmentTemplate></Representation></AdaptationSet></Period></MPD>";
+        DashManifest manifest = DashManifest.rewrite(mpd, MANIFEST_URL, PROXY_PREFIX);
+
+        Representation representation = manifest.representations.get(0);
+        assertThat(representation.segments.count()).isEqualTo(4);
+        assertThat(representation.segments.url(3)).isEqualTo("http://cdn.com/video/a-60.m4s");
+        assertThat(representation.segments.indexOf("http://cdn.com/video/a-40.m4s")).isEqualTo(2);
+        assertThat(representation.segments.indexOf("http://cdn.com/video/a-41.m4s")).isEqualTo(-1);
+    }
+
+    @Test
+    public void testSegmentBase() throws Exception {
+        String mpd = "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\"><Period><AdaptationSet>" +
+                "<Representation id=\"v\" bandwidth=\"1\"><BaseURL>video_720.mp4</BaseURL>" +
+                "<SegmentBase indexRange=\"830-1500\"><Initialization range=\"0-829\"/></SegmentBase>" +
+                "</Representation></AdaptationSet></Period></MPD>";
+        DashManifest manifest = DashManifest.rewrite(mpd, MANIFEST_URL, PROXY_PREFIX);
+
+        Representation representation = manifest.representations.get(0);
+        assertThat(representation.fileUrl).isEqualTo("http://cdn.com/video/video_720.mp4");
+        assertThat(representation.headLength).isEqualTo(1501);
+        assertThat(representation.segments).isNull();
+        assertThat(manifest.content).contains("<BaseURL>" + DashManifest.toProxyUrl(PROXY_PREFIX, "http://cdn.com/video/video_720.mp4") + "</BaseURL>");
+    }
+
+    @Test
+    public void testSegmentList() throws Exception {
+        String mpd = "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\"><Period><AdaptationSet>" +
+                "<Representation id=\"v\" bandwidth=\"1\"><SegmentList><Initialization sourceURL=\"init.mp4\"/>" +
+                "<SegmentURL media=\"s1.m4s\"/><SegmentURL media=\"s2.m4s\"/></SegmentList>" +
+                "</Representation></AdaptationSet></Period></MPD>";
+        DashManifest manifest = DashManifest.rewrite(mpd, MANIFEST_URL, PROXY_PREFIX);
+
+        Representation representation = manifest.representations.get(0);
+        assertThat(representation.initializationUrl).isEqualTo("http://cdn.com/video/init.mp4");
+        assertThat(representation.segments.indexOf("http://cdn.com/video/s2.m4s")).isEqualTo(1);
+        assertThat(manifest.content).contains("sourceURL=\"" + DashManifest.toProxyUrl(PROXY_PREFIX, "http://cdn.com/video/init.mp4") + "\"");
+        assertThat(manifest.content).contains("media=\"" + DashManifest.toProxyUrl(PROXY_PREFIX, "http://cdn.com/video/s1.m4s") + "\"");
+    }
+
+    @Test
+    public void testDuration() throws Exception {
+        assertThat(DashManifest.parseDuration("PT1H2M3.5S")).isEqualTo(3723.5);
+        assertThat(DashManifest.parseDuration("P1DT1S")).isEqualTo(86401.0);
+        assertThat(DashManifest.parseDuration("")).isEqualTo(-1.0);
+    }
+
+    @Test(expected = ProxyCacheException.class)
+    public void testInvalidManifest() throws Exception {
+        DashManifest.rewrite("<MPD><Period>", MANIFEST_URL, PROXY_PREFIX);
+    }
+
+    @Test(expected = ProxyCacheException.class)
+    public void testManifestWithDoctypeIsRejected() throws Exception {
+        String mpd = "<?xml version=\"1.0\"?><!DOCTYPE MPD [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>" +
+                "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\"><Period><AdaptationSet>" +
+                "<Representation id=\"v\" bandwidth=\"1\"><BaseURL>&xxe;</BaseURL></Representation>" +
+                "</AdaptationSet></Period></MPD>";
+        DashManifest.rewrite(mpd, MANIFEST_URL, PROXY_PREFIX);
+    }
+}
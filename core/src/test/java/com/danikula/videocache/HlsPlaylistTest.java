@@ -0,0 +1,120 @@
+package com.danikula.videocache;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests rewriting of HLS playlists by {@link HlsPlaylist}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class HlsPlaylistTest {
+
+    private static final String PROXY_PREFIX = "http://127.0.0.1:1234/";
+
+    @Test
+    public void testPlaylistUrl() throws Exception {
+        assertThat(HlsPlaylist.isPlaylistUrl("http://cdn.com/video/index.m3u8")).isTrue();
+        assertThat(HlsPlaylist.isPlaylistUrl("http://cdn.com/video/index.M3U8?token=abc")).isTrue();
+        assertThat(HlsPlaylist.isPlaylistUrl("http://cdn.com/video/segment.ts")).isFalse();
+        assertThat(HlsPlaylist.isPlaylistUrl("http://cdn.com/video.mp4")).isFalse();
+    }
+
+    @Test
+    public void testRewriteMediaPlaylist() throws Exception {
+        String playlist = "#EXTM3U\n" +
+                "#EXT-X-TARGETDURATION:10\n" +
+                "#EXT-X-MAP:URI=\"init.mp4\"\n" +
+                "#EXTINF:10.0,\n" +
+                "seg0.ts\n" +
+                "#EXTINF:10.0,\n" +
+                "/other/seg1.ts\n" +
+                "#EXTINF:10.0,\n" +
+                "https://cdn2.com/seg2.ts\n" +
+                "#EXT-X-ENDLIST\n";
+        HlsPlaylist rewritten = HlsPlaylist.rewrite(playlist, "http://cdn.com/video/index.m3u8", PROXY_PREFIX);
+
+        assertThat(rewritten.segmentUrls).containsExactly(
+                "http://cdn.com/video/seg0.ts", "http://cdn.com/other/seg1.ts", "https://cdn2.com/seg2.ts");
+        assertThat(rewritten.content).isEqualTo("#EXTM3U\n" +
+                "#EXT-X-TARGETDURATION:10\n" +
+                "#EXT-X-MAP:URI=\"" + proxied("http://cdn.com/video/init.mp4") + "\"\n" +
+                "#EXTINF:10.0,\n" +
+                proxied("http://cdn.com/video/seg0.ts") + "\n" +
+                "#EXTINF:10.0,\n" +
+                proxied("http://cdn.com/other/seg1.ts") + "\n" +
+                "#EXTINF:10.0,\n" +
+                proxied("https://cdn2.com/seg2.ts") + "\n" +
+                "#EXT-X-ENDLIST\n");
+    }
+
+    @Test
+    public void testRewritePlaylistOfCustomSource() throws Exception {
+        String playlist = "#EXTM3U\n" +
+                "#EXTINF:10.0,\n" +
+                "seg0.ts\n" +
+                "#EXT-X-ENDLIST\n";
+        HlsPlaylist rewritten = HlsPlaylist.rewrite(playlist, "memory://video/index.m3u8", PROXY_PREFIX);
+
+        assertThat(rewritten.segmentUrls).containsExactly("memory://video/seg0.ts");
+        assertThat(rewritten.content).contains(proxied("memory://video/seg0.ts") + "\n");
+    }
+
+    @Test
+    public void testRewriteMasterPlaylist() throws Exception {
+        String playlist = "#EXTM3U\r\n" +
+                "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aac\",NAME=\"en\",URI=\"audio/en.m3u8\"\r\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=800000,AUDIO=\"aac\"\r\n" +
+                "low/index.m3u8\r\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=2000000,AUDIO=\"aac\"\r\n" +
+                "high/index.m3u8\r\n";
+        HlsPlaylist rewritten = HlsPlaylist.rewrite(playlist, "http://cdn.com/video/master.m3u8", PROXY_PREFIX);
+
+        assertThat(rewritten.segmentUrls).isEmpty();
+        assertThat(rewritten.content).isEqualTo("#EXTM3U\n" +
+                "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aac\",NAME=\"en\",URI=\"" + proxied("http://cdn.com/video/audio/en.m3u8") + "\"\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=800000,AUDIO=\"aac\"\n" +
+                proxied("http://cdn.com/video/low/index.m3u8") + "\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=2000000,AUDIO=\"aac\"\n" +
+                proxied("http://cdn.com/video/high/index.m3u8") + "\n");
+    }
+
+    @Test
+    public void testVariantsAreSortedByBandwidth() throws Exception {
+        String playlist = "#EXTM3U\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=2000000,RESOLUTION=1280x720\n" +
+                "720/index.m3u8\n" +
+                "#EXT-X-STREAM-INF:AVERAGE-BANDWIDTH=300000,BANDWIDTH=400000\n" +
+                "240/index.m3u8\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=800000\n" +
+                "360/index.m3u8\n";
+        HlsPlaylist rewritten = HlsPlaylist.rewrite(playlist, "http://cdn.com/video/master.m3u8", PROXY_PREFIX);
+
+        assertThat(rewritten.variantUrls).containsExactly(
+                "http://cdn.com/video/240/index.m3u8", "http://cdn.com/video/360/index.m3u8", "http://cdn.com/video/720/index.m3u8");
+    }
+
+    @Test
+    public void testKeysAreNotProxied() throws Exception {
+        String playlist = "#EXTM3U\n" +
+                "#EXT-X-KEY:METHOD=AES-128,URI=\"keys/key1\",IV=0x1\n" +
+                "#EXT-X-KEY:METHOD=SAMPLE-AES,URI=\"skd://key-id\"\n" +
+                "#EXTINF:10.0,\n" +
+                "seg0.ts\n";
+        HlsPlaylist rewritten = HlsPlaylist.rewrite(playlist, "http://cdn.com/video/index.m3u8", PROXY_PREFIX);
+
+        assertThat(rewritten.content).startsWith("#EXTM3U\n" +
+                "#EXT-X-KEY:METHOD=AES-128,URI=\"http://cdn.com/video/keys/key1\",IV=0x1\n" +
+                "#EXT-X-KEY:METHOD=SAMPLE-AES,URI=\"skd://key-id\"\n");
+    }
+
+    @Test(expected = ProxyCacheException.class)
+    public void testInvalidPlaylistUrl() throws Exception {
+        HlsPlaylist.rewrite("#EXTM3U\n", "not url", PROXY_PREFIX);
+    }
+
+    private String proxied(String url) {
+        return PROXY_PREFIX + ProxyCacheUtils.encode(url);
+    }
+}
@@ -0,0 +1,85 @@
+package com.danikula.videocache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link MirrorSelector}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class MirrorSelectorTest {
+
+    private static final String ORIGIN = "http://origin.com/video.mp4";
+    private static final String CDN1 = "http://cdn1.com/video.mp4";
+    private static final String CDN2 = "https://cdn2.com/path/video.mp4";
+    private static final List<String> MIRRORS = Arrays.asList(ORIGIN, CDN1, CDN2);
+
+    @Test
+    public void testUnmeasuredMirrorsKeepOrder() throws Exception {
+        MirrorSelector selector = new MirrorSelector();
+        assertThat(selector.sort(MIRRORS)).isEqualTo(MIRRORS);
+    }
+
+    @Test
+    public void testFastestMirrorIsFirst() throws Exception {
+        MirrorSelector selector = new MirrorSelector();
+        selector.onConnected(ORIGIN, 100);
+        selector.onThroughputMeasured(ORIGIN, 100_000);
+        selector.onConnected(CDN1, 50);
+        selector.onThroughputMeasured(CDN1, 2_000_000);
+
+        assertThat(selector.sort(MIRRORS)).isEqualTo(Arrays.asList(CDN1, ORIGIN, CDN2));
+    }
+
+    @Test
+    public void testFailedMirrorIsLast() throws Exception {
+        MirrorSelector selector = new MirrorSelector();
+        selector.onConnected(ORIGIN, 100);
+        selector.onFailed(ORIGIN);
+
+        assertThat(selector.sort(MIRRORS)).isEqualTo(Arrays.asList(CDN1, CDN2, ORIGIN));
+    }
+
+    @Test
+    public void testMirrorsOfSameHostShareStats() throws Exception {
+        MirrorSelector selector = new MirrorSelector();
+        selector.onFailed("http://cdn1.com/another.mp4");
+
+        assertThat(selector.sort(MIRRORS)).isEqualTo(Arrays.asList(ORIGIN, CDN2, CDN1));
+    }
+
+    @Test
+    public void testSwitchToMuchFasterMirror() throws Exception {
+        MirrorSelector selector = new MirrorSelector();
+        selector.onThroughputMeasured(ORIGIN, 500_000);
+        selector.onThroughputMeasured(CDN1, 2_000_000);
+
+        assertThat(selector.shouldSwitch(ORIGIN, 500_000, MIRRORS)).isTrue();
+        assertThat(selector.shouldSwitch(ORIGIN, 1_500_000, MIRRORS)).isFalse();
+        assertThat(selector.shouldSwitch(CDN1, 2_000_000, MIRRORS)).isFalse();
+    }
+
+    @Test
+    public void testSwitchToUnmeasuredMirror() throws Exception {
+        MirrorSelector selector = new MirrorSelector();
+        selector.onThroughputMeasured(ORIGIN, 1_000_000);
+        assertThat(selector.shouldSwitch(ORIGIN, 1_000_000, MIRRORS)).isTrue();
+
+        selector.onThroughputMeasured(CDN1, 800_000);
+        selector.onFailed(CDN2);
+        assertThat(selector.shouldSwitch(ORIGIN, 1_000_000, MIRRORS)).isFalse();
+    }
+
+    @Test
+    public void testNoSwitchWithoutMirrors() throws Exception {
+        MirrorSelector selector = new MirrorSelector();
+        selector.onThroughputMeasured(ORIGIN, 1_000_000);
+
+        assertThat(selector.shouldSwitch(ORIGIN, 100_000, Arrays.asList(ORIGIN))).isFalse();
+    }
+}
@@ -0,0 +1,98 @@
+package com.danikula.videocache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link Mp4Duration}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class Mp4DurationTest {
+
+    @Test
+    public void testReadDurationOfFastStartFile() throws Exception {
+        byte[] file = concat(box("ftyp", new byte[16]), box("moov", movieHeader(0, 1000, 60_500)), box("mdat", new byte[64]));
+
+        assertThat(Mp4Duration.read(file, file.length)).isEqualTo(60_500);
+    }
+
+    @Test
+    public void testReadDurationFromMovieHeaderVersion1() throws Exception {
+        byte[] file = concat(box("ftyp", new byte[16]), box("free", new byte[100]), box("moov", movieHeader(1, 90_000, 90_000L * 3600)));
+
+        assertThat(Mp4Duration.read(file, file.length)).isEqualTo(3600_000);
+    }
+
+    @Test
+    public void testMediaDataBeforeMovieHeader() throws Exception {
+        byte[] file = concat(box("ftyp", new byte[16]), box("mdat", new byte[64]), box("moov", movieHeader(0, 1000, 60_500)));
+
+        assertThat(Mp4Duration.read(file, file.length)).isEqualTo(Mp4Duration.UNKNOWN);
+    }
+
+    @Test
+    public void testNotMp4File() throws Exception {
+        byte[] file = "<html><body>Not found</body></html>".getBytes("ASCII");
+
+        assertThat(Mp4Duration.read(file, file.length)).isEqualTo(Mp4Duration.UNKNOWN);
+    }
+
+    @Test
+    public void testNotEnoughData() throws Exception {
+        byte[] file = concat(box("ftyp", new byte[16]), box("moov", movieHeader(0, 1000, 60_500)));
+
+        assertThat(Mp4Duration.read(file, 30)).isEqualTo(Mp4Duration.NOT_ENOUGH_DATA);
+        assertThat(Mp4Duration.read(file, file.length - 1)).isEqualTo(Mp4Duration.NOT_ENOUGH_DATA);
+    }
+
+    @Test
+    public void testHeadEndsAfterMovieHeaderBoxHeader() throws Exception {
+        byte[] file = concat(box("ftyp", new byte[16]), box("moov", movieHeader(0, 1000, 60_500)));
+        int headerEnd = 24 + 8 + 8;     // ftyp box, moov and mvhd box headers
+
+        assertThat(Mp4Duration.read(Arrays.copyOf(file, headerEnd), headerEnd)).isEqualTo(Mp4Duration.NOT_ENOUGH_DATA);
+        assertThat(Mp4Duration.read(file, headerEnd)).isEqualTo(Mp4Duration.NOT_ENOUGH_DATA);
+    }
+
+    private byte[] movieHeader(int version, long timescale, long duration) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(version << 24);
+        if (version == 1) {
+            out.writeLong(0);
+            out.writeLong(0);
+            out.writeInt((int) timescale);
+            out.writeLong(duration);
+        } else {
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt((int) timescale);
+            out.writeInt((int) duration);
+        }
+        return box("mvhd", bytes.toByteArray());
+    }
+
+    private byte[] box(String type, byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(payload.length + 8);
+        out.writeBytes(type);
+        out.write(payload);
+        return bytes.toByteArray();
+    }
+
+    private byte[] concat(byte[]... parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,302 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.FileNameGenerator;
+import com.danikula.videocache.file.Md5FileNameGenerator;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link ProxyCacheServer} on plain jvm, without android framework and network.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class ProxyCacheServerTest {
+
+    private static final int DATA_SIZE = 64 * 1024;
+
+    private final byte[] data = new byte[DATA_SIZE];
+    private File cacheDir;
+    private ServerSocket origin;
+    private String originUrl;
+
+    @Before
+    public void setup() throws Exception {
+        new Random(0).nextBytes(data);
+        cacheDir = new File(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString());
+        origin = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        originUrl = "http://127.0.0.1:" + origin.getLocalPort() + "/video.mp4";
+        Thread originThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serveData();
+            }
+        });
+        originThread.setDaemon(true);
+        originThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        origin.close();
+        delete(cacheDir);
+    }
+
+    @Test
+    public void testProxyAndCache() throws Exception {
+        ProxyCacheServer proxy = new ProxyCacheServer.Builder(cacheDir).build();
+        try {
+            byte[] response = read(proxy.getProxyUrl(originUrl));
+            assertThat(Arrays.equals(response, data)).isTrue();
+            assertThat(proxy.isCached(originUrl)).isTrue();
+
+            String cachedUrl = proxy.getProxyUrl(originUrl);
+            assertThat(cachedUrl).startsWith("file://");
+            assertThat(Arrays.equals(read(cachedUrl), data)).isTrue();
+        } finally {
+            proxy.shutdown();
+        }
+    }
+
+    @Test
+    public void testCacheListenerIsCalledOnCallbackExecutor() throws Exception {
+        final AtomicInteger executedCallbacks = new AtomicInteger();
+        Executor countingExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executedCallbacks.incrementAndGet();
+                command.run();
+            }
+        };
+        final AtomicInteger lastPercents = new AtomicInteger();
+        CacheListener listener = new CacheListener() {
+            @Override
+            public void onCacheAvailable(File cacheFile, String url, int percentsAvailable) {
+                lastPercents.set(percentsAvailable);
+            }
+        };
+        ProxyCacheServer proxy = new ProxyCacheServer.Builder(cacheDir)
+                .callbackExecutor(countingExecutor)
+                .build();
+        try {
+            proxy.registerCacheListener(listener, originUrl);
+            read(proxy.getProxyUrl(originUrl));
+            assertThat(executedCallbacks.get()).isPositive();
+            assertThat(lastPercents.get()).isEqualTo(100);
+        } finally {
+            proxy.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectRequestsOverInFlightLimit() throws Exception {
+        ProxyCacheServer proxy = new ProxyCacheServer.Builder(cacheDir)
+                .maxRequestsInFlight(1)
+                .build();
+        String proxyUrl = proxy.getProxyUrl(originUrl);
+        URL url = new URL(proxyUrl);
+        Thread.sleep(100);  // wait for releasing permit by ping made by getProxyUrl
+        Socket busySocket = new Socket(url.getHost(), url.getPort());   // holds the only permit without sending request
+        try {
+            Thread.sleep(100);
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection(Proxy.NO_PROXY);
+            try {
+                assertThat(connection.getResponseCode()).isEqualTo(503);
+                assertThat(connection.getHeaderField("Retry-After")).isEqualTo("1");
+            } finally {
+                connection.disconnect();
+            }
+
+            URL pingUrl = new URL("http", url.getHost(), url.getPort(), "/ping");
+            assertThat(new String(read(pingUrl.toString()), "UTF-8")).isEqualTo("ping ok");
+        } finally {
+            busySocket.close();
+            proxy.shutdown();
+        }
+    }
+
+    @Test
+    public void testPingIsAnsweredWhileSilentClientsAreRejected() throws Exception {
+        ProxyCacheServer proxy = new ProxyCacheServer.Builder(cacheDir)
+                .maxRequestsInFlight(1)
+                .build();
+        URL url = new URL(proxy.getProxyUrl(originUrl));
+        Thread.sleep(100);  // wait for releasing permit by ping made by getProxyUrl
+        List<Socket> silentSockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 10; i++) {    // first one holds the only permit, others are rejected
+                silentSockets.add(new Socket(url.getHost(), url.getPort()));
+            }
+            Thread.sleep(200);  // rejected ones are closed after short timeout, the first one still holds permit
+
+            URL pingUrl = new URL("http", url.getHost(), url.getPort(), "/ping");
+            long startTime = System.currentTimeMillis();
+            assertThat(new String(read(pingUrl.toString()), "UTF-8")).isEqualTo("ping ok");
+            assertThat(System.currentTimeMillis() - startTime).isLessThan(500);
+        } finally {
+            for (Socket socket : silentSockets) {
+                socket.close();
+            }
+            proxy.shutdown();
+        }
+    }
+
+    @Test
+    public void testUrlMappedToCachedFileIsCachedAfterAnswerExpired() throws Exception {
+        String anotherUrl = originUrl + "?token=another";
+        ProxyCacheServer proxy = new ProxyCacheServer.Builder(cacheDir)
+                .fileNameGenerator(new FileNameGenerator() {
+                    @Override
+                    public String generate(String url) {
+                        return "video.mp4";
+                    }
+                })
+                .build();
+        try {
+            assertThat(proxy.isCached(anotherUrl)).isFalse();
+
+            read(proxy.getProxyUrl(originUrl));
+            waitForCached(proxy, originUrl);
+
+            Thread.sleep(CachedUrls.NOT_CACHED_EXPIRATION_MS + 100);
+            assertThat(proxy.isCached(anotherUrl)).isTrue();
+            assertThat(proxy.getProxyUrl(anotherUrl)).startsWith("file://");
+        } finally {
+            proxy.shutdown();
+        }
+    }
+
+    @Test
+    public void testFileCompletedOutsideProxyIsCachedAfterAnswerExpired() throws Exception {
+        ProxyCacheServer proxy = new ProxyCacheServer.Builder(cacheDir).build();
+        try {
+            assertThat(proxy.isCached(originUrl)).isFalse();
+
+            cacheDir.mkdirs();
+            Files.write(data, new File(cacheDir, new Md5FileNameGenerator().generate(originUrl)));
+            assertThat(proxy.isCached(originUrl)).isFalse();
+
+            Thread.sleep(CachedUrls.NOT_CACHED_EXPIRATION_MS + 100);
+            assertThat(proxy.isCached(originUrl)).isTrue();
+        } finally {
+            proxy.shutdown();
+        }
+    }
+
+    @Test
+    public void testFileCachedBeforeShardingIsCached() throws Exception {
+        cacheDir.mkdirs();
+        Files.write(data, new File(cacheDir, new Md5FileNameGenerator().generate(originUrl)));
+        ProxyCacheServer proxy = new ProxyCacheServer.Builder(cacheDir)
+                .shardCacheDirectory(true)
+                .lazyStart(true)    // server isn't started, so files aren't moved to shards in background
+                .build();
+        try {
+            assertThat(proxy.isCached(originUrl)).isTrue();
+            assertThat(Arrays.equals(read(proxy.getProxyUrl(originUrl)), data)).isTrue();
+        } finally {
+            proxy.shutdown();
+        }
+    }
+
+    @Test
+    public void testFileDeletedByDiskUsageIsNotCached() throws Exception {
+        String anotherUrl = originUrl + "?another";
+        ProxyCacheServer proxy = new ProxyCacheServer.Builder(cacheDir)
+                .maxCacheFilesCount(1)
+                .build();
+        try {
+            read(proxy.getProxyUrl(originUrl));
+            waitForCached(proxy, originUrl);
+
+            read(proxy.getProxyUrl(anotherUrl));
+            waitForCached(proxy, anotherUrl);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (proxy.isCached(originUrl) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(proxy.isCached(originUrl)).isFalse();
+            assertThat(new File(cacheDir, new Md5FileNameGenerator().generate(originUrl)).exists()).isFalse();
+        } finally {
+            proxy.shutdown();
+        }
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private void waitForCached(ProxyCacheServer proxy, String url) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!proxy.isCached(url) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(proxy.isCached(url)).isTrue();
+    }
+
+    private byte[] read(String url) throws IOException {
+        URL requestUrl = new URL(url);
+        if (!"http".equals(requestUrl.getProtocol())) {
+            return Files.toByteArray(new File(requestUrl.getPath()));
+        }
+        HttpURLConnection connection = (HttpURLConnection) requestUrl.openConnection(Proxy.NO_PROXY);
+        try {
+            return ByteStreams.toByteArray(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void serveData() {
+        try {
+            while (!origin.isClosed()) {
+                Socket socket = origin.accept();
+                try {
+                    GetRequest request = GetRequest.read(socket.getInputStream());
+                    long offset = request.rangeOffset;
+                    String headers = (request.partial ? "HTTP/1.1 206 PARTIAL CONTENT\r\n" : "HTTP/1.1 200 OK\r\n") +
+                            "Content-Type: video/mp4\r\n" +
+                            "Content-Length: " + (DATA_SIZE - offset) + "\r\n" +
+                            "Connection: close\r\n\r\n";
+                    OutputStream out = socket.getOutputStream();
+                    out.write(headers.getBytes("UTF-8"));
+                    out.write(data, (int) offset, (int) (DATA_SIZE - offset));
+                    out.flush();
+                } finally {
+                    socket.close();
+                }
+            }
+        } catch (IOException e) {
+            // origin is closed
+        }
+    }
+}
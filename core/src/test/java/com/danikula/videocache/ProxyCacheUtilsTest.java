@@ -0,0 +1,52 @@
+package com.danikula.videocache;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Plain jvm tests for platform independent replacements of android's utils.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class ProxyCacheUtilsTest {
+
+    @Test
+    public void testMimeByUrl() throws Exception {
+        assertThat(ProxyCacheUtils.getSupposablyMime("http://mysite.by/video.mp4")).isEqualTo("video/mp4");
+        assertThat(ProxyCacheUtils.getSupposablyMime("http://mysite.by/image.jpg")).isEqualTo("image/jpeg");
+        assertThat(ProxyCacheUtils.getSupposablyMime("http://mysite.by/video.MP4?token=1#t=10")).isEqualTo("video/mp4");
+        assertThat(ProxyCacheUtils.getSupposablyMime("http://mysite.by/playlist.m3u8")).isEqualTo("application/vnd.apple.mpegurl");
+    }
+
+    @Test
+    public void testNoMimeForUrlWithoutExtension() throws Exception {
+        assertThat(ProxyCacheUtils.getSupposablyMime("http://mysite.by/video")).isNull();
+        assertThat(ProxyCacheUtils.getSupposablyMime("http://mysite.by/video.unknownext")).isNull();
+        assertThat(ProxyCacheUtils.getSupposablyMime("")).isNull();
+    }
+
+    @Test
+    public void testFileExtensionFromUrl() throws Exception {
+        assertThat(ProxyCacheUtils.getFileExtensionFromUrl("http://mysite.by/dir.v2/video.mp4?a=b.c")).isEqualTo("mp4");
+        assertThat(ProxyCacheUtils.getFileExtensionFromUrl("http://mysite.by/dir.v2/video")).isEmpty();
+        assertThat(ProxyCacheUtils.getFileExtensionFromUrl("http://mysite.by/my video.mp4")).isEmpty();
+    }
+
+    @Test
+    public void testFileUri() throws Exception {
+        assertThat(ProxyCacheUtils.toFileUri(new File("/sdcard/cache/a.mp4"))).isEqualTo("file:///sdcard/cache/a.mp4");
+        assertThat(ProxyCacheUtils.toFileUri(new File("/sdcard/my cache/a+b.mp4"))).isEqualTo("file:///sdcard/my%20cache/a%2Bb.mp4");
+        assertThat(ProxyCacheUtils.toFileUri(new File("/sdcard/видео.mp4")))
+                .isEqualTo("file:///sdcard/%D0%B2%D0%B8%D0%B4%D0%B5%D0%BE.mp4");
+    }
+
+    @Test
+    public void testIsEmpty() throws Exception {
+        assertThat(ProxyCacheUtils.isEmpty(null)).isTrue();
+        assertThat(ProxyCacheUtils.isEmpty("")).isTrue();
+        assertThat(ProxyCacheUtils.isEmpty(" ")).isFalse();
+    }
+}
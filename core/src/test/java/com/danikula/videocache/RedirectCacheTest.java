@@ -0,0 +1,61 @@
+package com.danikula.videocache;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.danikula.videocache.RedirectCache.MAX_TTL_MS;
+import static com.danikula.videocache.RedirectCache.NOT_CACHEABLE;
+import static java.net.HttpURLConnection.HTTP_MOVED_PERM;
+import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link RedirectCache}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class RedirectCacheTest {
+
+    @Test
+    public void testTtlFromMaxAge() throws Exception {
+        assertThat(RedirectCache.getTtlMs(HTTP_MOVED_TEMP, "public, max-age=60", 0, 0)).isEqualTo(60_000);
+        assertThat(RedirectCache.getTtlMs(HTTP_MOVED_PERM, "max-age=0", 0, 0)).isEqualTo(NOT_CACHEABLE);
+        assertThat(RedirectCache.getTtlMs(HTTP_MOVED_TEMP, "max-age=99999999999", 0, 0)).isEqualTo(MAX_TTL_MS);
+    }
+
+    @Test
+    public void testTtlFromExpires() throws Exception {
+        long date = System.currentTimeMillis();
+        long expires = date + TimeUnit.MINUTES.toMillis(5);
+        assertThat(RedirectCache.getTtlMs(HTTP_MOVED_TEMP, null, expires, date)).isEqualTo(TimeUnit.MINUTES.toMillis(5));
+        assertThat(RedirectCache.getTtlMs(HTTP_MOVED_TEMP, "max-age=10", expires, date)).isEqualTo(10_000);
+        assertThat(RedirectCache.getTtlMs(HTTP_MOVED_TEMP, null, date - 1000, date)).isEqualTo(NOT_CACHEABLE);
+    }
+
+    @Test
+    public void testDefaultTtl() throws Exception {
+        assertThat(RedirectCache.getTtlMs(HTTP_MOVED_PERM, null, 0, 0)).isEqualTo(MAX_TTL_MS);
+        assertThat(RedirectCache.getTtlMs(HTTP_MOVED_TEMP, null, 0, 0)).isEqualTo(NOT_CACHEABLE);
+    }
+
+    @Test
+    public void testNotCacheable() throws Exception {
+        assertThat(RedirectCache.getTtlMs(HTTP_MOVED_PERM, "no-store", 0, 0)).isEqualTo(NOT_CACHEABLE);
+        assertThat(RedirectCache.getTtlMs(HTTP_MOVED_TEMP, "max-age=60, No-Cache", 0, 0)).isEqualTo(NOT_CACHEABLE);
+    }
+
+    @Test
+    public void testExpiredRedirectIsForgotten() throws Exception {
+        RedirectCache cache = new RedirectCache();
+        long now = System.currentTimeMillis();
+        cache.put("http://a.com", "http://b.com", now + 60_000);
+        cache.put("http://c.com", "http://d.com", now - 1);
+
+        assertThat(cache.get("http://a.com")).isEqualTo("http://b.com");
+        assertThat(cache.get("http://c.com")).isNull();
+
+        cache.remove("http://a.com");
+        assertThat(cache.get("http://a.com")).isNull();
+    }
+}
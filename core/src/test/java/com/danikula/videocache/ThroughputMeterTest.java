@@ -0,0 +1,50 @@
+package com.danikula.videocache;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link ThroughputMeter}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class ThroughputMeterTest {
+
+    @Test
+    public void testUnknownBeforeFirstSample() throws Exception {
+        ThroughputMeter meter = new ThroughputMeter();
+        meter.onReadStarted();
+        meter.onBytesRead(100_000);
+
+        assertThat(meter.getBytesPerSecond()).isEqualTo(-1);
+    }
+
+    @Test
+    public void testMeasureThroughput() throws Exception {
+        ThroughputMeter meter = new ThroughputMeter();
+        meter.onReadStarted();
+        Thread.sleep(200);
+        meter.onBytesRead(20_000);
+
+        long throughput = meter.getBytesPerSecond();
+        assertThat(throughput).isGreaterThan(50_000);
+        assertThat(throughput).isLessThanOrEqualTo(100_000);
+    }
+
+    @Test
+    public void testConnectionTimeIsNotCounted() throws Exception {
+        ThroughputMeter meter = new ThroughputMeter();
+        meter.onReadStarted();
+        Thread.sleep(200);
+        meter.onBytesRead(20_000);
+        long firstEstimation = meter.getBytesPerSecond();
+
+        Thread.sleep(300);  // reconnection
+        meter.onReadStarted();
+        Thread.sleep(200);
+        meter.onBytesRead(20_000);
+
+        assertThat(meter.getBytesPerSecond()).isGreaterThan(firstEstimation / 2);
+    }
+}
@@ -0,0 +1,69 @@
+package com.danikula.videocache.file;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link AesCtrCipher}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class AesCtrCipherTest {
+
+    private static final byte[] KEY = "0123456789abcdef".getBytes();
+
+    @Test
+    public void testSameAsStandardCtrAtAnyPosition() throws Exception {
+        byte[] nonce = AesCtrCipher.nonce("file.mp4");
+        byte[] data = new byte[100_000];
+        new Random(0).nextBytes(data);
+        byte[] expected = encryptWithStandardCtr(data, nonce);
+
+        AesCtrCipher cipher = new AesCtrCipher(KEY, nonce);
+        int[] positions = {0, 1, 15, 16, 17, 8191, 8192, 8193, 50_001, 99_999};
+        for (int position : positions) {
+            int length = Math.min(data.length - position, 20_000);
+            byte[] chunk = Arrays.copyOfRange(data, position, position + length);
+            cipher.crypt(chunk, 0, length, position);
+            assertThat(chunk).isEqualTo(Arrays.copyOfRange(expected, position, position + length));
+        }
+    }
+
+    @Test
+    public void testDecryptionRestoresData() throws Exception {
+        byte[] data = new byte[1000];
+        new Random(1).nextBytes(data);
+        byte[] buffer = Arrays.copyOf(data, data.length);
+        AesCtrCipher cipher = new AesCtrCipher(KEY, AesCtrCipher.nonce("file.mp4"));
+
+        cipher.crypt(buffer, 100, 500, 12345);
+        assertThat(Arrays.equals(buffer, data)).isFalse();
+        cipher.crypt(buffer, 100, 500, 12345);
+        assertThat(buffer).isEqualTo(data);
+    }
+
+    @Test
+    public void testNoncesOfFilesDiffer() throws Exception {
+        byte[] first = new byte[64];
+        byte[] second = new byte[64];
+        new AesCtrCipher(KEY, AesCtrCipher.nonce("first.mp4")).crypt(first, 0, first.length, 0);
+        new AesCtrCipher(KEY, AesCtrCipher.nonce("second.mp4")).crypt(second, 0, second.length, 0);
+
+        assertThat(Arrays.equals(first, second)).isFalse();
+    }
+
+    private byte[] encryptWithStandardCtr(byte[] data, byte[] nonce) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        byte[] iv = Arrays.copyOf(Arrays.copyOf(nonce, 8), 16);   // nonce followed by zero counter
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KEY, "AES"), new IvParameterSpec(iv));
+        return cipher.doFinal(data);
+    }
+}
@@ -0,0 +1,157 @@
+package com.danikula.videocache.file;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.UUID;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link CacheDirectory} and {@link ShardedFiles}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class CacheDirectoryTest {
+
+    private static final String NAME = "9e107d9d372bb6826bd81d3542a419d6.mp4";
+
+    private File root;
+
+    @Before
+    public void setup() throws Exception {
+        root = new File(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString());
+        assertThat(root.mkdirs()).isTrue();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        delete(root);
+    }
+
+    @Test
+    public void testFlatDirectory() throws Exception {
+        CacheDirectory directory = new CacheDirectory(root, false);
+        directory.prepare();
+
+        assertThat(directory.getFile(NAME)).isEqualTo(new File(root, NAME));
+        assertThat(new File(root, CacheDirectory.MARKER)).doesNotExist();
+    }
+
+    @Test
+    public void testShardedDirectory() throws Exception {
+        CacheDirectory directory = new CacheDirectory(root, true);
+        File file = directory.getFile(NAME);
+        assertThat(file.getParentFile().getParentFile().getParentFile()).isEqualTo(root);
+        assertThat(CacheDirectory.getShardedRoot(file)).isNull();
+
+        directory.prepare();
+        assertThat(directory.getFile(NAME)).isEqualTo(file);
+        assertThat(CacheDirectory.getShardedRoot(file)).isEqualTo(root);
+    }
+
+    @Test
+    public void testMigrate() throws Exception {
+        String[] names = {NAME, NAME + ChunkChecksums.POSTFIX, "1.mp4" + FileCache.TEMP_POSTFIX,
+                "1.mp4" + FileCache.TEMP_POSTFIX + ChunkChecksums.POSTFIX};
+        for (String name : names) {
+            assertThat(new File(root, name).createNewFile()).isTrue();
+        }
+
+        CacheDirectory directory = new CacheDirectory(root, true);
+        directory.migrate();
+
+        File file = directory.getFile(NAME);
+        File tempFile = directory.getFile("1.mp4");
+        assertThat(file).exists();
+        assertThat(ChunkChecksums.getFile(file)).exists();
+        assertThat(new File(tempFile.getParentFile(), names[2])).exists();
+        assertThat(new File(tempFile.getParentFile(), names[3])).exists();
+        for (String name : names) {
+            assertThat(new File(root, name)).doesNotExist();
+        }
+    }
+
+    @Test
+    public void testMigrateFile() throws Exception {
+        assertThat(new File(root, NAME).createNewFile()).isTrue();
+        assertThat(new File(root, "1.mp4").createNewFile()).isTrue();
+
+        CacheDirectory directory = new CacheDirectory(root, true);
+        directory.migrate(directory.getFile(NAME));
+
+        assertThat(directory.getFile(NAME)).exists();
+        assertThat(new File(root, "1.mp4")).exists();
+    }
+
+    @Test
+    public void testShardedFilesAreSortedByLastModified() throws Exception {
+        CacheDirectory directory = new CacheDirectory(root, true);
+        directory.prepare();
+        String[] names = {"1.mp4", "2.mp4", "3.mp4", "4.mp4"};
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < names.length; i++) {
+            File file = directory.getFile(names[i]);
+            assertThat(file.getParentFile().mkdirs() || file.getParentFile().isDirectory()).isTrue();
+            assertThat(file.createNewFile()).isTrue();
+            assertThat(file.setLastModified(now - 100_000 + i * 10_000)).isTrue();
+        }
+
+        ShardedFiles shardedFiles = new ShardedFiles(root);
+        List<File> files = shardedFiles.getLruListFiles(directory.getFile(names[0]).getParentFile());
+        assertThat(files).containsExactly(directory.getFile(names[0]), directory.getFile(names[1]),
+                directory.getFile(names[2]), directory.getFile(names[3]));
+
+        File deleted = directory.getFile(names[1]);
+        assertThat(deleted.delete()).isTrue();
+        shardedFiles.onDeleted(deleted);
+        files = shardedFiles.getLruListFiles(directory.getFile(names[0]).getParentFile());
+        assertThat(files).containsExactly(directory.getFile(names[0]), directory.getFile(names[2]), directory.getFile(names[3]));
+    }
+
+    @Test
+    public void testLengthOfGrowingFileIsCheckedAgain() throws Exception {
+        CacheDirectory directory = new CacheDirectory(root, true);
+        directory.prepare();
+        File completed = directory.getFile("1.mp4");
+        File growing = new File(directory.getFile("2.mp4").getPath() + FileCache.TEMP_POSTFIX);
+        assertThat(growing.getParentFile().equals(completed.getParentFile())).isFalse();
+        for (File file : new File[]{completed, growing}) {
+            assertThat(file.getParentFile().mkdirs() || file.getParentFile().isDirectory()).isTrue();
+            setLength(file, 100);
+        }
+
+        ShardedFiles shardedFiles = new ShardedFiles(root);
+        shardedFiles.getLruListFiles(completed.getParentFile());
+        assertThat(shardedFiles.getLengths().get(growing)).isEqualTo(100);
+
+        setLength(growing, 300);    // shard of growing file isn't changed
+        shardedFiles.getLruListFiles(completed.getParentFile());
+        assertThat(shardedFiles.getLengths().get(growing)).isEqualTo(300);
+        assertThat(shardedFiles.getLengths().get(completed)).isEqualTo(100);
+    }
+
+    private void setLength(File file, long length) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(length);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
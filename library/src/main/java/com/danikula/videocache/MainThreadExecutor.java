@@ -0,0 +1,21 @@
+package com.danikula.videocache;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * {@link Executor} that runs tasks on android's main thread.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+final class MainThreadExecutor implements Executor {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void execute(Runnable command) {
+        handler.post(command);
+    }
+}
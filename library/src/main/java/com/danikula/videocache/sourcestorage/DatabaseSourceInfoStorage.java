@@ -23,17 +23,32 @@ class DatabaseSourceInfoStorage extends SQLiteOpenHelper implements SourceInfoSt
     private static final String COLUMN_URL = "url";
     private static final String COLUMN_LENGTH = "length";
     private static final String COLUMN_MIME = "mime";
-    private static final String[] ALL_COLUMNS = new String[]{COLUMN_ID, COLUMN_URL, COLUMN_LENGTH, COLUMN_MIME};
+    private static final String COLUMN_REDIRECT_URL = "redirectUrl";
+    private static final String COLUMN_REDIRECT_EXPIRATION_TIME = "redirectExpirationTime";
+    private static final String COLUMN_MD5 = "md5";
+    private static final String COLUMN_VALIDATOR = "validator";
+    private static final String[] ALL_COLUMNS = new String[]{COLUMN_ID, COLUMN_URL, COLUMN_LENGTH, COLUMN_MIME,
+            COLUMN_REDIRECT_URL, COLUMN_REDIRECT_EXPIRATION_TIME, COLUMN_MD5, COLUMN_VALIDATOR};
     private static final String CREATE_SQL =
             "CREATE TABLE " + TABLE + " (" +
                     COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL," +
                     COLUMN_URL + " TEXT NOT NULL," +
                     COLUMN_MIME + " TEXT," +
-                    COLUMN_LENGTH + " INTEGER" +
+                    COLUMN_LENGTH + " INTEGER," +
+                    COLUMN_REDIRECT_URL + " TEXT," +
+                    COLUMN_REDIRECT_EXPIRATION_TIME + " INTEGER," +
+                    COLUMN_MD5 + " TEXT," +
+                    COLUMN_VALIDATOR + " TEXT" +
                     ");";
+    private static final String[] ADD_REDIRECT_SQL = new String[]{
+            "ALTER TABLE " + TABLE + " ADD COLUMN " + COLUMN_REDIRECT_URL + " TEXT;",
+            "ALTER TABLE " + TABLE + " ADD COLUMN " + COLUMN_REDIRECT_EXPIRATION_TIME + " INTEGER;"
+    };
+    private static final String ADD_MD5_SQL = "ALTER TABLE " + TABLE + " ADD COLUMN " + COLUMN_MD5 + " TEXT;";
+    private static final String ADD_VALIDATOR_SQL = "ALTER TABLE " + TABLE + " ADD COLUMN " + COLUMN_VALIDATOR + " TEXT;";
 
     DatabaseSourceInfoStorage(Context context) {
-        super(context, "AndroidVideoCache.db", null, 1);
+        super(context, "AndroidVideoCache.db", null, 4);
         checkNotNull(context);
     }
 
@@ -45,7 +60,18 @@ class DatabaseSourceInfoStorage extends SQLiteOpenHelper implements SourceInfoSt
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        throw new IllegalStateException("Should not be called. There is no any migration");
+        checkNotNull(db);
+        if (oldVersion < 2) {
+            for (String sql : ADD_REDIRECT_SQL) {
+                db.execSQL(sql);
+            }
+        }
+        if (oldVersion < 3) {
+            db.execSQL(ADD_MD5_SQL);
+        }
+        if (oldVersion < 4) {
+            db.execSQL(ADD_VALIDATOR_SQL);
+        }
     }
 
     @Override
@@ -84,7 +110,11 @@ class DatabaseSourceInfoStorage extends SQLiteOpenHelper implements SourceInfoSt
         return new SourceInfo(
                 cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_URL)),
                 cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_LENGTH)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MIME))
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MIME)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_REDIRECT_URL)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_REDIRECT_EXPIRATION_TIME)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MD5)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_VALIDATOR))
         );
     }
 
@@ -93,6 +123,10 @@ class DatabaseSourceInfoStorage extends SQLiteOpenHelper implements SourceInfoSt
         values.put(COLUMN_URL, sourceInfo.url);
         values.put(COLUMN_LENGTH, sourceInfo.length);
         values.put(COLUMN_MIME, sourceInfo.mime);
+        values.put(COLUMN_REDIRECT_URL, sourceInfo.redirectUrl);
+        values.put(COLUMN_REDIRECT_EXPIRATION_TIME, sourceInfo.redirectExpirationTime);
+        values.put(COLUMN_MD5, sourceInfo.md5);
+        values.put(COLUMN_VALIDATOR, sourceInfo.validator);
         return values;
     }
 }
@@ -0,0 +1,197 @@
+package com.danikula.videocache;
+
+import com.danikula.android.garden.io.Files;
+import com.danikula.videocache.file.Md5FileNameGenerator;
+import com.danikula.videocache.support.FakeOriginServer;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+import com.danikula.videocache.support.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import static com.danikula.videocache.support.ProxyCacheTestUtils.ASSETS_DATA_NAME;
+import static com.danikula.videocache.support.ProxyCacheTestUtils.loadAssetFile;
+import static com.danikula.videocache.support.ProxyCacheTestUtils.readProxyResponse;
+import static com.danikula.videocache.support.ProxyCacheTestUtils.resetSystemProxy;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests proxying of DASH manifests and caching of their segments with {@link FakeOriginServer}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class DashProxyTest extends BaseTest {
+
+    private static final int SEGMENTS_COUNT = 5;
+    private static final String MANIFEST = "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"static\" mediaPresentationDuration=\"PT20S\">" +
+            "<Period><AdaptationSet>" +
+            "<SegmentTemplate timescale=\"1\" duration=\"4\" startNumber=\"1\" media=\"$RepresentationID$/seg-$Number$.m4s\" " +
+            "initialization=\"$RepresentationID$/init.mp4\"/>" +
+            "<Representation id=\"high\" bandwidth=\"2000000\"/>" +
+            "<Representation id=\"low\" bandwidth=\"500000\"/>" +
+            "</AdaptationSet></Period></MPD>";
+    private static final String SINGLE_FILE_MANIFEST = "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"static\">" +
+            "<Period><AdaptationSet>" +
+            "<Representation id=\"high\" bandwidth=\"2000000\"><BaseURL>high.mp4</BaseURL>" +
+            "<SegmentBase indexRange=\"500-999\"><Initialization range=\"0-499\"/></SegmentBase></Representation>" +
+            "<Representation id=\"low\" bandwidth=\"500000\"><BaseURL>low.mp4</BaseURL>" +
+            "<SegmentBase indexRange=\"500-999\"><Initialization range=\"0-499\"/></SegmentBase></Representation>" +
+            "</AdaptationSet></Period></MPD>";
+
+    private FakeOriginServer origin;
+    private File originRoot;
+    private File cacheFolder;
+
+    @Before
+    public void setup() throws Exception {
+        cacheFolder = ProxyCacheTestUtils.newCacheFile();
+        Files.createDirectory(cacheFolder);
+        Files.cleanDirectory(cacheFolder);
+        originRoot = new File(cacheFolder.getParentFile(), UUID.randomUUID().toString());
+        createManifest(new File(originRoot, "video"));
+        origin = new FakeOriginServer.Builder().root(originRoot).start();
+        resetSystemProxy();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        origin.shutdown();
+        Files.cleanDirectory(originRoot);
+    }
+
+    @Test
+    public void testManifestIsRewritten() throws Exception {
+        HttpProxyCacheServer proxy = newProxy(0);
+        Response response = readProxyResponse(proxy, origin.url("video/manifest.mpd"));
+        proxy.shutdown();
+
+        String manifest = new String(response.data, "UTF-8");
+        String mediaProxyUrl = DashManifest.toProxyUrl(proxy.getProxyUrl("", false), origin.url("video/high/seg-$Number$.m4s"));
+        assertThat(response.code).isEqualTo(200);
+        assertThat(response.contentType).isEqualTo("application/dash+xml");
+        assertThat(manifest).contains("media=\"" + mediaProxyUrl + "\"");
+    }
+
+    @Test
+    public void testLowestRepresentationIsPrefetchedForFastStart() throws Exception {
+        HttpProxyCacheServer proxy = newProxy(2);
+        readProxyResponse(proxy, origin.url("video/manifest.mpd"));
+        waitForCaching(proxy, origin.url("video/low/seg-2.m4s"));
+        proxy.shutdown();
+
+        assertThat(proxy.isCached(origin.url("video/low/init.mp4"))).isTrue();
+        assertThat(proxy.isCached(origin.url("video/low/seg-1.m4s"))).isTrue();
+        assertThat(proxy.isCached(origin.url("video/low/seg-2.m4s"))).isTrue();
+        assertThat(proxy.isCached(origin.url("video/low/seg-3.m4s"))).isFalse();
+        assertThat(proxy.isCached(origin.url("video/high/init.mp4"))).isFalse();
+    }
+
+    @Test
+    public void testFirstSegmentsArePrefetchedAfterInitialization() throws Exception {
+        HttpProxyCacheServer proxy = newProxy(2);
+        readProxyResponse(proxy, origin.url("video/manifest.mpd"));
+        readProxyResponse(proxy, origin.url("video/high/init.mp4"));
+        waitForCaching(proxy, origin.url("video/high/seg-1.m4s"));
+        waitForCaching(proxy, origin.url("video/high/seg-2.m4s"));
+        proxy.shutdown();
+
+        assertThat(proxy.isCached(origin.url("video/high/init.mp4"))).isTrue();
+        assertThat(proxy.isCached(origin.url("video/high/seg-1.m4s"))).isTrue();
+        assertThat(proxy.isCached(origin.url("video/high/seg-2.m4s"))).isTrue();
+        assertThat(proxy.isCached(origin.url("video/high/seg-3.m4s"))).isFalse();
+    }
+
+    @Test
+    public void testNextSegmentsArePrefetched() throws Exception {
+        HttpProxyCacheServer proxy = newProxy(2);
+        readProxyResponse(proxy, origin.url("video/manifest.mpd"));
+        Response response = readProxyResponse(proxy, origin.url("video/high/seg-3.m4s"));
+        waitForCaching(proxy, origin.url("video/high/seg-4.m4s"));
+        waitForCaching(proxy, origin.url("video/high/seg-5.m4s"));
+        proxy.shutdown();
+
+        assertThat(response.data).isEqualTo(loadAssetFile(ASSETS_DATA_NAME));
+        assertThat(proxy.isCached(origin.url("video/high/seg-2.m4s"))).isFalse();
+        assertThat(proxy.isCached(origin.url("video/high/seg-4.m4s"))).isTrue();
+        assertThat(proxy.isCached(origin.url("video/high/seg-5.m4s"))).isTrue();
+    }
+
+    @Test
+    public void testSingleFileHeadsAreNotPrefetchedWithoutPrefetching() throws Exception {
+        HttpProxyCacheServer proxy = newProxy(0);
+        readProxyResponse(proxy, origin.url("video/single.mpd"));
+        Thread.sleep(500);
+        proxy.shutdown();
+
+        assertThat(origin.getBytesServed()).isEqualTo(SINGLE_FILE_MANIFEST.getBytes("UTF-8").length);
+        assertThat(getCachedBytes(origin.url("video/low.mp4"))).isEqualTo(0);
+        assertThat(getCachedBytes(origin.url("video/high.mp4"))).isEqualTo(0);
+    }
+
+    @Test
+    public void testHeadOfLowestSingleFileRepresentationIsPrefetched() throws Exception {
+        HttpProxyCacheServer proxy = newProxy(2);
+        readProxyResponse(proxy, origin.url("video/single.mpd"));
+        String lowUrl = origin.url("video/low.mp4");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (getCachedBytes(lowUrl) < 1000 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        proxy.shutdown();
+
+        assertThat(getCachedBytes(lowUrl)).isGreaterThanOrEqualTo(1000);
+        assertThat(getCachedBytes(origin.url("video/high.mp4"))).isEqualTo(0);
+    }
+
+    private HttpProxyCacheServer newProxy(int prefetchSegments) {
+        return new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .prefetchSegments(prefetchSegments)
+                .build();
+    }
+
+    private void createManifest(File folder) throws IOException {
+        byte[] segment = loadAssetFile(ASSETS_DATA_NAME);
+        for (String representation : new String[]{"low", "high"}) {
+            File representationFolder = new File(folder, representation);
+            representationFolder.mkdirs();
+            write(new File(representationFolder, "init.mp4"), segment);
+            for (int i = 1; i <= SEGMENTS_COUNT; i++) {
+                write(new File(representationFolder, "seg-" + i + ".m4s"), segment);
+            }
+        }
+        write(new File(folder, "manifest.mpd"), MANIFEST.getBytes("UTF-8"));
+        write(new File(folder, "low.mp4"), segment);
+        write(new File(folder, "high.mp4"), segment);
+        write(new File(folder, "single.mpd"), SINGLE_FILE_MANIFEST.getBytes("UTF-8"));
+    }
+
+    private void write(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private long getCachedBytes(String url) {
+        String name = new Md5FileNameGenerator().generate(url);
+        return Math.max(new File(cacheFolder, name).length(), new File(cacheFolder, name + ".download").length());
+    }
+
+    private void waitForCaching(HttpProxyCacheServer proxy, String url) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!proxy.isCached(url) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+}
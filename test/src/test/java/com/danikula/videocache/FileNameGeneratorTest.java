@@ -58,6 +58,17 @@ public class FileNameGeneratorTest extends BaseTest {
         assertThat(path).isEqualTo(expected);
     }
 
+    @Test
+    public void testMd5HexString() throws Exception {
+        String url = "http://host.com/videos/video.mpeg";
+        String md5 = ProxyCacheUtils.computeMD5("The quick brown fox jumps over the lazy dog");
+        assertThat(md5).isEqualTo("9e107d9d372bb6826bd81d3542a419d6");
+
+        FileNameGenerator nameGenerator = new Md5FileNameGenerator();
+        assertThat(nameGenerator.generate(url)).isEqualTo(nameGenerator.generate(url));
+        assertThat(nameGenerator.generate(url)).isEqualTo(ProxyCacheUtils.computeMD5(url) + ".mpeg");
+    }
+
     @Test(expected = NullPointerException.class)
     public void testAssertNullUrl() throws Exception {
         FileNameGenerator nameGenerator = new Md5FileNameGenerator();
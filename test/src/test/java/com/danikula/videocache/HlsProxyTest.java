@@ -0,0 +1,181 @@
+package com.danikula.videocache;
+
+import com.danikula.android.garden.io.Files;
+import com.danikula.videocache.support.ByteArrayUrlSource;
+import com.danikula.videocache.support.FakeOriginServer;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+import com.danikula.videocache.support.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import static com.danikula.videocache.support.ProxyCacheTestUtils.ASSETS_DATA_NAME;
+import static com.danikula.videocache.support.ProxyCacheTestUtils.loadAssetFile;
+import static com.danikula.videocache.support.ProxyCacheTestUtils.readProxyResponse;
+import static com.danikula.videocache.support.ProxyCacheTestUtils.resetSystemProxy;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests proxying of HLS playlists and caching of their segments with {@link FakeOriginServer}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class HlsProxyTest extends BaseTest {
+
+    private static final int SEGMENTS_COUNT = 5;
+
+    private FakeOriginServer origin;
+    private File originRoot;
+    private File cacheFolder;
+
+    @Before
+    public void setup() throws Exception {
+        cacheFolder = ProxyCacheTestUtils.newCacheFile();
+        Files.createDirectory(cacheFolder);
+        Files.cleanDirectory(cacheFolder);
+        originRoot = new File(cacheFolder.getParentFile(), UUID.randomUUID().toString());
+        createMediaPlaylist(new File(originRoot, "video"));
+        origin = new FakeOriginServer.Builder().root(originRoot).start();
+        resetSystemProxy();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        origin.shutdown();
+        Files.cleanDirectory(originRoot);
+    }
+
+    @Test
+    public void testPlaylistIsRewritten() throws Exception {
+        HttpProxyCacheServer proxy = newProxy(0);
+        Response response = readProxyResponse(proxy, origin.url("video/index.m3u8"));
+        proxy.shutdown();
+
+        String playlist = new String(response.data, "UTF-8");
+        assertThat(response.code).isEqualTo(200);
+        assertThat(response.contentType).isEqualTo("application/vnd.apple.mpegurl");
+        assertThat(playlist).startsWith("#EXTM3U\n");
+        for (int i = 0; i < SEGMENTS_COUNT; i++) {
+            String segmentProxyUrl = proxy.getProxyUrl(origin.url("video/seg" + i + ".ts"), false);
+            assertThat(playlist).contains(segmentProxyUrl + "\n");
+        }
+    }
+
+    @Test
+    public void testSegmentsAreCached() throws Exception {
+        HttpProxyCacheServer proxy = newProxy(0);
+        readProxyResponse(proxy, origin.url("video/index.m3u8"));
+        String segmentUrl = origin.url("video/seg0.ts");
+        Response response = readProxyResponse(proxy, segmentUrl);
+        waitForCaching(proxy, segmentUrl);
+        proxy.shutdown();
+
+        assertThat(response.data).isEqualTo(loadAssetFile(ASSETS_DATA_NAME));
+        assertThat(proxy.isCached(segmentUrl)).isTrue();
+        assertThat(proxy.isCached(origin.url("video/seg1.ts"))).isFalse();
+    }
+
+    @Test
+    public void testNextSegmentsArePrefetched() throws Exception {
+        HttpProxyCacheServer proxy = newProxy(2);
+        readProxyResponse(proxy, origin.url("video/index.m3u8"));
+        readProxyResponse(proxy, origin.url("video/seg1.ts"));
+        waitForCaching(proxy, origin.url("video/seg2.ts"));
+        waitForCaching(proxy, origin.url("video/seg3.ts"));
+        proxy.shutdown();
+
+        assertThat(proxy.isCached(origin.url("video/seg0.ts"))).isFalse();
+        assertThat(proxy.isCached(origin.url("video/seg2.ts"))).isTrue();
+        assertThat(proxy.isCached(origin.url("video/seg3.ts"))).isTrue();
+        assertThat(proxy.isCached(origin.url("video/seg4.ts"))).isFalse();
+    }
+
+    @Test
+    public void testLowestVariantIsPrefetchedForFastStart() throws Exception {
+        HttpProxyCacheServer proxy = newProxy(2);
+        readProxyResponse(proxy, origin.url("video/master.m3u8"));
+        waitForCaching(proxy, origin.url("video/seg0.ts"));
+        waitForCaching(proxy, origin.url("video/seg1.ts"));
+        proxy.shutdown();
+
+        assertThat(proxy.isCached(origin.url("video/seg0.ts"))).isTrue();
+        assertThat(proxy.isCached(origin.url("video/seg1.ts"))).isTrue();
+        assertThat(proxy.isCached(origin.url("video/seg2.ts"))).isFalse();
+    }
+
+    @Test
+    public void testPlaylistOfCustomSource() throws Exception {
+        final byte[] playlist = ("#EXTM3U\n#EXTINF:10.0,\nseg0.ts\n#EXT-X-ENDLIST\n").getBytes("UTF-8");
+        final byte[] segment = loadAssetFile(ASSETS_DATA_NAME);
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .sourceFactory(new SourceFactory() {
+                    @Override
+                    public UrlSource newSource(String url) {
+                        if (url.equals("memory://video/index.m3u8")) {
+                            return new ByteArrayUrlSource(url, playlist, "application/vnd.apple.mpegurl");
+                        }
+                        return url.equals("memory://video/seg0.ts") ? new ByteArrayUrlSource(url, segment, "video/mp2t") : null;
+                    }
+                })
+                .build();
+        Response playlistResponse = readProxyResponse(proxy, "memory://video/index.m3u8");
+        Response segmentResponse = readProxyResponse(proxy, "memory://video/seg0.ts");
+        proxy.shutdown();
+
+        String segmentProxyUrl = proxy.getProxyUrl("memory://video/seg0.ts", false);
+        assertThat(playlistResponse.code).isEqualTo(200);
+        assertThat(new String(playlistResponse.data, "UTF-8")).contains(segmentProxyUrl + "\n");
+        assertThat(segmentResponse.data).isEqualTo(segment);
+    }
+
+    private HttpProxyCacheServer newProxy(int prefetchSegments) {
+        return new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .prefetchSegments(prefetchSegments)
+                .build();
+    }
+
+    private void createMediaPlaylist(File folder) throws IOException {
+        folder.mkdirs();
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:10\n");
+        byte[] segment = loadAssetFile(ASSETS_DATA_NAME);
+        for (int i = 0; i < SEGMENTS_COUNT; i++) {
+            String segmentName = "seg" + i + ".ts";
+            write(new File(folder, segmentName), segment);
+            playlist.append("#EXTINF:10.0,\n").append(segmentName).append('\n');
+        }
+        playlist.append("#EXT-X-ENDLIST\n");
+        write(new File(folder, "index.m3u8"), playlist.toString().getBytes("UTF-8"));
+        String masterPlaylist = "#EXTM3U\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=2000000\n" +
+                "high/index.m3u8\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=500000\n" +
+                "index.m3u8\n";
+        write(new File(folder, "master.m3u8"), masterPlaylist.getBytes("UTF-8"));
+    }
+
+    private void write(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void waitForCaching(HttpProxyCacheServer proxy, String url) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!proxy.isCached(url) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+}
@@ -4,9 +4,11 @@ import android.net.Uri;
 import android.util.Pair;
 
 import com.danikula.android.garden.io.IoUtils;
+import com.danikula.videocache.file.CacheDirectory;
 import com.danikula.videocache.file.FileNameGenerator;
 import com.danikula.videocache.file.Md5FileNameGenerator;
 import com.danikula.videocache.headers.HeaderInjector;
+import com.danikula.videocache.support.ByteArrayUrlSource;
 import com.danikula.videocache.support.ProxyCacheTestUtils;
 import com.danikula.videocache.support.Response;
 
@@ -17,6 +19,8 @@ import org.robolectric.RuntimeEnvironment;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.Arrays;
 
 import static com.danikula.android.garden.io.Files.cleanDirectory;
@@ -83,6 +87,30 @@ public class HttpProxyCacheServerTest extends BaseTest {
         assertThat(response.data).isEqualTo(expected);
     }
 
+    @Test
+    public void testCustomSource() throws Exception {
+        final String url = "memory://data.jpg";
+        final byte[] data = ProxyCacheTestUtils.generate(50000);
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .sourceFactory(new SourceFactory() {
+                    @Override
+                    public UrlSource newSource(String requestedUrl) {
+                        return requestedUrl.startsWith("memory://") ? new ByteArrayUrlSource(requestedUrl, data, "image/jpeg") : null;
+                    }
+                })
+                .build();
+        Response response = readProxyResponse(proxy, url);
+        Response httpResponse = readProxyResponse(proxy, HTTP_DATA_URL);
+        proxy.shutdown();
+
+        assertThat(response.code).isEqualTo(200);
+        assertThat(response.contentType).isEqualTo("image/jpeg");
+        assertThat(response.data).isEqualTo(data);
+        assertThat(getFileContent(new File(cacheFolder, new Md5FileNameGenerator().generate(url)))).isEqualTo(data);
+        assertThat(httpResponse.data).isEqualTo(loadAssetFile(ASSETS_DATA_NAME));
+    }
+
     @Test
     public void testMimeFromResponse() throws Exception {
         Pair<File, Response> response = readProxyData("https://raw.githubusercontent.com/danikula/AndroidVideoCache/master/files/android");
@@ -303,6 +331,45 @@ public class HttpProxyCacheServerTest extends BaseTest {
         proxy.shutdown();
     }
 
+    @Test
+    public void testGetProxiedUrlForNotCachedUrlCheckedBefore() throws Exception {
+        HttpProxyCacheServer proxy = newProxy(cacheFolder);
+        assertThat(proxy.isCached(HTTP_DATA_URL)).isFalse();
+
+        readProxyResponse(proxy, HTTP_DATA_URL, 0);
+
+        File cachedFile = file(cacheFolder, HTTP_DATA_URL);
+        assertThat(proxy.isCached(HTTP_DATA_URL)).isTrue();
+        assertThat(proxy.getProxyUrl(HTTP_DATA_URL)).isEqualTo(Uri.fromFile(cachedFile).toString());
+        proxy.shutdown();
+    }
+
+    @Test
+    public void testLazyStart() throws Exception {
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .lazyStart(true)
+                .build();
+        assertThat(getPort(proxy)).isEqualTo(0);
+
+        String proxiedUrl = proxy.getProxyUrl(HTTP_DATA_URL);
+        assertThat(proxiedUrl).isEqualTo("http://127.0.0.1:" + getPort(proxy) + "/" + ProxyCacheUtils.encode(HTTP_DATA_URL));
+        assertThat(proxy.start().get()).isTrue();
+
+        Response response = readProxyResponse(proxy, HTTP_DATA_URL);
+        proxy.shutdown();
+
+        assertThat(response.data).isEqualTo(loadAssetFile(ASSETS_DATA_NAME));
+    }
+
+    @Test
+    public void testGetProxiedUrlAfterShutdown() throws Exception {
+        HttpProxyCacheServer proxy = newProxy(cacheFolder);
+        proxy.shutdown();
+
+        assertThat(proxy.getProxyUrl(HTTP_DATA_URL)).isEqualTo(HTTP_DATA_URL);
+    }
+
     @Test
     public void testTrimFileCacheForTotalCountLru() throws Exception {
         FileNameGenerator fileNameGenerator = new Md5FileNameGenerator();
@@ -345,6 +412,34 @@ public class HttpProxyCacheServerTest extends BaseTest {
         assertThat(new File(cacheFolder, fileNameGenerator.generate(HTTP_DATA_URL))).doesNotExist();
     }
 
+    @Test
+    public void testShardedCacheDirectory() throws Exception {
+        HttpProxyCacheServer flatProxy = newProxy(cacheFolder);
+        readProxyResponse(flatProxy, HTTP_DATA_URL, 0);
+        flatProxy.shutdown();
+        assertThat(file(cacheFolder, HTTP_DATA_URL)).exists();
+
+        FileNameGenerator fileNameGenerator = new Md5FileNameGenerator();
+        CacheDirectory cacheDirectory = new CacheDirectory(cacheFolder, true);
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .shardCacheDirectory(true)
+                .maxCacheFilesCount(2)
+                .build();
+        Response response = readProxyResponse(proxy, HTTP_DATA_URL, 0);
+        assertThat(response.data).isEqualTo(loadAssetFile(ASSETS_DATA_NAME));
+        assertThat(cacheDirectory.getFile(fileNameGenerator.generate(HTTP_DATA_URL))).exists();
+        assertThat(file(cacheFolder, HTTP_DATA_URL)).doesNotExist();
+
+        readProxyResponse(proxy, HTTP_DATA_URL_ONE_REDIRECT, 0);
+        readProxyResponse(proxy, HTTP_DATA_URL_3_REDIRECTS, 0);
+        waitForAsyncTrimming();
+        proxy.shutdown();
+
+        assertThat(cacheDirectory.getFile(fileNameGenerator.generate(HTTP_DATA_URL))).doesNotExist();
+        assertThat(cacheDirectory.getFile(fileNameGenerator.generate(HTTP_DATA_URL_3_REDIRECTS))).exists();
+    }
+
     @Test // https://github.com/danikula/AndroidVideoCache/issues/28
     public void testWorkWithExternalProxy() throws Exception {
         installExternalSystemProxy();
@@ -378,6 +473,32 @@ public class HttpProxyCacheServerTest extends BaseTest {
         verify(mockedHeaderInjector, times(2)).addHeaders(HTTP_DATA_URL);   // content info & fetch data requests
     }
 
+    @Test
+    public void testPreloadRequestsUseSeparatePool() throws Exception {
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .socketWorkersCount(1)
+                .preloadWorkersCount(1)
+                .build();
+        String preloadUrl = proxy.getPreloadProxyUrl(HTTP_DATA_URL);
+        String expectedUrl = "http://127.0.0.1:" + getPort(proxy) + "/preload/" + ProxyCacheUtils.encode(HTTP_DATA_URL);
+        assertThat(preloadUrl).isEqualTo(expectedUrl);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(preloadUrl).openConnection();
+        Response response = new Response(connection);
+        connection.disconnect();
+        proxy.shutdown();
+
+        assertThat(response.code).isEqualTo(200);
+        assertThat(response.data).isEqualTo(loadAssetFile(ASSETS_DATA_NAME));
+        assertThat(file(cacheFolder, HTTP_DATA_URL)).exists();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxRequestsInFlight() throws Exception {
+        new HttpProxyCacheServer.Builder(RuntimeEnvironment.application).maxRequestsInFlight(0);
+    }
+
     private Pair<File, Response> readProxyData(String url, int offset) throws IOException {
         File file = file(cacheFolder, url);
         HttpProxyCacheServer proxy = newProxy(cacheFolder);
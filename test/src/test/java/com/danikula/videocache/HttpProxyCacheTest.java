@@ -4,10 +4,12 @@ import com.danikula.android.garden.io.IoUtils;
 import com.danikula.videocache.file.FileCache;
 import com.danikula.videocache.sourcestorage.SourceInfoStorage;
 import com.danikula.videocache.sourcestorage.SourceInfoStorageFactory;
+import com.danikula.videocache.support.ByteArrayUrlSource;
 import com.danikula.videocache.support.ProxyCacheTestUtils;
 import com.danikula.videocache.support.Response;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.robolectric.RuntimeEnvironment;
 
@@ -227,6 +229,145 @@ public class HttpProxyCacheTest extends BaseTest {
         assertThat(response.contentType).isEqualTo("image/jpeg");
     }
 
+    @Test
+    public void testMetricsForCachedData() throws Exception {
+        SourceInfoStorage sourceInfoStorage = SourceInfoStorageFactory.newSourceInfoStorage(RuntimeEnvironment.application);
+        sourceInfoStorage.put(HTTP_DATA_URL, new SourceInfo(HTTP_DATA_URL, HTTP_DATA_SIZE, "image/jpeg"));
+        HttpUrlSource source = ProxyCacheTestUtils.newNotOpenableHttpUrlSource(HTTP_DATA_URL, sourceInfoStorage);
+        File file = newCacheFile();
+        IoUtils.saveToFile(loadAssetFile(ASSETS_DATA_NAME), file);
+        HttpProxyCache proxyCache = new HttpProxyCache(source, new FileCache(file));
+        MetricsListener metricsListener = Mockito.mock(MetricsListener.class);
+        proxyCache.registerMetricsListener(metricsListener);
+        processRequest(proxyCache, "GET /" + HTTP_DATA_URL + " HTTP/1.1\nRange: bytes=1000-");
+        proxyCache.shutdown();
+
+        ArgumentCaptor<RequestMetrics> metricsCaptor = ArgumentCaptor.forClass(RequestMetrics.class);
+        Mockito.verify(metricsListener).onRequestProcessed(metricsCaptor.capture());
+        RequestMetrics metrics = metricsCaptor.getValue();
+        assertThat(metrics.url).isEqualTo(HTTP_DATA_URL);
+        assertThat(metrics.cacheUsed).isTrue();
+        assertThat(metrics.seek).isTrue();
+        assertThat(metrics.cacheBytes).isEqualTo(HTTP_DATA_SIZE - 1000);
+        assertThat(metrics.originBytes).isEqualTo(0);
+        assertThat(metrics.originConnectTimeMs).isEqualTo(-1);
+        assertThat(metrics.timeToFirstByteMs).isGreaterThanOrEqualTo(0);
+    }
+
+    @Test
+    public void testMetricsForRequestWithoutCache() throws Exception {
+        HttpProxyCache proxyCache = new HttpProxyCache(new HttpUrlSource(HTTP_DATA_URL), new FileCache(newCacheFile()));
+        MetricsListener metricsListener = Mockito.mock(MetricsListener.class);
+        proxyCache.registerMetricsListener(metricsListener);
+        processRequest(proxyCache, "GET /" + HTTP_DATA_URL + " HTTP/1.1\nRange: bytes=4000-");
+        proxyCache.shutdown();
+
+        ArgumentCaptor<RequestMetrics> metricsCaptor = ArgumentCaptor.forClass(RequestMetrics.class);
+        Mockito.verify(metricsListener).onRequestProcessed(metricsCaptor.capture());
+        RequestMetrics metrics = metricsCaptor.getValue();
+        assertThat(metrics.cacheUsed).isFalse();
+        assertThat(metrics.cacheBytes).isEqualTo(0);
+        assertThat(metrics.originBytes).isEqualTo(HTTP_DATA_SIZE - 4000);
+        assertThat(metrics.originConnectTimeMs).isGreaterThanOrEqualTo(0);
+    }
+
+    @Test
+    public void testMetricsOfOriginConnectionArePerRequest() throws Exception {
+        HttpProxyCache proxyCache = new HttpProxyCache(new HttpUrlSource(HTTP_DATA_URL), new FileCache(newCacheFile()));
+        MetricsListener metricsListener = Mockito.mock(MetricsListener.class);
+        proxyCache.registerMetricsListener(metricsListener);
+        processRequest(proxyCache, "GET /" + HTTP_DATA_URL + " HTTP/1.1");
+        processRequest(proxyCache, "GET /" + HTTP_DATA_URL + " HTTP/1.1");
+        proxyCache.shutdown();
+
+        ArgumentCaptor<RequestMetrics> metricsCaptor = ArgumentCaptor.forClass(RequestMetrics.class);
+        Mockito.verify(metricsListener, Mockito.times(2)).onRequestProcessed(metricsCaptor.capture());
+        RequestMetrics loadingMetrics = metricsCaptor.getAllValues().get(0);
+        assertThat(loadingMetrics.cacheUsed).isTrue();
+        assertThat(loadingMetrics.originConnectTimeMs).isGreaterThanOrEqualTo(0);
+        assertThat(loadingMetrics.stallTimeMs).isGreaterThanOrEqualTo(loadingMetrics.originConnectTimeMs);
+        RequestMetrics cachedMetrics = metricsCaptor.getAllValues().get(1);
+        assertThat(cachedMetrics.cacheBytes).isEqualTo(HTTP_DATA_SIZE);
+        assertThat(cachedMetrics.originConnectTimeMs).isEqualTo(-1);
+        assertThat(cachedMetrics.stallTimeMs).isEqualTo(0);
+    }
+
+    @Test
+    public void testUseCacheIfItReachesOffsetBeforeConnection() throws Exception {
+        // 20000 bytes to be cached with 100000 bytes/sec take 200 ms, connection takes 300 ms
+        assertThat(isCacheUsed(30000, 100000, 300)).isTrue();
+    }
+
+    @Test
+    public void testUseConnectionIfItIsOpenedBeforeCacheReachesOffset() throws Exception {
+        // 40000 bytes to be cached with 100000 bytes/sec take 400 ms, connection takes 300 ms
+        assertThat(isCacheUsed(50000, 100000, 300)).isFalse();
+    }
+
+    @Test
+    public void testUseCacheBarrierIfThroughputIsUnknown() throws Exception {
+        // 10000 bytes are cached, 20% barrier of 100000 bytes file allows offsets up to 30000
+        assertThat(isCacheUsed(30000, -1, 300)).isTrue();
+        assertThat(isCacheUsed(30001, -1, 300)).isFalse();
+    }
+
+    @Test
+    public void testUseCacheBarrierIfConnectTimeIsUnknown() throws Exception {
+        assertThat(isCacheUsed(25000, 1000000, -1)).isTrue();
+        assertThat(isCacheUsed(50000, 1000000, -1)).isFalse();
+    }
+
+    @Test
+    public void testUseCacheForCachedOffset() throws Exception {
+        assertThat(isCacheUsed(5000, 1, 0)).isTrue();
+    }
+
+    @Test
+    public void testUseConnectionIfSourceReaderIsPaused() throws Exception {
+        byte[] data = ProxyCacheTestUtils.generate(100000);
+        FileCache fileCache = new FileCache(newCacheFile());
+        fileCache.append(data, 10000);
+        HttpProxyCache proxyCache = new HttpProxyCache(new ByteArrayUrlSource("memory://file", data, "video/mp4"), fileCache);
+        proxyCache.setReadAhead(0);     // reader is paused until clients read further than cached data
+        proxyCache.readSourceAsync();
+        long deadline = System.currentTimeMillis() + 1000;
+        while (proxyCache.getSourceThroughput() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // offset is within 20% barrier used while throughput is unknown, but paused reader doesn't load it
+        assertThat(isCacheUsed(proxyCache, data, 25000)).isFalse();
+    }
+
+    private boolean isCacheUsed(int offset, final long throughput, long connectTimeMs) throws Exception {
+        byte[] data = ProxyCacheTestUtils.generate(100000);
+        FileCache fileCache = new FileCache(newCacheFile());
+        fileCache.append(data, 10000);
+        UrlSource source = new ByteArrayUrlSource("memory://file", data, "video/mp4", connectTimeMs);
+        HttpProxyCache proxyCache = new HttpProxyCache(source, fileCache) {
+
+            @Override
+            protected long getSourceThroughput() {
+                return throughput;
+            }
+        };
+        return isCacheUsed(proxyCache, data, offset);
+    }
+
+    private boolean isCacheUsed(HttpProxyCache proxyCache, byte[] data, int offset) throws Exception {
+        MetricsListener metricsListener = Mockito.mock(MetricsListener.class);
+        proxyCache.registerMetricsListener(metricsListener);
+        Response response = processRequest(proxyCache, "GET /memory://file HTTP/1.1\nRange: bytes=" + offset + "-");
+        proxyCache.shutdown();
+
+        byte[] partialData = new byte[data.length - offset];
+        System.arraycopy(data, offset, partialData, 0, partialData.length);
+        assertThat(response.data).isEqualTo(partialData);
+        ArgumentCaptor<RequestMetrics> metricsCaptor = ArgumentCaptor.forClass(RequestMetrics.class);
+        Mockito.verify(metricsListener).onRequestProcessed(metricsCaptor.capture());
+        return metricsCaptor.getValue().cacheUsed;
+    }
+
     private Response processRequest(String sourceUrl, String httpRequest) throws ProxyCacheException, IOException {
         FileCache fileCache = new FileCache(ProxyCacheTestUtils.newCacheFile());
         return processRequest(sourceUrl, httpRequest, fileCache);
@@ -126,7 +126,6 @@ public class HttpUrlSourceTest extends BaseTest {
         fail("Too many redirects");
     }
 
-    @Ignore("Seems Robolectric bug: MimeTypeMap.getFileExtensionFromUrl always returns null")
     @Test
     public void testMimeByUrl() throws Exception {
         assertThat(new HttpUrlSource("http://mysite.by/video.mp4").getMime()).isEqualTo("video/mp4");
@@ -0,0 +1,741 @@
+package com.danikula.videocache;
+
+import com.danikula.android.garden.io.Files;
+import com.danikula.videocache.file.FileCache;
+import com.danikula.videocache.file.Md5FileNameGenerator;
+import com.danikula.videocache.headers.EmptyHeadersInjector;
+import com.danikula.videocache.mirrors.MirrorsProvider;
+import com.danikula.videocache.sourcestorage.NoSourceInfoStorage;
+import com.danikula.videocache.sourcestorage.SourceInfoStorage;
+import com.danikula.videocache.sourcestorage.SourceInfoStorageFactory;
+import com.danikula.videocache.support.FakeOriginServer;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+import com.danikula.videocache.support.Response;
+import com.danikula.videocache.transport.OriginResponse;
+import com.danikula.videocache.transport.OriginTransport;
+import com.danikula.videocache.transport.UrlConnectionTransport;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.danikula.videocache.support.ProxyCacheTestUtils.ASSETS_DATA_BIG_NAME;
+import static com.danikula.videocache.support.ProxyCacheTestUtils.getFileContent;
+import static com.danikula.videocache.support.ProxyCacheTestUtils.loadAssetFile;
+import static com.danikula.videocache.support.ProxyCacheTestUtils.loadTestData;
+import static com.danikula.videocache.support.ProxyCacheTestUtils.readProxyResponse;
+import static com.danikula.videocache.support.ProxyCacheTestUtils.resetSystemProxy;
+import static com.google.common.io.Files.write;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests proxy with {@link FakeOriginServer}, so they don't depend on network.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class LocalOriginTest extends BaseTest {
+
+    private static final String ASSETS_DATA_SPACE_NAME = "space.jpg";
+    private static final String RACE_FILE_NAME = "race.mp4";
+
+    private FakeOriginServer origin;
+    private FakeOriginServer mirror;
+    private File cacheFolder;
+    private MetricsListener metricsListener;
+    private ExecutorService sourceOpeners;
+
+    @Before
+    public void setup() throws Exception {
+        cacheFolder = ProxyCacheTestUtils.newCacheFile();
+        Files.createDirectory(cacheFolder);
+        Files.cleanDirectory(cacheFolder);
+        resetSystemProxy();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (origin != null) {
+            origin.shutdown();
+        }
+        if (mirror != null) {
+            mirror.shutdown();
+        }
+        if (sourceOpeners != null) {
+            sourceOpeners.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSourceWithOffset() throws Exception {
+        origin = new FakeOriginServer.Builder().start();
+        int offset = 30000;
+        HttpUrlSource source = new HttpUrlSource(origin.url(ASSETS_DATA_BIG_NAME));
+        source.open(offset);
+        byte[] data = readAll(source);
+        source.close();
+
+        byte[] expected = loadAssetFile(ASSETS_DATA_BIG_NAME);
+        assertThat(data).isEqualTo(Arrays.copyOfRange(expected, offset, expected.length));
+        assertThat(source.length()).isEqualTo(expected.length);
+        assertThat(source.getMime()).isEqualTo("image/jpeg");
+    }
+
+    @Test
+    public void testSourceWithRedirects() throws Exception {
+        origin = new FakeOriginServer.Builder().start();
+        HttpUrlSource source = new HttpUrlSource(origin.redirectUrl(ASSETS_DATA_BIG_NAME, 3));
+        source.open(0);
+        byte[] data = readAll(source);
+        source.close();
+
+        assertThat(data).isEqualTo(loadAssetFile(ASSETS_DATA_BIG_NAME));
+        assertThat(origin.getRequestsCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void testCacheableRedirectsAreResolvedOnce() throws Exception {
+        origin = new FakeOriginServer.Builder().redirectCacheControl("max-age=60").start();
+        String url = origin.redirectUrl(ASSETS_DATA_BIG_NAME, 3);
+        SourceInfoStorage sourceInfoStorage = SourceInfoStorageFactory.newSourceInfoStorage(RuntimeEnvironment.application);
+        HttpUrlSource source = new HttpUrlSource(url, sourceInfoStorage);
+        source.open(0);
+        source.close();
+        source.open(1000);
+        source.close();
+        assertThat(origin.getRequestsCount()).isEqualTo(5);
+
+        HttpUrlSource newSource = new HttpUrlSource(url, sourceInfoStorage);   // redirect is persisted with source info
+        newSource.open(0);
+        byte[] data = readAll(newSource);
+        newSource.close();
+        sourceInfoStorage.release();
+
+        assertThat(data).isEqualTo(loadAssetFile(ASSETS_DATA_BIG_NAME));
+        assertThat(origin.getRequestsCount()).isEqualTo(6);
+    }
+
+    @Test
+    public void testNotCacheableRedirectsAreResolvedAlways() throws Exception {
+        origin = new FakeOriginServer.Builder().redirectCacheControl("no-cache").start();
+        HttpUrlSource source = new HttpUrlSource(origin.redirectUrl(ASSETS_DATA_BIG_NAME, 3));
+        source.open(0);
+        source.close();
+        source.open(1000);
+        source.close();
+
+        assertThat(origin.getRequestsCount()).isEqualTo(8);
+    }
+
+    @Test
+    public void testSourceWithoutContentLength() throws Exception {
+        origin = new FakeOriginServer.Builder().noContentLength().start();
+        HttpUrlSource source = new HttpUrlSource(origin.url(ASSETS_DATA_BIG_NAME));
+        assertThat(source.length()).isLessThan(0);
+
+        source.open(0);
+        byte[] data = readAll(source);
+        source.close();
+        assertThat(data).isEqualTo(loadAssetFile(ASSETS_DATA_BIG_NAME));
+    }
+
+    @Test(expected = ProxyCacheException.class)
+    public void testSourceMidStreamDisconnect() throws Exception {
+        origin = new FakeOriginServer.Builder().disconnectAfter(10000).start();
+        HttpUrlSource source = new HttpUrlSource(origin.url(ASSETS_DATA_BIG_NAME));
+        source.open(0);
+        readAll(source);
+        fail("Connection is reset by origin");
+    }
+
+    @Test
+    public void testProxyThrottledOrigin() throws Exception {
+        origin = new FakeOriginServer.Builder()
+                .latency(50)
+                .bandwidth(200 * 1024)
+                .start();
+        String url = origin.url(ASSETS_DATA_BIG_NAME);
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .build();
+        Response response = readProxyResponse(proxy, url);
+        proxy.shutdown();
+
+        byte[] expected = loadAssetFile(ASSETS_DATA_BIG_NAME);
+        assertThat(response.code).isEqualTo(200);
+        assertThat(response.data).isEqualTo(expected);
+        assertThat(getFileContent(new File(cacheFolder, new Md5FileNameGenerator().generate(url)))).isEqualTo(expected);
+        assertThat(origin.getBytesServed()).isGreaterThanOrEqualTo(expected.length);
+    }
+
+    @Test
+    public void testSourceIsRetriedAfterDisconnect() throws Exception {
+        origin = new FakeOriginServer.Builder().disconnectAfter(30000).start();
+        String url = origin.url(ASSETS_DATA_BIG_NAME);
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .sourceRetryTimeout(10, TimeUnit.SECONDS)
+                .build();
+        Response response = readProxyResponse(proxy, url);
+        proxy.shutdown();
+
+        byte[] expected = loadAssetFile(ASSETS_DATA_BIG_NAME);
+        assertThat(response.code).isEqualTo(200);
+        assertThat(response.data).isEqualTo(expected);
+        assertThat(getFileContent(new File(cacheFolder, new Md5FileNameGenerator().generate(url)))).isEqualTo(expected);
+    }
+
+    @Test(expected = SourceChangedException.class)
+    public void testChangedSourceIsNotResumed() throws Exception {
+        File originFolder = ProxyCacheTestUtils.newCacheFile();
+        Files.createDirectory(originFolder);
+        File file = new File(originFolder, ASSETS_DATA_BIG_NAME);
+        write(loadAssetFile(ASSETS_DATA_BIG_NAME), file);
+        origin = new FakeOriginServer.Builder().root(originFolder).start();
+        HttpUrlSource source = new HttpUrlSource(origin.url(ASSETS_DATA_BIG_NAME));
+        source.open(0);
+        source.close();
+
+        write(loadTestData(), file);
+        source.open(1000);
+        fail("Changed source can't be resumed");
+    }
+
+    @Test
+    public void testCustomTransport() throws Exception {
+        origin = new FakeOriginServer.Builder().start();
+        String url = origin.redirectUrl(ASSETS_DATA_BIG_NAME, 1);
+        final List<String> requestedUrls = Collections.synchronizedList(new ArrayList<String>());
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .transport(new OriginTransport() {
+                    @Override
+                    public OriginResponse execute(String url, Map<String, String> headers, int timeoutMs) throws IOException {
+                        requestedUrls.add(url);
+                        return new UrlConnectionTransport().execute(url, headers, timeoutMs);
+                    }
+                })
+                .build();
+        Response response = readProxyResponse(proxy, url);
+        proxy.shutdown();
+
+        assertThat(response.data).isEqualTo(loadAssetFile(ASSETS_DATA_BIG_NAME));
+        assertThat(requestedUrls).contains(url, origin.url(ASSETS_DATA_BIG_NAME));
+    }
+
+    @Test
+    public void testSourceIsLoadedFromMirrorAfterDisconnect() throws Exception {
+        origin = new FakeOriginServer.Builder().disconnectAfter(30000).start();
+        mirror = new FakeOriginServer.Builder().start();
+        String url = origin.url(ASSETS_DATA_BIG_NAME);
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .mirrorsProvider(new MirrorsProvider() {
+                    @Override
+                    public List<String> getMirrors(String url) {
+                        return Arrays.asList("http://127.0.0.1:1/unavailable", mirror.url(ASSETS_DATA_BIG_NAME));
+                    }
+                })
+                .build();
+        Response response = readProxyResponse(proxy, url);
+        proxy.shutdown();
+
+        byte[] expected = loadAssetFile(ASSETS_DATA_BIG_NAME);
+        assertThat(response.data).isEqualTo(expected);
+        assertThat(mirror.getBytesServed()).isGreaterThan(0);
+        assertThat(getFileContent(new File(cacheFolder, new Md5FileNameGenerator().generate(url)))).isEqualTo(expected);
+    }
+
+    @Test
+    public void testContentMatchingDigestIsCached() throws Exception {
+        byte[] expected = loadAssetFile(ASSETS_DATA_SPACE_NAME);
+        origin = new FakeOriginServer.Builder()
+                .md5Digest(BaseEncoding.base64().encode(Hashing.md5().hashBytes(expected).asBytes()))
+                .start();
+        String url = origin.url(ASSETS_DATA_SPACE_NAME);
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .build();
+        Response response = readProxyResponse(proxy, url);
+        proxy.shutdown();
+
+        assertThat(response.data).isEqualTo(expected);
+        assertThat(getFileContent(new File(cacheFolder, new Md5FileNameGenerator().generate(url)))).isEqualTo(expected);
+    }
+
+    @Test
+    public void testContentNotMatchingDigestIsNotCached() throws Exception {
+        origin = new FakeOriginServer.Builder()
+                .md5Digest(BaseEncoding.base64().encode(Hashing.md5().hashBytes(loadTestData()).asBytes()))
+                .start();
+        String url = origin.url(ASSETS_DATA_SPACE_NAME);
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .build();
+        try {
+            readProxyResponse(proxy, url);
+        } catch (IOException e) {
+            // response may be broken when mismatch is found
+        }
+        proxy.shutdown();
+
+        assertThat(new File(cacheFolder, new Md5FileNameGenerator().generate(url)).exists()).isFalse();
+    }
+
+    @Test
+    public void testDigestOfChangedContentIsNotKept() throws Exception {
+        origin = new FakeOriginServer.Builder().start();
+        String url = origin.url(ASSETS_DATA_SPACE_NAME);
+        SourceInfoStorage sourceInfoStorage = SourceInfoStorageFactory.newSourceInfoStorage(RuntimeEnvironment.application);
+        String staleMd5 = Hashing.md5().hashBytes(loadTestData()).toString();
+        sourceInfoStorage.put(url, new SourceInfo(url, 1000, "image/jpeg", null, 0, staleMd5));
+        HttpUrlSource source = new HttpUrlSource(url, sourceInfoStorage);
+        source.open(0);
+        source.close();
+        sourceInfoStorage.release();
+
+        assertThat(source.getMd5()).isNull();
+    }
+
+    @Test
+    public void testDigestIsKeptForPartOfSameContent() throws Exception {
+        byte[] expected = loadAssetFile(ASSETS_DATA_SPACE_NAME);
+        origin = new FakeOriginServer.Builder()
+                .md5Digest(BaseEncoding.base64().encode(Hashing.md5().hashBytes(expected).asBytes()))
+                .start();
+        OriginTransport transport = newHeaderReplacingTransport("Digest", null, HttpURLConnection.HTTP_PARTIAL);
+        HttpUrlSource source = new HttpUrlSource(origin.url(ASSETS_DATA_SPACE_NAME), new NoSourceInfoStorage(),
+                new EmptyHeadersInjector(), Collections.<String>emptyList(), new MirrorSelector(), new RedirectCache(), transport);
+        source.open(0);
+        source.close();
+        source.open(1000);
+        source.close();
+
+        assertThat(source.getMd5()).isEqualTo(Hashing.md5().hashBytes(expected).toString());
+    }
+
+    @Test
+    public void testContentNotMatchingDigestGuessedFromETagIsCached() throws Exception {
+        origin = new FakeOriginServer.Builder().start();
+        String url = origin.url(ASSETS_DATA_SPACE_NAME);
+        String etag = "\"" + Hashing.md5().hashBytes(loadTestData()).toString() + "\"";
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .transport(newHeaderReplacingTransport("ETag", etag, HttpURLConnection.HTTP_OK))
+                .build();
+        Response response = readProxyResponse(proxy, url);
+        proxy.shutdown();
+
+        byte[] expected = loadAssetFile(ASSETS_DATA_SPACE_NAME);
+        assertThat(response.data).isEqualTo(expected);
+        assertThat(getFileContent(new File(cacheFolder, new Md5FileNameGenerator().generate(url)))).isEqualTo(expected);
+    }
+
+    @Test
+    public void testCorruptedChunkIsLoadedAgain() throws Exception {
+        origin = new FakeOriginServer.Builder().start();
+        String url = origin.url(ASSETS_DATA_SPACE_NAME);
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .build();
+        readProxyResponse(proxy, url);
+        proxy.shutdown();
+        File file = new File(cacheFolder, new Md5FileNameGenerator().generate(url));
+        RandomAccessFile corruptedFile = new RandomAccessFile(file, "rw");
+        corruptedFile.seek(100000);
+        corruptedFile.write(~corruptedFile.read());
+        corruptedFile.close();
+
+        proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .build();
+        Response response = readProxyResponse(proxy, url);
+        proxy.shutdown();
+
+        byte[] expected = loadAssetFile(ASSETS_DATA_SPACE_NAME);
+        assertThat(response.data).isEqualTo(expected);
+        assertThat(getFileContent(file)).isEqualTo(expected);
+    }
+
+    @Test
+    public void testCorruptedChunkOfChangedContentIsNotRepaired() throws Exception {
+        File originFolder = ProxyCacheTestUtils.newCacheFile();
+        Files.createDirectory(originFolder);
+        File originFile = new File(originFolder, ASSETS_DATA_SPACE_NAME);
+        write(loadAssetFile(ASSETS_DATA_SPACE_NAME), originFile);
+        origin = new FakeOriginServer.Builder().root(originFolder).start();
+        String url = origin.url(ASSETS_DATA_SPACE_NAME);
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .build();
+        readProxyResponse(proxy, url);
+        proxy.shutdown();
+        File file = new File(cacheFolder, new Md5FileNameGenerator().generate(url));
+        RandomAccessFile corruptedFile = new RandomAccessFile(file, "rw");
+        corruptedFile.seek(100000);
+        corruptedFile.write(~corruptedFile.read());
+        corruptedFile.close();
+        byte[] changedData = loadAssetFile(ASSETS_DATA_BIG_NAME);
+        write(changedData, originFile);
+
+        proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .build();
+        try {
+            readProxyResponse(proxy, url);
+        } catch (IOException e) {
+            // request reading changed content is aborted
+        }
+        Response response = readProxyResponse(proxy, url);
+        proxy.shutdown();
+
+        assertThat(response.data).isEqualTo(changedData);
+        assertThat(getFileContent(file)).isEqualTo(changedData);
+    }
+
+    @Test
+    public void testBandwidthIsLimited() throws Exception {
+        origin = new FakeOriginServer.Builder().start();
+        String url = origin.url(ASSETS_DATA_SPACE_NAME);
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .maxBandwidth(512 * 1024)
+                .build();
+        long startTime = System.currentTimeMillis();
+        Response response = readProxyResponse(proxy, url);
+        long duration = System.currentTimeMillis() - startTime;
+        proxy.shutdown();
+
+        assertThat(response.data).isEqualTo(loadAssetFile(ASSETS_DATA_SPACE_NAME));
+        assertThat(duration).isGreaterThan(1500);   // ~1 Mb with 0.5 Mb/s
+    }
+
+    @Test
+    public void testLingeringSourceIsPausedAndReusedByReconnectedClient() throws Exception {
+        origin = new FakeOriginServer.Builder()
+                .bandwidth(200 * 1024)
+                .start();
+        String url = origin.url(ASSETS_DATA_SPACE_NAME);
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .linger(5, TimeUnit.SECONDS)
+                .lingerReadAhead(0)
+                .build();
+        readAndDisconnect(proxy.getProxyUrl(url), 1024);
+        int requestsCount = origin.getRequestsCount();
+        File tempFile = ProxyCacheTestUtils.getTempFile(new File(cacheFolder, new Md5FileNameGenerator().generate(url)));
+        Thread.sleep(500);
+        long pausedLength = tempFile.length();
+        Thread.sleep(500);
+        assertThat(tempFile.length()).isEqualTo(pausedLength);
+
+        Response response = readProxyResponse(proxy, url, 1024);
+        proxy.shutdown();
+
+        byte[] expected = loadAssetFile(ASSETS_DATA_SPACE_NAME);
+        assertThat(pausedLength).isLessThan(expected.length);
+        assertThat(response.data).isEqualTo(Arrays.copyOfRange(expected, 1024, expected.length));
+        assertThat(origin.getRequestsCount()).isEqualTo(requestsCount);
+    }
+
+    @Test
+    public void testLingeringSourceIsLoadedAhead() throws Exception {
+        origin = new FakeOriginServer.Builder()
+                .bandwidth(1024 * 1024)
+                .start();
+        String url = origin.url(ASSETS_DATA_SPACE_NAME);
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .linger(5, TimeUnit.SECONDS)
+                .lingerReadAhead(Long.MAX_VALUE)
+                .build();
+        readAndDisconnect(proxy.getProxyUrl(url), 1024);
+        Thread.sleep(2000);
+        boolean cached = proxy.isCached(url);
+        proxy.shutdown();
+
+        assertThat(cached).isTrue();
+    }
+
+    @Test
+    public void testRaceIsWonByCache() throws Exception {
+        byte[] data = startRaceOrigin(600 * 1024, 1000, 1024 * 1024);
+        FileCache cache = new FileCache(new File(cacheFolder, RACE_FILE_NAME));
+        HttpProxyCache proxyCache = newRacingProxyCache(cache);
+        int requestsCount = origin.getRequestsCount();
+        Future<Response> loading = processAsync(proxyCache, 0);
+        waitForCache(cache, 1);
+
+        long offset = cache.available() + 200 * 1024;   // cache needs ~200 ms, new connection ~1000 ms
+        Response response = processRequest(proxyCache, offset, new ByteArrayOutputStream());
+        int raceRequestsCount = origin.getRequestsCount();
+        Response loadingResponse = loading.get();
+        proxyCache.shutdown();
+
+        assertThat(response.data).isEqualTo(Arrays.copyOfRange(data, (int) offset, data.length));
+        assertThat(loadingResponse.data).isEqualTo(data);
+        assertThat(getRequestMetrics(offset).cacheUsed).isTrue();
+        assertThat(raceRequestsCount).isEqualTo(requestsCount + 2);     // sequential loading and abandoned connection
+    }
+
+    @Test
+    public void testRaceConnectionAbandonedBeforeOpeningIsClosed() throws Exception {
+        byte[] data = startRaceOrigin(600 * 1024, 1000, 1024 * 1024);
+        FileCache cache = new FileCache(new File(cacheFolder, RACE_FILE_NAME));
+        HttpProxyCache proxyCache = newRacingProxyCache(cache);
+        Future<Response> loading = processAsync(proxyCache, 0);
+        waitForCache(cache, 1);
+
+        processRequest(proxyCache, cache.available() + 200 * 1024, new ByteArrayOutputStream());
+        loading.get();
+        Thread.sleep(1500);     // wait for abandoned connection is opened
+        proxyCache.shutdown();
+
+        assertThat(origin.getBytesServed()).isLessThan(data.length + 64 * 1024);
+    }
+
+    @Test
+    public void testRaceIsWonByNewConnection() throws Exception {
+        byte[] data = startRaceOrigin(600 * 1024, 200, 1024 * 1024);
+        FileCache cache = new FileCache(new File(cacheFolder, RACE_FILE_NAME));
+        HttpProxyCache proxyCache = newRacingProxyCache(cache);
+        int requestsCount = origin.getRequestsCount();
+
+        int offset = 500 * 1024;    // cache needs ~700 ms, new connection ~200 ms
+        Response response = processRequest(proxyCache, offset, new ByteArrayOutputStream());
+        waitForCompletion(cache);
+        proxyCache.shutdown();
+
+        assertThat(response.data).isEqualTo(Arrays.copyOfRange(data, offset, data.length));
+        RequestMetrics metrics = getRequestMetrics(offset);
+        assertThat(metrics.cacheUsed).isFalse();
+        assertThat(metrics.originBytes).isEqualTo(data.length - offset);
+        assertThat(getFileContent(cache.file)).isEqualTo(data);
+        assertThat(origin.getRequestsCount()).isEqualTo(requestsCount + 2);    // range loaded by connection is reused
+    }
+
+    @Test
+    public void testRaceIsHandedOffToCacheWhenItCatchesUp() throws Exception {
+        byte[] data = startRaceOrigin(1024 * 1024, 200, 2 * 1024 * 1024);
+        FileCache cache = new FileCache(new File(cacheFolder, RACE_FILE_NAME));
+        HttpProxyCache proxyCache = newRacingProxyCache(cache);
+        int requestsCount = origin.getRequestsCount();
+
+        int offset = 400 * 1024;
+        Response response = processRequest(proxyCache, offset, new ByteArrayOutputStream() {
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                sleep(20);  // player reads slower than cache is loaded
+                super.write(b, off, len);
+            }
+        });
+        proxyCache.shutdown();
+
+        assertThat(response.data).isEqualTo(Arrays.copyOfRange(data, offset, data.length));
+        RequestMetrics metrics = getRequestMetrics(offset);
+        assertThat(metrics.cacheUsed).isFalse();
+        assertThat(metrics.originBytes).isGreaterThan(0);
+        assertThat(metrics.cacheBytes).isGreaterThan(0);
+        // sequential loading, new connection and sequential loading reopened after range
+        assertThat(origin.getRequestsCount()).isEqualTo(requestsCount + 3);
+    }
+
+    @Test
+    public void testSeekIsNotRacedIfOpenersAreBusy() throws Exception {
+        byte[] data = startRaceOrigin(600 * 1024, 200, 1024 * 1024);
+        FileCache cache = new FileCache(new File(cacheFolder, RACE_FILE_NAME));
+        ExecutorService busyOpeners = Executors.newSingleThreadExecutor();
+        busyOpeners.shutdown();     // rejects any opener
+        HttpProxyCache proxyCache = newRacingProxyCache(cache, busyOpeners);
+        int requestsCount = origin.getRequestsCount();
+
+        int offset = 500 * 1024;
+        Response response = processRequest(proxyCache, offset, new ByteArrayOutputStream());
+        proxyCache.shutdown();
+
+        assertThat(response.data).isEqualTo(Arrays.copyOfRange(data, offset, data.length));
+        assertThat(getRequestMetrics(offset).cacheUsed).isFalse();
+        assertThat(cache.available()).isEqualTo(0);     // neither sequential loading nor range is started
+        assertThat(origin.getRequestsCount()).isEqualTo(requestsCount + 1);
+    }
+
+    private byte[] startRaceOrigin(int size, long latencyMs, long bandwidth) throws IOException {
+        File originFolder = ProxyCacheTestUtils.newCacheFile();
+        Files.createDirectory(originFolder);
+        byte[] data = ProxyCacheTestUtils.generate(size);
+        write(data, new File(originFolder, RACE_FILE_NAME));
+        origin = new FakeOriginServer.Builder()
+                .root(originFolder)
+                .latency(latencyMs)
+                .bandwidth(bandwidth)
+                .start();
+        return data;
+    }
+
+    private HttpProxyCache newRacingProxyCache(FileCache cache) throws ProxyCacheException {
+        sourceOpeners = Executors.newCachedThreadPool();
+        return newRacingProxyCache(cache, sourceOpeners);
+    }
+
+    private HttpProxyCache newRacingProxyCache(FileCache cache, ExecutorService sourceOpeners) throws ProxyCacheException {
+        HttpUrlSource source = new HttpUrlSource(origin.url(RACE_FILE_NAME));
+        source.length();    // fetch source info before counting requests
+        HttpProxyCache proxyCache = new HttpProxyCache(source, cache) {
+
+            @Override
+            protected long getSourceThroughput() {
+                return -1;  // race is chosen by 20% barrier, not by measured throughput
+            }
+        };
+        proxyCache.setRaceFarSeeks(sourceOpeners);
+        metricsListener = Mockito.mock(MetricsListener.class);
+        proxyCache.registerMetricsListener(metricsListener);
+        return proxyCache;
+    }
+
+    private Response processRequest(HttpProxyCache proxyCache, long offset, ByteArrayOutputStream out) throws Exception {
+        String range = offset > 0 ? "\nRange: bytes=" + offset + "-" : "";
+        GetRequest request = new GetRequest("GET /" + origin.url(RACE_FILE_NAME) + " HTTP/1.1" + range);
+        Socket socket = Mockito.mock(Socket.class);
+        when(socket.getOutputStream()).thenReturn(out);
+        proxyCache.processRequest(request, socket);
+        return new Response(out.toByteArray());
+    }
+
+    private Future<Response> processAsync(final HttpProxyCache proxyCache, final long offset) {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Response> response = executor.submit(new Callable<Response>() {
+
+            @Override
+            public Response call() throws Exception {
+                return processRequest(proxyCache, offset, new ByteArrayOutputStream());
+            }
+        });
+        executor.shutdown();
+        return response;
+    }
+
+    private RequestMetrics getRequestMetrics(long offset) {
+        ArgumentCaptor<RequestMetrics> metricsCaptor = ArgumentCaptor.forClass(RequestMetrics.class);
+        Mockito.verify(metricsListener, Mockito.atLeastOnce()).onRequestProcessed(metricsCaptor.capture());
+        for (RequestMetrics metrics : metricsCaptor.getAllValues()) {
+            if (metrics.rangeOffset == offset) {
+                return metrics;
+            }
+        }
+        throw new AssertionError("There is no metrics for request with offset " + offset);
+    }
+
+    private void waitForCache(FileCache cache, long available) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.available() < available && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void waitForCompletion(FileCache cache) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cache.isCompleted() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void sleep(long timeMs) {
+        try {
+            Thread.sleep(timeMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private OriginTransport newHeaderReplacingTransport(final String name, final String value, final int code) {
+        return new OriginTransport() {
+            @Override
+            public OriginResponse execute(String url, Map<String, String> headers, int timeoutMs) throws IOException {
+                final OriginResponse response = new UrlConnectionTransport().execute(url, headers, timeoutMs);
+                return new OriginResponse() {
+                    @Override
+                    public String getUrl() {
+                        return response.getUrl();
+                    }
+
+                    @Override
+                    public int getCode() {
+                        return response.getCode();
+                    }
+
+                    @Override
+                    public String getHeader(String header) {
+                        return header.equalsIgnoreCase(name) && response.getCode() == code ? value : response.getHeader(header);
+                    }
+
+                    @Override
+                    public long getDateHeader(String header) {
+                        return response.getDateHeader(header);
+                    }
+
+                    @Override
+                    public InputStream getBody() throws IOException {
+                        return response.getBody();
+                    }
+
+                    @Override
+                    public void close() {
+                        response.close();
+                    }
+                };
+            }
+        };
+    }
+
+    private void readAndDisconnect(String url, int bytes) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            InputStream in = connection.getInputStream();
+            byte[] buffer = new byte[bytes];
+            int read = 0;
+            int readBytes;
+            while (read < bytes && (readBytes = in.read(buffer, read, bytes - read)) != -1) {
+                read += readBytes;
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private byte[] readAll(Source source) throws ProxyCacheException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[ProxyCacheUtils.DEFAULT_BUFFER_SIZE];
+        int read;
+        while ((read = source.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,107 @@
+package com.danikula.videocache;
+
+import com.danikula.android.garden.io.Files;
+import com.danikula.videocache.support.FakeOriginServer;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+import com.danikula.videocache.support.TraceReplayer;
+import com.danikula.videocache.support.TraceReplayer.Report;
+import com.danikula.videocache.support.TraceReplayer.TraceEvent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import static com.danikula.videocache.support.ProxyCacheTestUtils.resetSystemProxy;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Replays trace of player's requests against proxy with different configurations and logs reports to compare them.
+ * <p>
+ * By default trace {@code feed.trace} from test resources is used, custom trace can be passed with system property
+ * {@code trace.file}, e.g. {@code ./gradlew :test:testDebugUnitTest --tests *TraceReplayTest -Dtrace.file=/path/to/my.trace}.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class TraceReplayTest extends BaseTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger("TraceReplayTest");
+    private static final int CLIENTS_COUNT = 4;
+    private static final int ORIGIN_LATENCY_MS = 50;
+    private static final int ORIGIN_BANDWIDTH = 512 * 1024;
+
+    private FakeOriginServer origin;
+    private List<TraceEvent> trace;
+
+    @Before
+    public void setup() throws Exception {
+        resetSystemProxy();
+        origin = new FakeOriginServer.Builder()
+                .latency(ORIGIN_LATENCY_MS)
+                .bandwidth(ORIGIN_BANDWIDTH)
+                .start();
+        String traceFile = System.getProperty("trace.file");
+        InputStream traceStream = traceFile != null ? new FileInputStream(traceFile) : getClass().getResourceAsStream("/feed.trace");
+        try {
+            trace = TraceReplayer.parse(traceStream, origin);
+        } finally {
+            traceStream.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        origin.shutdown();
+    }
+
+    @Test
+    public void testDefaultConfig() throws Exception {
+        replay("default", newBuilder());
+    }
+
+    @Test
+    public void testSmallCacheBySize() throws Exception {
+        replay("max size 512 Kb", newBuilder().maxCacheSize(512 * 1024));
+    }
+
+    @Test
+    public void testSmallCacheByCount() throws Exception {
+        replay("max 2 files", newBuilder().maxCacheFilesCount(2));
+    }
+
+    @Test
+    public void testSingleWorker() throws Exception {
+        replay("1 worker", newBuilder().socketWorkersCount(1));
+    }
+
+    private HttpProxyCacheServer.Builder newBuilder() throws Exception {
+        File cacheFolder = ProxyCacheTestUtils.newCacheFile();
+        Files.createDirectory(cacheFolder);
+        Files.cleanDirectory(cacheFolder);
+        return new HttpProxyCacheServer.Builder(RuntimeEnvironment.application).cacheDirectory(cacheFolder);
+    }
+
+    private void replay(String configName, HttpProxyCacheServer.Builder builder) throws Exception {
+        HttpProxyCacheServer proxy = builder.build();
+        try {
+            long originBytesBefore = origin.getBytesServed();
+            Report report = new TraceReplayer(proxy, CLIENTS_COUNT).replay(trace);
+            long originBytes = origin.getBytesServed() - originBytesBefore;
+            LOG.info("Trace replay [" + configName + "] " + report.format(originBytes));
+
+            assertThat(report.requests).isEqualTo(trace.size());
+            assertThat(report.errors).isEqualTo(0);
+            assertThat(report.bytes).isPositive();
+            assertThat(originBytes).isPositive();
+        } finally {
+            proxy.shutdown();
+        }
+    }
+}
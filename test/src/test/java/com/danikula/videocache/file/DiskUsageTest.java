@@ -100,6 +100,110 @@ public class DiskUsageTest extends BaseTest {
         assertThat(file("b")).doesNotExist();
     }
 
+    @Test
+    public void testRenditionsAreCountedAsOneFile() throws Exception {
+        RenditionGroups renditionGroups = new RenditionGroups();
+        DiskUsage diskUsage = new TotalCountLruDiskUsage(2, renditionGroups);
+        long now = System.currentTimeMillis();
+        createFile(file("a"), 101, now - 10000);
+        createFile(file("low1"), 102, now - 8000);
+        createFile(file("low2"), 103, now - 6000);
+        createFile(file("high1"), 104, now - 4000);
+        createFile(file("b"), 105, now - 2000);
+        renditionGroups.put(file("low1"), new RenditionGroups.Rendition("title", "title", 0));
+        renditionGroups.put(file("low2"), new RenditionGroups.Rendition("title", "title", 0));
+        renditionGroups.put(file("high1"), new RenditionGroups.Rendition("title", "title", 1));
+
+        diskUsage.touch(file("b"));
+        waitForAsyncTrimming();
+
+        assertThat(file("a")).doesNotExist();
+        assertThat(file("low1")).exists();
+        assertThat(file("low2")).exists();
+        assertThat(file("high1")).exists();
+        assertThat(file("b")).exists();
+    }
+
+    @Test
+    public void testUnusedRenditionsAreEvictedFirst() throws Exception {
+        RenditionGroups renditionGroups = new RenditionGroups();
+        DiskUsage diskUsage = new TotalSizeLruDiskUsage(400, renditionGroups);
+        long now = System.currentTimeMillis();
+        createFile(file("a"), 100, now - 10000);
+        createFile(file("low"), 100, now - 8000);
+        createFile(file("high"), 100, now - 6000);
+        createFile(file("middle"), 100, now - 4000);
+        createFile(file("b"), 100, now - 2000);
+        RenditionGroups.Rendition middle = new RenditionGroups.Rendition("title", "title", 1);
+        renditionGroups.put(file("low"), new RenditionGroups.Rendition("title", "title", 0));
+        renditionGroups.put(file("middle"), middle);
+        renditionGroups.put(file("high"), new RenditionGroups.Rendition("title", "title", 2));
+        renditionGroups.activate(middle);
+
+        diskUsage.touch(file("b"));
+        waitForAsyncTrimming();
+
+        assertThat(file("high")).doesNotExist();
+        assertThat(file("a")).exists();
+        assertThat(file("low")).exists();
+        assertThat(file("middle")).exists();
+        assertThat(file("b")).exists();
+    }
+
+    @Test
+    public void testRenditionsAreEvictedWholeByCount() throws Exception {
+        RenditionGroups renditionGroups = new RenditionGroups();
+        DiskUsage diskUsage = new TotalCountLruDiskUsage(2, renditionGroups);
+        long now = System.currentTimeMillis();
+        createFile(file("a"), 100, now - 10000);
+        createFile(file("low"), 100, now - 8000);
+        createFile(file("high"), 100, now - 6000);
+        createFile(file("middle"), 100, now - 4000);
+        createFile(file("b"), 100, now - 2000);
+        createFile(file("c"), 100, now - 1000);
+        RenditionGroups.Rendition middle = new RenditionGroups.Rendition("title", "title", 1);
+        renditionGroups.put(file("low"), new RenditionGroups.Rendition("title", "title", 0));
+        renditionGroups.put(file("middle"), middle);
+        renditionGroups.put(file("high"), new RenditionGroups.Rendition("title", "title", 2));
+        renditionGroups.activate(middle);
+
+        diskUsage.touch(file("c"));
+        waitForAsyncTrimming();
+
+        assertThat(file("a")).doesNotExist();
+        assertThat(file("low")).doesNotExist();
+        assertThat(file("high")).doesNotExist();
+        assertThat(file("middle")).doesNotExist();
+        assertThat(file("b")).exists();
+        assertThat(file("c")).exists();
+    }
+
+    @Test
+    public void testSegmentsOfKeptTitleAreNotEvictedByCount() throws Exception {
+        RenditionGroups renditionGroups = new RenditionGroups();
+        DiskUsage diskUsage = new TotalCountLruDiskUsage(2, renditionGroups);
+        long now = System.currentTimeMillis();
+        createFile(file("a"), 100, now - 10000);
+        createFile(file("low"), 100, now - 8000);
+        createFile(file("high"), 100, now - 6000);
+        createFile(file("middle"), 100, now - 4000);
+        createFile(file("b"), 100, now - 2000);
+        RenditionGroups.Rendition middle = new RenditionGroups.Rendition("title", "title", 1);
+        renditionGroups.put(file("low"), new RenditionGroups.Rendition("title", "title", 0));
+        renditionGroups.put(file("middle"), middle);
+        renditionGroups.put(file("high"), new RenditionGroups.Rendition("title", "title", 2));
+        renditionGroups.activate(middle);
+
+        diskUsage.touch(file("b"));
+        waitForAsyncTrimming();
+
+        assertThat(file("a")).doesNotExist();
+        assertThat(file("low")).exists();
+        assertThat(file("high")).exists();
+        assertThat(file("middle")).exists();
+        assertThat(file("b")).exists();
+    }
+
     private void waitForAsyncTrimming() throws InterruptedException {
         Thread.sleep(200);
     }
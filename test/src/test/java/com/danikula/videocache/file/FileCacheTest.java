@@ -3,6 +3,7 @@ package com.danikula.videocache.file;
 import com.danikula.android.garden.io.Files;
 import com.danikula.videocache.BaseTest;
 import com.danikula.videocache.Cache;
+import com.danikula.videocache.CorruptedCacheException;
 import com.danikula.videocache.ProxyCacheException;
 
 import org.junit.Assert;
@@ -11,6 +12,7 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.Arrays;
 
 import static com.danikula.videocache.support.ProxyCacheTestUtils.ASSETS_DATA_NAME;
@@ -172,6 +174,213 @@ public class FileCacheTest extends BaseTest {
         assertThat(deletedFile).doesNotExist();
     }
 
+    @Test
+    public void testRangeIsMergedWhenAppendReachesIt() throws Exception {
+        byte[] data = generate(30000);
+        FileCache fileCache = new FileCache(newCacheFile());
+        fileCache.append(data, 10000);
+        fileCache.writeRange(15000, Arrays.copyOfRange(data, 15000, 25000), 10000);
+        assertThat(fileCache.available()).isEqualTo(10000);
+
+        fileCache.append(Arrays.copyOfRange(data, 10000, 16000), 6000);
+        assertThat(fileCache.available()).isEqualTo(25000);
+
+        fileCache.append(Arrays.copyOfRange(data, 25000, 30000), 5000);
+        byte[] readData = new byte[30000];
+        fileCache.read(readData, 0, readData.length);
+        assertThat(readData).isEqualTo(data);
+    }
+
+    @Test
+    public void testRangeNotContinuingPreviousIsNew() throws Exception {
+        byte[] data = generate(30000);
+        FileCache fileCache = new FileCache(newCacheFile());
+        fileCache.writeRange(10000, Arrays.copyOfRange(data, 10000, 15000), 5000);
+        fileCache.writeRange(20000, Arrays.copyOfRange(data, 20000, 30000), 10000);
+
+        fileCache.append(Arrays.copyOfRange(data, 0, 20000), 20000);
+        assertThat(fileCache.available()).isEqualTo(30000);
+        byte[] readData = new byte[30000];
+        fileCache.read(readData, 0, readData.length);
+        assertThat(readData).isEqualTo(data);
+    }
+
+    @Test
+    public void testRangeIsDeletedOnClose() throws Exception {
+        File file = newCacheFile();
+        FileCache fileCache = new FileCache(file);
+        fileCache.writeRange(1000, generate(1000), 1000);
+        fileCache.close();
+
+        File rangeFile = new File(file.getParentFile(), getTempFile(file).getName() + ".range");
+        assertThat(rangeFile).doesNotExist();
+    }
+
+    @Test
+    public void testCorruptedChunkIsRepaired() throws Exception {
+        byte[] data = generate(200000);
+        File file = newCacheFile();
+        saveAndCompleteCache(new UnlimitedDiskUsage(), data, file);
+        RandomAccessFile corruptedFile = new RandomAccessFile(file, "rw");
+        corruptedFile.seek(70000);
+        corruptedFile.write(~data[70000]);
+        corruptedFile.close();
+
+        FileCache fileCache = new FileCache(file);
+        byte[] readData = new byte[10000];
+        fileCache.read(readData, 0, readData.length);
+        assertThat(readData).isEqualTo(Arrays.copyOfRange(data, 0, 10000));
+        try {
+            fileCache.read(readData, 65000, readData.length);
+            Assert.fail("Corrupted chunk must be detected");
+        } catch (CorruptedCacheException e) {
+            assertThat(e.getOffset()).isEqualTo(65536);
+            assertThat(e.getLength()).isEqualTo(65536);
+        }
+
+        for (int offset = 65536; offset < 131072; offset += 8192) {
+            fileCache.repair(offset, Arrays.copyOfRange(data, offset, offset + 8192), 8192);
+        }
+        fileCache.completeRepair(65536, 65536);
+        fileCache.read(readData, 65000, readData.length);
+        assertThat(readData).isEqualTo(Arrays.copyOfRange(data, 65000, 75000));
+        assertThat(getFileContent(file)).isEqualTo(data);
+    }
+
+    @Test
+    public void testTruncatedCompletedFileIsLoadedAgain() throws Exception {
+        byte[] data = generate(200000);
+        File file = newCacheFile();
+        saveAndCompleteCache(new UnlimitedDiskUsage(), data, file);
+        RandomAccessFile truncatedFile = new RandomAccessFile(file, "rw");
+        truncatedFile.setLength(150000);
+        truncatedFile.close();
+
+        FileCache fileCache = new FileCache(file);
+        assertThat(fileCache.isCompleted()).isFalse();
+        assertThat(fileCache.available()).isEqualTo(131072);   // only full chunks are kept
+        fileCache.append(Arrays.copyOfRange(data, 131072, data.length), data.length - 131072);
+        fileCache.complete();
+        fileCache.close();
+
+        assertThat(getFileContent(file)).isEqualTo(data);
+        assertThat(new FileCache(file).isCompleted()).isTrue();
+    }
+
+    @Test
+    public void testNotCompletedCacheIsContinued() throws Exception {
+        byte[] data = generate(200000);
+        File file = newCacheFile();
+        FileCache fileCache = new FileCache(file);
+        fileCache.append(data, 100000);
+        fileCache.close();
+
+        fileCache = new FileCache(file);
+        fileCache.append(Arrays.copyOfRange(data, 100000, data.length), data.length - 100000);
+        fileCache.complete();
+        fileCache.close();
+
+        byte[] readData = new byte[data.length];
+        new FileCache(file).read(readData, 0, readData.length);    // all chunks are verified
+        assertThat(readData).isEqualTo(data);
+    }
+
+    @Test
+    public void testClearCache() throws Exception {
+        File file = newCacheFile();
+        FileCache fileCache = new FileCache(file);
+        fileCache.append(generate(100000), 100000);
+        fileCache.clear();
+        assertThat(fileCache.available()).isEqualTo(0);
+
+        byte[] data = generate(100000);
+        fileCache.append(data, data.length);
+        fileCache.complete();
+        fileCache.close();
+        byte[] readData = new byte[data.length];
+        new FileCache(file).read(readData, 0, readData.length);
+        assertThat(readData).isEqualTo(data);
+    }
+
+    @Test
+    public void testClearCompletedCache() throws Exception {
+        File file = newCacheFile();
+        saveAndCompleteCache(new UnlimitedDiskUsage(), generate(100000), file);
+        FileCache fileCache = new FileCache(file);
+        fileCache.clear();
+        assertThat(fileCache.isCompleted()).isFalse();
+        assertThat(fileCache.available()).isEqualTo(0);
+        assertThat(file.exists()).isFalse();
+
+        byte[] data = generate(150000);
+        fileCache.append(data, data.length);
+        fileCache.complete();
+        fileCache.close();
+        byte[] readData = new byte[data.length];
+        new FileCache(file).read(readData, 0, readData.length);
+        assertThat(readData).isEqualTo(data);
+    }
+
+    @Test
+    public void testEncryptedCache() throws Exception {
+        byte[] key = generate(16);
+        byte[] data = generate(30000);
+        byte[] appended = Arrays.copyOf(data, data.length);
+        File file = newCacheFile();
+        FileCache fileCache = new EncryptedFileCache(file, new UnlimitedDiskUsage(), key);
+        fileCache.append(appended, 10000);
+        fileCache.writeRange(15000, Arrays.copyOfRange(data, 15000, 30000), 15000);
+        fileCache.append(Arrays.copyOfRange(data, 10000, 16000), 6000);
+        fileCache.complete();
+        assertThat(appended).isEqualTo(data);
+        assertThat(getFileContent(file)).hasSize(30000);
+        assertThat(Arrays.equals(getFileContent(file), data)).isFalse();
+
+        byte[] readData = new byte[10000];
+        fileCache.read(readData, 12345, readData.length);
+        assertThat(readData).isEqualTo(Arrays.copyOfRange(data, 12345, 22345));
+        fileCache.close();
+
+        FileCache reopenedCache = new EncryptedFileCache(file, new UnlimitedDiskUsage(), key);
+        byte[] reopenedData = new byte[30000];
+        reopenedCache.read(reopenedData, 0, reopenedData.length);
+        assertThat(reopenedData).isEqualTo(data);
+    }
+
+    @Test
+    public void testEncryptedCacheRenewsNonceForNewContent() throws Exception {
+        byte[] key = generate(16);
+        byte[] data = generate(20000);
+        File file = newCacheFile();
+        FileCache fileCache = new EncryptedFileCache(file, new UnlimitedDiskUsage(), key);
+        fileCache.append(data, data.length);
+        byte[] encrypted = getFileContent(getTempFile(file));
+        fileCache.clear();
+        fileCache.append(data, data.length);
+        byte[] encryptedAfterClearing = getFileContent(getTempFile(file));
+        fileCache.complete();
+        fileCache.close();
+        assertThat(Arrays.equals(encryptedAfterClearing, encrypted)).isFalse();
+
+        FileCache reopenedCache = new EncryptedFileCache(file, new UnlimitedDiskUsage(), key);
+        byte[] readData = new byte[data.length];
+        reopenedCache.read(readData, 0, readData.length);
+        reopenedCache.close();
+        assertThat(readData).isEqualTo(data);
+
+        assertThat(file.delete()).isTrue();     // file is evicted and cached again
+        FileCache recreatedCache = new EncryptedFileCache(file, new UnlimitedDiskUsage(), key);
+        recreatedCache.append(data, data.length);
+        recreatedCache.close();
+        assertThat(Arrays.equals(getFileContent(getTempFile(file)), encryptedAfterClearing)).isFalse();
+    }
+
+    @Test(expected = ProxyCacheException.class)
+    public void testEncryptedCacheWithInvalidKey() throws Exception {
+        new EncryptedFileCache(newCacheFile(), new UnlimitedDiskUsage(), generate(10));
+        Assert.fail("Key must have 16, 24 or 32 bytes");
+    }
+
     private void saveAndCompleteCache(DiskUsage diskUsage, byte[] data, File... files) throws ProxyCacheException, IOException, InterruptedException {
         for (File file : files) {
             FileCache fileCache = new FileCache(file, diskUsage);
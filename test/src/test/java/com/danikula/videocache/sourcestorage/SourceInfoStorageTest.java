@@ -64,6 +64,34 @@ public class SourceInfoStorageTest extends BaseTest {
         assertThat(sourceInfo.mime).isEqualTo("video/mp4");
     }
 
+    @Test
+    public void testSavingRedirect() throws Exception {
+        String url = ":-)";
+        storage.put(url, new SourceInfo(url, 42, "text/plain", ":-D", 100500));
+
+        SourceInfo sourceInfo = storage.get(url);
+        assertThat(sourceInfo.redirectUrl).isEqualTo(":-D");
+        assertThat(sourceInfo.redirectExpirationTime).isEqualTo(100500);
+    }
+
+    @Test
+    public void testSavingMd5() throws Exception {
+        String url = ":-)";
+        storage.put(url, new SourceInfo(url, 42, "text/plain", null, 0, "9e107d9d372bb6826bd81d3542a419d6"));
+
+        SourceInfo sourceInfo = storage.get(url);
+        assertThat(sourceInfo.md5).isEqualTo("9e107d9d372bb6826bd81d3542a419d6");
+    }
+
+    @Test
+    public void testSavingValidator() throws Exception {
+        String url = ":-)";
+        storage.put(url, new SourceInfo(url, 42, "text/plain", null, 0, null, "\"abc\""));
+
+        SourceInfo sourceInfo = storage.get(url);
+        assertThat(sourceInfo.validator).isEqualTo("\"abc\"");
+    }
+
     @Test(expected = NullPointerException.class)
     public void testNpeForGetting() throws Exception {
         storage.get(null);
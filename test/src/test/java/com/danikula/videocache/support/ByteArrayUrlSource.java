@@ -0,0 +1,55 @@
+package com.danikula.videocache.support;
+
+import com.danikula.videocache.ByteArraySource;
+import com.danikula.videocache.ProxyCacheException;
+import com.danikula.videocache.UrlSource;
+
+/**
+ * Memory based {@link UrlSource} for testing custom sources.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class ByteArrayUrlSource extends ByteArraySource implements UrlSource {
+
+    private final String url;
+    private final byte[] data;
+    private final String mime;
+    private final long connectTimeMs;
+
+    public ByteArrayUrlSource(String url, byte[] data, String mime) {
+        this(url, data, mime, 0);
+    }
+
+    public ByteArrayUrlSource(String url, byte[] data, String mime, long connectTimeMs) {
+        super(data);
+        this.url = url;
+        this.data = data;
+        this.mime = mime;
+        this.connectTimeMs = connectTimeMs;
+    }
+
+    @Override
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public String getMime() throws ProxyCacheException {
+        return mime;
+    }
+
+    @Override
+    public String getMd5() {
+        return null;
+    }
+
+    @Override
+    public long getConnectTimeMs() {
+        return connectTimeMs;
+    }
+
+    @Override
+    public UrlSource newSource() {
+        return new ByteArrayUrlSource(url, data, mime, connectTimeMs);
+    }
+}
@@ -0,0 +1,361 @@
+package com.danikula.videocache.support;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process http server that serves files from local folder (by default repository's {@code files} folder).
+ * Allows to test and measure proxy without network: it emulates latency, limited bandwidth, redirects,
+ * mid-stream disconnects and responses without {@code Content-Length}. Files are served with {@code ETag}
+ * and {@code If-Range} requests for changed files are answered with whole file.
+ * <p>
+ * Typical usage:
+ * <pre><code>
+ * FakeOriginServer origin = new FakeOriginServer.Builder()
+ *      .latency(100)
+ *      .bandwidth(64 * 1024)
+ *      .start();
+ * String url = origin.url("phones.jpg");           // or origin.redirectUrl("phones.jpg", 3)
+ * ...
+ * origin.shutdown();
+ * </code></pre>
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class FakeOriginServer {
+
+    private static final Pattern REQUEST_LINE_PATTERN = Pattern.compile("GET /(\\S*) HTTP");
+    private static final Pattern RANGE_HEADER_PATTERN = Pattern.compile("[Rr]ange: ?bytes=(\\d+)-(\\d*)");
+    private static final Pattern IF_RANGE_HEADER_PATTERN = Pattern.compile("[Ii]f-[Rr]ange: ?(.+)");
+    private static final Pattern REDIRECT_PATTERN = Pattern.compile("redirect/(\\d+)/(.*)");
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    private final File root;
+    private final long latencyMs;
+    private final long bandwidth;
+    private final long disconnectAfter;
+    private final boolean contentLength;
+    private final boolean rangeSupport;
+    private final String redirectCacheControl;
+    private final String md5Digest;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requestsCount = new AtomicInteger();
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    private FakeOriginServer(Builder builder) throws IOException {
+        this.root = builder.root;
+        this.latencyMs = builder.latencyMs;
+        this.bandwidth = builder.bandwidth;
+        this.disconnectAfter = builder.disconnectAfter;
+        this.contentLength = builder.contentLength;
+        this.rangeSupport = builder.rangeSupport;
+        this.redirectCacheControl = builder.redirectCacheControl;
+        this.md5Digest = builder.md5Digest;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    public String url(String fileName) {
+        return String.format(Locale.US, "http://127.0.0.1:%d/%s", serverSocket.getLocalPort(), fileName);
+    }
+
+    public String redirectUrl(String fileName, int redirects) {
+        return url("redirect/" + redirects + "/" + fileName);
+    }
+
+    public File file(String fileName) {
+        return new File(root, fileName);
+    }
+
+    public int getRequestsCount() {
+        return requestsCount.get();
+    }
+
+    /**
+     * Returns count of content bytes sent by origin, i.e. origin egress.
+     *
+     * @return count of sent bytes.
+     */
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    public void shutdown() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        executor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        try {
+            while (!serverSocket.isClosed()) {
+                final Socket socket = serverSocket.accept();
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // server socket is closed
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            String path = null;
+            long rangeStart = -1;
+            long rangeEnd = -1;
+            String ifRange = null;
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                Matcher requestLineMatcher = REQUEST_LINE_PATTERN.matcher(line);
+                if (requestLineMatcher.find()) {
+                    path = requestLineMatcher.group(1);
+                }
+                Matcher rangeMatcher = RANGE_HEADER_PATTERN.matcher(line);
+                if (rangeMatcher.find()) {
+                    rangeStart = Long.parseLong(rangeMatcher.group(1));
+                    rangeEnd = rangeMatcher.group(2).isEmpty() ? -1 : Long.parseLong(rangeMatcher.group(2));
+                }
+                Matcher ifRangeMatcher = IF_RANGE_HEADER_PATTERN.matcher(line);
+                if (ifRangeMatcher.find()) {
+                    ifRange = ifRangeMatcher.group(1).trim();
+                }
+            }
+            requestsCount.incrementAndGet();
+            sleep(latencyMs);
+            OutputStream out = socket.getOutputStream();
+            if (path == null) {
+                writeHeaders(out, "400 BAD REQUEST", "Content-Length: 0\r\n");
+                return;
+            }
+            Matcher redirectMatcher = REDIRECT_PATTERN.matcher(path);
+            if (redirectMatcher.matches()) {
+                int redirects = Integer.parseInt(redirectMatcher.group(1));
+                String fileName = redirectMatcher.group(2);
+                String location = redirects > 1 ? redirectUrl(fileName, redirects - 1) : url(fileName);
+                String cacheControl = redirectCacheControl == null ? "" : "Cache-Control: " + redirectCacheControl + "\r\n";
+                writeHeaders(out, "302 FOUND", "Location: " + location + "\r\n" + cacheControl + "Content-Length: 0\r\n");
+                return;
+            }
+            File file = file(path);
+            if (!file.isFile()) {
+                writeHeaders(out, "404 NOT FOUND", "Content-Length: 0\r\n");
+                return;
+            }
+            boolean rangeValid = ifRange == null || ifRange.equals(getETag(file));  // changed file is served from start
+            serveFile(socket, out, file, rangeSupport && rangeValid ? rangeStart : -1, rangeEnd);
+        } catch (SocketException e) {
+            // client closed connection
+        } catch (IOException e) {
+            throw new IllegalStateException("Error serving request", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private void serveFile(Socket socket, OutputStream out, File file, long rangeStart, long rangeEnd) throws IOException {
+        long length = file.length();
+        boolean partial = rangeStart >= 0;
+        long start = partial ? rangeStart : 0;
+        long end = partial && rangeEnd >= 0 ? Math.min(rangeEnd, length - 1) : length - 1;
+        long bodyLength = end - start + 1;
+        StringBuilder headers = new StringBuilder()
+                .append("Content-Type: ").append(getMime(file.getName())).append("\r\n")
+                .append("Accept-Ranges: ").append(rangeSupport ? "bytes" : "none").append("\r\n")
+                .append("ETag: ").append(getETag(file)).append("\r\n");
+        if (md5Digest != null) {
+            headers.append("Digest: md5=").append(md5Digest).append("\r\n");
+        }
+        if (contentLength) {
+            headers.append("Content-Length: ").append(bodyLength).append("\r\n");
+        }
+        if (partial) {
+            headers.append(String.format(Locale.US, "Content-Range: bytes %d-%d/%d\r\n", start, end, length));
+        }
+        writeHeaders(out, partial ? "206 PARTIAL CONTENT" : "200 OK", headers.toString());
+
+        RandomAccessFile data = new RandomAccessFile(file, "r");
+        try {
+            data.seek(start);
+            byte[] buffer = new byte[CHUNK_SIZE];
+            long startTime = System.nanoTime();
+            long sent = 0;
+            while (sent < bodyLength) {
+                int toSend = (int) Math.min(buffer.length, bodyLength - sent);
+                if (disconnectAfter >= 0) {
+                    toSend = (int) Math.min(toSend, disconnectAfter - sent);
+                    if (toSend <= 0) {
+                        out.flush();
+                        socket.setSoLinger(true, 0);  // reset connection
+                        return;
+                    }
+                }
+                data.readFully(buffer, 0, toSend);
+                out.write(buffer, 0, toSend);
+                sent += toSend;
+                bytesServed.addAndGet(toSend);
+                throttle(sent, startTime);
+            }
+            out.flush();
+        } finally {
+            data.close();
+        }
+    }
+
+    private void throttle(long sent, long startTime) {
+        if (bandwidth > 0) {
+            long expectedTimeMs = sent * 1000 / bandwidth;
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            sleep(expectedTimeMs - elapsedMs);
+        }
+    }
+
+    private void writeHeaders(OutputStream out, String status, String headers) throws IOException {
+        String response = "HTTP/1.1 " + status + "\r\n" + headers + "Connection: close\r\n\r\n";
+        out.write(response.getBytes("UTF-8"));
+        out.flush();
+    }
+
+    private String getETag(File file) {
+        return "\"" + file.length() + "-" + file.lastModified() + "\"";
+    }
+
+    private String getMime(String fileName) {
+        String name = fileName.toLowerCase(Locale.US);
+        return name.endsWith(".jpg") ? "image/jpeg"
+                : name.endsWith(".mp4") ? "video/mp4"
+                : name.endsWith(".txt") ? "text/plain"
+                : "application/octet-stream";
+    }
+
+    private void sleep(long timeMs) {
+        if (timeMs > 0) {
+            try {
+                Thread.sleep(timeMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link FakeOriginServer}.
+     */
+    public static final class Builder {
+
+        private File root = findFilesFolder();
+        private long latencyMs;
+        private long bandwidth;
+        private long disconnectAfter = -1;
+        private boolean contentLength = true;
+        private boolean rangeSupport = true;
+        private String redirectCacheControl;
+        private String md5Digest;
+
+        /**
+         * Overrides folder with files to be served, by default it is repository's {@code files} folder.
+         */
+        public Builder root(File root) {
+            this.root = root;
+            return this;
+        }
+
+        /**
+         * Sets delay before sending response headers.
+         */
+        public Builder latency(long latencyMs) {
+            this.latencyMs = latencyMs;
+            return this;
+        }
+
+        /**
+         * Limits speed of sending content for every connection, bytes per second.
+         */
+        public Builder bandwidth(long bytesPerSecond) {
+            this.bandwidth = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Resets connection after sending passed count of content bytes.
+         */
+        public Builder disconnectAfter(long bytes) {
+            this.disconnectAfter = bytes;
+            return this;
+        }
+
+        /**
+         * Disables {@code Content-Length} header in responses.
+         */
+        public Builder noContentLength() {
+            this.contentLength = false;
+            return this;
+        }
+
+        /**
+         * Makes server ignore {@code Range} header and always respond with full content.
+         */
+        public Builder noRangeSupport() {
+            this.rangeSupport = false;
+            return this;
+        }
+
+        /**
+         * Sets {@code Cache-Control} header of redirect responses, by default redirects are sent without it.
+         */
+        public Builder redirectCacheControl(String cacheControl) {
+            this.redirectCacheControl = cacheControl;
+            return this;
+        }
+
+        /**
+         * Sets base64 MD5 sent in {@code Digest} header of file responses, by default digest isn't sent.
+         */
+        public Builder md5Digest(String base64Md5) {
+            this.md5Digest = base64Md5;
+            return this;
+        }
+
+        public FakeOriginServer start() throws IOException {
+            return new FakeOriginServer(this);
+        }
+
+        private static File findFilesFolder() {
+            File moduleRelative = new File("../files");
+            return moduleRelative.isDirectory() ? moduleRelative : new File("files");
+        }
+    }
+}
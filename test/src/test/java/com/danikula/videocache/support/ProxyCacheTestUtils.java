@@ -5,12 +5,12 @@ import com.danikula.videocache.ByteArraySource;
 import com.danikula.videocache.HttpProxyCacheServer;
 import com.danikula.videocache.HttpUrlSource;
 import com.danikula.videocache.ProxyCacheException;
+import com.danikula.videocache.ProxyCacheServer;
 import com.danikula.videocache.Source;
 import com.danikula.videocache.sourcestorage.SourceInfoStorage;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 
-import org.apache.tools.ant.util.ReflectUtil;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -20,6 +20,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
@@ -156,8 +157,14 @@ public class ProxyCacheTestUtils {
         return Integer.parseInt(portAsString);
     }
 
-    public static int getPortWithoutPing(HttpProxyCacheServer server) {
-        return (Integer) ReflectUtil.getField(server, "port");
+    public static int getPortWithoutPing(ProxyCacheServer server) {
+        try {
+            Field portField = ProxyCacheServer.class.getDeclaredField("port");
+            portField.setAccessible(true);
+            return (Integer) portField.get(server);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException("Error reading proxy's port", e);
+        }
     }
 
     public static void installExternalSystemProxy() {
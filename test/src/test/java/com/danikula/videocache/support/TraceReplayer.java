@@ -0,0 +1,253 @@
+package com.danikula.videocache.support;
+
+import com.danikula.videocache.HttpProxyCacheServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays trace of player's requests against {@link HttpProxyCacheServer} and measures how proxy handles it.
+ * <p>
+ * Trace is a text file, every line is an event {@code time,url,offset,duration}:
+ * <ul>
+ * <li>{@code time} - time in ms from start of replaying when request should be made;</li>
+ * <li>{@code url} - original url, {@code origin:name} is replaced by url of file {@code name} served by {@link FakeOriginServer};</li>
+ * <li>{@code offset} - offset for {@code Range} header, negative value means not partial request;</li>
+ * <li>{@code duration} - time in ms client reads response before abandoning it, {@code 0} means read whole response.</li>
+ * </ul>
+ * Empty lines and lines started with {@code #} are ignored.
+ * <p>
+ * Latencies are counted from time event is scheduled to, so time spent waiting for free client is counted too.
+ *
+ * @author Alexey Danilov (danikula@gmail.com).
+ */
+public class TraceReplayer {
+
+    private static final String ORIGIN_PREFIX = "origin:";
+
+    private final HttpProxyCacheServer proxy;
+    private final int clientsCount;
+
+    public TraceReplayer(HttpProxyCacheServer proxy, int clientsCount) {
+        this.proxy = proxy;
+        this.clientsCount = clientsCount;
+    }
+
+    public static List<TraceEvent> parse(InputStream trace, FakeOriginServer origin) throws IOException {
+        return parse(new InputStreamReader(trace, "UTF-8"), origin);
+    }
+
+    public static List<TraceEvent> parse(Reader trace, FakeOriginServer origin) throws IOException {
+        BufferedReader reader = new BufferedReader(trace);
+        List<TraceEvent> events = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split(",");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Invalid trace line `" + line + "`: expected `time,url,offset,duration`");
+            }
+            String url = parts[1].trim();
+            if (url.startsWith(ORIGIN_PREFIX)) {
+                url = origin.url(url.substring(ORIGIN_PREFIX.length()));
+            }
+            long time = Long.parseLong(parts[0].trim());
+            long offset = Long.parseLong(parts[2].trim());
+            long duration = Long.parseLong(parts[3].trim());
+            events.add(new TraceEvent(time, url, offset, duration));
+        }
+        return events;
+    }
+
+    public Report replay(List<TraceEvent> events) throws InterruptedException {
+        ExecutorService clients = Executors.newFixedThreadPool(clientsCount);
+        List<Future<EventResult>> futures = new ArrayList<>();
+        long startTime = System.currentTimeMillis();
+        try {
+            for (TraceEvent event : events) {
+                long scheduledTime = startTime + event.time;
+                long delay = scheduledTime - System.currentTimeMillis();
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                futures.add(clients.submit(new EventCallable(event, scheduledTime)));
+            }
+            List<EventResult> results = new ArrayList<>();
+            for (Future<EventResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Error replaying event", e);
+                }
+            }
+            return new Report(results, System.currentTimeMillis() - startTime);
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private EventResult play(TraceEvent event, long scheduledTime) {
+        long firstByteTime = -1;
+        long bytes = 0;
+        try {
+            String proxyUrl = proxy.getProxyUrl(event.url);
+            URLConnection connection = new URL(proxyUrl).openConnection();
+            if (event.offset >= 0) {
+                connection.setRequestProperty("Range", "bytes=" + event.offset + "-");
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                if (event.offset > 0 && !(connection instanceof HttpURLConnection)) {
+                    in.skip(event.offset);   // cached file
+                }
+                byte[] buffer = new byte[8 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (firstByteTime < 0) {
+                        firstByteTime = System.currentTimeMillis();
+                    }
+                    bytes += read;
+                    boolean abandoned = event.duration > 0 && System.currentTimeMillis() - firstByteTime >= event.duration;
+                    if (abandoned) {
+                        break;
+                    }
+                }
+            } finally {
+                in.close();
+                if (connection instanceof HttpURLConnection) {
+                    ((HttpURLConnection) connection).disconnect();
+                }
+            }
+            long timeToFirstByte = firstByteTime < 0 ? -1 : firstByteTime - scheduledTime;
+            return new EventResult(timeToFirstByte, bytes, false);
+        } catch (IOException e) {
+            return new EventResult(-1, bytes, true);
+        }
+    }
+
+    /**
+     * Single request of trace.
+     */
+    public static final class TraceEvent {
+
+        public final long time;
+        public final String url;
+        public final long offset;
+        public final long duration;
+
+        public TraceEvent(long time, String url, long offset, long duration) {
+            this.time = time;
+            this.url = url;
+            this.offset = offset;
+            this.duration = duration;
+        }
+    }
+
+    private static final class EventResult {
+
+        final long timeToFirstByte;
+        final long bytes;
+        final boolean failed;
+
+        EventResult(long timeToFirstByte, long bytes, boolean failed) {
+            this.timeToFirstByte = timeToFirstByte;
+            this.bytes = bytes;
+            this.failed = failed;
+        }
+    }
+
+    /**
+     * Result of replaying trace.
+     */
+    public static final class Report {
+
+        public final int requests;
+        public final int errors;
+        public final long bytes;
+        public final long durationMs;
+        public final long throughput;
+        public final long timeToFirstByteP50;
+        public final long timeToFirstByteP90;
+        public final long timeToFirstByteP99;
+        public final long timeToFirstByteMax;
+
+        Report(List<EventResult> results, long durationMs) {
+            int errors = 0;
+            long bytes = 0;
+            List<Long> timesToFirstByte = new ArrayList<>();
+            for (EventResult result : results) {
+                errors += result.failed ? 1 : 0;
+                bytes += result.bytes;
+                if (result.timeToFirstByte >= 0) {
+                    timesToFirstByte.add(result.timeToFirstByte);
+                }
+            }
+            Collections.sort(timesToFirstByte);
+            this.requests = results.size();
+            this.errors = errors;
+            this.bytes = bytes;
+            this.durationMs = durationMs;
+            this.throughput = durationMs > 0 ? bytes * 1000 / durationMs : 0;
+            this.timeToFirstByteP50 = percentile(timesToFirstByte, 50);
+            this.timeToFirstByteP90 = percentile(timesToFirstByte, 90);
+            this.timeToFirstByteP99 = percentile(timesToFirstByte, 99);
+            this.timeToFirstByteMax = timesToFirstByte.isEmpty() ? -1 : timesToFirstByte.get(timesToFirstByte.size() - 1);
+        }
+
+        private long percentile(List<Long> sortedValues, int percentile) {
+            if (sortedValues.isEmpty()) {
+                return -1;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sortedValues.size()) - 1;
+            return sortedValues.get(Math.max(0, index));
+        }
+
+        /**
+         * Formats report as single line, origin bytes are passed separately because they are counted by origin.
+         *
+         * @param originBytes count of bytes sent by origin while replaying trace.
+         * @return human readable report.
+         */
+        public String format(long originBytes) {
+            return String.format(Locale.US,
+                    "requests: %d, errors: %d, read: %d bytes, origin: %d bytes, time: %d ms, throughput: %d bytes/s, " +
+                            "ttfb p50/p90/p99/max: %d/%d/%d/%d ms",
+                    requests, errors, bytes, originBytes, durationMs, throughput,
+                    timeToFirstByteP50, timeToFirstByteP90, timeToFirstByteP99, timeToFirstByteMax);
+        }
+    }
+
+    private final class EventCallable implements Callable<EventResult> {
+
+        private final TraceEvent event;
+        private final long scheduledTime;
+
+        EventCallable(TraceEvent event, long scheduledTime) {
+            this.event = event;
+            this.scheduledTime = scheduledTime;
+        }
+
+        @Override
+        public EventResult call() throws Exception {
+            return play(event, scheduledTime);
+        }
+    }
+}